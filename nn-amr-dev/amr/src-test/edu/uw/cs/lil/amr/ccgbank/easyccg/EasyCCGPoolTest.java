@@ -0,0 +1,126 @@
+package edu.uw.cs.lil.amr.ccgbank.easyccg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EasyCCGPoolTest {
+
+	@Test
+	public void testBorrowing() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		final EasyCCGPool<Object> pool = new EasyCCGPool<>(() -> {
+			created.incrementAndGet();
+			return new Object();
+		}, 2);
+
+		// Each call holds its object until all calls started, or until
+		// released by a call that finished.
+		final Set<Object> inUse = Collections
+				.newSetFromMap(new ConcurrentHashMap<>());
+		final Set<Object> used = Collections
+				.newSetFromMap(new ConcurrentHashMap<>());
+		final CountDownLatch started = new CountDownLatch(2);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 8; ++i) {
+				futures.add(executor.submit(() -> pool.apply(object -> {
+					Assert.assertTrue("Object used by two threads",
+							inUse.add(object));
+					used.add(object);
+					started.countDown();
+					try {
+						started.await(10, TimeUnit.SECONDS);
+						Thread.sleep(10);
+					} catch (final InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					inUse.remove(object);
+					return null;
+				})));
+			}
+			for (final Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Assert.assertEquals(2, created.get());
+		Assert.assertEquals(2, pool.numCreated());
+		Assert.assertEquals(2, used.size());
+	}
+
+	@Test
+	public void testFailedCreation() {
+		final AtomicInteger attempts = new AtomicInteger();
+		final EasyCCGPool<Object> pool = new EasyCCGPool<>(() -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IllegalStateException();
+			}
+			return new Object();
+		}, 1);
+
+		try {
+			pool.apply(object -> object);
+			Assert.fail("Expected the factory to fail");
+		} catch (final IllegalStateException e) {
+			// Expected.
+		}
+		Assert.assertEquals(0, pool.numCreated());
+
+		// The slot of the failed object is available, so this doesn't block.
+		final Object object = pool.apply(o -> o);
+		Assert.assertEquals(1, pool.numCreated());
+		Assert.assertSame(object, pool.apply(o -> o));
+		Assert.assertEquals(2, attempts.get());
+	}
+
+	@Test
+	public void testLruCache() {
+		final Map<String, Integer> cache = EasyCCGPool.createCache(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+
+		// Accessing "a" makes "b" the least recently used entry.
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+		Assert.assertEquals(2, cache.size());
+		Assert.assertFalse(cache.containsKey("b"));
+
+		cache.put("d", 4);
+		Assert.assertEquals(Arrays.asList("c", "d"),
+				new ArrayList<>(cache.keySet()));
+	}
+
+	@Test
+	public void testReuse() {
+		final AtomicInteger created = new AtomicInteger();
+		final EasyCCGPool<Object> pool = new EasyCCGPool<>(() -> {
+			created.incrementAndGet();
+			return new Object();
+		}, 4);
+
+		// Sequential calls re-use a single object.
+		final Object first = pool.apply(object -> object);
+		for (int i = 0; i < 5; ++i) {
+			Assert.assertSame(first, pool.apply(object -> object));
+		}
+		Assert.assertEquals(1, created.get());
+	}
+
+}
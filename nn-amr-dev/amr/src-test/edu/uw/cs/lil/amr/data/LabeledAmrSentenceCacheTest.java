@@ -0,0 +1,126 @@
+package edu.uw.cs.lil.amr.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.cs.nlp.spf.ccg.categories.ICategoryServices;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
+import edu.cornell.cs.nlp.spf.data.situated.sentence.SituatedSentence;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.uw.cs.lil.amr.ccgbank.IBankParser;
+import edu.uw.cs.lil.amr.ccgbank.ISuperTagger;
+
+public class LabeledAmrSentenceCacheTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static LabeledAmrSentence sentence(String id, String text) {
+		return new LabeledAmrSentence(
+				new SituatedSentence<AMRMeta>(new Sentence(text), null), null,
+				Collections.singletonMap("id", id),
+				(ICategoryServices<LogicalExpression>) null,
+				(ISuperTagger) null, (IBankParser) null);
+	}
+
+	@Test
+	public void testCorruptedLength() throws IOException {
+		for (final int length : new int[] { -1, Integer.MAX_VALUE }) {
+			final File file = folder.newFile();
+			final LabeledAmrSentenceCache cache = new LabeledAmrSentenceCache(
+					file, "test");
+			cache.append(this.records("a", "b"));
+			final long validLength = file.length();
+			cache.append(this.records("c"));
+
+			// Overwrite the length of the last record, after its key.
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.seek(validLength + 2 + "c".length());
+				raf.writeInt(length);
+			}
+
+			final Map<String, LabeledAmrSentence> loaded = cache
+					.load(this.keys("a", "b", "c"));
+			Assert.assertEquals(this.keys("a", "b"), loaded.keySet());
+
+			// The invalid record is dropped before appending.
+			cache.append(this.records("c"));
+			Assert.assertEquals(this.keys("a", "b", "c"),
+					cache.load(this.keys("a", "b", "c")).keySet());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File file = new File(folder.getRoot(), "cache.bin");
+		final LabeledAmrSentenceCache cache = new LabeledAmrSentenceCache(file,
+				"test");
+		Assert.assertTrue(cache.load(this.keys("a")).isEmpty());
+
+		cache.append(this.records("a", "b"));
+		cache.append(this.records("c"));
+
+		// Only requested records are read.
+		final Map<String, LabeledAmrSentence> loaded = new LabeledAmrSentenceCache(
+				file, "test").load(this.keys("a", "c", "d"));
+		Assert.assertEquals(this.keys("a", "c"), loaded.keySet());
+		for (final String key : loaded.keySet()) {
+			Assert.assertEquals(key, loaded.get(key).getProperties().get("id"));
+			Assert.assertEquals(sentence(key, "sentence " + key).getSample()
+					.getTokens(), loaded.get(key).getSample().getTokens());
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		final File file = folder.newFile();
+		final LabeledAmrSentenceCache cache = new LabeledAmrSentenceCache(file,
+				"test");
+		cache.append(this.records("a", "b"));
+
+		// Cut the last record short.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 10);
+		}
+		Assert.assertEquals(this.keys("a"),
+				cache.load(this.keys("a", "b")).keySet());
+
+		// The incomplete record is dropped before appending.
+		cache.append(this.records("b", "c"));
+		Assert.assertEquals(this.keys("a", "b", "c"),
+				cache.load(this.keys("a", "b", "c")).keySet());
+
+		// A file cut inside the header is replaced.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(2);
+		}
+		Assert.assertTrue(cache.load(this.keys("a")).isEmpty());
+		cache.append(this.records("a"));
+		Assert.assertEquals(this.keys("a"), cache.load(this.keys("a")).keySet());
+	}
+
+	private Set<String> keys(String... keys) {
+		return new HashSet<String>(Arrays.asList(keys));
+	}
+
+	private Map<String, LabeledAmrSentence> records(String... keys) {
+		final Map<String, LabeledAmrSentence> records = new LinkedHashMap<String, LabeledAmrSentence>();
+		for (final String key : keys) {
+			records.put(key, sentence(key, "sentence " + key));
+		}
+		return records;
+	}
+
+}
@@ -0,0 +1,73 @@
+package edu.uw.cs.lil.amr.learn.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.base.token.TokenSeq;
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
+import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
+import edu.cornell.cs.nlp.spf.ccg.lexicon.LexicalEntry;
+import edu.cornell.cs.nlp.spf.ccg.lexicon.Lexicon;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+public class AbstractVanillaBatchLearnerTest {
+
+	private static final int	NUM_ITEMS	= 20;
+
+	@Test
+	public void testParallelInduction() {
+		final List<String> data = new ArrayList<>();
+		for (int i = 0; i < NUM_ITEMS; ++i) {
+			data.add("w" + i);
+		}
+
+		// Later items finish first, and every fifth item has no lexicon.
+		final BiFunction<String, Integer, ILexiconImmutable<LogicalExpression>> induce = (
+				word, itemNumber) -> {
+			Assert.assertEquals(data.get(itemNumber), word);
+			try {
+				Thread.sleep(NUM_ITEMS - itemNumber);
+			} catch (final InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			if (itemNumber % 5 == 0) {
+				return null;
+			}
+			return new Lexicon<>(Collections
+					.singleton(new LexicalEntry<>(TokenSeq.of(word),
+							Category.<LogicalExpression> create(Syntax.NP),
+							false, Collections.emptyMap())));
+		};
+
+		final List<List<LexicalEntry<LogicalExpression>>> sequential = entries(
+				AbstractVanillaBatchLearner.induceLexicons(data, null, induce));
+		final List<List<LexicalEntry<LogicalExpression>>> parallel = entries(
+				AbstractVanillaBatchLearner.induceLexicons(data, 3, induce));
+
+		Assert.assertEquals(sequential, parallel);
+		Assert.assertEquals(16, parallel.size());
+		int index = 0;
+		for (int i = 0; i < NUM_ITEMS; ++i) {
+			if (i % 5 != 0) {
+				Assert.assertEquals(TokenSeq.of(data.get(i)),
+						parallel.get(index++).get(0).getTokens());
+			}
+		}
+	}
+
+	private static List<List<LexicalEntry<LogicalExpression>>> entries(
+			List<ILexiconImmutable<LogicalExpression>> lexicons) {
+		final List<List<LexicalEntry<LogicalExpression>>> entries = new ArrayList<>();
+		for (final ILexiconImmutable<LogicalExpression> lexicon : lexicons) {
+			entries.add(new ArrayList<>(lexicon.toCollection()));
+		}
+		return entries;
+	}
+
+}
@@ -0,0 +1,152 @@
+package edu.uw.cs.lil.amr.learn.genlex;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.IUnaryReversibleParseRule;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.ParseRuleResult;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.SentenceSpan;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.UnaryRuleName;
+
+public class ReverseRuleCacheTest {
+
+	private final Category<LogicalExpression>	result	= Category
+			.create(Syntax.NP);
+
+	@Test
+	public void testCapacity() {
+		final CountingRule rule = new CountingRule();
+		final ReverseRuleCache cache = new ReverseRuleCache(2);
+		cache.reverseApply(rule, result, new SentenceSpan(0, 1, 6));
+		cache.reverseApply(rule, result, new SentenceSpan(2, 3, 6));
+		Assert.assertEquals(2, cache.size());
+
+		// The cache is full, so it's cleared before adding the third entry.
+		final SentenceSpan end = new SentenceSpan(4, 5, 6);
+		Assert.assertEquals(rule.reverseApply(result, end),
+				cache.reverseApply(rule, result, end));
+		Assert.assertEquals(1, cache.size());
+
+		// Cleared entries are computed again.
+		rule.calls = 0;
+		cache.reverseApply(rule, result, new SentenceSpan(0, 1, 6));
+		Assert.assertEquals(1, rule.calls);
+		Assert.assertEquals(2, cache.size());
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSamePosition() {
+		final CountingRule rule = new CountingRule();
+		final ReverseRuleCache cache = new ReverseRuleCache();
+
+		// Spans inside sentences of different lengths have the same
+		// properties, so the rule is called once.
+		final SentenceSpan[] spans = new SentenceSpan[] {
+				new SentenceSpan(2, 3, 6), new SentenceSpan(2, 3, 8),
+				new SentenceSpan(1, 2, 6), new SentenceSpan(3, 4, 10) };
+		for (final SentenceSpan span : spans) {
+			final Set<Category<LogicalExpression>> cached = cache
+					.reverseApply(rule, result, span);
+			Assert.assertEquals(rule.reverseApply(result, span), cached);
+		}
+		rule.calls = 0;
+		for (final SentenceSpan span : spans) {
+			cache.reverseApply(rule, result, span);
+		}
+		Assert.assertEquals(0, rule.calls);
+		Assert.assertEquals(1, cache.size());
+
+		// A different result is a different entry.
+		final Category<LogicalExpression> other = Category.create(Syntax.N);
+		Assert.assertEquals(rule.reverseApply(other, spans[0]),
+				cache.reverseApply(rule, other, spans[1]));
+		Assert.assertEquals(2, cache.size());
+
+		try {
+			cache.reverseApply(rule, result, spans[0]).clear();
+			Assert.fail("Cached sets can't be modified");
+		} catch (final UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testSpanProperties() {
+		final CountingRule rule = new CountingRule();
+		final ReverseRuleCache cache = new ReverseRuleCache();
+
+		// Spans of the same length that differ in their position relative to
+		// the sentence boundaries, and spans of different lengths.
+		final SentenceSpan[] spans = new SentenceSpan[] {
+				new SentenceSpan(2, 3, 6), new SentenceSpan(0, 1, 6),
+				new SentenceSpan(4, 5, 6), new SentenceSpan(0, 1, 2),
+				new SentenceSpan(2, 4, 6) };
+		final Set<Set<Category<LogicalExpression>>> results = new HashSet<>();
+		for (final SentenceSpan span : spans) {
+			final Set<Category<LogicalExpression>> cached = cache
+					.reverseApply(rule, result, span);
+			Assert.assertEquals(rule.reverseApply(result, span), cached);
+			results.add(cached);
+		}
+		Assert.assertEquals(spans.length, results.size());
+		Assert.assertEquals(spans.length, cache.size());
+	}
+
+	/**
+	 * Unary rule that returns the span properties it's given, and counts its
+	 * calls.
+	 */
+	private static class CountingRule
+			implements IUnaryReversibleParseRule<LogicalExpression> {
+		private static final long	serialVersionUID	= 2475402327013806352L;
+		private int					calls				= 0;
+
+		@Override
+		public ParseRuleResult<LogicalExpression> apply(
+				Category<LogicalExpression> category, SentenceSpan span) {
+			return null;
+		}
+
+		@Override
+		public UnaryRuleName getName() {
+			return UnaryRuleName.create("counting");
+		}
+
+		@Override
+		public boolean isValidArgument(Category<LogicalExpression> category,
+				SentenceSpan span) {
+			return true;
+		}
+
+		@Override
+		public Set<Category<LogicalExpression>> reverseApply(
+				Category<LogicalExpression> result, SentenceSpan span) {
+			++calls;
+			final Set<Category<LogicalExpression>> categories = new HashSet<>();
+			categories.add(result);
+			if (span.isStart()) {
+				categories.add(Category.create(Syntax.ADJ));
+			}
+			if (span.isEnd()) {
+				categories.add(Category.create(Syntax.AP));
+			}
+			if (span.isCompleteSentence()) {
+				categories.add(Category.create(Syntax.C));
+			}
+			if (span.length() > 2) {
+				categories.add(Category.create(Syntax.PP));
+			}
+			return categories;
+		}
+	}
+
+}
@@ -294,4 +294,55 @@ public class LoopyBPTest {
 
 		Assert.assertEquals(expected, maxExpressions);
 	}
+
+	@Test
+	public void testResidual() {
+		// "John ate his banana"
+		final LogicalExpression exp = TestServices.getCategoryServices()
+				.readSemantics(
+						"(a:<id,<<e,t>,e>> !1 (lambda $0:e (and:<t*,t> (eat-01:<e,t> $0) "
+								+ "(arg0:<e,<e,t>> $0 (a:<id,<<e,t>,e>> !3 (lambda $2:e (and:<t*,t> (person:<e,t> $2) (name:<e,<txt,t>> $2 john:txt))))) "
+								+ "(arg1:<e,<e,t>> $0 (a:<id,<<e,t>,e>> !2 (lambda $1:e (and:<t*,t> (banana:<e,t> $1) (poss:<e,<e,t>> $1 (ref:<id,e> na:id)))))))))");
+		final AssignmentGeneratorFactory factory = new AssignmentGeneratorFactory();
+		final FactorGraph graph = CreateFactorGraph.of(exp, factory.create(exp),
+				false);
+
+		final JointModel<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model = new JointModel.Builder<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression>()
+				.build();
+		model.getTheta().set("RELPREF", "banana", "poss", "person", 1.1);
+		model.getTheta().set("RELPREF", "banana", "poss", "eat-01", 1);
+		final Sentence sentence = new Sentence("John ate his banana");
+		final AMRMeta meta = new AMRMeta(sentence);
+		final IJointDataItemModel<LogicalExpression, LogicalExpression> dim = model
+				.createJointDataItemModel(
+						new SituatedSentence<AMRMeta>(sentence, meta));
+
+		new SurfaceFormFeature().createFactorJobs(graph, meta, dim)
+				.parallelStream().forEach(r -> r.run());
+		new RelationSelectionalPreference().createFactorJobs(graph, meta, dim)
+				.parallelStream().forEach(r -> r.run());
+		new UnaryBiasFeatures().createFactorJobs(graph, meta, dim)
+				.parallelStream().forEach(r -> r.run());
+
+		final LoopyBP.Stats flooding = LoopyBP.of(graph, 0.000001, 1000, null,
+				LoopyBP.Schedule.FLOODING);
+		final List<ProbEvaluationResult> floodingMaxEvals = GetMaxEvaluations
+				.of(graph, 100, dim, false);
+
+		final LoopyBP.Stats residual = LoopyBP.of(graph, 0.000001, 1000, null,
+				LoopyBP.Schedule.RESIDUAL);
+		final List<ProbEvaluationResult> residualMaxEvals = GetMaxEvaluations
+				.of(graph, 100, dim, false);
+
+		Assert.assertTrue(flooding.isConverged());
+		Assert.assertTrue(residual.isConverged());
+		Assert.assertTrue(residual.getMessagesUpdated() < flooding
+				.getMessagesUpdated());
+		Assert.assertEquals(1, residualMaxEvals.size());
+		Assert.assertEquals(floodingMaxEvals.get(0).getResult(),
+				residualMaxEvals.get(0).getResult());
+		Assert.assertEquals(
+				Math.exp(floodingMaxEvals.get(0).getLogProbability()),
+				Math.exp(residualMaxEvals.get(0).getLogProbability()), 0.0001);
+	}
 }
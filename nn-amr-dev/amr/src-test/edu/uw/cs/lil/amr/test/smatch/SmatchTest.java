@@ -0,0 +1,75 @@
+package edu.uw.cs.lil.amr.test.smatch;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+import edu.uw.cs.lil.amr.test.smatch.Smatch.MatchCount;
+
+public class SmatchTest {
+
+	private static final String	AMR1	= "(w / want-01 :ARG0 (b / boy) :ARG1 (b2 / believe-01 :ARG0 (g / girl) :ARG1 b))";
+	private static final String	AMR2	= "(p / person :domain (b / boy) :ARG0-of (w / work-01 :manner (h / hard)))";
+	private static final String	AMR3	= "(b / bear-02 :ARG1 (p / poet :name (n / name :op1 \"William\" :op2 \"Shakespeare\")) :location (c / city :name (n2 / name :op1 \"Stratford-upon-Avon\")))";
+
+	@Test
+	public void testIdentical() {
+		final Smatch smatch = new Smatch(4, 0, 0);
+		for (final String amr : Arrays.asList(AMR1, AMR2, AMR3)) {
+			final SmatchAmr parsed = SmatchAmr.parse(amr);
+			Assert.assertEquals(1.0, smatch.match(parsed, parsed).f1(), 0.0);
+		}
+	}
+
+	@Test
+	public void testInverse() {
+		final SmatchAmr inverse = SmatchAmr.parse(
+				"(w / work-01 :ARG0 (p / person :domain (b / boy)) :manner (h / hard))");
+		final SmatchAmr original = SmatchAmr.parse(AMR2);
+		final MatchCount count = new Smatch(4, 0, 0).match(inverse, original);
+		// All triples match, except the TOP triple.
+		Assert.assertEquals(original.numTriples() - 1, count.getMatched());
+	}
+
+	@Test
+	public void testParse() {
+		final SmatchAmr amr = SmatchAmr.parse(AMR1);
+		Assert.assertEquals(4, amr.numVariables());
+		// 4 instances, TOP and 4 relations.
+		Assert.assertEquals(9, amr.numTriples());
+
+		final SmatchAmr named = SmatchAmr.parse(AMR3);
+		Assert.assertTrue(named.getAttributes().stream()
+				.anyMatch(a -> a.getName().equals("op1")
+						&& a.getValue().equals("stratford-upon-avon")));
+	}
+
+	@Test
+	public void testHillClimbingMatchesExact() {
+		final Smatch hillClimbing = new Smatch(4, 0, 0);
+		final Smatch exact = new Smatch(0, Long.MAX_VALUE, 0);
+		final SmatchAmr candidate = SmatchAmr.parse(
+				"(w / want-01 :ARG0 (b / boy) :ARG1 (b2 / believe-01 :ARG0 (g / girl) :ARG1 (h / he)))");
+		final SmatchAmr gold = SmatchAmr.parse(AMR1);
+		Assert.assertEquals(exact.match(candidate, gold).getMatched(),
+				hillClimbing.match(candidate, gold).getMatched());
+	}
+
+	@Test
+	public void testDocumentScore() {
+		final Smatch smatch = new Smatch(4, 10000, 0);
+		final SmatchAmr amr1 = SmatchAmr.parse(AMR1);
+		final SmatchAmr amr2 = SmatchAmr.parse(AMR2);
+		final SmatchAmr empty = SmatchAmr.parse("(a / amr-empty)");
+		final MatchCount count = smatch.match(
+				Arrays.asList(Pair.of(amr1, amr1), Pair.of(empty, amr2)));
+		Assert.assertEquals(amr1.numTriples(), count.getMatched());
+		Assert.assertEquals(amr1.numTriples() + empty.numTriples(),
+				count.getCandidateTriples());
+		Assert.assertEquals(amr1.numTriples() + amr2.numTriples(),
+				count.getGoldTriples());
+	}
+
+}
@@ -1,7 +1,9 @@
 package edu.uw.cs.lil.amr.ccgbank;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import edu.cornell.cs.nlp.spf.base.token.TokenSeq;
 import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
@@ -21,4 +23,14 @@ public interface IBankParser {
 	 */
 	public Map<TokenSeq, Set<Syntax>> getSpans(Sentence sentence);
 
+	/**
+	 * Get the spans of each of the given sentences, see
+	 * {@link #getSpans(Sentence)}.
+	 */
+	public default List<Map<TokenSeq, Set<Syntax>>> getSpans(
+			List<? extends Sentence> sentences) {
+		return sentences.stream().map(this::getSpans)
+				.collect(Collectors.toList());
+	}
+
 }
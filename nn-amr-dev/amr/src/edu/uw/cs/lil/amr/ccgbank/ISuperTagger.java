@@ -2,6 +2,7 @@ package edu.uw.cs.lil.amr.ccgbank;
 
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
 import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
@@ -18,4 +19,15 @@ public interface ISuperTagger {
 	 * @return List of sets, one for each token.
 	 */
 	public List<Set<Syntax>> superTag(Sentence sentence);
+
+	/**
+	 * Generate super-tags for each of the given sentences.
+	 *
+	 * @return List of super-tags, one for each sentence.
+	 */
+	public default List<List<Set<Syntax>>> superTag(
+			List<? extends Sentence> sentences) {
+		return sentences.stream().map(this::superTag)
+				.collect(Collectors.toList());
+	}
 }
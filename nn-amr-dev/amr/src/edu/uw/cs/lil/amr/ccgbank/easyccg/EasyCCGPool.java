@@ -0,0 +1,112 @@
+package edu.uw.cs.lil.amr.ccgbank.easyccg;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/**
+ * Pool of objects that are not thread safe, such as EasyCCG taggers and
+ * parsers. Objects are created on demand, up to the pool size, and each call
+ * uses an object that no other thread is using.
+ *
+ * @author Yoav Artzi
+ * @param <T>
+ *            Pooled object.
+ */
+class EasyCCGPool<T> {
+	public static final ILogger		LOG			= LoggerFactory
+			.create(EasyCCGPool.class);
+
+	/**
+	 * Objects not in use.
+	 */
+	private final BlockingQueue<T>	available	= new LinkedBlockingQueue<>();
+
+	private final Supplier<T>		factory;
+
+	/**
+	 * Number of created objects. Guarded by {@link #available}.
+	 */
+	private int						numCreated	= 0;
+
+	private final int				poolSize;
+
+	public EasyCCGPool(Supplier<T> factory, int poolSize) {
+		this.factory = factory;
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Creates a synchronized LRU cache that holds up to the given number of
+	 * entries.
+	 */
+	public static <K, V> Map<K, V> createCache(int capacity) {
+		return Collections
+				.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+					private static final long serialVersionUID = 6024366466432717935L;
+
+					@Override
+					protected boolean removeEldestEntry(Entry<K, V> eldest) {
+						return size() > capacity;
+					}
+				});
+	}
+
+	/**
+	 * Apply the function to an object that is not used by any other thread.
+	 * Creates a new object if none is available and the pool is not full,
+	 * otherwise waits for one to be released.
+	 */
+	public <R> R apply(Function<T, R> function) {
+		T object = available.poll();
+		if (object == null) {
+			final boolean create;
+			synchronized (available) {
+				create = numCreated < poolSize;
+				if (create) {
+					++numCreated;
+				}
+			}
+			if (create) {
+				try {
+					object = factory.get();
+				} catch (final RuntimeException e) {
+					synchronized (available) {
+						--numCreated;
+					}
+					throw e;
+				}
+				LOG.debug("Created pooled object (%d/%d)", numCreated(),
+						poolSize);
+			} else {
+				try {
+					object = available.take();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		try {
+			return function.apply(object);
+		} finally {
+			available.add(object);
+		}
+	}
+
+	public int numCreated() {
+		synchronized (available) {
+			return numCreated;
+		}
+	}
+
+}
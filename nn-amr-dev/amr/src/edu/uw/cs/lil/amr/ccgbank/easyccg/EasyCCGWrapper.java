@@ -8,7 +8,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import uk.ac.ed.easyccg.main.EasyCCG.InputFormat;
@@ -25,6 +27,7 @@ import edu.cornell.cs.nlp.spf.explat.ParameterizedExperiment.Parameters;
 import edu.cornell.cs.nlp.spf.explat.resources.IResourceObjectCreator;
 import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
 import edu.cornell.cs.nlp.utils.collections.ListUtils;
+import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 import edu.uw.cs.lil.amr.ccgbank.CcgBankServices;
@@ -32,53 +35,119 @@ import edu.uw.cs.lil.amr.ccgbank.IBankParser;
 import edu.uw.cs.lil.amr.ccgbank.ISuperTagger;
 
 /**
- * Wrapper for EasyCCG. Provides various CCGBank parsing services.
+ * Wrapper for EasyCCG. Provides various CCGBank parsing services. EasyCCG
+ * taggers and parsers are not thread safe, so the wrapper keeps a pool of
+ * tagger-parser pairs, created on demand up to the pool size, and each call
+ * uses a pair that no other thread is using (see {@link EasyCCGPool}). Each
+ * pair loads its own copy of the tagger model, so the pool is a single pair by
+ * default. The batch methods process sentences in parallel, up to the pool
+ * size. Super-tags and spans are cached by the tokens of the sentence. Cached
+ * results are shared and can't be modified.
  *
  * @author Yoav Artzi
  */
 public class EasyCCGWrapper implements ISuperTagger, IBankParser {
-	public static final ILogger	LOG	= LoggerFactory
-											.create(EasyCCGWrapper.class);
+	public static final int		DEFAULT_CACHE_SIZE	= 10000;
 
-	private final ParserAStar	parser;
+	public static final ILogger	LOG					= LoggerFactory
+			.create(EasyCCGWrapper.class);
 
-	private final Tagger		tagger;
+	/**
+	 * Tagger-parser pairs, each used by a single thread at a time.
+	 */
+	private final EasyCCGPool<Pair<Tagger, ParserAStar>>	pool;
+
+	private final int										poolSize;
+
+	private final Map<TokenSeq, Map<TokenSeq, Set<Syntax>>>	spansCache;
+
+	private final Map<TokenSeq, List<Set<Syntax>>>			superTagsCache;
+
+	public EasyCCGWrapper(Supplier<Pair<Tagger, ParserAStar>> factory,
+			int poolSize, int cacheSize) {
+		this.pool = new EasyCCGPool<>(factory, poolSize);
+		this.poolSize = poolSize;
+		this.spansCache = EasyCCGPool.createCache(cacheSize);
+		this.superTagsCache = EasyCCGPool.createCache(cacheSize);
+		LOG.info("Init %s :: poolSize=%d, cacheSize=%d", getClass(),
+				poolSize, cacheSize);
+	}
 
 	public EasyCCGWrapper(Tagger tagger, ParserAStar parser) {
-		this.tagger = tagger;
-		this.parser = parser;
+		this(() -> Pair.of(tagger, parser), 1, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Parses the sentences in parallel, using up to the pool size of parsers.
+	 */
+	@Override
+	public List<Map<TokenSeq, Set<Syntax>>> getSpans(
+			List<? extends Sentence> sentences) {
+		return sentences.parallelStream().map(this::getSpans)
+				.collect(Collectors.toList());
 	}
 
 	@Override
 	public Map<TokenSeq, Set<Syntax>> getSpans(Sentence sentence) {
-		final List<SyntaxTreeNode> nodes = parser.parseTokens(sentence
-				.getTokens().toList());
-		if (nodes == null) {
-			return Collections.emptyMap();
+		final TokenSeq tokens = sentence.getTokens();
+		final Map<TokenSeq, Set<Syntax>> cached = spansCache.get(tokens);
+		if (cached != null) {
+			return cached;
 		}
+
+		final List<SyntaxTreeNode> nodes = pool.apply(
+				pair -> pair.second().parseTokens(tokens.toList()));
 		final Map<TokenSeq, Set<Syntax>> spans = new HashMap<>();
-		for (final SyntaxTreeNode node : nodes) {
-			getSpans(node, spans);
+		if (nodes != null) {
+			for (final SyntaxTreeNode node : nodes) {
+				getSpans(node, spans);
+			}
+			for (final Entry<TokenSeq, Set<Syntax>> entry : spans
+					.entrySet()) {
+				entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+			}
 		}
-		return spans;
+		final Map<TokenSeq, Set<Syntax>> result = Collections
+				.unmodifiableMap(spans);
+		spansCache.put(tokens, result);
+		return result;
+	}
+
+	/**
+	 * Tags the sentences in parallel, using up to the pool size of taggers.
+	 */
+	@Override
+	public List<List<Set<Syntax>>> superTag(
+			List<? extends Sentence> sentences) {
+		return sentences.parallelStream().map(this::superTag)
+				.collect(Collectors.toList());
 	}
 
 	@Override
 	public List<Set<Syntax>> superTag(Sentence sentence) {
-		final List<List<SyntaxTreeNode>> easyTags = tagger
-				.tag(InputReader.InputToParser.fromTokens(
-						sentence.getTokens().toList()).getInputWords());
+		final TokenSeq tokens = sentence.getTokens();
+		final List<Set<Syntax>> cached = superTagsCache.get(tokens);
+		if (cached != null) {
+			return cached;
+		}
 
-		final int len = sentence.getTokens().size();
+		final List<List<SyntaxTreeNode>> easyTags = pool.apply(
+				pair -> pair.first().tag(InputReader.InputToParser
+						.fromTokens(tokens.toList()).getInputWords()));
+
+		final int len = tokens.size();
 		final List<Set<Syntax>> superTags = new ArrayList<>(len);
 		for (int i = 0; i < len; ++i) {
-			superTags.add(CcgBankServices.rewrite(
+			superTags.add(Collections.unmodifiableSet(CcgBankServices.rewrite(
 					easyTags.get(i).stream().map(CcgBankServices::toSyntax)
 							.filter(syntax -> syntax != null)
-							.collect(Collectors.toSet()), sentence.getTokens()
-							.get(i), true));
+							.collect(Collectors.toSet()),
+					tokens.get(i), true)));
 		}
-		return superTags;
+		final List<Set<Syntax>> result = Collections
+				.unmodifiableList(superTags);
+		superTagsCache.put(tokens, result);
+		return result;
 	}
 
 	private void getSpans(SyntaxTreeNode node, Map<TokenSeq, Set<Syntax>> spans) {
@@ -101,23 +170,28 @@ public class EasyCCGWrapper implements ISuperTagger, IBankParser {
 			IResourceObjectCreator<EasyCCGWrapper> {
 		@Override
 		public EasyCCGWrapper create(Parameters params, IResourceRepository repo) {
-			final TaggerEmbeddings tagger = new TaggerEmbeddings(
-					params.getAsFile("model"), params.getAsInteger("maxLength",
-							1000), params.getAsDouble("beamMultiplier", 0.0001));
-			try {
-				final ParserAStar parser = new ParserAStar(tagger,
+			return new EasyCCGWrapper(() -> {
+				final TaggerEmbeddings tagger = new TaggerEmbeddings(
+						params.getAsFile("model"),
 						params.getAsInteger("maxLength", 1000),
-						params.getAsInteger("nBest", 1), params.getAsDouble(
-								"nBestBeam", 0.0), InputFormat.TOKENIZED,
-						ListUtils.createList("S[dcl]", "S[wq]", "S[q]",
-								"S[qem]", "NP"),
-						params.getAsFile("unaryRules"),
-						params.getAsFile("extraCombinators"),
-						params.getAsFile("seenRules"));
-				return new EasyCCGWrapper(tagger, parser);
-			} catch (final IOException e) {
-				throw new RuntimeException(e);
-			}
+						params.getAsDouble("beamMultiplier", 0.0001));
+				try {
+					final ParserAStar parser = new ParserAStar(tagger,
+							params.getAsInteger("maxLength", 1000),
+							params.getAsInteger("nBest", 1),
+							params.getAsDouble("nBestBeam", 0.0),
+							InputFormat.TOKENIZED,
+							ListUtils.createList("S[dcl]", "S[wq]", "S[q]",
+									"S[qem]", "NP"),
+							params.getAsFile("unaryRules"),
+							params.getAsFile("extraCombinators"),
+							params.getAsFile("seenRules"));
+					return Pair.of(tagger, parser);
+				} catch (final IOException e) {
+					throw new RuntimeException(e);
+				}
+			}, params.getAsInteger("poolSize", 1),
+					params.getAsInteger("cacheSize", DEFAULT_CACHE_SIZE));
 		}
 
 		@Override
@@ -146,6 +220,11 @@ public class EasyCCGWrapper implements ISuperTagger, IBankParser {
 					.addParam("model", File.class, "EasyCCG model directory")
 					.addParam("beamMultiplier", Double.class,
 							"EasyCCG super-tagger beam multiplier (default: 0.0001)")
+					.addParam("poolSize", Integer.class,
+							"Maximum number of taggers and parsers, each used by a single thread at a time and loading its own copy of the model (default: 1)")
+					.addParam("cacheSize", Integer.class,
+							"Number of sentences to cache super-tags and spans for (default: "
+									+ DEFAULT_CACHE_SIZE + ")")
 					.build();
 		}
 	}
@@ -44,16 +44,7 @@ public class LabeledAmrSentence
 				: superTagger.superTag(sentence);
 		this.spans = bankParser == null ? null : bankParser.getSpans(sentence);
 
-		if (properties
-				.containsKey(AlignmentServices.STORED_ALIGNMENTS_PROPERTY)) {
-			this.alignments = Collections
-					.unmodifiableMap(AlignmentServices.readStoredAlignments(
-							properties
-									.get(AlignmentServices.STORED_ALIGNMENTS_PROPERTY),
-							categoryServices));
-		} else {
-			this.alignments = null;
-		}
+		this.alignments = readAlignments(properties, categoryServices);
 	}
 
 	public LabeledAmrSentence(SituatedSentence<AMRMeta> sentence,
@@ -66,6 +57,24 @@ public class LabeledAmrSentence
 		this.spans = spans;
 	}
 
+	/**
+	 * Reads the alignments stored in the properties of a sentence, if any.
+	 */
+	static Map<Pair<Integer, Integer>, Set<LogicalExpression>> readAlignments(
+			Map<String, String> properties,
+			ICategoryServices<LogicalExpression> categoryServices) {
+		if (properties
+				.containsKey(AlignmentServices.STORED_ALIGNMENTS_PROPERTY)) {
+			return Collections.unmodifiableMap(
+					AlignmentServices.readStoredAlignments(
+							properties.get(
+									AlignmentServices.STORED_ALIGNMENTS_PROPERTY),
+							categoryServices));
+		} else {
+			return null;
+		}
+	}
+
 	public Set<LogicalExpression> getAlignedExpressions(int start, int end) {
 		return alignments.get(Pair.of(start, end));
 	}
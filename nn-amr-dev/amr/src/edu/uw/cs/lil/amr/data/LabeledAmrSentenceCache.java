@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.uw.cs.lil.amr.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentence;
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/**
+ * Append-only file cache of pre-processed {@link LabeledAmrSentence}s. Each
+ * record is keyed by a hash of the content of the raw sentence (tokens, label
+ * and properties) and the configuration of the pre-processing (e.g., the
+ * super tagger and CCGBank parser), so changing a sentence only invalidates
+ * its own record. Records are read one at a time, and records that are not
+ * requested are skipped without being de-serialized.
+ *
+ * @author Yoav Artzi
+ */
+public class LabeledAmrSentenceCache {
+	public static final ILogger	LOG		= LoggerFactory
+			.create(LabeledAmrSentenceCache.class);
+
+	/**
+	 * Marks files written in this format. Older caches (a single serialized
+	 * collection) are replaced.
+	 */
+	private static final int	MAGIC	= 0x414d5243;
+
+	private final String		configuration;
+	private final File			file;
+
+	/**
+	 * Length of the valid prefix of the file, or -1 if the whole file is
+	 * valid. The file is truncated to this length before appending to it.
+	 */
+	private long				validLength;
+
+	public LabeledAmrSentenceCache(File file, String configuration) {
+		this.file = file;
+		this.configuration = configuration;
+		this.validLength = -1;
+	}
+
+	/**
+	 * Append the given records to the cache file.
+	 */
+	public synchronized void append(Map<String, LabeledAmrSentence> records)
+			throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+
+		// Drop any invalid suffix, or the whole file if the header is
+		// invalid.
+		if (validLength >= 0 && file.exists()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(validLength);
+			}
+		}
+		final boolean writeHeader = !file.exists() || file.length() == 0;
+
+		try (final DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file, true)))) {
+			if (writeHeader) {
+				output.writeInt(MAGIC);
+			}
+			for (final Map.Entry<String, LabeledAmrSentence> entry : records
+					.entrySet()) {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (ObjectOutputStream objectOutput = new ObjectOutputStream(
+						bytes)) {
+					objectOutput.writeObject(entry.getValue());
+				}
+				output.writeUTF(entry.getKey());
+				output.writeInt(bytes.size());
+				bytes.writeTo(output);
+			}
+		}
+		validLength = -1;
+		LOG.info("Cached %d sentences to: %s", records.size(), file);
+	}
+
+	/**
+	 * The cache key of a raw sentence.
+	 */
+	public String key(SingleSentence sentence) {
+		final StringBuilder content = new StringBuilder(configuration)
+				.append('\n').append(sentence.getSample().getTokens())
+				.append('\n').append(sentence.getLabel());
+		for (final Map.Entry<String, String> entry : new TreeMap<String, String>(
+				sentence.getProperties()).entrySet()) {
+			content.append('\n').append(entry.getKey()).append('=')
+					.append(entry.getValue());
+		}
+
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256")
+					.digest(content.toString()
+							.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (final byte b : digest) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the records with the given keys. Keys without a record are missing
+	 * from the returned map. Unreadable files and records are ignored.
+	 */
+	public synchronized Map<String, LabeledAmrSentence> load(
+			Set<String> keys) {
+		final Map<String, LabeledAmrSentence> records = new HashMap<String, LabeledAmrSentence>();
+		if (!file.exists()) {
+			LOG.info("Cached file missing: %s", file);
+			return records;
+		}
+
+		final long fileLength = file.length();
+		long offset = 0;
+		try (final DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				LOG.info("Unknown cache format, re-processing: %s", file);
+				validLength = 0;
+				return records;
+			}
+			offset = 4;
+
+			while (offset < fileLength) {
+				final String key = input.readUTF();
+				final long dataOffset = offset + 2
+						+ key.getBytes(StandardCharsets.UTF_8).length + 4;
+				final int length = input.readInt();
+				if (length < 0 || length > fileLength - dataOffset) {
+					// The record is cut short or its length is corrupted,
+					// treat the rest of the file as a truncated tail.
+					throw new EOFException("Invalid record length: " + length);
+				}
+				if (keys.contains(key) && !records.containsKey(key)) {
+					final byte[] bytes = new byte[length];
+					input.readFully(bytes);
+					try (ObjectInputStream objectInput = new ObjectInputStream(
+							new ByteArrayInputStream(bytes))) {
+						records.put(key,
+								(LabeledAmrSentence) objectInput.readObject());
+					} catch (IOException | ClassNotFoundException
+							| ClassCastException e) {
+						// Ignore the record, it will be re-processed.
+						LOG.info("Failed to read cached sentence, re-processing");
+					}
+				} else if (input.skipBytes(length) != length) {
+					throw new EOFException();
+				}
+				offset = dataOffset + length;
+			}
+		} catch (final IOException e) {
+			// Incomplete record at the end of the file, or an unreadable
+			// file. Keep what was read before it.
+			LOG.info("Cache file truncated at %d bytes: %s", offset, file);
+			validLength = offset;
+		}
+
+		LOG.info("Loaded %d cached sentences from: %s", records.size(), file);
+		return records;
+	}
+
+}
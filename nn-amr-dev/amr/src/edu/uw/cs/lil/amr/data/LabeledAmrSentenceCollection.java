@@ -16,27 +16,24 @@
  *******************************************************************************/
 package edu.uw.cs.lil.amr.data;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Spliterator;
-import java.util.Spliterators;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.IntStream;
 
+import edu.cornell.cs.nlp.spf.base.token.TokenSeq;
 import edu.cornell.cs.nlp.spf.ccg.categories.ICategoryServices;
+import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
 import edu.cornell.cs.nlp.spf.data.collection.IDataCollection;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
 import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentence;
 import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentenceCollection;
 import edu.cornell.cs.nlp.spf.data.situated.labeled.LabeledSituatedSentence;
@@ -71,16 +68,12 @@ public class LabeledAmrSentenceCollection
 			ISuperTagger superTagger,
 			ICategoryServices<LogicalExpression> categoryServices,
 			IBankParser bankParser) {
-		this.data = Collections.unmodifiableList(StreamSupport
-				.stream(Spliterators.spliterator(dataset.iterator(),
-						dataset.size(), Spliterator.IMMUTABLE), true)
-				.map((di) -> {
-					return new LabeledAmrSentence(
-							new SituatedSentence<>(di.getSample(),
-									new AMRMeta(di.getSample())),
-							di.getLabel(), di.getProperties(), categoryServices,
-							superTagger, bankParser);
-				}).collect(Collectors.toList()));
+		final List<SingleSentence> sentences = new ArrayList<>(dataset.size());
+		for (final SingleSentence sentence : dataset) {
+			sentences.add(sentence);
+		}
+		this.data = Collections.unmodifiableList(process(sentences,
+				superTagger, categoryServices, bankParser));
 		LOG.info("Init %s :: data.size=%d", getClass(), data.size());
 	}
 	
@@ -90,6 +83,33 @@ public class LabeledAmrSentenceCollection
 		LOG.info("Init %s :: data.size=%d", getClass(), data.size());
 	}
 
+	/**
+	 * Super-tags and parses the sentences using the batch methods of the
+	 * tagger and parser, and creates the situated sentences in parallel.
+	 */
+	private static List<LabeledAmrSentence> process(
+			List<SingleSentence> sentences, ISuperTagger superTagger,
+			ICategoryServices<LogicalExpression> categoryServices,
+			IBankParser bankParser) {
+		final List<Sentence> samples = sentences.stream()
+				.map(SingleSentence::getSample).collect(Collectors.toList());
+		final List<List<Set<Syntax>>> superTags = superTagger == null ? null
+				: superTagger.superTag(samples);
+		final List<Map<TokenSeq, Set<Syntax>>> spans = bankParser == null
+				? null : bankParser.getSpans(samples);
+		return IntStream.range(0, sentences.size()).parallel().mapToObj(i -> {
+			final SingleSentence sentence = sentences.get(i);
+			return new LabeledAmrSentence(
+					new SituatedSentence<>(sentence.getSample(),
+							new AMRMeta(sentence.getSample())),
+					sentence.getLabel(), sentence.getProperties(),
+					LabeledAmrSentence.readAlignments(
+							sentence.getProperties(), categoryServices),
+					superTags == null ? null : superTags.get(i),
+					spans == null ? null : spans.get(i));
+		}).collect(Collectors.toList());
+	}
+
 	@Override
 	public Iterator<LabeledAmrSentence> iterator() {
 		return data.iterator();
@@ -119,77 +139,76 @@ public class LabeledAmrSentenceCollection
 			final SingleSentenceCollection rawData = (SingleSentenceCollection) repo
 					.get(params.get("data"));
 
-			if (params.contains("cache")) {
-				final File cacheFile = params.getAsFile("cache");
-				if (cacheFile.exists()) {
-					try (ObjectInput input = new ObjectInputStream(
-							new BufferedInputStream(
-									new FileInputStream(cacheFile)))) {
-						final LabeledAmrSentenceCollection dataset = (LabeledAmrSentenceCollection) input
-								.readObject();
-
-						// Basic checks to see the cached copy is up to date.
-						// This doesn't guarantee anything, but can catch some
-						// basic cases.
-						boolean valid = true;
-						valid &= dataset.size() == rawData.size();
-						final Iterator<LabeledAmrSentence> cachedIterator = dataset
-								.iterator();
-						final Iterator<SingleSentence> rawIterator = rawData
-								.iterator();
-						while (valid && cachedIterator.hasNext()
-								&& rawIterator.hasNext()) {
-							final LabeledAmrSentence cached = cachedIterator
-									.next();
-							final SingleSentence raw = rawIterator.next();
-							valid &= cached.getLabel().equals(raw.getLabel());
-							valid &= cached.getSample().getSample().getTokens()
-									.equals(raw.getSample().getTokens());
-						}
-						valid &= cachedIterator.hasNext() == rawIterator
-								.hasNext();
-
-						if (valid) {
-							LOG.info("Using cached copy: %s", cacheFile);
-							return dataset;
-						} else {
-							LOG.info("Cached copy invalid, re-processing");
-						}
-					} catch (IOException | ClassNotFoundException e) {
-						// Ignore and continue.
-						LOG.info(
-								"Exception when loading cached copy, re-processing");
-					}
+			final ISuperTagger superTagger = params.contains("tagger")
+					? repo.get(params.get("tagger")) : null;
+			final ICategoryServices<LogicalExpression> categoryServices = repo
+					.get(ParameterizedExperiment.CATEGORY_SERVICES_RESOURCE);
+			final IBankParser bankParser = params.contains("bankParser")
+					? repo.get(params.get("bankParser")) : null;
+
+			if (!params.contains("cache")) {
+				return new LabeledAmrSentenceCollection(rawData, superTagger,
+						categoryServices, bankParser);
+			}
+
+			// Only sentences without a cached record are processed. The
+			// pre-processing configuration is identified by the resources
+			// used for it.
+			final LabeledAmrSentenceCache cache = new LabeledAmrSentenceCache(
+					params.getAsFile("cache"),
+					String.format("tagger=%s:%s bankParser=%s:%s",
+							params.get("tagger", null),
+							superTagger == null ? null
+									: superTagger.getClass().getName(),
+							params.get("bankParser", null),
+							bankParser == null ? null
+									: bankParser.getClass().getName()));
+			final List<SingleSentence> raw = new ArrayList<>(rawData.size());
+			final List<String> keys = new ArrayList<>(rawData.size());
+			for (final SingleSentence sentence : rawData) {
+				raw.add(sentence);
+				keys.add(cache.key(sentence));
+			}
+			final Map<String, LabeledAmrSentence> cached = cache
+					.load(new HashSet<>(keys));
+
+			// Collect the distinct sentences without a cached record, and
+			// process them as a single batch.
+			final Map<String, SingleSentence> missing = new LinkedHashMap<>();
+			int hits = 0;
+			for (int i = 0; i < raw.size(); ++i) {
+				if (cached.containsKey(keys.get(i))) {
+					++hits;
 				} else {
-					LOG.info("Cached file missing, re-processing");
+					missing.putIfAbsent(keys.get(i), raw.get(i));
 				}
 			}
+			final List<String> missingKeys = new ArrayList<>(missing.keySet());
+			final List<LabeledAmrSentence> processedSentences = process(
+					new ArrayList<>(missing.values()), superTagger,
+					categoryServices, bankParser);
+			final Map<String, LabeledAmrSentence> processed = new LinkedHashMap<>();
+			for (int i = 0; i < missingKeys.size(); ++i) {
+				processed.put(missingKeys.get(i), processedSentences.get(i));
+			}
+			LOG.info("Using %d cached sentences, processed %d sentences", hits,
+					processed.size());
 
-			final LabeledAmrSentenceCollection dataset = new LabeledAmrSentenceCollection(
-					rawData,
-					params.contains("tagger") ? repo.get(params.get("tagger"))
-							: null,
-					repo.get(
-							ParameterizedExperiment.CATEGORY_SERVICES_RESOURCE),
-					params.contains("bankParser")
-							? repo.get(params.get("bankParser")) : null);
-
-			if (params.contains("cache")) {
-				try (final OutputStream os = new FileOutputStream(
-						params.getAsFile("cache"));
-						final OutputStream buffer = new BufferedOutputStream(
-								os);
-						final ObjectOutput output = new ObjectOutputStream(
-								buffer)) {
-					output.writeObject(dataset);
-					LOG.info("Cached to: %s", params.get("cache"));
-				} catch (final IOException e) {
-					LOG.info("Failed to cache to: %s", params.get("cache"));
-					LOG.info(e);
-				}
+			final List<LabeledAmrSentence> data = new ArrayList<>(raw.size());
+			for (final String key : keys) {
+				data.add(cached.containsKey(key) ? cached.get(key)
+						: processed.get(key));
+			}
+
+			try {
+				cache.append(processed);
+			} catch (final IOException e) {
+				LOG.info("Failed to cache to: %s", params.get("cache"));
+				LOG.info(e);
 			}
 
-			return dataset;
+			return new LabeledAmrSentenceCollection(
+					Collections.unmodifiableList(data));
 		}
 
 		@Override
@@ -209,7 +228,7 @@ public class LabeledAmrSentenceCollection
 							.addParam("bankParser", IBankParser.class,
 									"CCGBank parser (default: none)")
 							.addParam("cache", File.class,
-									"Caching file (default: none)")
+									"Caching file, only sentences that changed are re-processed (default: none)")
 							.build();
 		}
 
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicLanguageServices;
@@ -30,8 +31,14 @@ public class SpecificationMapping {
 	private static String					PROPBANK_ROLE_WILDCARD	= PROPBANK_ROLE_SEP
 			+ "XX";
 
-	private final Map<String, Set<String>>	assignmentMapping;
-	private final boolean					underspecifyPropBank;
+	/**
+	 * Memoized assignments of stripped underspecified constants. Assignments
+	 * are requested for every constant of every factor graph, so they are
+	 * computed once and shared across derivations and sentences.
+	 */
+	private final Map<LogicalConstant, Set<LogicalExpression>>	assignmentCache	= new ConcurrentHashMap<>();
+	private final Map<String, Set<String>>						assignmentMapping;
+	private final boolean										underspecifyPropBank;
 
 	private final Map<String, String>		underspecMapping;
 
@@ -64,34 +71,22 @@ public class SpecificationMapping {
 		}
 	}
 
+	/**
+	 * @return Unmodifiable set of the possible assignments of the
+	 *         underspecified constant.
+	 */
 	public Set<LogicalExpression> getAssignments(
 			LogicalConstant underspecifiedConstant) {
 		final LogicalConstant stripped = OverloadedLogicalConstant
 				.getWrapped(underspecifiedConstant);
-		final String baseName = stripped.getBaseName();
-		final Type type = stripped.getType();
-		if (assignmentMapping.containsKey(baseName)) {
-			return assignmentMapping.get(baseName).stream()
-					.map((name) -> LogicalConstant.create(name, type, true))
-					.collect(Collectors.toSet());
-		} else if (underspecifyPropBank
-				&& baseName.endsWith(PROPBANK_ROLE_WILDCARD)) {
-			final String lemma = baseName.substring(0,
-					baseName.length() - PROPBANK_ROLE_WILDCARD.length());
-			final Set<PropBankFrame> frames = AMRServices
-					.getPropBankFrames(lemma);
-			if (frames.isEmpty()) {
-				return Collections.emptySet();
-			}
-			return frames.stream()
-					.map(frame -> LogicalConstant.create(
-							lemma + PROPBANK_ROLE_SEP
-									+ String.format("%02d", frame.getId()),
-							type, true))
-					.collect(Collectors.toSet());
-		} else {
-			return Collections.emptySet();
+		final Set<LogicalExpression> cached = assignmentCache.get(stripped);
+		if (cached != null) {
+			return cached;
 		}
+		final Set<LogicalExpression> assignments = Collections
+				.unmodifiableSet(createAssignments(stripped));
+		assignmentCache.put(stripped, assignments);
+		return assignments;
 	}
 
 	public boolean isUnderspecified(LogicalConstant constant) {
@@ -147,4 +142,31 @@ public class SpecificationMapping {
 
 		return constant;
 	}
+
+	private Set<LogicalExpression> createAssignments(LogicalConstant stripped) {
+		final String baseName = stripped.getBaseName();
+		final Type type = stripped.getType();
+		if (assignmentMapping.containsKey(baseName)) {
+			return assignmentMapping.get(baseName).stream()
+					.map((name) -> LogicalConstant.create(name, type, true))
+					.collect(Collectors.toSet());
+		} else if (underspecifyPropBank
+				&& baseName.endsWith(PROPBANK_ROLE_WILDCARD)) {
+			final String lemma = baseName.substring(0,
+					baseName.length() - PROPBANK_ROLE_WILDCARD.length());
+			final Set<PropBankFrame> frames = AMRServices
+					.getPropBankFrames(lemma);
+			if (frames.isEmpty()) {
+				return Collections.emptySet();
+			}
+			return frames.stream()
+					.map(frame -> LogicalConstant.create(
+							lemma + PROPBANK_ROLE_SEP
+									+ String.format("%02d", frame.getId()),
+							type, true))
+					.collect(Collectors.toSet());
+		} else {
+			return Collections.emptySet();
+		}
+	}
 }
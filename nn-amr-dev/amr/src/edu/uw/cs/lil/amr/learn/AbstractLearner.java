@@ -193,15 +193,19 @@ public abstract class AbstractLearner implements
 
 		final ILexiconImmutable<LogicalExpression> generatedLexicon = genlex
 				.generate(dataItem, model, categoryServices);
-		stats.mean("GENLEX",
-				(System.currentTimeMillis() - genlexStart) / 1000.0, "sec");
+		final double genlexMean;
+		synchronized (stats) {
+			stats.mean("GENLEX",
+					(System.currentTimeMillis() - genlexStart) / 1000.0, "sec");
+			genlexMean = stats.getMean("GENLEX");
+			if (generatedLexicon.size() > 0) {
+				stats.count("Reachable under GENLEX", epochNumber);
+			}
+		}
 		LOG.info("Generated lexicon size = %d (%.4fsec) [mean: %.4fsec]",
 				generatedLexicon.size(),
 				(System.currentTimeMillis() - genlexStart) / 1000.0,
-				stats.getMean("GENLEX"));
-		if (generatedLexicon.size() > 0) {
-			stats.count("Reachable under GENLEX", epochNumber);
-		}
+				genlexMean);
 
 		// Log the newly created entries.
 		int newLexicalEntries = 0;
@@ -232,8 +236,10 @@ public abstract class AbstractLearner implements
 
 		// Record statistics.
 		if (newLexicalEntries > 0) {
-			stats.appendSampleStat(dataItemNumber, epochNumber,
-					newLexicalEntries);
+			synchronized (stats) {
+				stats.appendSampleStat(dataItemNumber, epochNumber,
+						newLexicalEntries);
+			}
 		}
 
 		return generatedLexicon;
@@ -1,13 +1,19 @@
 package edu.uw.cs.lil.amr.learn.batch;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.IntConsumer;
 import java.util.function.Predicate;
 
+import edu.cornell.cs.nlp.spf.base.concurrency.ITinyExecutor;
+import edu.cornell.cs.nlp.spf.base.concurrency.TinyExecutorService;
 import edu.cornell.cs.nlp.spf.ccg.categories.ICategoryServices;
 import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
 import edu.cornell.cs.nlp.spf.ccg.lexicon.LexicalEntry;
@@ -21,6 +27,7 @@ import edu.cornell.cs.nlp.spf.parser.joint.IJointInferenceFilterFactory;
 import edu.cornell.cs.nlp.spf.parser.joint.IJointOutputLogger;
 import edu.cornell.cs.nlp.spf.parser.joint.model.IJointModelImmutable;
 import edu.cornell.cs.nlp.spf.parser.joint.model.JointModel;
+import edu.cornell.cs.nlp.utils.log.thread.LoggingThreadFactory;
 import edu.cornell.cs.nlp.utils.system.MemoryReport;
 import edu.uw.cs.lil.amr.data.AMRMeta;
 import edu.uw.cs.lil.amr.data.LabeledAmrSentence;
@@ -31,6 +38,13 @@ import edu.uw.cs.lil.amr.parser.IsValidAmr;
 
 public abstract class AbstractVanillaBatchLearner extends AbstractBatchLearner {
 
+	/**
+	 * Number of data items to process in parallel during lexical induction.
+	 * If null, data items are processed sequentially. Parallel processing
+	 * requires a thread-safe GENLEX procedure.
+	 */
+	private final Integer lexiconInductionThreads;
+
 	public AbstractVanillaBatchLearner(int numIterations,
 			IDataCollection<LabeledAmrSentence> trainingData, boolean sortData,
 			int maxSentenceLength, GraphAmrParser parser,
@@ -45,76 +59,142 @@ public abstract class AbstractVanillaBatchLearner extends AbstractBatchLearner {
 			Integer conditionedInferenceBeam,
 			ILexiconGenerator<LabeledAmrSentence, LogicalExpression, IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression>> alignmentGenlex,
 			boolean resumedLearning,
-			ILexiconImmutable<LogicalExpression> entriesNotToPrune) {
+			ILexiconImmutable<LogicalExpression> entriesNotToPrune,
+			Integer lexiconInductionThreads) {
 		super(numIterations, trainingData, sortData, maxSentenceLength, parser,
 				parserOutputLogger, categoryServices, genlex, filterFactory,
 				postIteration, pruneLexicon, votingProcedure, estimator,
 				gradientFunction, conditionedInferenceBeam, alignmentGenlex,
 				resumedLearning, entriesNotToPrune);
+		this.lexiconInductionThreads = lexiconInductionThreads;
+		LOG.info("Init %s: lexiconInductionThreads=%s",
+				this.getClass().getSimpleName(), lexiconInductionThreads);
+	}
+
+	/**
+	 * Induce a lexicon for each data item, and return the lexicons in the
+	 * order of the data. Data items are processed sequentially if the number
+	 * of threads is null, otherwise in parallel. Data items without a lexicon
+	 * (null) are skipped.
+	 */
+	static <DI> List<ILexiconImmutable<LogicalExpression>> induceLexicons(
+			Iterable<DI> data, Integer numThreads,
+			BiFunction<DI, Integer, ILexiconImmutable<LogicalExpression>> induce) {
+		final List<ILexiconImmutable<LogicalExpression>> generatedLexicons = new LinkedList<>();
+		if (numThreads == null) {
+			// Iterating over training data to collect entries.
+			int itemCounter = -1;
+			for (final DI dataItem : data) {
+				final ILexiconImmutable<LogicalExpression> generatedLexicon = induce
+						.apply(dataItem, ++itemCounter);
+				if (generatedLexicon != null) {
+					generatedLexicons.add(generatedLexicon);
+				}
+			}
+		} else {
+			// Process the data items in parallel, and collect the entries in
+			// the order of the data.
+			final TinyExecutorService executor = new TinyExecutorService(
+					numThreads, new LoggingThreadFactory("LEX"),
+					ITinyExecutor.DEFAULT_MONITOR_SLEEP);
+			try {
+				final List<Callable<ILexiconImmutable<LogicalExpression>>> jobs = new ArrayList<>();
+				int itemCounter = -1;
+				for (final DI dataItem : data) {
+					final int dataItemNumber = ++itemCounter;
+					jobs.add(() -> induce.apply(dataItem, dataItemNumber));
+				}
+				for (final Future<ILexiconImmutable<LogicalExpression>> future : executor
+						.invokeAll(jobs)) {
+					final ILexiconImmutable<LogicalExpression> generatedLexicon = future
+							.get();
+					if (generatedLexicon != null) {
+						generatedLexicons.add(generatedLexicon);
+					}
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+		return generatedLexicons;
 	}
 
 	@Override
 	protected void doLexiconInduction(int epochNumber,
 			JointModel<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model) {
+		// Add all the entries to the model.
+		updateModel(model,
+				induceLexicons(trainingData, lexiconInductionThreads,
+						(dataItem, itemCounter) -> induceLexicon(dataItem,
+								itemCounter, epochNumber, model)));
+	}
 
-		// Iterating over training data to collect entries.
-		int itemCounter = -1;
-		final List<ILexiconImmutable<LogicalExpression>> generatedLexicons = new LinkedList<>();
-		for (final LabeledAmrSentence dataItem : trainingData) {
-			// Record sample processing start time.
-			final long startTime = System.currentTimeMillis();
-
-			// Log sample header.
-			LOG.info("%d : ================== [%d / LEX]", ++itemCounter,
-					epochNumber);
-			LOG.info("Sample type: %s", dataItem.getClass().getSimpleName());
-			LOG.info("%s", dataItem);
-
-			// Skip sample if reachable in last epoch.
-			if (reachableDuringLastEpoch.contains(itemCounter)) {
-				LOG.info("Reachable during last epoch -- skipping");
-				continue;
-			}
+	/**
+	 * Generate lexical entries for a single data item.
+	 *
+	 * @return The generated lexicon, or null if the data item was skipped
+	 *         since it was reachable during the last epoch.
+	 */
+	private ILexiconImmutable<LogicalExpression> induceLexicon(
+			LabeledAmrSentence dataItem, int itemCounter, int epochNumber,
+			JointModel<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model) {
+		// Record sample processing start time.
+		final long startTime = System.currentTimeMillis();
+
+		// Log sample header.
+		LOG.info("%d : ================== [%d / LEX]", itemCounter,
+				epochNumber);
+		LOG.info("Sample type: %s", dataItem.getClass().getSimpleName());
+		LOG.info("%s", dataItem);
+
+		// Skip sample if reachable in last epoch.
+		if (reachableDuringLastEpoch.contains(itemCounter)) {
+			LOG.info("Reachable during last epoch -- skipping");
+			return null;
+		}
 
-			// Skip sample, if over the length limit.
-			if (dataItem.getSample().getSample().getTokens()
-					.size() > maxSentenceLength) {
-				LOG.info("Training sample too long, skipping");
-				generatedLexicons.add(new Lexicon<>());
-				continue;
-			}
+		// Skip sample, if over the length limit.
+		if (dataItem.getSample().getSample().getTokens()
+				.size() > maxSentenceLength) {
+			LOG.info("Training sample too long, skipping");
+			return new Lexicon<>();
+		}
 
-			// Skip sample of the label is invalid.
-			if (!IsValidAmr.of(dataItem.getLabel(), true, true)) {
-				LOG.warn("Annotated LF is an invalid AMR -- skipping");
-				generatedLexicons.add(new Lexicon<>());
-				continue;
-			}
+		// Skip sample of the label is invalid.
+		if (!IsValidAmr.of(dataItem.getLabel(), true, true)) {
+			LOG.warn("Annotated LF is an invalid AMR -- skipping");
+			return new Lexicon<>();
+		}
 
+		synchronized (stats) {
 			stats.count("Processed for lexical induction", epochNumber);
+		}
+
+		// Track the number of data items that propose an entry.
+		final ILexiconImmutable<LogicalExpression> generatedLexicon = generateLexicalEntries(
+				dataItem, model, itemCounter, epochNumber);
+		LOG.info("Generated %d entries", generatedLexicon.size());
 
-			// Track the number of data items that propose an entry.
-			final ILexiconImmutable<LogicalExpression> generatedLexicon = generateLexicalEntries(
-					dataItem, model, itemCounter, epochNumber);
-			LOG.info("Generated %d entries", generatedLexicon.size());
+		// Record statistics.
+		final double mean;
+		synchronized (stats) {
 			if (generatedLexicon.size() > 0) {
 				stats.count("Reachable under GENLEX", epochNumber);
 			}
-			generatedLexicons.add(generatedLexicon);
-
-			// Record statistics.
 			stats.mean("Sample lexical induction",
 					(System.currentTimeMillis() - startTime) / 1000.0, "sec");
-			LOG.info(
-					"Total sample lexical induction time: %.4fsec [mean: %.4fsec]",
-					(System.currentTimeMillis() - startTime) / 1000.0,
-					stats.getMean("Sample lexical induction"));
-			LOG.info("System memory: %s", MemoryReport.generate());
-
+			mean = stats.getMean("Sample lexical induction");
 		}
+		LOG.info("Total sample lexical induction time: %.4fsec [mean: %.4fsec]",
+				(System.currentTimeMillis() - startTime) / 1000.0, mean);
+		LOG.info("System memory: %s", MemoryReport.generate());
 
-		// Add all the entries to the model.
-		updateModel(model, generatedLexicons);
+		return generatedLexicon;
 	}
 
 }
@@ -65,12 +65,13 @@ public class BatchLearner extends AbstractVanillaBatchLearner {
 			Integer conditionedInferenceBeam,
 			ILexiconGenerator<LabeledAmrSentence, LogicalExpression, IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression>> alignmentGenlex,
 			boolean resumedLearning,
-			ILexiconImmutable<LogicalExpression> entriesNotToPrune) {
+			ILexiconImmutable<LogicalExpression> entriesNotToPrune,
+			Integer lexiconInductionThreads) {
 		super(numIterations, trainingData, sortData, maxSentenceLength, parser,
 				parserOutputLogger, categoryServices, genlex, filterFactory,
 				postIteration, pruneLexicon, votingProcedure, estimator,
 				gradientFunction, conditionedInferenceBeam, alignmentGenlex,
-				resumedLearning, entriesNotToPrune);
+				resumedLearning, entriesNotToPrune, lexiconInductionThreads);
 		this.stepSize = stepSize;
 		this.regularizationCoef = regularizationCoef;
 	}
@@ -278,7 +279,9 @@ public class BatchLearner extends AbstractVanillaBatchLearner {
 					repo.get(params.get("estimator")),
 					repo.get(params.get("gradient")), conditionedInferenceBeam,
 					alignmentGenlex, params.getAsBoolean("resume", false),
-					keepEntries);
+					keepEntries,
+					params.contains("genlexThreads")
+							? params.getAsInteger("genlexThreads") : null);
 		}
 
 		@Override
@@ -293,6 +296,8 @@ public class BatchLearner extends AbstractVanillaBatchLearner {
 							"Entries to keep during lexicon prunning despite if they are used or not (default: none)")
 					.addParam("resume", Boolean.class,
 							"Resume learning and skip initialization actions (default: false)")
+					.addParam("genlexThreads", Integer.class,
+							"Number of sentences to process in parallel during lexical induction, requires a thread-safe GENLEX (default: sequential)")
 					.addParam("alignGenlex", ILexiconGenerator.class,
 							"High-precision heuristic alignment GENLEX to augment the model (default: null)")
 					.addParam("prune", Boolean.class,
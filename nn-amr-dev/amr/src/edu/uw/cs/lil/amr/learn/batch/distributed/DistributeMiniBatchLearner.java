@@ -227,11 +227,11 @@ public class DistributeMiniBatchLearner
 				remoteModelIsUpToDate = false;
 				stats.count("Mini batch update", epochNumber);
 
-				// Refresh the parameters of the remote model. Clone the
-				// parameters to get a snapshot of the current parameters.
+				// Refresh the parameters of the remote model. Send a snapshot
+				// of the current parameters.
 				if (!manager.updateEnviroment(
 						LearningEnvironment.setModelParameters(
-								HashVectorFactory.create(model.getTheta())))) {
+								HashVectorFactory.snapshot(model.getTheta())))) {
 					LOG.error("Failed to update environment");
 					throw new IllegalStateException();
 				}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.uw.cs.lil.amr.learn.genlex;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.IBinaryReversibleParseRule;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.IUnaryReversibleParseRule;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.SentenceSpan;
+
+/**
+ * Memoizes the reverse application of reversible parse rules. Splitting
+ * re-visits the same root and child categories in many sentences and in every
+ * epoch, so each reverse application is computed once and shared. Rules only
+ * look at the span to check if it's at the start or the end of the sentence,
+ * if it covers the complete sentence and its length, so the key includes only
+ * these properties of the span. The cache is thread safe, and is cleared when
+ * it grows beyond its capacity. Returned sets can't be modified.
+ *
+ * @author Yoav Artzi
+ */
+public class ReverseRuleCache {
+
+	public static final int											DEFAULT_CAPACITY	= 200000;
+
+	private final Map<Key, Set<Category<LogicalExpression>>>	cache				= new ConcurrentHashMap<>();
+	private final int												capacity;
+
+	public ReverseRuleCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ReverseRuleCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * See
+	 * {@link IUnaryReversibleParseRule#reverseApply(Category, SentenceSpan)}.
+	 */
+	public Set<Category<LogicalExpression>> reverseApply(
+			IUnaryReversibleParseRule<LogicalExpression> rule,
+			Category<LogicalExpression> result, SentenceSpan span) {
+		return get(new Key(rule, Direction.UNARY, null, result, span),
+				() -> rule.reverseApply(result, span));
+	}
+
+	/**
+	 * See
+	 * {@link IBinaryReversibleParseRule#reverseApplyLeft(Category, Category, SentenceSpan)}
+	 * .
+	 */
+	public Set<Category<LogicalExpression>> reverseApplyLeft(
+			IBinaryReversibleParseRule<LogicalExpression> rule,
+			Category<LogicalExpression> left,
+			Category<LogicalExpression> result, SentenceSpan span) {
+		return get(new Key(rule, Direction.LEFT, left, result, span),
+				() -> rule.reverseApplyLeft(left, result, span));
+	}
+
+	/**
+	 * See
+	 * {@link IBinaryReversibleParseRule#reverseApplyRight(Category, Category, SentenceSpan)}
+	 * .
+	 */
+	public Set<Category<LogicalExpression>> reverseApplyRight(
+			IBinaryReversibleParseRule<LogicalExpression> rule,
+			Category<LogicalExpression> right,
+			Category<LogicalExpression> result, SentenceSpan span) {
+		return get(new Key(rule, Direction.RIGHT, right, result, span),
+				() -> rule.reverseApplyRight(right, result, span));
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	private Set<Category<LogicalExpression>> get(Key key,
+			Supplier<Set<Category<LogicalExpression>>> reverseApplication) {
+		final Set<Category<LogicalExpression>> cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		// Compute outside of the map to avoid holding its locks.
+		final Set<Category<LogicalExpression>> categories = Collections
+				.unmodifiableSet(reverseApplication.get());
+		if (cache.size() >= capacity) {
+			cache.clear();
+		}
+		cache.put(key, categories);
+		return categories;
+	}
+
+	private enum Direction {
+		LEFT, RIGHT, UNARY
+	}
+
+	private static class Key {
+		private final Category<LogicalExpression>	child;
+		private final boolean						completeSentence;
+		private final Direction						direction;
+		private final boolean						end;
+		private final int							hashCode;
+		private final int							length;
+		private final Category<LogicalExpression>	result;
+		private final Object						rule;
+		private final boolean						start;
+
+		public Key(Object rule, Direction direction,
+				Category<LogicalExpression> child,
+				Category<LogicalExpression> result, SentenceSpan span) {
+			this.rule = rule;
+			this.direction = direction;
+			this.child = child;
+			this.result = result;
+			this.start = span.isStart();
+			this.end = span.isEnd();
+			this.completeSentence = span.isCompleteSentence();
+			this.length = span.length();
+			this.hashCode = Objects.hash(rule, direction, child, result, start,
+					end, completeSentence, length);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hashCode == other.hashCode && direction == other.direction
+					&& start == other.start && end == other.end
+					&& completeSentence == other.completeSentence
+					&& length == other.length && rule.equals(other.rule)
+					&& Objects.equals(child, other.child)
+					&& result.equals(other.result);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+}
@@ -124,6 +124,11 @@ public class SplittingGenlex implements
 
 	private final Integer																																			numThreads;
 
+	/**
+	 * Reverse applications of the rules, shared by all GENLEX calls.
+	 */
+	private transient ReverseRuleCache																																reverseRuleCache	= new ReverseRuleCache();
+
 	private final String																																			origin;
 
 	private final GraphAmrParser																																	parser;
@@ -1117,6 +1122,7 @@ public class SplittingGenlex implements
 	private void readObject(ObjectInputStream ois)
 			throws ClassNotFoundException, IOException {
 		ois.defaultReadObject();
+		this.reverseRuleCache = new ReverseRuleCache();
 		this.executor = new TinyExecutorService(
 				numThreads == null ? Runtime.getRuntime().availableProcessors()
 						: numThreads,
@@ -1750,8 +1756,8 @@ public class SplittingGenlex implements
 				// for the case where no unary is applied.
 				rootTriplets.add(Triplet.of(rootWrapper, null, rootCategory));
 				for (final IUnaryReversibleParseRule<LogicalExpression> unaryRule : unaryRules) {
-					for (final Category<LogicalExpression> input : unaryRule
-							.reverseApply(rootCategory, span)) {
+					for (final Category<LogicalExpression> input : reverseRuleCache
+							.reverseApply(unaryRule, rootCategory, span)) {
 						LOG.debug("Pre-processing with unary: %s -> %s",
 								unaryRule, input);
 						rootTriplets.add(Triplet.of(rootWrapper,
@@ -1802,8 +1808,8 @@ public class SplittingGenlex implements
 						LOG.debug("Reverse applying (left=%d, root=%d): %s",
 								leftCell.hashCode(),
 								rootWrapper.cell.hashCode(), rule);
-						for (final Category<LogicalExpression> rightInput : rule
-								.reverseApplyLeft(
+						for (final Category<LogicalExpression> rightInput : reverseRuleCache
+								.reverseApplyLeft(rule,
 										StripOverload
 												.of(leftCell.getCategory()),
 										rootCategory, span)) {
@@ -1906,8 +1912,8 @@ public class SplittingGenlex implements
 						LOG.debug("Reverse applying (right=%d, root=%d): %s",
 								rightCell.hashCode(),
 								rootWrapper.cell.hashCode(), rule);
-						for (final Category<LogicalExpression> leftInput : rule
-								.reverseApplyRight(
+						for (final Category<LogicalExpression> leftInput : reverseRuleCache
+								.reverseApplyRight(rule,
 										StripOverload
 												.of(rightCell.getCategory()),
 										rootCategory, span)) {
@@ -36,7 +36,16 @@ public class TestLearningTask implements IntConsumer {
 			.create(TestLearningTask.class);
 	private final IDataCollection<LabeledAmrSentence>											data;
 	private final IExec<SituatedSentence<AMRMeta>, LogicalExpression>							exec;
+	/**
+	 * Max number of variable mappings to search exhaustively with in-process
+	 * SMATCH.
+	 */
+	private final long																			smatchExactSearchLimit;
 	private final int																			smatchMaxRetries;
+	/**
+	 * Path of the external SMATCH script. If <code>null</code>, SMATCH is
+	 * computed in-process.
+	 */
 	private final String																		smatchPath;
 	private final int																			smatchRounds;
 	private final long																			smatchTimeout;
@@ -46,20 +55,24 @@ public class TestLearningTask implements IntConsumer {
 			IExecTester<SituatedSentence<AMRMeta>, LogicalExpression, LabeledAmrSentence> tester,
 			IExec<SituatedSentence<AMRMeta>, LogicalExpression> exec,
 			File smatchPath, long smatchTimeout, int smatchMaxRetries,
-			int smatchRounds) {
+			int smatchRounds, long smatchExactSearchLimit) {
 		this.data = data;
 		this.tester = tester;
 		this.exec = exec;
 		this.smatchTimeout = smatchTimeout;
 		this.smatchMaxRetries = smatchMaxRetries;
 		this.smatchRounds = smatchRounds;
-		this.smatchPath = smatchPath.getAbsolutePath();
+		this.smatchExactSearchLimit = smatchExactSearchLimit;
+		this.smatchPath = smatchPath == null ? null
+				: smatchPath.getAbsolutePath();
 		LOG.info("Init %s: size(data)=%d", getClass().getSimpleName(),
 				data.size());
 		LOG.info(
 				"Init %s: timeout=%d, maxRetries=%d, smatchRounds=%d, smatchPath=%s",
 				getClass().getSimpleName(), smatchTimeout, smatchMaxRetries,
 				smatchRounds, smatchPath);
+		LOG.info("Init %s: smatchExactSearchLimit=%d",
+				getClass().getSimpleName(), smatchExactSearchLimit);
 	}
 
 	@Override
@@ -71,8 +84,11 @@ public class TestLearningTask implements IntConsumer {
 		// Create test statistics.
 		final List<ITestingStatistics<SituatedSentence<AMRMeta>, LogicalExpression, LabeledAmrSentence>> testingMetrics = new LinkedList<>();
 		testingMetrics.add(new ExactMatchTestingStatistics<>("exact"));
-		final SmatchStats smatch = new SmatchStats(smatchPath, smatchTimeout,
-				smatchMaxRetries, smatchRounds, false);
+		final SmatchStats smatch = smatchPath == null
+				? new SmatchStats(smatchRounds, smatchExactSearchLimit,
+						false)
+				: new SmatchStats(smatchPath, smatchTimeout, smatchMaxRetries,
+						smatchRounds, false);
 		testingMetrics.add(smatch);
 		final ITestingStatistics<SituatedSentence<AMRMeta>, LogicalExpression, LabeledAmrSentence> testStatistics = new CompositeTestingStatistics<>(
 				testingMetrics);
@@ -114,10 +130,14 @@ public class TestLearningTask implements IntConsumer {
 				IResourceRepository repo) {
 			return new TestLearningTask(repo.get(params.get("data")),
 					repo.get(params.get("tester")),
-					repo.get(params.get("exec")), params.getAsFile("smatch"),
+					repo.get(params.get("exec")),
+					params.contains("smatch") ? params.getAsFile("smatch")
+							: null,
 					params.getAsLong("smatchTimeout", 5000),
 					params.getAsInteger("smatchRetries", 2),
-					params.getAsInteger("smatchRounds", 4));
+					params.getAsInteger("smatchRounds", 4),
+					params.getAsLong("smatchExact",
+							SmatchStats.DEFAULT_EXACT_SEARCH_LIMIT));
 		}
 
 		@Override
@@ -134,9 +154,12 @@ public class TestLearningTask implements IntConsumer {
 							"Runnable to do testing after every learning iteration")
 					.addParam("smatchRetries", Integer.class,
 							"Max smatch retries (default: 2)")
-					.addParam("smatch", File.class, "SMATCH script path")
+					.addParam("smatch", File.class,
+							"SMATCH script path. If not provided, SMATCH is computed in-process (default: none)")
 					.addParam("smatchTimeout", Long.class,
 							"Timeout for SMATCH process in milliseconds (default: 5000)")
+					.addParam("smatchExact", Long.class,
+							"Max number of variable mappings to search exhaustively with in-process SMATCH, 0 to always hill-climb (default: 10000)")
 					.addParam("data", IDataCollection.class,
 							"Labeled testing data")
 					.addParam("tester", ExecTester.class, "Tester object")
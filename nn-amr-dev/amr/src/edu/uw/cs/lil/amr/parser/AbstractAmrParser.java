@@ -7,7 +7,6 @@ import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
@@ -27,7 +26,6 @@ import edu.cornell.cs.nlp.spf.parser.joint.IJointParser;
 import edu.cornell.cs.nlp.spf.parser.joint.model.IJointDataItemModel;
 import edu.cornell.cs.nlp.utils.collections.ListUtils;
 import edu.cornell.cs.nlp.utils.composites.Pair;
-import edu.cornell.cs.nlp.utils.composites.Triplet;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 import edu.uw.cs.lil.amr.data.AMRMeta;
@@ -62,6 +60,7 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 	protected final double						bpConvergenceThreshold;
 	protected final int							bpMaxIterations;
 	protected final Long						bpMaxTime;
+	protected final LoopyBP.Schedule			bpSchedule;
 	protected final int							defaultBeamSize;
 	protected final Set<IFactorGraphFeatureSet>	factorGraphFeatures;
 	protected final int							factorLimit;
@@ -71,13 +70,14 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 	public AbstractAmrParser(
 			IAssignmentGeneratorFactory assignmentGeneratorFactory,
 			double bpConvergenceThreshold, int bpMaxIterations, Long bpMaxTime,
-			int defaultBeamSize,
+			LoopyBP.Schedule bpSchedule, int defaultBeamSize,
 			Set<IFactorGraphFeatureSet> factorGraphFeatures, int factorLimit,
 			InferenceMethod inferenceMethod, int maxLimit) {
 		this.assignmentGeneratorFactory = assignmentGeneratorFactory;
 		this.bpConvergenceThreshold = bpConvergenceThreshold;
 		this.bpMaxIterations = bpMaxIterations;
 		this.bpMaxTime = bpMaxTime;
+		this.bpSchedule = bpSchedule;
 		this.defaultBeamSize = defaultBeamSize;
 		this.factorGraphFeatures = factorGraphFeatures;
 		this.factorLimit = factorLimit;
@@ -188,23 +188,10 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 
 		// Do the inference over the factor graph and create the complete
 		// derivations.
-		final Pair<List<EvaluationResult>, Boolean> inferencePair;
 		final long start = System.currentTimeMillis();
-		switch (inferenceMethod) {
-			case BEAM:
-				inferencePair = doBeamSearchInference(graph, false,
-						beamSize == null ? defaultBeamSize : beamSize);
-				break;
-			case LBP:
-				inferencePair = doLoopyBPInference(graph, model, false);
-				break;
-			case NONE:
-				inferencePair = doFactorGraphDummyInference(graph);
-				break;
-			default:
-				throw new IllegalStateException(
-						"Invalid inference method: " + inferenceMethod);
-		}
+		final Pair<List<EvaluationResult>, Boolean> inferencePair = graphInference(
+				graph, model, false,
+				beamSize == null ? defaultBeamSize : beamSize);
 
 		LOG.debug("Second stage inference: %.3f",
 				(System.currentTimeMillis() - start) / 1000.0);
@@ -276,7 +263,8 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model,
 			boolean sloppyInference) {
 		// Loopy BP inference
-		LoopyBP.of(graph, bpConvergenceThreshold, bpMaxIterations, bpMaxTime);
+		LoopyBP.of(graph, bpConvergenceThreshold, bpMaxIterations, bpMaxTime,
+				bpSchedule);
 
 		// Get the max configurations.
 		final List<EvaluationResult> argmax = new LinkedList<>(
@@ -284,24 +272,6 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 		return Pair.of(argmax, !argmax.isEmpty());
 	}
 
-	protected List<Triplet<DERIV, List<EvaluationResult>, Boolean>> beamSearchInference(
-			List<Pair<DERIV, FactorGraph>> graphPairs, boolean sloppyInference,
-			int beamSize) {
-
-		// Factor graph inference (streaming to distribute computation).
-		final List<Triplet<DERIV, List<EvaluationResult>, Boolean>> inferenceTriplets = StreamSupport
-				.stream(Spliterators.spliterator(graphPairs,
-						Spliterator.IMMUTABLE), true)
-				.map(pair -> {
-					final Pair<List<EvaluationResult>, Boolean> inferencePair = doBeamSearchInference(
-							pair.second(), sloppyInference, beamSize);
-					return Triplet.of(pair.first(), inferencePair.first(),
-							inferencePair.second());
-				}).collect(Collectors.toList());
-
-		return inferenceTriplets;
-	}
-
 	protected Pair<DERIV, FactorGraph> createFactorGraph(DERIV derivation,
 			AMRMeta meta,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model,
@@ -347,54 +317,27 @@ public abstract class AbstractAmrParser<DERIV extends IDerivation<LogicalExpress
 	}
 
 	/**
-	 * LBP inference for the second stage.
+	 * Second stage inference over a single factor graph using the parser's
+	 * inference method.
 	 *
-	 * @return Triplet that includes the base derivation, list of
-	 *         {@link EvaluationResult}, and the inference exactness flag (if
-	 *         the flag is 'true', there were too many max-scoring evaluations
-	 *         and none were returned).
+	 * @return Pair with list of {@link EvaluationResult} and an inference
+	 *         exactness flag.
 	 */
-	protected List<Triplet<DERIV, List<EvaluationResult>, Boolean>> loopyBPInference(
-			List<Pair<DERIV, FactorGraph>> graphPairs,
+	protected Pair<List<EvaluationResult>, Boolean> graphInference(
+			FactorGraph graph,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model,
-			boolean sloppyInference) {
-		final List<Triplet<DERIV, List<EvaluationResult>, Boolean>> inferenceTriplets = new LinkedList<>();
-
-		// Mapping of final results to derivation builders.
-		for (final Pair<DERIV, FactorGraph> resultPair : graphPairs) {
-			final Pair<List<EvaluationResult>, Boolean> inferencePair = doLoopyBPInference(
-					resultPair.second(), model, sloppyInference);
-			inferenceTriplets.add(Triplet.of(resultPair.first(),
-					inferencePair.first(), inferencePair.second()));
+			boolean sloppyInference, int beamSize) {
+		switch (inferenceMethod) {
+			case BEAM:
+				return doBeamSearchInference(graph, sloppyInference, beamSize);
+			case LBP:
+				return doLoopyBPInference(graph, model, sloppyInference);
+			case NONE:
+				return doFactorGraphDummyInference(graph);
+			default:
+				throw new IllegalStateException(
+						"Invalid inference method: " + inferenceMethod);
 		}
-
-		return inferenceTriplets;
-	}
-
-	/**
-	 * Dummy inference for the second stage.
-	 *
-	 * @param graphPairs
-	 * @return Dummy inference pair with a singleton list of
-	 *         {@link EvaluationResult} and an inference exactness flag (that is
-	 *         always true).
-	 */
-	protected List<Triplet<DERIV, List<EvaluationResult>, Boolean>> noFactorGraphDummyInference(
-			List<Pair<DERIV, FactorGraph>> graphPairs) {
-
-		// Factor graph inference (streaming to distribute computation).
-		final List<Triplet<DERIV, List<EvaluationResult>, Boolean>> inferenceTriplets = StreamSupport
-				.stream(Spliterators.spliterator(graphPairs,
-						Spliterator.IMMUTABLE), true)
-				.map(pair -> {
-					final Pair<List<EvaluationResult>, Boolean> inferencePair = doFactorGraphDummyInference(
-							pair.second());
-
-					return Triplet.of(pair.first(), inferencePair.first(),
-							inferencePair.second());
-				}).collect(Collectors.toList());
-
-		return inferenceTriplets;
 	}
 
 	/**
@@ -16,15 +16,26 @@
  *******************************************************************************/
 package edu.uw.cs.lil.amr.parser;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import edu.cornell.cs.nlp.spf.base.concurrency.ITinyExecutor;
+import edu.cornell.cs.nlp.spf.base.concurrency.Shutdownable;
+import edu.cornell.cs.nlp.spf.base.concurrency.TinyExecutorService;
 import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
 import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
 import edu.cornell.cs.nlp.spf.data.situated.sentence.SituatedSentence;
@@ -46,35 +57,65 @@ import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.composites.Triplet;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+import edu.cornell.cs.nlp.utils.log.thread.LoggingThreadFactory;
 import edu.cornell.cs.nlp.utils.math.LogSumExp;
 import edu.uw.cs.lil.amr.data.AMRMeta;
 import edu.uw.cs.lil.amr.parser.GraphAmrDerivation.Builder;
 import edu.uw.cs.lil.amr.parser.factorgraph.FactorGraph;
 import edu.uw.cs.lil.amr.parser.factorgraph.assignmentgen.IAssignmentGeneratorFactory;
 import edu.uw.cs.lil.amr.parser.factorgraph.features.IFactorGraphFeatureSet;
+import edu.uw.cs.lil.amr.parser.factorgraph.inference.LoopyBP;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.IFactor;
+import edu.uw.cs.lil.amr.parser.factorgraph.table.Table;
+import edu.uw.cs.lil.amr.parser.factorgraph.visitor.GetFactors;
 
-public class GraphAmrParser extends
-		AbstractAmrParser<IGraphDerivation<LogicalExpression>> implements
-		IJointGraphParser<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression, LogicalExpression> {
+public class GraphAmrParser
+		extends AbstractAmrParser<IGraphDerivation<LogicalExpression>>
+		implements
+		IJointGraphParser<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression, LogicalExpression>,
+		Shutdownable {
 
 	public static final ILogger													LOG					= LoggerFactory
 			.create(GraphAmrParser.class);
 
 	private static final long													serialVersionUID	= 71078477728726201L;
 
+	private static final String													THREAD_NAME			= "graph-amr";
+
 	private final IGraphParser<SituatedSentence<AMRMeta>, LogicalExpression>	baseParser;
 
+	/**
+	 * Skip the second stage inference of base derivations that can't beat the
+	 * current max-scoring derivation. Only the max-scoring derivations are
+	 * guaranteed to be in the output, so should only be used when only them
+	 * are required (e.g., testing).
+	 */
+	private final boolean														earlyCutoff;
+
+	/**
+	 * Executor for the factor graph creation and inference jobs.
+	 */
+	private transient ITinyExecutor												executor;
+
+	private final Integer														numThreads;
+
 	public GraphAmrParser(
 			IGraphParser<SituatedSentence<AMRMeta>, LogicalExpression> baseParser,
 			IAssignmentGeneratorFactory assignmentGeneratorFactory,
 			Set<IFactorGraphFeatureSet> factorGraphFeatures,
 			double bpConvergenceThreshold, int bpMaxIterations, int maxLimit,
-			Long bpMaxTime, InferenceMethod inferenceMethod, int beamSize,
-			int factorLimit) {
+			Long bpMaxTime, LoopyBP.Schedule bpSchedule,
+			InferenceMethod inferenceMethod, int beamSize, int factorLimit,
+			Integer numThreads, boolean earlyCutoff) {
 		super(assignmentGeneratorFactory, bpConvergenceThreshold,
-				bpMaxIterations, bpMaxTime, beamSize, factorGraphFeatures,
-				factorLimit, inferenceMethod, maxLimit);
+				bpMaxIterations, bpMaxTime, bpSchedule, beamSize,
+				factorGraphFeatures, factorLimit, inferenceMethod, maxLimit);
 		this.baseParser = baseParser;
+		this.numThreads = numThreads;
+		this.earlyCutoff = earlyCutoff;
+		this.executor = createExecutor(numThreads);
+		LOG.info("Init %s :: numThreads=%s, earlyCutoff=%s",
+				GraphAmrParser.class.getSimpleName(), numThreads, earlyCutoff);
 	}
 
 	/**
@@ -140,6 +181,58 @@ public class GraphAmrParser extends
 		return Pair.of(jointDerivations, exact);
 	}
 
+	private static ITinyExecutor createExecutor(Integer numThreads) {
+		return new TinyExecutorService(
+				numThreads == null ? Runtime.getRuntime().availableProcessors()
+						: numThreads,
+				new LoggingThreadFactory(THREAD_NAME),
+				ITinyExecutor.DEFAULT_MONITOR_SLEEP);
+	}
+
+	/**
+	 * Upper bound on the score of any evaluation of the factor graph. The
+	 * score of an evaluation is the sum of the values of the factors for its
+	 * assignment, so the sum of the max value of each factor bounds it. When
+	 * doing sloppy inference factors may be skipped, so they contribute at
+	 * least zero.
+	 */
+	private static double maxEvaluationScore(FactorGraph graph,
+			boolean sloppyInference) {
+		if (graph == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double bound = 0.0;
+		for (final IFactor factor : GetFactors.of(graph)) {
+			final Table table = factor.getTable();
+			if (!table.isLogSpace()) {
+				return Double.POSITIVE_INFINITY;
+			}
+			double max = sloppyInference ? 0.0 : Double.NEGATIVE_INFINITY;
+			final int size = table.size();
+			for (int i = 0; i < size; ++i) {
+				max = Math.max(max, table.getValue(i));
+			}
+			bound += max;
+		}
+		return bound;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return executor.isTerminated();
+	}
+
 	@Override
 	public GraphAmrParserOutput parse(SituatedSentence<AMRMeta> dataItem,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model) {
@@ -229,78 +322,127 @@ public class GraphAmrParser extends
 				&& IsValidAmr.of(s, false, true) && filter.testStep(s);
 
 		// Process each derivation from the base parse (packing possibly many
-		// trees).
-		final long baseProcessingStart = System.currentTimeMillis();
-		// graphPairs is guaranteed to have at most one pair for each base
-		// derivation. Some derivations might be dropped.
-		final List<Pair<IGraphDerivation<LogicalExpression>, FactorGraph>> graphPairs = new ArrayList<>(
-				baseOutput.getAllDerivations().size());
-		for (final IGraphDerivation<LogicalExpression> derivation : baseOutput
-				.getAllDerivations()) {
-			final Pair<IGraphDerivation<LogicalExpression>, FactorGraph> pair = createFactorGraph(
-					derivation, dataItem.getState(), model, intermediateFilter,
-					sloppyInference);
-			if (pair != null) {
-				graphPairs.add(pair);
-			}
+		// trees). The factor graph of each derivation is created and
+		// inferred in a single job, so the inference over a graph starts as
+		// soon as it is created, without waiting for the other derivations.
+		final long secondStageStart = System.currentTimeMillis();
+		final List<IGraphDerivation<LogicalExpression>> derivations = new ArrayList<>(
+				baseOutput.getAllDerivations());
+		if (earlyCutoff) {
+			// Process the highest scoring derivations first to cut off as
+			// many of the rest as possible.
+			derivations.sort(
+					(d1, d2) -> Double.compare(d2.getScore(), d1.getScore()));
 		}
-		final long baseProcessingTime = System.currentTimeMillis()
-				- baseProcessingStart;
-
-		// Do the inference over the factor graph and create the complete
-		// derivations.
-		final Pair<List<GraphAmrDerivation>, Boolean> inferencePair;
-		final long secondStageInferenceStart = System.currentTimeMillis();
-		switch (inferenceMethod) {
-			case BEAM:
-				inferencePair = createDerivations(filter,
-						beamSearchInference(graphPairs, sloppyInference,
-								beamSize == null ? defaultBeamSize : beamSize));
-				break;
-			case LBP:
-				inferencePair = createDerivations(filter,
-						loopyBPInference(graphPairs, model, sloppyInference));
-				break;
-			case NONE:
-				inferencePair = createDerivations(filter,
-						noFactorGraphDummyInference(graphPairs));
-				break;
-			default:
-				throw new IllegalStateException(
-						"Invalid inference method: " + inferenceMethod);
+		final int beam = beamSize == null ? defaultBeamSize : beamSize;
+		final AtomicReference<Double> maxScore = new AtomicReference<>(
+				-Double.MAX_VALUE);
+		final AtomicLong baseProcessingTime = new AtomicLong();
+		final AtomicLong graphInferenceTime = new AtomicLong();
+		final AtomicInteger numCutOff = new AtomicInteger();
+		final List<Future<SecondStageResult>> futures = new ArrayList<>(
+				derivations.size());
+		for (final IGraphDerivation<LogicalExpression> derivation : derivations) {
+			futures.add(executor.submit(() -> {
+				final long processingStart = System.currentTimeMillis();
+				final Pair<IGraphDerivation<LogicalExpression>, FactorGraph> pair = createFactorGraph(
+						derivation, dataItem.getState(), model,
+						intermediateFilter, sloppyInference);
+				baseProcessingTime.addAndGet(
+						System.currentTimeMillis() - processingStart);
+				if (pair == null) {
+					return null;
+				}
+
+				if (earlyCutoff && inferenceMethod != InferenceMethod.NONE
+						&& derivation.getScore() + maxEvaluationScore(
+								pair.second(), sloppyInference) < maxScore
+										.get()) {
+					LOG.debug("Cut off derivation: %s", derivation);
+					numCutOff.incrementAndGet();
+					return null;
+				}
+
+				final long inferenceStart = System.currentTimeMillis();
+				final Pair<List<EvaluationResult>, Boolean> inferencePair = graphInference(
+						pair.second(), model, sloppyInference, beam);
+				graphInferenceTime
+						.addAndGet(System.currentTimeMillis() - inferenceStart);
+
+				if (earlyCutoff) {
+					for (final EvaluationResult result : inferencePair
+							.first()) {
+						if (filter.testResult(result.getResult())) {
+							maxScore.accumulateAndGet(
+									derivation.getScore() + result.getScore(),
+									Math::max);
+						}
+					}
+				}
+
+				return new SecondStageResult(pair, Triplet.of(pair.first(),
+						inferencePair.first(), inferencePair.second()));
+			}));
 		}
-		final long secondStageInferenceTime = System.currentTimeMillis()
-				- secondStageInferenceStart;
 
-		// Copying theta so that the output won't be sensitive to model changes.
-		// Only do this if using LBP, otherwise can get the saved viterbi scores
-		// from the factor graph.
+		// Collect the results in the order of the derivations. graphPairs is
+		// guaranteed to have at most one pair for each base derivation. Some
+		// derivations might be dropped.
+		final List<Pair<IGraphDerivation<LogicalExpression>, FactorGraph>> graphPairs = new ArrayList<>(
+				derivations.size());
+		final List<Triplet<IGraphDerivation<LogicalExpression>, List<EvaluationResult>, Boolean>> inferenceTriplets = new ArrayList<>(
+				derivations.size());
+		try {
+			for (final Future<SecondStageResult> future : futures) {
+				final SecondStageResult result = future.get();
+				if (result != null) {
+					graphPairs.add(result.graphPair);
+					inferenceTriplets.add(result.inferenceTriplet);
+				}
+			}
+		} catch (final InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (final ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			throw new RuntimeException(e.getCause());
+		}
+		final Pair<List<GraphAmrDerivation>, Boolean> inferencePair = createDerivations(
+				filter, inferenceTriplets);
+		final long secondStageTime = System.currentTimeMillis()
+				- secondStageStart;
+
+		// Snapshot theta so that the output won't be sensitive to model
+		// changes. Only do this if using LBP, otherwise can get the saved
+		// viterbi scores from the factor graph. The snapshot is constant time
+		// if the model uses a versioned theta, otherwise theta is copied.
 		final GraphAmrParserOutput output = new GraphAmrParserOutput(
 				inferencePair.first(), baseOutput,
 				System.currentTimeMillis() - startTime, graphPairs,
 				inferencePair.second() && baseOutput.isExact(),
 				inferenceMethod == InferenceMethod.LBP
-						? HashVectorFactory.create(model.getTheta()) : null,
+						? HashVectorFactory.snapshot(model.getTheta()) : null,
 				inferenceMethod);
 
 		final double perecentCky = 100 * baseOutput.getParsingTime()
 				/ (double) output.getInferenceTime();
-		final double percentSecond = 100 * secondStageInferenceTime
+		final double percentSecond = 100 * secondStageTime
 				/ (double) output.getInferenceTime();
-		final double percentBaseProcess = 100 * baseProcessingTime
-				/ (double) output.getInferenceTime();
-		LOG.info(
-				"Total AMR parsing time: %.4fsec (cky=%.2f%%, baseProcess=%.2f%%, fg=%.2f%%)",
-				output.getInferenceTime() / 1000.0, perecentCky,
-				percentBaseProcess, percentSecond);
+		LOG.info("Total AMR parsing time: %.4fsec (cky=%.2f%%, second=%.2f%%)",
+				output.getInferenceTime() / 1000.0, perecentCky, percentSecond);
 		LOG.info("CKY parsing time: %.4fsec (%.2f%%)",
 				baseOutput.getParsingTime() / 1000.0, perecentCky);
-		LOG.info("Processed %d base parses, created %d pairs: %.4fsec (%.2f%%)",
+		LOG.info("Second stage time: %.4fsec (%.2f%%)",
+				secondStageTime / 1000.0, percentSecond);
+		// Processing and inference times are summed over all jobs, so they
+		// can be larger than the second stage time.
+		LOG.info("Processed %d base parses, created %d pairs: %.4fsec",
 				baseOutput.getAllDerivations().size(), graphPairs.size(),
-				baseProcessingTime / 1000.0, percentBaseProcess);
-		LOG.info("Second stage inference time (%d pairs): %.4fsec (%.2f%%)",
-				graphPairs.size(), secondStageInferenceTime / 1000.0,
-				percentSecond);
+				baseProcessingTime.get() / 1000.0);
+		LOG.info("Second stage inference time (%d pairs, %d cut off): %.4fsec",
+				graphPairs.size(), numCutOff.get(),
+				graphInferenceTime.get() / 1000.0);
 
 		return output;
 	}
@@ -313,6 +455,42 @@ public class GraphAmrParser extends
 		return parse(dataItem, model, filter, false, null, beamSize);
 	}
 
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return executor.shutdownNow();
+	}
+
+	/**
+	 * @param ois
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	private void readObject(ObjectInputStream ois)
+			throws ClassNotFoundException, IOException {
+		ois.defaultReadObject();
+		this.executor = createExecutor(numThreads);
+	}
+
+	/**
+	 * The factor graph and inference result of a single base derivation.
+	 */
+	private static class SecondStageResult {
+		private final Pair<IGraphDerivation<LogicalExpression>, FactorGraph>								graphPair;
+		private final Triplet<IGraphDerivation<LogicalExpression>, List<EvaluationResult>, Boolean>	inferenceTriplet;
+
+		public SecondStageResult(
+				Pair<IGraphDerivation<LogicalExpression>, FactorGraph> graphPair,
+				Triplet<IGraphDerivation<LogicalExpression>, List<EvaluationResult>, Boolean> inferenceTriplet) {
+			this.graphPair = graphPair;
+			this.inferenceTriplet = inferenceTriplet;
+		}
+	}
+
 	public static class Creator
 			implements IResourceObjectCreator<GraphAmrParser> {
 
@@ -340,9 +518,14 @@ public class GraphAmrParser extends
 					params.getAsInteger("maxParsesLimit", 200),
 					params.contains("bpTime") ? params.getAsLong("bpTime")
 							: null,
+					LoopyBP.Schedule
+							.valueOf(params.get("bpSchedule", "FLOODING")),
 					InferenceMethod.valueOf(params.get("infer")),
 					params.getAsInteger("beam", 50),
-					params.getAsInteger("factorLimit", 1000));
+					params.getAsInteger("factorLimit", 1000),
+					params.contains("threads") ? params.getAsInteger("threads")
+							: null,
+					params.getAsBoolean("earlyCutoff", false));
 		}
 
 		@Override
@@ -365,12 +548,18 @@ public class GraphAmrParser extends
 							"Hard limit of the number of factors in a factor graph (default: 1000)")
 					.addParam("graphFeatures", IFactorGraphFeatureSet.class,
 							"List of factor graph feature sets")
+					.addParam("bpSchedule", LoopyBP.Schedule.class,
+							"LBP message schedule: FLOODING or RESIDUAL (not used with BEAM) (default: FLOODING)")
 					.addParam("bpThreshold", Double.class,
 							"LBP convergence threshold (not used with BEAM) (default: 0.001)")
 					.addParam("bpIter", Integer.class,
 							"LBP maximum number of iterations (not used with BEAM) (default: 100)")
 					.addParam("maxParsesLimit", Integer.class,
 							"Max number of expressions to extract from a factor graph (default: 200)")
+					.addParam("threads", Integer.class,
+							"Number of threads for factor graph creation and inference (default: number of processors)")
+					.addParam("earlyCutoff", Boolean.class,
+							"Skip factor graph inference for base derivations that can't beat the current max-scoring derivation, only the max-scoring output is preserved (default: false)")
 					.build();
 		}
 	}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.uw.cs.lil.amr.parser.factorgraph.features;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import edu.cornell.cs.nlp.spf.base.hashvector.IHashVectorImmutable;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.IBaseNode;
+
+/**
+ * Memoizes the feature vectors of a single factor template. Base derivations
+ * of a sentence share most of their sub-expressions, so the same factor (the
+ * same node expressions and candidate assignments) is created for many factor
+ * graphs, and the same constants re-appear across sentences. The feature
+ * vector of a table entry depends only on the expressions of the connected
+ * nodes and on the values assigned to them, so it's computed once and shared.
+ * Feature vectors don't depend on the model parameters, so the cache stays
+ * valid when the model is updated. Scores are not cached.
+ * <p>
+ * Each cache must be used with a single feature function (i.e., a single
+ * factor template). The cache is thread safe. When it grows beyond its
+ * capacity it's cleared.
+ *
+ * @author Yoav Artzi
+ */
+public class FactorFeatureCache {
+
+	public static final int							DEFAULT_CAPACITY	= 100000;
+
+	private final Map<Key, IHashVectorImmutable>	cache				= new ConcurrentHashMap<>();
+	private final int								capacity;
+
+	public FactorFeatureCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FactorFeatureCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Get the features for the given node values, computing them if they
+	 * are not cached.
+	 *
+	 * @param values
+	 *            The values of the nodes. Not modified, and the cache doesn't
+	 *            keep a reference to it.
+	 * @param nodes
+	 *            The nodes connected to the factor.
+	 */
+	public IHashVectorImmutable get(LogicalExpression[] values,
+			IBaseNode[] nodes,
+			BiFunction<LogicalExpression[], IBaseNode[], IHashVectorImmutable> featureFunction) {
+		final Key key = new Key(values, nodes);
+		final IHashVectorImmutable cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		// Compute outside of the map to avoid holding its locks.
+		final IHashVectorImmutable features = featureFunction.apply(values,
+				nodes);
+		if (cache.size() >= capacity) {
+			cache.clear();
+		}
+		cache.put(key, features);
+		return features;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * The expressions of the nodes followed by the values assigned to them.
+	 * For dummy nodes the two are identical.
+	 */
+	private static class Key {
+		private final LogicalExpression[]	expressions;
+		private final int					hashCode;
+
+		public Key(LogicalExpression[] values, IBaseNode[] nodes) {
+			final int len = nodes.length;
+			this.expressions = Arrays.copyOf(values, len * 2);
+			for (int i = 0; i < len; ++i) {
+				expressions[len + i] = nodes[i] == null ? null
+						: nodes[i].getExpression();
+			}
+			this.hashCode = Arrays.hashCode(expressions);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hashCode == other.hashCode
+					&& Arrays.equals(expressions, other.expressions);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+}
@@ -71,6 +71,24 @@ public class FactorGraphFeatureServices {
 			BiFunction<LogicalExpression[], IBaseNode[], IHashVectorImmutable> featureFunction,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model,
 			String factorId, IBaseNode... nodes) {
+		addFactor(featureFunction, model, factorId, null, nodes);
+	}
+
+	/**
+	 * Create a factor using the given feature function, memoizing the feature
+	 * vectors of the table in the given cache. See
+	 * {@link #addFactor(BiFunction, IJointDataItemModel, String, IBaseNode...)}
+	 * .
+	 *
+	 * @param cache
+	 *            Cache of the feature vectors of this factor template. The
+	 *            feature function must depend only on the given values and on
+	 *            the expressions of the nodes. May be null.
+	 */
+	public static void addFactor(
+			BiFunction<LogicalExpression[], IBaseNode[], IHashVectorImmutable> featureFunction,
+			IJointDataItemModel<LogicalExpression, LogicalExpression> model,
+			String factorId, FactorFeatureCache cache, IBaseNode... nodes) {
 		final int numNodes = nodes.length;
 
 		final long startTime = System.currentTimeMillis();
@@ -139,8 +157,9 @@ public class FactorGraphFeatureServices {
 			}
 
 			// Compute the features.
-			final IHashVectorImmutable featureVector = featureFunction
-					.apply(nodeValues, nodes);
+			final IHashVectorImmutable featureVector = cache == null
+					? featureFunction.apply(nodeValues, nodes)
+					: cache.get(nodeValues, nodes, featureFunction);
 
 			if (featureVector.size() != 0) {
 				featuresSet = true;
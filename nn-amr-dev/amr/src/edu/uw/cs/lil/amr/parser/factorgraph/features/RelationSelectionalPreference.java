@@ -16,6 +16,8 @@
  *******************************************************************************/
 package edu.uw.cs.lil.amr.parser.factorgraph.features;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -57,10 +59,24 @@ import edu.uw.cs.lil.amr.parser.factorgraph.visitor.IFactorGraphVisitor;
  * @author Yoav Artzi
  */
 public class RelationSelectionalPreference implements IFactorGraphFeatureSet {
-	public static ILogger		LOG					= LoggerFactory
+	public static ILogger					LOG					= LoggerFactory
 			.create(RelationSelectionalPreference.class);
-	private static final String	FEATURE_TAG			= "RELPREF";
-	private static final long	serialVersionUID	= 6705348696794469458L;
+	private static final String				FEATURE_TAG			= "RELPREF";
+	private static final long				serialVersionUID	= 6705348696794469458L;
+
+	/**
+	 * Feature vectors of relations between a variable and a constant, shared
+	 * across factor graphs.
+	 */
+	private transient FactorFeatureCache	constantArgCache	= new FactorFeatureCache();
+
+	/**
+	 * Feature vectors of relations between a variable and a skolem term,
+	 * shared across factor graphs. Factors that include a reference are not
+	 * cached: they are connected to skolem IDs, which are unique to each
+	 * derivation.
+	 */
+	private transient FactorFeatureCache	skolemArgCache		= new FactorFeatureCache();
 
 	@Override
 	public List<Runnable> createFactorJobs(FactorGraph graph, AMRMeta meta,
@@ -71,6 +87,13 @@ public class RelationSelectionalPreference implements IFactorGraphFeatureSet {
 		return visitor.jobs;
 	}
 
+	private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		constantArgCache = new FactorFeatureCache();
+		skolemArgCache = new FactorFeatureCache();
+	}
+
 	public static class Creator
 			implements IResourceObjectCreator<RelationSelectionalPreference> {
 
@@ -456,6 +479,7 @@ public class RelationSelectionalPreference implements IFactorGraphFeatureSet {
 									}
 									return features;
 								} , model, FEATURE_TAG + factorNumber,
+												skolemArgCache,
 												firstArgTypingPredicate,
 												node.getPredicate(),
 												secondArgTypingPredicate);
@@ -567,6 +591,7 @@ public class RelationSelectionalPreference implements IFactorGraphFeatureSet {
 								}
 								return features;
 							} , model, FEATURE_TAG + factorNumber,
+											constantArgCache,
 											firstArgTypingPredicate,
 											node.getPredicate(),
 											node.getArgs().get(1));
@@ -16,6 +16,8 @@
  *******************************************************************************/
 package edu.uw.cs.lil.amr.parser.factorgraph.features;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -45,17 +47,28 @@ import edu.uw.cs.lil.amr.parser.factorgraph.visitor.IFactorGraphVisitor;
  */
 public class SurfaceFormFeature implements IFactorGraphFeatureSet {
 
-	private static final String	FEATURE_TAG			= "FACLEX";
-	private static final long	serialVersionUID	= 7261357534739016098L;
+	private static final String				FEATURE_TAG			= "FACLEX";
+	private static final long				serialVersionUID	= 7261357534739016098L;
+
+	/**
+	 * Feature vectors of the factors, shared across factor graphs.
+	 */
+	private transient FactorFeatureCache	cache				= new FactorFeatureCache();
 
 	@Override
 	public List<Runnable> createFactorJobs(FactorGraph graph, AMRMeta meta,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model) {
-		final Visitor visitor = new Visitor(model);
+		final Visitor visitor = new Visitor(model, cache);
 		visitor.visit(graph.getRoot());
 		return visitor.jobs;
 	}
 
+	private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		cache = new FactorFeatureCache();
+	}
+
 	public static class Creator
 			implements IResourceObjectCreator<SurfaceFormFeature> {
 
@@ -94,13 +107,16 @@ public class SurfaceFormFeature implements IFactorGraphFeatureSet {
 
 	private static class Visitor implements IFactorGraphVisitor {
 
+		private final FactorFeatureCache										cache;
 		private int																counter	= 0;
 		private final List<Runnable>											jobs	= new LinkedList<>();
 		private final IJointDataItemModel<LogicalExpression, LogicalExpression>	model;
 
 		public Visitor(
-				IJointDataItemModel<LogicalExpression, LogicalExpression> model) {
+				IJointDataItemModel<LogicalExpression, LogicalExpression> model,
+				FactorFeatureCache cache) {
 			this.model = model;
+			this.cache = cache;
 		}
 
 		@Override
@@ -144,7 +160,7 @@ public class SurfaceFormFeature implements IFactorGraphFeatureSet {
 										1.0);
 							}
 							return features;
-						} , model, FEATURE_TAG + factorNumber, node);
+						} , model, FEATURE_TAG + factorNumber, cache, node);
 					});
 
 				}
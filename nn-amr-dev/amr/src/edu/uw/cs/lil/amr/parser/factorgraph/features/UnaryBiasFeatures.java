@@ -16,6 +16,8 @@
  *******************************************************************************/
 package edu.uw.cs.lil.amr.parser.factorgraph.features;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -43,8 +45,13 @@ import edu.uw.cs.lil.amr.parser.factorgraph.visitor.IFactorGraphVisitor;
  */
 public class UnaryBiasFeatures implements IFactorGraphFeatureSet {
 
-	private static final String	FEATURE_TAG			= "UNARY";
-	private static final long	serialVersionUID	= 1051428769489657239L;
+	private static final String				FEATURE_TAG			= "UNARY";
+	private static final long				serialVersionUID	= 1051428769489657239L;
+
+	/**
+	 * Feature vectors of the factors, shared across factor graphs.
+	 */
+	private transient FactorFeatureCache	cache				= new FactorFeatureCache();
 
 	private static String toFeatureString(LogicalExpression exp) {
 		if (exp instanceof LogicalConstant) {
@@ -59,11 +66,17 @@ public class UnaryBiasFeatures implements IFactorGraphFeatureSet {
 	@Override
 	public List<Runnable> createFactorJobs(FactorGraph graph, AMRMeta meta,
 			IJointDataItemModel<LogicalExpression, LogicalExpression> model) {
-		final Visitor visitor = new Visitor(model);
+		final Visitor visitor = new Visitor(model, cache);
 		visitor.visit(graph.getRoot());
 		return visitor.jobs;
 	}
 
+	private void readObject(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		cache = new FactorFeatureCache();
+	}
+
 	public static class Creator
 			implements IResourceObjectCreator<UnaryBiasFeatures> {
 
@@ -100,13 +113,16 @@ public class UnaryBiasFeatures implements IFactorGraphFeatureSet {
 
 	private static class Visitor implements IFactorGraphVisitor {
 
+		private final FactorFeatureCache										cache;
 		private int																counter	= 0;
 		private final List<Runnable>											jobs	= new LinkedList<>();
 		private final IJointDataItemModel<LogicalExpression, LogicalExpression>	model;
 
 		public Visitor(
-				IJointDataItemModel<LogicalExpression, LogicalExpression> model) {
+				IJointDataItemModel<LogicalExpression, LogicalExpression> model,
+				FactorFeatureCache cache) {
 			this.model = model;
+			this.cache = cache;
 		}
 
 		@Override
@@ -129,7 +145,7 @@ public class UnaryBiasFeatures implements IFactorGraphFeatureSet {
 								toFeatureString(values[0]), 1.0);
 
 						return features;
-					} , model, FEATURE_TAG + factorNumber, node);
+					} , model, FEATURE_TAG + factorNumber, cache, node);
 				});
 
 			}
@@ -0,0 +1,318 @@
+package edu.uw.cs.lil.amr.parser.factorgraph.inference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cornell.cs.nlp.utils.math.LogSumExp;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.Edge;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.IFactor;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.INode;
+import edu.uw.cs.lil.amr.parser.factorgraph.table.Table;
+import edu.uw.cs.lil.amr.parser.factorgraph.table.Table.FactorTable;
+
+/**
+ * Precomputed marginalization plan and scratch buffers for the two messages of
+ * a single edge. The plan holds the int-indexed layout of the factor table
+ * (strides and number of values of each connected variable) and the plans of
+ * the neighboring edges. Each message is first computed into a pending buffer
+ * directly over the flat value arrays, and then committed in place to the edge
+ * table. All computation is in log-space.
+ * <p>
+ * Only the messages of the plan's own edge are written, so plans can be
+ * updated in parallel when all plans are updated in one direction before the
+ * other direction.
+ *
+ * @author Yoav Artzi
+ */
+class EdgePlan {
+	private final Edge			edge;
+
+	/**
+	 * Other edges connected to the factor of this edge.
+	 */
+	private EdgePlan[]			factorEdges;
+
+	/**
+	 * The number of values of the variable of each edge in
+	 * {@link #factorEdges}.
+	 */
+	private int[]				factorNumValues;
+
+	/**
+	 * The stride of the variable of each edge in {@link #factorEdges} in the
+	 * factor table.
+	 */
+	private int[]				factorStrides;
+
+	/**
+	 * Factor table values.
+	 */
+	private final FactorTable	factorTable;
+
+	/**
+	 * The index of the edge in the array of plans.
+	 */
+	private final int			index;
+
+	/**
+	 * Scratch buffer for the max value of each assignment when marginalizing
+	 * the factor table.
+	 */
+	private final double[]		max;
+
+	/**
+	 * Pending variable-to-factor message.
+	 */
+	private final double[]		nextToFactor;
+
+	/**
+	 * Pending factor-to-variable message.
+	 */
+	private final double[]		nextToVariable;
+
+	/**
+	 * The number of values of the variable of this edge.
+	 */
+	private final int			numValues;
+
+	/**
+	 * The stride of the variable of this edge in the factor table.
+	 */
+	private final int			stride;
+
+	private final Table			toFactorMessage;
+
+	private final Table			toVariableMessage;
+
+	/**
+	 * Other edges connected to the variable of this edge.
+	 */
+	private EdgePlan[]			variableEdges;
+
+	private EdgePlan(Edge edge, int index) {
+		this.edge = edge;
+		this.index = index;
+		this.factorTable = edge.getFactor().getTable();
+		this.toFactorMessage = edge.getToFactorMessage();
+		this.toVariableMessage = edge.getToVariableMessage();
+		this.numValues = edge.getVariable().numAssignments();
+		this.stride = factorTable
+				.getStride(factorTable.getColumn(edge.getVariable()));
+		this.nextToFactor = new double[numValues];
+		this.nextToVariable = new double[numValues];
+		this.max = new double[numValues];
+	}
+
+	/**
+	 * Compile the plans of all the given edges. The index of each plan is the
+	 * index of its edge in the given array. All the neighbors of each edge
+	 * must be in the array.
+	 */
+	public static EdgePlan[] create(Edge[] edges) {
+		final Map<Edge, Integer> edgeIndices = new HashMap<>();
+		for (int i = 0; i < edges.length; ++i) {
+			edgeIndices.put(edges[i], i);
+		}
+
+		final EdgePlan[] plans = new EdgePlan[edges.length];
+		for (int i = 0; i < edges.length; ++i) {
+			plans[i] = new EdgePlan(edges[i], i);
+		}
+
+		for (final EdgePlan plan : plans) {
+			// Other edges of the variable.
+			final INode variable = plan.edge.getVariable();
+			final EdgePlan[] variableEdges = new EdgePlan[variable.numEdges()
+					- 1];
+			for (int j = 0, k = 0; j < variable.numEdges(); ++j) {
+				final Edge other = variable.getEdge(j);
+				if (other != plan.edge) {
+					variableEdges[k++] = plans[edgeIndices.get(other)];
+				}
+			}
+
+			// Other edges of the factor, with the stride and number of values
+			// of their variable in the factor table.
+			final IFactor factor = plan.edge.getFactor();
+			final FactorTable factorTable = factor.getTable();
+			final int numFactorEdges = factor.numEdges();
+			final EdgePlan[] factorEdges = new EdgePlan[numFactorEdges - 1];
+			final int[] factorStrides = new int[numFactorEdges - 1];
+			final int[] factorNumValues = new int[numFactorEdges - 1];
+			for (int j = 0, k = 0; j < numFactorEdges; ++j) {
+				final Edge other = factor.getEdge(j);
+				if (other != plan.edge) {
+					final int column = factorTable
+							.getColumn(other.getVariable());
+					factorEdges[k] = plans[edgeIndices.get(other)];
+					factorStrides[k] = factorTable.getStride(column);
+					factorNumValues[k] = factorTable.getHeader(column)
+							.numValues();
+					++k;
+				}
+			}
+
+			plan.variableEdges = variableEdges;
+			plan.factorEdges = factorEdges;
+			plan.factorStrides = factorStrides;
+			plan.factorNumValues = factorNumValues;
+		}
+
+		return plans;
+	}
+
+	private static void normalize(double[] values) {
+		final double sum = LogSumExp.of(values);
+		final int length = values.length;
+		for (int i = 0; i < length; ++i) {
+			values[i] -= sum;
+		}
+	}
+
+	/**
+	 * The maximum difference in probability between the pending and the
+	 * current message.
+	 */
+	private static double residual(double[] next, Table current) {
+		double residual = 0.0;
+		final int length = next.length;
+		for (int i = 0; i < length; ++i) {
+			final double diff = Math
+					.abs(Math.exp(next[i]) - Math.exp(current.getValue(i)));
+			if (diff > residual) {
+				residual = diff;
+			}
+		}
+		return residual;
+	}
+
+	public void commitToFactorMessage() {
+		toFactorMessage.setValues(nextToFactor);
+	}
+
+	public void commitToVariableMessage() {
+		toVariableMessage.setValues(nextToVariable);
+	}
+
+	/**
+	 * Compute the pending variable-to-factor message: the product (sum in
+	 * log-space) of all incoming factor-to-variable messages, except the one
+	 * of this edge.
+	 */
+	public void computeToFactorMessage() {
+		Arrays.fill(nextToFactor, 0.0);
+		for (final EdgePlan incoming : variableEdges) {
+			final Table incomingMessage = incoming.toVariableMessage;
+			for (int k = 0; k < numValues; ++k) {
+				nextToFactor[k] += incomingMessage.getValue(k);
+			}
+		}
+		normalize(nextToFactor);
+	}
+
+	/**
+	 * Compute the pending factor-to-variable message: multiply (add in
+	 * log-space) all incoming variable-to-factor messages, except the one of
+	 * this edge, into the factor table and marginalize all variables except
+	 * the one of this edge. Marginalization is done with two passes over the
+	 * factor table (max, and then sum-exp), to avoid allocating the product
+	 * table.
+	 *
+	 * @param maxProduct
+	 *            Maximize over the other variables instead of summing them
+	 *            out (max-product).
+	 */
+	public void computeToVariableMessage(boolean maxProduct) {
+		final int size = factorTable.size();
+		final int numFactorEdges = factorEdges.length;
+
+		// First pass: get the max value for each assignment.
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < size; ++i) {
+			final double value = productValue(i, numFactorEdges);
+			final int k = i / stride % numValues;
+			if (value > max[k]) {
+				max[k] = value;
+			}
+		}
+
+		if (maxProduct) {
+			System.arraycopy(max, 0, nextToVariable, 0, numValues);
+		} else {
+			// Second pass: sum the exponents.
+			Arrays.fill(nextToVariable, 0.0);
+			for (int i = 0; i < size; ++i) {
+				final int k = i / stride % numValues;
+				if (max[k] != Double.NEGATIVE_INFINITY) {
+					nextToVariable[k] += Math
+							.exp(productValue(i, numFactorEdges) - max[k]);
+				}
+			}
+			for (int k = 0; k < numValues; ++k) {
+				nextToVariable[k] = max[k] == Double.NEGATIVE_INFINITY
+						? Double.NEGATIVE_INFINITY
+						: max[k] + Math.log(nextToVariable[k]);
+			}
+		}
+
+		normalize(nextToVariable);
+	}
+
+	public Edge getEdge() {
+		return edge;
+	}
+
+	public EdgePlan[] getFactorEdges() {
+		return factorEdges;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public EdgePlan[] getVariableEdges() {
+		return variableEdges;
+	}
+
+	public double toFactorResidual() {
+		return residual(nextToFactor, toFactorMessage);
+	}
+
+	public double toVariableResidual() {
+		return residual(nextToVariable, toVariableMessage);
+	}
+
+	/**
+	 * Compute and commit the variable-to-factor message.
+	 *
+	 * @return 'true' if the message changed more than the threshold.
+	 */
+	public boolean updateToFactorMessage(double changeThreashold) {
+		computeToFactorMessage();
+		final boolean changed = toFactorResidual() > changeThreashold;
+		commitToFactorMessage();
+		return changed;
+	}
+
+	/**
+	 * Compute and commit the factor-to-variable message (sum-product).
+	 *
+	 * @return 'true' if the message changed more than the threshold.
+	 */
+	public boolean updateToVariableMessage(double changeThreashold) {
+		computeToVariableMessage(false);
+		final boolean changed = toVariableResidual() > changeThreashold;
+		commitToVariableMessage();
+		return changed;
+	}
+
+	private double productValue(int valueIndex, int numFactorEdges) {
+		double value = factorTable.getValue(valueIndex);
+		for (int j = 0; j < numFactorEdges; ++j) {
+			value += factorEdges[j].toFactorMessage.getValue(
+					valueIndex / factorStrides[j] % factorNumValues[j]);
+		}
+		return value;
+	}
+}
@@ -1,19 +1,18 @@
 package edu.uw.cs.lil.amr.parser.factorgraph.inference;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
-import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 import edu.uw.cs.lil.amr.parser.factorgraph.FactorGraph;
 import edu.uw.cs.lil.amr.parser.factorgraph.nodes.Edge;
-import edu.uw.cs.lil.amr.parser.factorgraph.nodes.IFactor;
 import edu.uw.cs.lil.amr.parser.factorgraph.nodes.INode;
 import edu.uw.cs.lil.amr.parser.factorgraph.table.Table;
 import edu.uw.cs.lil.amr.parser.factorgraph.table.Table.FactorTable;
@@ -21,22 +20,62 @@ import edu.uw.cs.lil.amr.parser.factorgraph.visitor.GetEdges;
 import edu.uw.cs.lil.amr.parser.factorgraph.visitor.GetFactors;
 import edu.uw.cs.lil.amr.parser.factorgraph.visitor.GetVariables;
 
+/**
+ * Loopy belief propagation (sum-product) in log-space. Before message passing
+ * starts, each edge is compiled into an {@link EdgePlan} that holds the
+ * int-indexed layout of the factor table (strides and number of values of
+ * each connected variable) and scratch buffers. Messages are then computed
+ * directly over the flat value arrays of the tables and updated in place,
+ * without allocating tables or value mappings in each iteration.
+ * <p>
+ * Connected components of the graph that are acyclic are solved exactly with
+ * {@link TreeBP} (one sum-product pass for the marginals and one max-product
+ * pass for the max-marginals of the variables, see
+ * {@link INode#getMaxBelief()}). Iterative message passing is only done for
+ * cyclic components, where messages are scheduled according to a
+ * {@link Schedule}: either synchronous flooding (all messages are updated in
+ * each iteration) or residual BP (Elidan et al. 2006), which always commits
+ * the message with the largest pending change.
+ *
+ * @author Yoav Artzi
+ */
 public class LoopyBP {
 	public static final ILogger	LOG	= LoggerFactory.create(LoopyBP.class);
 
-	public static void of(FactorGraph graph, double changeThreashold,
+	public static Stats of(FactorGraph graph, double changeThreashold,
 			int maxIterations) {
-		of(graph, changeThreashold, maxIterations, null);
+		return of(graph, changeThreashold, maxIterations, null);
 	}
 
-	public static void of(FactorGraph graph, double changeThreashold,
+	public static Stats of(FactorGraph graph, double changeThreashold,
 			int maxIterations, Long maxTime) {
+		return of(graph, changeThreashold, maxIterations, maxTime,
+				Schedule.FLOODING);
+	}
+
+	/**
+	 * @param changeThreashold
+	 *            Convergence threshold. A message is considered changed if
+	 *            the probability of any of its values changed by more than
+	 *            this threshold.
+	 * @param maxIterations
+	 *            Maximum number of iterations. With {@link Schedule#RESIDUAL},
+	 *            the number of message updates is limited to the number of
+	 *            updates done by this number of flooding iterations.
+	 * @param maxTime
+	 *            Time limit in milliseconds (can be null).
+	 */
+	public static Stats of(FactorGraph graph, double changeThreashold,
+			int maxIterations, Long maxTime, Schedule schedule) {
 		final long startTime = System.currentTimeMillis();
 
 		// Get all the edges in the graph into an array for fast access.
 		final Set<Edge> edgeSet = GetEdges.of(graph);
 		final Edge[] edges = edgeSet.toArray(new Edge[edgeSet.size()]);
 
+		// Compile the marginalization plan of each edge.
+		final EdgePlan[] plans = EdgePlan.create(edges);
+
 		// Init all messages to 1.0.
 		StreamSupport.stream(
 				Spliterators.<Edge> spliterator(edges, Spliterator.IMMUTABLE),
@@ -45,136 +84,91 @@ public class LoopyBP {
 			edge.getToVariableMessage().setAll(1.0);
 		});
 
+		// Split the graph into connected components. Acyclic components are
+		// solved exactly, and only cyclic components require loopy inference.
+		final List<EdgePlan[]> trees = new ArrayList<>();
+		final List<EdgePlan> loopyPlans = new ArrayList<>();
+		for (final EdgePlan[] component : TreeBP.components(plans)) {
+			if (TreeBP.isAcyclic(component)) {
+				trees.add(component);
+			} else {
+				loopyPlans.addAll(Arrays.asList(component));
+			}
+		}
+
+		// Exact inference for the acyclic components. First, max-product to
+		// set the max-marginals of the variables, and then sum-product for
+		// the marginals.
+		GetVariables.of(graph)
+				.forEach(variable -> variable.setMaxBelief(null));
+		final long treeMessages = trees.parallelStream()
+				.mapToLong((EdgePlan[] component) -> {
+					final TreeBP tree = new TreeBP(component);
+					long computed = tree.run(true);
+					setMaxBeliefs(component);
+					computed += tree.run(false);
+					return computed;
+				}).sum();
+
+		final EdgePlan[] loopy = loopyPlans
+				.toArray(new EdgePlan[loopyPlans.size()]);
+		final Stats loopyStats;
+		switch (schedule) {
+			case FLOODING:
+				loopyStats = flooding(loopy, changeThreashold, maxIterations,
+						maxTime, startTime);
+				break;
+			case RESIDUAL:
+				loopyStats = residual(loopy, plans.length, changeThreashold,
+						maxIterations, maxTime, startTime);
+				break;
+			default:
+				throw new IllegalStateException(
+						"Invalid schedule: " + schedule);
+		}
+		final Stats stats = new Stats(loopyStats.isConverged(),
+				loopyStats.getIterations(),
+				loopyStats.getMessagesComputed() + treeMessages,
+				loopyStats.getMessagesUpdated() + treeMessages);
+
+		setBeliefs(graph);
+
+		LOG.info("LBP time: %fsec (%s, trees=%d, loopy edges=%d, %s)",
+				(System.currentTimeMillis() - startTime) / 1000.0, schedule,
+				trees.size(), loopy.length, stats);
+
+		return stats;
+	}
+
+	/**
+	 * Synchronous schedule: in each iteration, update all variable-to-factor
+	 * messages and then all factor-to-variable messages.
+	 */
+	private static Stats flooding(EdgePlan[] plans, double changeThreashold,
+			int maxIterations, Long maxTime, long startTime) {
+		long messagesComputed = 0;
 		boolean converged = false;
 		int iteration = 0;
 		while (!converged) {
 			// Update all variable-to-factor messages.
 			Integer numChanged = StreamSupport
-					.stream(Spliterators.<Edge> spliterator(edges,
+					.stream(Spliterators.<EdgePlan> spliterator(plans,
 							Spliterator.IMMUTABLE), true)
-					.map((Edge edge) -> {
-						final Table table = edge.getToFactorMessage()
-								.cloneEmpty();
-
-						final INode variable = edge.getVariable();
-						final Map<INode, LogicalExpression> valueMapping = new HashMap<>();
-						final int numAssignments = variable.numAssignments();
-						final int numEdges = variable.numEdges();
-						for (int incomingEdgeIndex = 0; incomingEdgeIndex < numEdges; ++incomingEdgeIndex) {
-							final Edge incomingEdge = variable
-									.getEdge(incomingEdgeIndex);
-							// Skip the current edge.
-							if (incomingEdge != edge) {
-								final Table incomingTable = incomingEdge
-										.getToVariableMessage();
-								for (int assignmentIndex = 0; assignmentIndex < numAssignments; ++assignmentIndex) {
-									final LogicalExpression assignment = variable
-											.getAssignment(assignmentIndex);
-									// Set the mapping to marginalize
-									// everything, for
-									// all lines with the current
-									// assignment
-									// for the
-									// variable.
-									valueMapping.put(variable, assignment);
-									// Multiply by the marginalized
-									// value
-									// (marginalized
-									// over all variables except the one
-									// of
-									// this edge).
-									// Since the tables are in
-									// log-space,
-									// instead of
-									// multiplication, simply add the
-									// value.
-									table.add(valueMapping,
-											incomingTable.get(valueMapping));
-								}
-							}
-						}
-						table.normalize();
-						final boolean changed = !table.equals(
-								edge.getToFactorMessage(), changeThreashold);
-
-						edge.setToFactorMessage(table);
-						return changed;
-					})
-					.collect(
-							Collectors
-									.summingInt((Boolean changed) -> (changed ? 1
-											: 0)));
+					.map((EdgePlan plan) -> plan
+							.updateToFactorMessage(changeThreashold))
+					.collect(Collectors.summingInt(
+							(Boolean changed) -> changed ? 1 : 0));
 
 			// Update all factor-to-variables messages.
 			numChanged += StreamSupport
-					.stream(Spliterators.<Edge> spliterator(edges,
+					.stream(Spliterators.<EdgePlan> spliterator(plans,
 							Spliterator.IMMUTABLE), true)
-					.map((Edge edge) -> {
-
-						final INode variable = edge.getVariable();
-						final IFactor factor = edge.getFactor();
-
-						// Create a table to aggregate the product before
-						// marginalization (sum).
-						final Table productTable = factor.getTable().clone();
-
-						// Multiply each incoming message into the product
-						// table.
-						final Map<INode, LogicalExpression> valueMapping = new HashMap<>();
-						final int numEdges = factor.numEdges();
-						for (int incomingEdgeIndex = 0; incomingEdgeIndex < numEdges; ++incomingEdgeIndex) {
-							final Edge incomingEdge = factor
-									.getEdge(incomingEdgeIndex);
-							// Skip the current edge.
-							if (incomingEdge != edge) {
-								final Table incomingTable = incomingEdge
-										.getToFactorMessage();
-								valueMapping.clear();
-								final int numAssignments = incomingEdge
-										.getVariable().numAssignments();
-								for (int assignmentIndex = 0; assignmentIndex < numAssignments; ++assignmentIndex) {
-									final LogicalExpression assignment = incomingEdge
-											.getVariable().getAssignment(
-													assignmentIndex);
-									valueMapping.put(
-											incomingEdge.getVariable(),
-											assignment);
-									// Use addition instead of
-									// multiplication since all
-									// calculation is in log-space.
-									productTable.add(valueMapping,
-											incomingTable.get(valueMapping));
-								}
-							}
-						}
-
-						final Table table = edge.getToVariableMessage()
-								.cloneEmpty();
-
-						// Marginalize all variables except the current one
-						// (the target
-						// of this edge).
-						valueMapping.clear();
-						final int numAssignments = variable.numAssignments();
-						for (int k = 0; k < numAssignments; ++k) {
-							final LogicalExpression assignment = variable
-									.getAssignment(k);
-							valueMapping.put(variable, assignment);
-							table.set(valueMapping,
-									productTable.get(valueMapping));
-						}
-						table.normalize();
-
-						final boolean changed = !table.equals(
-								edge.getToVariableMessage(), changeThreashold);
-
-						edge.setToVariableMessage(table);
-						return changed;
-					})
-					.collect(
-							Collectors
-									.summingInt((Boolean changed) -> (changed ? 1
-											: 0)));
+					.map((EdgePlan plan) -> plan
+							.updateToVariableMessage(changeThreashold))
+					.collect(Collectors.summingInt(
+							(Boolean changed) -> changed ? 1 : 0));
+
+			messagesComputed += 2 * plans.length;
 
 			if (numChanged == 0) {
 				converged = true;
@@ -193,86 +187,336 @@ public class LoopyBP {
 
 		}
 
-		// Set the belief of each variable node.
-		GetVariables
-				.of(graph)
-				.parallelStream()
-				.forEach((INode variable) -> {
-					// The final belief is going to be a normalized
-					// distribution, so not
-					// in log-space. However, some of the computation ahead
-					// are
-					// in
-					// log-space. The values will be normalized and
-					// exponentiated at the
-					// end.
-						final Table variableBelief = new Table(true, variable
-								.getColumnHeader());
-						// Set initial values to log(1.0).
-						variableBelief.setAll(0.0);
-						final Map<INode, LogicalExpression> mapping = new HashMap<>();
-						final int len = variable.numEdges();
-						for (int j = 0; j < len; ++j) {
-							final Edge edge = variable.getEdge(j);
-							final int numAssignments = variable
-									.numAssignments();
-							for (int k = 0; k < numAssignments; ++k) {
-								final LogicalExpression assignment = variable
-										.getAssignment(k);
-								mapping.put(variable, assignment);
-								// Multiplication in log-space, so
-								// summation.
-								variableBelief.add(mapping, edge
-										.getToVariableMessage().get(mapping));
-							}
-						}
-
-						// Normalize. TODO do we need this?
-						variableBelief.normalize();
-
-						variable.setBelief(variableBelief);
-					});
+		return new Stats(converged, iteration, messagesComputed,
+				messagesComputed);
+	}
+
+	/**
+	 * Residual schedule: keep the pending value of each message and its
+	 * residual (the maximum change in probability if committed). Always commit
+	 * the message with the largest residual, and re-compute only the messages
+	 * that depend on it. Converged when the largest residual is below the
+	 * threshold.
+	 *
+	 * @param plans
+	 *            The plans to update. Must be closed under dependencies.
+	 * @param numEdges
+	 *            The total number of edges in the graph (plan indices are in
+	 *            [0, numEdges)).
+	 */
+	private static Stats residual(EdgePlan[] plans, int numEdges,
+			double changeThreashold, int maxIterations, Long maxTime,
+			long startTime) {
+		// Messages are indexed by the edge index: [0, n) are
+		// variable-to-factor messages, and [n, 2n) are factor-to-variable
+		// messages, where n is the number of edges.
+		final EdgePlan[] indexedPlans = new EdgePlan[numEdges];
+		final ResidualQueue queue = new ResidualQueue(2 * numEdges);
+		for (final EdgePlan plan : plans) {
+			indexedPlans[plan.getIndex()] = plan;
+			plan.computeToFactorMessage();
+			queue.update(plan.getIndex(), plan.toFactorResidual());
+			plan.computeToVariableMessage(false);
+			queue.update(numEdges + plan.getIndex(), plan.toVariableResidual());
+		}
+		long messagesComputed = 2 * plans.length;
+
+		final long maxUpdates = (long) (maxIterations + 1) * 2 * plans.length;
+		long updates = 0;
+		boolean converged = false;
+		while (true) {
+			if (queue.isEmpty() || queue.maxResidual() <= changeThreashold) {
+				converged = true;
+				LOG.info("Residual LBP converged after %d updates", updates);
+				break;
+			} else if (maxTime != null
+					&& System.currentTimeMillis() - startTime > maxTime) {
+				LOG.info("Residual LBP timed out after %d updates (time: %d)",
+						updates, System.currentTimeMillis() - startTime);
+				break;
+			} else if (updates >= maxUpdates) {
+				LOG.info(
+						"Residual LBP reached maximum number of updates (%d) without convergence",
+						maxUpdates);
+				break;
+			}
+
+			// Commit the message with the largest residual and re-compute the
+			// messages that depend on it.
+			final int message = queue.max();
+			++updates;
+			if (message < numEdges) {
+				final EdgePlan plan = indexedPlans[message];
+				plan.commitToFactorMessage();
+				queue.update(message, 0.0);
+				for (final EdgePlan dependent : plan.getFactorEdges()) {
+					dependent.computeToVariableMessage(false);
+					queue.update(numEdges + dependent.getIndex(),
+							dependent.toVariableResidual());
+				}
+				messagesComputed += plan.getFactorEdges().length;
+			} else {
+				final EdgePlan plan = indexedPlans[message - numEdges];
+				plan.commitToVariableMessage();
+				queue.update(message, 0.0);
+				for (final EdgePlan dependent : plan.getVariableEdges()) {
+					dependent.computeToFactorMessage();
+					queue.update(dependent.getIndex(),
+							dependent.toFactorResidual());
+				}
+				messagesComputed += plan.getVariableEdges().length;
+			}
+		}
+
+		// Report iterations in terms of equivalent flooding iterations.
+		return new Stats(converged,
+				plans.length == 0 ? 0 : (int) (updates / (2 * plans.length)),
+				messagesComputed, updates);
+	}
+
+	/**
+	 * Set the max-marginals of the variables of a component from the
+	 * factor-to-variable messages (after max-product).
+	 */
+	private static void setMaxBeliefs(EdgePlan[] component) {
+		for (final INode variable : TreeBP.variables(component)) {
+			final Table maxBelief = new Table(true,
+					variable.getColumnHeader());
+			maxBelief.setAll(0.0);
+			final int numAssignments = variable.numAssignments();
+			final int len = variable.numEdges();
+			for (int j = 0; j < len; ++j) {
+				final Table message = variable.getEdge(j)
+						.getToVariableMessage();
+				for (int k = 0; k < numAssignments; ++k) {
+					maxBelief.setValue(k,
+							maxBelief.getValue(k) + message.getValue(k));
+				}
+			}
+			maxBelief.normalize();
+			variable.setMaxBelief(maxBelief);
+		}
+	}
+
+	private static void setBeliefs(FactorGraph graph) {
+		// Set the belief of each variable node. The computation is in
+		// log-space, the belief is the normalized product (sum) of all
+		// incoming messages.
+		GetVariables.of(graph).parallelStream().forEach((INode variable) -> {
+			final Table variableBelief = new Table(true,
+					variable.getColumnHeader());
+			// Set initial values to log(1.0).
+			variableBelief.setAll(0.0);
+			final int numAssignments = variable.numAssignments();
+			final int len = variable.numEdges();
+			for (int j = 0; j < len; ++j) {
+				final Table message = variable.getEdge(j)
+						.getToVariableMessage();
+				for (int k = 0; k < numAssignments; ++k) {
+					// Multiplication in log-space, so summation.
+					variableBelief.setValue(k,
+							variableBelief.getValue(k) + message.getValue(k));
+				}
+			}
+
+			// Normalize. TODO do we need this?
+			variableBelief.normalize();
+
+			variable.setBelief(variableBelief);
+		});
 
 		// Set the belief of each factor node.
-		GetFactors
-				.of(graph)
-				.parallelStream()
-				.forEach(
-						(factor) -> {
-							final FactorTable factorBelief = factor.getTable()
-									.clone();
-							final int len = factor.numEdges();
-							for (int j = 0; j < len; ++j) {
-								final Edge edge = factor.getEdge(j);
-								final Table toFactorMessage = edge
-										.getToFactorMessage();
-								final Map<INode, LogicalExpression> mapping = new HashMap<>();
-								final INode variable = edge.getVariable();
-								// Multiply in the incoming message.
-								final int numAssignments = variable
-										.numAssignments();
-								for (int k = 0; k < numAssignments; ++k) {
-									final LogicalExpression assignment = variable
-											.getAssignment(k);
-									mapping.put(variable, assignment);
-									factorBelief.add(mapping,
-											toFactorMessage.get(mapping));
-								}
-							}
-							// Normalize. The belief is originally not
-							// normalized due to the factor values being
-							// multiplied in (all other elements are
-							// normalized).
-							factorBelief.normalize();
-
-							factor.setBelief(factorBelief);
-						});
+		GetFactors.of(graph).parallelStream().forEach((factor) -> {
+			final FactorTable factorBelief = factor.getTable().clone();
+			final int size = factorBelief.size();
+			final int len = factor.numEdges();
+			for (int j = 0; j < len; ++j) {
+				final Edge edge = factor.getEdge(j);
+				final Table toFactorMessage = edge.getToFactorMessage();
+				final int column = factorBelief.getColumn(edge.getVariable());
+				final int stride = factorBelief.getStride(column);
+				final int numValues = factorBelief.getHeader(column)
+						.numValues();
+				// Multiply in the incoming message.
+				for (int i = 0; i < size; ++i) {
+					factorBelief.setValue(i, factorBelief.getValue(i)
+							+ toFactorMessage
+									.getValue(i / stride % numValues));
+				}
+			}
+			// Normalize. The belief is originally not normalized due to the
+			// factor values being multiplied in (all other elements are
+			// normalized).
+			factorBelief.normalize();
+
+			factor.setBelief(factorBelief);
+		});
 
 		graph.setHasMarginals(true);
+	}
+
+	/**
+	 * Message scheduling.
+	 */
+	public enum Schedule {
+		/**
+		 * Synchronous updates of all messages in each iteration.
+		 */
+		FLOODING,
+
+		/**
+		 * Residual belief propagation: update the message with the largest
+		 * residual first.
+		 */
+		RESIDUAL;
+	}
+
+	/**
+	 * Message passing statistics.
+	 */
+	public static class Stats {
+		private final boolean	converged;
+		private final int		iterations;
+		private final long		messagesComputed;
+		private final long		messagesUpdated;
+
+		public Stats(boolean converged, int iterations, long messagesComputed,
+				long messagesUpdated) {
+			this.converged = converged;
+			this.iterations = iterations;
+			this.messagesComputed = messagesComputed;
+			this.messagesUpdated = messagesUpdated;
+		}
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		/**
+		 * The number of messages computed, including messages that were not
+		 * committed.
+		 */
+		public long getMessagesComputed() {
+			return messagesComputed;
+		}
+
+		/**
+		 * The number of messages committed.
+		 */
+		public long getMessagesUpdated() {
+			return messagesUpdated;
+		}
+
+		public boolean isConverged() {
+			return converged;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"iterations=%d, computed=%d, updated=%d, %sconverged",
+					iterations, messagesComputed, messagesUpdated,
+					converged ? "" : "not ");
+		}
+	}
+
+	/**
+	 * Indexed binary max-heap of message residuals. Allows updating the
+	 * residual of a message in logarithmic time without allocation.
+	 */
+	private static class ResidualQueue {
+		/**
+		 * Heap of message indices.
+		 */
+		private final int[]		heap;
 
-		LOG.info("LBP time: %fsec (iterations=%d, %sconverged)",
-				(System.currentTimeMillis() - startTime) / 1000.0, iteration,
-				converged ? "" : "not ");
+		/**
+		 * The position of each message in the heap.
+		 */
+		private final int[]		position;
+
+		private final double[]	residuals;
+
+		private int				size	= 0;
+
+		public ResidualQueue(int numMessages) {
+			this.heap = new int[numMessages];
+			this.position = new int[numMessages];
+			this.residuals = new double[numMessages];
+			Arrays.fill(position, -1);
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		/**
+		 * @return The message with the maximum residual.
+		 */
+		public int max() {
+			return heap[0];
+		}
+
+		public double maxResidual() {
+			return residuals[heap[0]];
+		}
+
+		/**
+		 * Set the residual of a message, adding it to the queue if required.
+		 */
+		public void update(int message, double residual) {
+			if (position[message] < 0) {
+				residuals[message] = residual;
+				heap[size] = message;
+				position[message] = size;
+				siftUp(size++);
+			} else {
+				final double previous = residuals[message];
+				residuals[message] = residual;
+				if (residual > previous) {
+					siftUp(position[message]);
+				} else {
+					siftDown(position[message]);
+				}
+			}
+		}
+
+		private void siftDown(int i) {
+			while (true) {
+				final int left = 2 * i + 1;
+				if (left >= size) {
+					return;
+				}
+				final int right = left + 1;
+				final int largest = right < size
+						&& residuals[heap[right]] > residuals[heap[left]]
+								? right : left;
+				if (residuals[heap[largest]] <= residuals[heap[i]]) {
+					return;
+				}
+				swap(i, largest);
+				i = largest;
+			}
+		}
+
+		private void siftUp(int i) {
+			while (i > 0) {
+				final int parent = (i - 1) / 2;
+				if (residuals[heap[parent]] >= residuals[heap[i]]) {
+					return;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void swap(int i, int j) {
+			final int tmp = heap[i];
+			heap[i] = heap[j];
+			heap[j] = tmp;
+			position[heap[i]] = i;
+			position[heap[j]] = j;
+		}
 	}
 
 }
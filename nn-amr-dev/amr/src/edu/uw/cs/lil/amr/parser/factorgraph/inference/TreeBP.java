@@ -0,0 +1,190 @@
+package edu.uw.cs.lil.amr.parser.factorgraph.inference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.IFactor;
+import edu.uw.cs.lil.amr.parser.factorgraph.nodes.INode;
+
+/**
+ * Exact belief propagation for a connected acyclic component of a factor
+ * graph. The component is rooted at an arbitrary variable, and all messages
+ * are computed in two passes: from the leaves to the root, and then from the
+ * root to the leaves. Each message is computed exactly once per pass, after
+ * all the messages it depends on. Supports both sum-product (marginals) and
+ * max-product (max-marginals).
+ *
+ * @author Yoav Artzi
+ */
+class TreeBP {
+
+	/**
+	 * For each edge in {@link #order}, 'true' if the edge was reached from its
+	 * variable (so the root-to-leaves message is the variable-to-factor
+	 * message), 'false' if reached from its factor.
+	 */
+	private final boolean[]		fromVariable;
+
+	/**
+	 * Edges in breadth-first order from the root.
+	 */
+	private final EdgePlan[]	order;
+
+	/**
+	 * @param component
+	 *            Edges of a connected acyclic component (see
+	 *            {@link #isAcyclic(EdgePlan[])}).
+	 */
+	public TreeBP(EdgePlan[] component) {
+		this.order = new EdgePlan[component.length];
+		this.fromVariable = new boolean[component.length];
+		if (component.length == 0) {
+			return;
+		}
+
+		// Root the tree at the variable of the first edge.
+		int size = 0;
+		final EdgePlan root = component[0];
+		order[size] = root;
+		fromVariable[size++] = true;
+		for (final EdgePlan child : root.getVariableEdges()) {
+			order[size] = child;
+			fromVariable[size++] = true;
+		}
+
+		// Breadth-first traversal. The node reached by each edge is its factor
+		// if the edge was reached from its variable, and vice versa.
+		for (int head = 0; head < size; ++head) {
+			final EdgePlan[] children = fromVariable[head]
+					? order[head].getFactorEdges()
+					: order[head].getVariableEdges();
+			if (size + children.length > order.length) {
+				throw new IllegalArgumentException(
+						"Factor graph component contains a cycle");
+			}
+			for (final EdgePlan child : children) {
+				order[size] = child;
+				fromVariable[size++] = !fromVariable[head];
+			}
+		}
+	}
+
+	/**
+	 * Split edges into connected components. Two edges are connected if they
+	 * share a variable or a factor.
+	 */
+	public static List<EdgePlan[]> components(EdgePlan[] plans) {
+		// Union-find over the edge indices.
+		final int[] parents = new int[plans.length];
+		for (int i = 0; i < parents.length; ++i) {
+			parents[i] = i;
+		}
+		for (final EdgePlan plan : plans) {
+			for (final EdgePlan other : plan.getVariableEdges()) {
+				union(parents, plan.getIndex(), other.getIndex());
+			}
+			for (final EdgePlan other : plan.getFactorEdges()) {
+				union(parents, plan.getIndex(), other.getIndex());
+			}
+		}
+
+		final Map<Integer, List<EdgePlan>> components = new LinkedHashMap<>();
+		for (final EdgePlan plan : plans) {
+			components
+					.computeIfAbsent(find(parents, plan.getIndex()),
+							k -> new ArrayList<>())
+					.add(plan);
+		}
+
+		final List<EdgePlan[]> result = new ArrayList<>(components.size());
+		for (final List<EdgePlan> component : components.values()) {
+			result.add(component.toArray(new EdgePlan[component.size()]));
+		}
+		return result;
+	}
+
+	/**
+	 * A connected component is acyclic if and only if the number of its edges
+	 * is one less than the number of its nodes (variables and factors).
+	 */
+	public static boolean isAcyclic(EdgePlan[] component) {
+		return component.length == variables(component).size()
+				+ factors(component).size() - 1;
+	}
+
+	/**
+	 * The variables of the given edges.
+	 */
+	public static Set<INode> variables(EdgePlan[] component) {
+		final Set<INode> variables = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		for (final EdgePlan plan : component) {
+			variables.add(plan.getEdge().getVariable());
+		}
+		return variables;
+	}
+
+	private static Set<IFactor> factors(EdgePlan[] component) {
+		final Set<IFactor> factors = Collections
+				.newSetFromMap(new IdentityHashMap<>());
+		for (final EdgePlan plan : component) {
+			factors.add(plan.getEdge().getFactor());
+		}
+		return factors;
+	}
+
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parents, int i, int j) {
+		final int rootI = find(parents, i);
+		final int rootJ = find(parents, j);
+		if (rootI != rootJ) {
+			parents[rootI] = rootJ;
+		}
+	}
+
+	/**
+	 * Compute and commit all messages in the tree.
+	 *
+	 * @param maxProduct
+	 *            Use max-product instead of sum-product.
+	 * @return The number of messages computed.
+	 */
+	public int run(boolean maxProduct) {
+		// Leaves to root: the message to the node the edge was reached from.
+		for (int i = order.length - 1; i >= 0; --i) {
+			if (fromVariable[i]) {
+				order[i].computeToVariableMessage(maxProduct);
+				order[i].commitToVariableMessage();
+			} else {
+				order[i].computeToFactorMessage();
+				order[i].commitToFactorMessage();
+			}
+		}
+
+		// Root to leaves: the message to the node the edge reaches.
+		for (int i = 0; i < order.length; ++i) {
+			if (fromVariable[i]) {
+				order[i].computeToFactorMessage();
+				order[i].commitToFactorMessage();
+			} else {
+				order[i].computeToVariableMessage(maxProduct);
+				order[i].commitToVariableMessage();
+			}
+		}
+
+		return 2 * order.length;
+	}
+
+}
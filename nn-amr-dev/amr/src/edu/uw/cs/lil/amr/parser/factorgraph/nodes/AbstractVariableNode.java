@@ -29,6 +29,8 @@ public abstract class AbstractVariableNode extends AbstractDummyNode implements
 
 	private final ColumnHeader				header;
 
+	private Table							maxBelief	= null;
+
 	public AbstractVariableNode(int id, Set<AbstractDummyNode> children,
 			LogicalExpression[] assignments) {
 		super(id, children);
@@ -80,6 +82,25 @@ public abstract class AbstractVariableNode extends AbstractDummyNode implements
 			final Set<LogicalExpression> maxAssignments = new HashSet<>();
 			maxAssignments.add(assignments[0]);
 			return Pair.of(maxAssignments, 0.0);
+		} else if (maxBelief != null) {
+			// Take the argmax of the exact max-marginals, and the max marginal
+			// probability of the argmax assignments.
+			double max = -Double.MAX_VALUE;
+			double marginal = -Double.MAX_VALUE;
+			final Set<LogicalExpression> argmax = new HashSet<>();
+			for (int i = 0; i < assignments.length; ++i) {
+				final double score = maxBelief.getValue(i);
+				if (score == max) {
+					argmax.add(assignments[i]);
+					marginal = Math.max(marginal, belief.getValue(i));
+				} else if (score > max) {
+					max = score;
+					argmax.clear();
+					argmax.add(assignments[i]);
+					marginal = belief.getValue(i);
+				}
+			}
+			return Pair.of(argmax, marginal);
 		} else {
 			double max = -Double.MAX_VALUE;
 			final Set<LogicalExpression> argmax = new HashSet<>();
@@ -98,6 +119,11 @@ public abstract class AbstractVariableNode extends AbstractDummyNode implements
 		}
 	}
 
+	@Override
+	public Table getMaxBelief() {
+		return maxBelief;
+	}
+
 	@Override
 	public int numAssignments() {
 		return assignments.length;
@@ -113,6 +139,11 @@ public abstract class AbstractVariableNode extends AbstractDummyNode implements
 		this.belief = belief;
 	}
 
+	@Override
+	public void setMaxBelief(Table maxBelief) {
+		this.maxBelief = maxBelief;
+	}
+
 	@Override
 	public List<LogicalExpression> slowGetAssignments() {
 		return assignmentList;
@@ -42,11 +42,19 @@ public interface INode extends IBaseNode {
 	Edge getEdge(int index);
 
 	/**
-	 * Get the most likely assignments according to the set belief and their
-	 * marginal probability.
+	 * Get the most likely assignments and their marginal probability. If
+	 * exact max-marginals are set (see {@link #getMaxBelief()}), the
+	 * assignments are the argmax of the max-marginals. Otherwise, they are the
+	 * argmax of the belief.
 	 */
 	Pair<Set<LogicalExpression>, Double> getMaxAssignments();
 
+	/**
+	 * Get the log max-marginal of this node, or null if not available. Exact
+	 * max-marginals are only computed for acyclic parts of the graph.
+	 */
+	Table getMaxBelief();
+
 	/**
 	 * The number of possible assignments.
 	 */
@@ -62,6 +70,11 @@ public interface INode extends IBaseNode {
 	 */
 	void setBelief(Table belief);
 
+	/**
+	 * Set the max-marginal table for this node (can be null).
+	 */
+	void setMaxBelief(Table maxBelief);
+
 	/**
 	 * Inefficient readonly access to all the assignments.
 	 */
@@ -20,6 +20,13 @@ import edu.uw.cs.lil.amr.parser.factorgraph.nodes.INode;
  * Table to store values according to a tuple of keys. The table allows to
  * marginalize over specific keys to sum. The table supports marginalizing over
  * log-space values.
+ * <p>
+ * Internally, each column is int-indexed by the assignment indices of its node
+ * (see {@link ColumnHeader}) and values are stored in a flat array using
+ * row-major strides. The flat index of a full assignment is the sum of each
+ * assignment index times the stride of its column. The index-based accessors
+ * (e.g., {@link #getValue(int)}, {@link #getStride(int)}) expose this layout
+ * to allow inference code to iterate tables without building value mappings.
  *
  * @author Yoav Artzi
  */
@@ -192,6 +199,44 @@ public class Table implements ITableImmutable, Cloneable {
 		return get(pairsToMap(mappingPairs));
 	}
 
+	/**
+	 * @return The index of the column of the given node, or -1 if the node has
+	 *         no column in this table.
+	 */
+	public int getColumn(INode node) {
+		for (int i = 0; i < numKeys; ++i) {
+			if (headers[i].getNode().equals(node)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public ColumnHeader getHeader(int column) {
+		return headers[column];
+	}
+
+	/**
+	 * @return The stride of the given column in the flat values array. The
+	 *         assignment index of the column for the flat index i is (i /
+	 *         stride) % numValues.
+	 */
+	public int getStride(int column) {
+		return indexMultiplier[column];
+	}
+
+	/**
+	 * Get the value stored at the given flat index. No marginalization is
+	 * done.
+	 */
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	public boolean isLogSpace() {
+		return logSpace;
+	}
+
 	public boolean isMappingComplete(Map<INode, LogicalExpression> mapping) {
 		for (final ColumnHeader header : headers) {
 			if (!mapping.containsKey(header.getNode())) {
@@ -216,6 +261,10 @@ public class Table implements ITableImmutable, Cloneable {
 		apply(computeIndexedKey(valueMapping), (double d) -> d * value);
 	}
 
+	public int numColumns() {
+		return numKeys;
+	}
+
 	/**
 	 * Normalize the values in the table.
 	 */
@@ -251,6 +300,25 @@ public class Table implements ITableImmutable, Cloneable {
 		apply(computeIndexedKey(valueMapping), (double d) -> value);
 	}
 
+	/**
+	 * Set the value at the given flat index.
+	 */
+	public void setValue(int index, double value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Set all values in the table from an array indexed by flat indices.
+	 */
+	public void setValues(double[] newValues) {
+		if (newValues.length != values.length) {
+			throw new IllegalArgumentException(
+					"Size mismatch: " + newValues.length + " vs. "
+							+ values.length);
+		}
+		System.arraycopy(newValues, 0, values, 0, values.length);
+	}
+
 	/**
 	 * Set all values in the table to a value.
 	 */
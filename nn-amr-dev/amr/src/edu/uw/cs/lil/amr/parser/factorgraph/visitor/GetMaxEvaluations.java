@@ -53,7 +53,11 @@ import edu.uw.cs.lil.amr.parser.factorgraph.nodes.VariableNode;
 /**
  * Get the set of max scoring {@link IEvaluation} from a factor graph. The
  * maximum number of evaluations to get is limited to a given number. If there
- * are more max evaluations than the limit, an empty list is returned.
+ * are more max evaluations than the limit, an empty list is returned. The max
+ * assignment of each node is taken from {@link INode#getMaxAssignments()}, so
+ * it's exact for nodes in acyclic parts of the graph (where inference computes
+ * exact max-marginals) and approximated by the max of the marginal belief
+ * elsewhere.
  *
  * @author Yoav Artzi
  */
@@ -1,5 +1,6 @@
 package edu.uw.cs.lil.amr.test;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -7,6 +8,7 @@ import java.util.stream.Collectors;
 
 import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
 import edu.cornell.cs.nlp.spf.base.hashvector.IHashVectorImmutable;
+import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
 import edu.cornell.cs.nlp.spf.data.collection.IDataCollection;
 import edu.cornell.cs.nlp.spf.data.situated.sentence.SituatedSentence;
 import edu.cornell.cs.nlp.spf.exec.IExec;
@@ -38,8 +40,24 @@ public class AmrDistributedExecTester extends
 
 	protected AmrDistributedExecTester(
 			IFilter<SituatedSentence<AMRMeta>> skipParsingFilter,
-			ReliableManager manager) {
-		super(skipParsingFilter, manager);
+			ReliableManager manager, File journalFile, String fingerprint) {
+		super(skipParsingFilter, manager, journalFile, fingerprint);
+	}
+
+	/**
+	 * Order-independent hash of the model parameters.
+	 */
+	private static String thetaFingerprint(IHashVectorImmutable theta) {
+		final long[] hash = new long[] { 17 };
+		theta.iterate((KeyArgs key, double value) -> {
+			long h = key.hashCode() * 0x9E3779B97F4A7C15L
+					^ Double.doubleToLongBits(value);
+			h ^= h >>> 33;
+			h *= 0xFF51AFD7ED558CCDL;
+			h ^= h >>> 33;
+			hash[0] += h;
+		});
+		return String.format("%d-%016x", theta.size(), hash[0]);
 	}
 
 	@Override
@@ -55,6 +73,30 @@ public class AmrDistributedExecTester extends
 		return new AMRTestJob(dataItem);
 	}
 
+	@Override
+	protected String dataItemId(LabeledAmrSentence dataItem) {
+		final String id = dataItem.getProperties().get("id");
+		return id == null ? super.dataItemId(dataItem) : id;
+	}
+
+	/**
+	 * Combine the given fingerprint (if any) with a hash of the model
+	 * parameters, so journaled results are never re-used for a different
+	 * model.
+	 */
+	@Override
+	protected String modelFingerprint(
+			IExec<SituatedSentence<AMRMeta>, LogicalExpression> exec) {
+		if (exec instanceof Exec) {
+			final String thetaFingerprint = thetaFingerprint(
+					((Exec) exec).getModel().getTheta());
+			return getFingerprint() == null ? thetaFingerprint
+					: getFingerprint() + ":" + thetaFingerprint;
+		} else {
+			return super.modelFingerprint(exec);
+		}
+	}
+
 	public static class Creator
 			implements IResourceObjectCreator<AmrDistributedExecTester> {
 		private final String resourceName;
@@ -77,7 +119,10 @@ public class AmrDistributedExecTester extends
 				filter = FilterUtils.stubTrue();
 			}
 			return new AmrDistributedExecTester(filter,
-					(ReliableManager) repo.get(params.get("manager")));
+					(ReliableManager) repo.get(params.get("manager")),
+					params.contains("journal") ? params.getAsFile("journal")
+							: null,
+					params.get("fingerprint", null));
 		}
 
 		@Override
@@ -92,6 +137,10 @@ public class AmrDistributedExecTester extends
 							"IFilter used to decide what data items to skip when doing sloppy inference (e.g., skipping words)")
 					.addParam("manager", ReliableManager.class,
 							"TintDist reliable manager")
+					.addParam("journal", File.class,
+							"Journal file of completed test jobs, used to resume interrupted runs (default: none)")
+					.addParam("fingerprint", String.class,
+							"Model fingerprint prefix, combined with a hash of the model parameters (default: none)")
 					.build();
 		}
 
@@ -6,6 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -20,6 +21,7 @@ import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
 import edu.cornell.cs.nlp.spf.test.stats.ITestingStatistics;
 import edu.cornell.cs.nlp.utils.collections.ListUtils;
+import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.counter.Counter;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
@@ -27,9 +29,13 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 import edu.uw.cs.lil.amr.data.LabeledAmrSentence;
 import edu.uw.cs.lil.amr.lambda.AMRServices;
 import edu.uw.cs.lil.amr.lambda.convert.LogicalExpressionToAmr;
+import edu.uw.cs.lil.amr.test.smatch.Smatch;
+import edu.uw.cs.lil.amr.test.smatch.Smatch.MatchCount;
+import edu.uw.cs.lil.amr.test.smatch.SmatchAmr;
 
 /**
- * SMATCH evaluation statistics.
+ * SMATCH evaluation statistics. Scores are computed in-process with
+ * {@link Smatch}, unless a path to the external SMATCH script is given.
  *
  * @author Yoav Artzi
  */
@@ -37,6 +43,11 @@ public class SmatchStats implements
 		ITestingStatistics<SituatedSentence<AMRMeta>, LogicalExpression, LabeledAmrSentence> {
 	public static final ILogger	LOG							= LoggerFactory
 			.create(SmatchStats.class);
+	/**
+	 * Default max number of variable mappings to search exhaustively with the
+	 * in-process SMATCH scorer.
+	 */
+	public static final long	DEFAULT_EXACT_SEARCH_LIMIT	= 10000;
 	private static final String	EMPTY_AMR					= "(a / amr-empty)";
 	private static final String	METRIC_NAME					= "smatch";
 
@@ -52,6 +63,11 @@ public class SmatchStats implements
 	private final String		metricName;
 	private final Counter		multipleDerivations			= new Counter(0);
 	private final Counter		multipleSloppyDerivations	= new Counter(0);
+	/**
+	 * In-process SMATCH scorer. If <code>null</code>, the external script at
+	 * {@link #smatchPath} is used.
+	 */
+	private final Smatch		nativeSmatch;
 	private final List<AMRPair>	sloppyInferenceAmrPairs		= new LinkedList<>();
 	private final Counter		smatchCalls					= new Counter();
 	private final String		smatchPath;
@@ -60,6 +76,17 @@ public class SmatchStats implements
 	private final long			timeout;
 	private boolean				underspecified;
 
+	/**
+	 * Score with the in-process {@link Smatch} implementation.
+	 */
+	public SmatchStats(int smatchRounds, long exactSearchLimit,
+			boolean underspecified) {
+		this(null, 0, 0, smatchRounds,
+				new Smatch(smatchRounds, exactSearchLimit, 0),
+				underspecified ? "underspec-" + METRIC_NAME : METRIC_NAME);
+		this.underspecified = underspecified;
+	}
+
 	public SmatchStats(String smatchPath, long timeout, int maxRetries,
 			int smatchRounds, boolean underspecified) {
 		this(smatchPath, timeout, maxRetries, smatchRounds,
@@ -69,15 +96,21 @@ public class SmatchStats implements
 
 	public SmatchStats(String smatchPath, long timeout, int maxRetries,
 			int smatchRounds, String metricName) {
+		this(smatchPath, timeout, maxRetries, smatchRounds, null, metricName);
+	}
+
+	private SmatchStats(String smatchPath, long timeout, int maxRetries,
+			int smatchRounds, Smatch nativeSmatch, String metricName) {
 		this.smatchPath = smatchPath;
 		this.metricName = metricName;
 		this.timeout = timeout;
 		this.maxRetries = maxRetries;
 		this.smatchRounds = smatchRounds;
+		this.nativeSmatch = nativeSmatch;
 		LOG.info(
 				"Init %s: timeout=%d, maxRetries=%d, smatchRounds=%d, smatchPath=%s",
 				getClass().getSimpleName(), timeout, maxRetries, smatchRounds,
-				smatchPath);
+				nativeSmatch == null ? smatchPath : "in-process");
 	}
 
 	private static String getAmrReferenceString(LabeledAmrSentence dataItem) {
@@ -313,8 +346,49 @@ public class SmatchStats implements
 		globalSloppyScore = computeSmatch(sloppyInferenceAmrPairs, false);
 	}
 
+	private MetricTriplet computeNativeSmatch(List<AMRPair> amrPairs) {
+		final long startTime = System.currentTimeMillis();
+
+		final List<Pair<SmatchAmr, SmatchAmr>> parsed = new ArrayList<>(
+				amrPairs.size());
+		for (final AMRPair pair : amrPairs) {
+			final SmatchAmr gold;
+			try {
+				gold = SmatchAmr.parse(pair.gold);
+			} catch (final IllegalArgumentException e) {
+				LOG.error("Failed to parse gold AMR: %s", e.getMessage());
+				return null;
+			}
+			SmatchAmr candidate;
+			try {
+				candidate = SmatchAmr.parse(pair.candidate);
+			} catch (final IllegalArgumentException e) {
+				LOG.error(
+						"Failed to parse candidate AMR, scoring as empty: %s",
+						e.getMessage());
+				candidate = SmatchAmr.parse(EMPTY_AMR);
+			}
+			parsed.add(Pair.of(candidate, gold));
+		}
+
+		final MatchCount count = nativeSmatch.match(parsed);
+
+		LOG.info("SMATCH runtime: %.4f",
+				(System.currentTimeMillis() - startTime) / 1000.0);
+		smatchTime += System.currentTimeMillis() - startTime;
+		smatchCalls.inc();
+
+		final MetricTriplet score = new MetricTriplet(count.precision(),
+				count.recall(), count.f1());
+		LOG.info("SMATCH result: %s (%s)", score, count);
+		return score;
+	}
+
 	private MetricTriplet computeSmatch(List<AMRPair> amrPairs,
 			boolean deleteTempFiles) {
+		if (nativeSmatch != null) {
+			return computeNativeSmatch(amrPairs);
+		}
 		return computeSmatch(amrPairs, 0, deleteTempFiles);
 	}
 
@@ -443,11 +517,19 @@ public class SmatchStats implements
 
 		@Override
 		public SmatchStats create(Parameters params, IResourceRepository repo) {
-			return new SmatchStats(params.getAsFile("smatch").getAbsolutePath(),
-					params.getAsLong("timeout", 5000),
-					params.getAsInteger("retries", 2),
-					params.getAsInteger("rounds", 4),
-					params.getAsBoolean("underspec", false));
+			if (params.contains("smatch")) {
+				return new SmatchStats(
+						params.getAsFile("smatch").getAbsolutePath(),
+						params.getAsLong("timeout", 5000),
+						params.getAsInteger("retries", 2),
+						params.getAsInteger("rounds", 4),
+						params.getAsBoolean("underspec", false));
+			} else {
+				return new SmatchStats(params.getAsInteger("rounds", 4),
+						params.getAsLong("exact",
+								DEFAULT_EXACT_SEARCH_LIMIT),
+						params.getAsBoolean("underspec", false));
+			}
 		}
 
 		@Override
@@ -465,9 +547,11 @@ public class SmatchStats implements
 					.addParam("retries", Integer.class,
 							"Max smatch retries (default: 2)")
 					.addParam("smatch", File.class,
-							"Path to the SMATCH evaluation script")
+							"Path to the SMATCH evaluation script. If not provided, SMATCH is computed in-process (default: none)")
 					.addParam("timeout", Long.class,
-							"Timeout for SMATCH process in milliseconds (default: 5000)")
+							"Timeout for SMATCH process in milliseconds, only used with the external script (default: 5000)")
+					.addParam("exact", Long.class,
+							"Max number of variable mappings to search exhaustively with in-process SMATCH, 0 to always hill-climb (default: 10000)")
 					.setDescription("SMATCH evaluation statistics").build();
 		}
 
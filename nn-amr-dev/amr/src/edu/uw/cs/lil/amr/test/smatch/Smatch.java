@@ -0,0 +1,578 @@
+package edu.uw.cs.lil.amr.test.smatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+import edu.uw.cs.lil.amr.test.smatch.SmatchAmr.Attribute;
+import edu.uw.cs.lil.amr.test.smatch.SmatchAmr.Relation;
+
+/**
+ * Java implementation of the SMATCH metric (Cai and Knight, 2013). Computes
+ * the maximum number of matching triples between two AMRs over one-to-one
+ * variable mappings. The mapping is optimized with hill-climbing (move and
+ * swap operations) from a smart initialization (matching concepts) followed
+ * by random restarts. When the space of mappings is small enough, the optimal
+ * mapping is found with exhaustive search instead. Document-level scores are
+ * computed in parallel over AMR pairs.
+ *
+ * @author Yoav Artzi
+ */
+public class Smatch {
+	public static final ILogger	LOG	= LoggerFactory.create(Smatch.class);
+
+	/**
+	 * Upper bound on the number of variable mappings for which to use
+	 * exhaustive search. Zero disables exhaustive search.
+	 */
+	private final long			exactSearchLimit;
+
+	/**
+	 * Number of random restarts, in addition to the smart initialization.
+	 */
+	private final int			restarts;
+
+	/**
+	 * Seed for the random restarts. Each AMR pair is seeded with this value
+	 * offset by its index, so scores are reproducible and independent of the
+	 * order of parallel execution.
+	 */
+	private final long			seed;
+
+	public Smatch(int restarts, long exactSearchLimit, long seed) {
+		this.restarts = restarts;
+		this.exactSearchLimit = exactSearchLimit;
+		this.seed = seed;
+	}
+
+	/**
+	 * Match a single pair of AMRs.
+	 */
+	public MatchCount match(SmatchAmr candidate, SmatchAmr gold) {
+		return match(candidate, gold, new Random(seed));
+	}
+
+	/**
+	 * Compute the aggregate match count over a list of (candidate, gold)
+	 * pairs, processing the pairs in parallel.
+	 */
+	public MatchCount match(List<Pair<SmatchAmr, SmatchAmr>> pairs) {
+		return IntStream.range(0, pairs.size()).parallel()
+				.mapToObj(i -> match(pairs.get(i).first(),
+						pairs.get(i).second(), new Random(seed + i)))
+				.reduce(MatchCount.ZERO, MatchCount::add);
+	}
+
+	private MatchCount match(SmatchAmr candidate, SmatchAmr gold,
+			Random random) {
+		// Map the AMR with fewer variables into the other one.
+		final MatchProblem problem = candidate.numVariables() < gold
+				.numVariables() ? new MatchProblem(candidate, gold)
+						: new MatchProblem(gold, candidate);
+		final int matched;
+		if (exactSearchLimit > 0
+				&& problem.numMappings() <= exactSearchLimit) {
+			matched = problem.exactSearch();
+		} else {
+			int best = problem.hillClimb(problem.smartInit(random));
+			for (int i = 0; i < restarts; ++i) {
+				best = Math.max(best,
+						problem.hillClimb(problem.randomInit(random)));
+			}
+			matched = best;
+		}
+		return new MatchCount(matched, candidate.numTriples(),
+				gold.numTriples());
+	}
+
+	/**
+	 * Aggregate triple counts. Precision, recall and F1 are computed from the
+	 * aggregated counts, as in the document-level SMATCH score.
+	 */
+	public static class MatchCount {
+		public static final MatchCount	ZERO	= new MatchCount(0, 0, 0);
+
+		private final int				candidateTriples;
+		private final int				goldTriples;
+		private final int				matched;
+
+		public MatchCount(int matched, int candidateTriples, int goldTriples) {
+			this.matched = matched;
+			this.candidateTriples = candidateTriples;
+			this.goldTriples = goldTriples;
+		}
+
+		public MatchCount add(MatchCount other) {
+			return new MatchCount(matched + other.matched,
+					candidateTriples + other.candidateTriples,
+					goldTriples + other.goldTriples);
+		}
+
+		public double f1() {
+			final double precision = precision();
+			final double recall = recall();
+			return precision + recall == 0.0 ? 0.0
+					: 2 * precision * recall / (precision + recall);
+		}
+
+		public int getCandidateTriples() {
+			return candidateTriples;
+		}
+
+		public int getGoldTriples() {
+			return goldTriples;
+		}
+
+		public int getMatched() {
+			return matched;
+		}
+
+		public double precision() {
+			return candidateTriples == 0 || goldTriples == 0 ? 0.0
+					: matched / (double) candidateTriples;
+		}
+
+		public double recall() {
+			return candidateTriples == 0 || goldTriples == 0 ? 0.0
+					: matched / (double) goldTriples;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("matched=%d, candidate=%d, gold=%d", matched,
+					candidateTriples, goldTriples);
+		}
+	}
+
+	/**
+	 * Weighted matching problem between the variables of a source AMR and a
+	 * target AMR. Each (source variable, target variable) pair is encoded as
+	 * <code>source * numTarget + target</code>. A mapping is an array from
+	 * source variables to target variables, with -1 for unmapped variables.
+	 */
+	private static class MatchProblem {
+		/**
+		 * Candidate target variables for each source variable.
+		 */
+		private final int[][]	candidates;
+		private final int		numSource;
+		private final int		numTarget;
+
+		/**
+		 * For each variable pair, the variable pairs that share a relation
+		 * triple with it.
+		 */
+		private final int[][]	pairKeys;
+
+		/**
+		 * The number of relation triples shared with each entry in
+		 * {@link #pairKeys}.
+		 */
+		private final int[][]	pairWeights;
+
+		private final String[]	sourceInstances;
+
+		private final String[]	targetInstances;
+
+		/**
+		 * The number of triples matched by each variable pair independently
+		 * of the rest of the mapping (instance, attribute and self-relation
+		 * triples).
+		 */
+		private final int[]		unary;
+
+		public MatchProblem(SmatchAmr source, SmatchAmr target) {
+			this.numSource = source.numVariables();
+			this.numTarget = target.numVariables();
+			this.unary = new int[numSource * numTarget];
+			this.sourceInstances = new String[numSource];
+			this.targetInstances = new String[numTarget];
+			final boolean[] isCandidate = new boolean[numSource * numTarget];
+			final List<Map<Integer, Integer>> pairs = new ArrayList<>(
+					numSource * numTarget);
+			for (int i = 0; i < numSource * numTarget; ++i) {
+				pairs.add(null);
+			}
+
+			// Instance triples.
+			for (int i = 0; i < numTarget; ++i) {
+				targetInstances[i] = target.getInstance(i);
+			}
+			for (int i = 0; i < numSource; ++i) {
+				sourceInstances[i] = source.getInstance(i);
+				for (int j = 0; j < numTarget; ++j) {
+					if (sourceInstances[i].equals(targetInstances[j])) {
+						++unary[i * numTarget + j];
+						isCandidate[i * numTarget + j] = true;
+					}
+				}
+			}
+
+			// Attribute triples, indexed by name and value.
+			final Map<String, List<Attribute>> targetAttributes = new HashMap<>();
+			for (final Attribute attribute : target.getAttributes()) {
+				targetAttributes
+						.computeIfAbsent(attribute.getName() + "\t"
+								+ attribute.getValue(), k -> new ArrayList<>())
+						.add(attribute);
+			}
+			for (final Attribute attribute : source.getAttributes()) {
+				final List<Attribute> matching = targetAttributes.get(
+						attribute.getName() + "\t" + attribute.getValue());
+				if (matching != null) {
+					for (final Attribute other : matching) {
+						final int key = attribute.getVariable() * numTarget
+								+ other.getVariable();
+						++unary[key];
+						isCandidate[key] = true;
+					}
+				}
+			}
+
+			// Relation triples, indexed by name.
+			final Map<String, List<Relation>> targetRelations = new HashMap<>();
+			for (final Relation relation : target.getRelations()) {
+				targetRelations.computeIfAbsent(relation.getName(),
+						k -> new ArrayList<>()).add(relation);
+			}
+			for (final Relation relation : source.getRelations()) {
+				final List<Relation> matching = targetRelations
+						.get(relation.getName());
+				if (matching != null) {
+					for (final Relation other : matching) {
+						final int key1 = relation.getSource() * numTarget
+								+ other.getSource();
+						final int key2 = relation.getTarget() * numTarget
+								+ other.getTarget();
+						isCandidate[key1] = true;
+						isCandidate[key2] = true;
+						if (key1 == key2) {
+							// Self loop.
+							++unary[key1];
+						} else {
+							addPair(pairs, key1, key2);
+							addPair(pairs, key2, key1);
+						}
+					}
+				}
+			}
+
+			// Compile to arrays.
+			this.pairKeys = new int[numSource * numTarget][];
+			this.pairWeights = new int[numSource * numTarget][];
+			for (int i = 0; i < pairs.size(); ++i) {
+				final Map<Integer, Integer> map = pairs.get(i);
+				if (map != null) {
+					pairKeys[i] = new int[map.size()];
+					pairWeights[i] = new int[map.size()];
+					int j = 0;
+					for (final Map.Entry<Integer, Integer> entry : map
+							.entrySet()) {
+						pairKeys[i][j] = entry.getKey();
+						pairWeights[i][j] = entry.getValue();
+						++j;
+					}
+				}
+			}
+			this.candidates = new int[numSource][];
+			for (int i = 0; i < numSource; ++i) {
+				final int offset = i * numTarget;
+				candidates[i] = IntStream.range(0, numTarget)
+						.filter(j -> isCandidate[offset + j]).toArray();
+			}
+		}
+
+		private static void addPair(List<Map<Integer, Integer>> pairs,
+				int key, int other) {
+			Map<Integer, Integer> map = pairs.get(key);
+			if (map == null) {
+				map = new HashMap<>();
+				pairs.set(key, map);
+			}
+			map.merge(other, 1, Integer::sum);
+		}
+
+		/**
+		 * Find the optimal mapping by exhaustive search.
+		 *
+		 * @return The number of matching triples.
+		 */
+		public int exactSearch() {
+			final int[] mapping = new int[numSource];
+			Arrays.fill(mapping, -1);
+			return exactSearch(0, mapping, new boolean[numTarget], 0);
+		}
+
+		/**
+		 * Hill-climb from the given mapping until no move or swap improves the
+		 * number of matching triples.
+		 *
+		 * @return The number of matching triples.
+		 */
+		public int hillClimb(int[] mapping) {
+			final boolean[] used = new boolean[numTarget];
+			for (final int target : mapping) {
+				if (target >= 0) {
+					used[target] = true;
+				}
+			}
+
+			int score = score(mapping);
+			while (true) {
+				int bestGain = 0;
+				int bestI = -1;
+				int bestJ = -1;
+				boolean bestIsSwap = false;
+
+				// Moves: re-map a variable to an unused candidate.
+				for (int i = 0; i < numSource; ++i) {
+					final int original = mapping[i];
+					final int oldLocal = local(mapping, i, -1);
+					for (final int target : candidates[i]) {
+						if (!used[target]) {
+							mapping[i] = target;
+							final int gain = local(mapping, i, -1) - oldLocal;
+							if (gain > bestGain) {
+								bestGain = gain;
+								bestI = i;
+								bestJ = target;
+								bestIsSwap = false;
+							}
+						}
+					}
+					mapping[i] = original;
+				}
+
+				// Swaps: exchange the targets of two variables.
+				for (int i = 0; i < numSource; ++i) {
+					for (int j = i + 1; j < numSource; ++j) {
+						if (mapping[i] == mapping[j]) {
+							// Both unmapped.
+							continue;
+						}
+						final int oldLocal = local(mapping, i, j);
+						swap(mapping, i, j);
+						final int gain = local(mapping, i, j) - oldLocal;
+						swap(mapping, i, j);
+						if (gain > bestGain) {
+							bestGain = gain;
+							bestI = i;
+							bestJ = j;
+							bestIsSwap = true;
+						}
+					}
+				}
+
+				if (bestGain == 0) {
+					return score;
+				}
+
+				if (bestIsSwap) {
+					swap(mapping, bestI, bestJ);
+				} else {
+					if (mapping[bestI] >= 0) {
+						used[mapping[bestI]] = false;
+					}
+					mapping[bestI] = bestJ;
+					used[bestJ] = true;
+				}
+				score += bestGain;
+			}
+		}
+
+		/**
+		 * The number of possible mappings, used to decide if exhaustive search
+		 * is feasible. Saturates at {@link Long#MAX_VALUE}.
+		 */
+		public long numMappings() {
+			long count = 1;
+			for (final int[] variableCandidates : candidates) {
+				if (count > Long.MAX_VALUE / (variableCandidates.length + 1)) {
+					return Long.MAX_VALUE;
+				}
+				count *= variableCandidates.length + 1;
+			}
+			return count;
+		}
+
+		/**
+		 * Random one-to-one mapping over candidates.
+		 */
+		public int[] randomInit(Random random) {
+			final int[] mapping = new int[numSource];
+			Arrays.fill(mapping, -1);
+			final boolean[] used = new boolean[numTarget];
+			for (int i = 0; i < numSource; ++i) {
+				mapping[i] = randomUnused(candidates[i], used, random);
+			}
+			return mapping;
+		}
+
+		/**
+		 * Map variables to unused variables with the same concept, and map the
+		 * rest randomly.
+		 */
+		public int[] smartInit(Random random) {
+			final int[] mapping = new int[numSource];
+			Arrays.fill(mapping, -1);
+			final boolean[] used = new boolean[numTarget];
+			for (int i = 0; i < numSource; ++i) {
+				for (final int target : candidates[i]) {
+					if (!used[target] && sourceInstances[i]
+							.equals(targetInstances[target])) {
+						mapping[i] = target;
+						used[target] = true;
+						break;
+					}
+				}
+			}
+			for (int i = 0; i < numSource; ++i) {
+				if (mapping[i] < 0) {
+					mapping[i] = randomUnused(candidates[i], used, random);
+				}
+			}
+			return mapping;
+		}
+
+		private int contribution(int[] mapping, int i) {
+			if (mapping[i] < 0) {
+				return 0;
+			}
+			final int key = i * numTarget + mapping[i];
+			int sum = unary[key];
+			final int[] keys = pairKeys[key];
+			if (keys != null) {
+				final int[] weights = pairWeights[key];
+				for (int k = 0; k < keys.length; ++k) {
+					if (mapping[keys[k] / numTarget] == keys[k] % numTarget) {
+						sum += weights[k];
+					}
+				}
+			}
+			return sum;
+		}
+
+		private int exactSearch(int i, int[] mapping, boolean[] used,
+				int score) {
+			if (i == numSource) {
+				return score;
+			}
+
+			// Leave the variable unmapped.
+			int best = exactSearch(i + 1, mapping, used, score);
+
+			for (final int target : candidates[i]) {
+				if (!used[target]) {
+					mapping[i] = target;
+					used[target] = true;
+					// Only count relations with variables already mapped to
+					// avoid double counting.
+					final int key = i * numTarget + target;
+					int gain = unary[key];
+					final int[] keys = pairKeys[key];
+					if (keys != null) {
+						for (int k = 0; k < keys.length; ++k) {
+							final int other = keys[k] / numTarget;
+							if (other < i && mapping[other] == keys[k]
+									% numTarget) {
+								gain += pairWeights[key][k];
+							}
+						}
+					}
+					best = Math.max(best,
+							exactSearch(i + 1, mapping, used, score + gain));
+					used[target] = false;
+					mapping[i] = -1;
+				}
+			}
+
+			return best;
+		}
+
+		/**
+		 * The number of matching triples that involve variable i or j (j may be
+		 * -1).
+		 */
+		private int local(int[] mapping, int i, int j) {
+			int sum = contribution(mapping, i);
+			if (j >= 0) {
+				sum += contribution(mapping, j);
+				if (mapping[i] >= 0 && mapping[j] >= 0) {
+					// Relations between i and j are counted twice.
+					final int key = i * numTarget + mapping[i];
+					final int otherKey = j * numTarget + mapping[j];
+					final int[] keys = pairKeys[key];
+					if (keys != null) {
+						for (int k = 0; k < keys.length; ++k) {
+							if (keys[k] == otherKey) {
+								sum -= pairWeights[key][k];
+							}
+						}
+					}
+				}
+			}
+			return sum;
+		}
+
+		private int randomUnused(int[] options, boolean[] used,
+				Random random) {
+			int remaining = 0;
+			for (final int option : options) {
+				if (!used[option]) {
+					++remaining;
+				}
+			}
+			if (remaining == 0) {
+				return -1;
+			}
+			int index = random.nextInt(remaining);
+			for (final int option : options) {
+				if (!used[option] && index-- == 0) {
+					used[option] = true;
+					return option;
+				}
+			}
+			throw new IllegalStateException("unreachable");
+		}
+
+		/**
+		 * The total number of matching triples.
+		 */
+		private int score(int[] mapping) {
+			int sum = 0;
+			for (int i = 0; i < numSource; ++i) {
+				if (mapping[i] >= 0) {
+					final int key = i * numTarget + mapping[i];
+					sum += unary[key];
+					final int[] keys = pairKeys[key];
+					if (keys != null) {
+						for (int k = 0; k < keys.length; ++k) {
+							// Count each relation once, from its lower index
+							// variable.
+							final int other = keys[k] / numTarget;
+							if (other > i && mapping[other] == keys[k]
+									% numTarget) {
+								sum += pairWeights[key][k];
+							}
+						}
+					}
+				}
+			}
+			return sum;
+		}
+
+		private void swap(int[] mapping, int i, int j) {
+			final int temp = mapping[i];
+			mapping[i] = mapping[j];
+			mapping[j] = temp;
+		}
+	}
+
+}
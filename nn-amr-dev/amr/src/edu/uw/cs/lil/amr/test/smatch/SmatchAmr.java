@@ -0,0 +1,391 @@
+package edu.uw.cs.lil.amr.test.smatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.uw.cs.lil.amr.lambda.convert.LogicalExpressionToAmr;
+
+/**
+ * AMR graph decomposed into SMATCH triples. Variables are replaced with
+ * indices in order of occurrence. Following the original SMATCH
+ * implementation, the graph contains three kinds of triples: instance triples
+ * (one per variable), attribute triples (a variable and a constant, including
+ * the TOP triple of the root) and relation triples (two variables). All names
+ * and values are lower-cased, quotes are stripped from string constants, and
+ * inverse relations (e.g., ARG0-of) are normalized to their canonical
+ * direction.
+ *
+ * @author Yoav Artzi
+ */
+public class SmatchAmr {
+
+	/**
+	 * Relations that end with "-of", but are not inverse relations.
+	 */
+	private static final Set<String>	NON_INVERSE_RELATIONS	= Collections
+			.unmodifiableSet(new HashSet<>(Arrays.asList("consist-of",
+					"prep-out-of", "prep-on-behalf-of")));
+
+	private static final String			TOP_RELATION			= "top";
+
+	/**
+	 * Attribute triples: relation name, variable index and constant value.
+	 */
+	private final List<Attribute>		attributes;
+
+	/**
+	 * Instance concept of each variable, indexed by the variable index.
+	 */
+	private final String[]				instances;
+
+	/**
+	 * Relation triples: relation name, source variable index and target
+	 * variable index.
+	 */
+	private final List<Relation>		relations;
+
+	private SmatchAmr(String[] instances, List<Attribute> attributes,
+			List<Relation> relations) {
+		this.instances = instances;
+		this.attributes = Collections.unmodifiableList(attributes);
+		this.relations = Collections.unmodifiableList(relations);
+	}
+
+	/**
+	 * Convert a logical expression to AMR using {@link LogicalExpressionToAmr}
+	 * and decompose it.
+	 *
+	 * @return <code>null</code> if the expression can't be converted to AMR.
+	 */
+	public static SmatchAmr of(LogicalExpression exp) {
+		final String amr = LogicalExpressionToAmr.of(exp);
+		return amr == null ? null : parse(amr);
+	}
+
+	/**
+	 * Parse an AMR in PENMAN notation.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the string is not a well formed AMR.
+	 */
+	public static SmatchAmr parse(String amr) {
+		return new Parser(amr).parse();
+	}
+
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	public String getInstance(int variable) {
+		return instances[variable];
+	}
+
+	public List<Relation> getRelations() {
+		return relations;
+	}
+
+	/**
+	 * Total number of triples (instances, attributes and relations).
+	 */
+	public int numTriples() {
+		return instances.length + attributes.size() + relations.size();
+	}
+
+	public int numVariables() {
+		return instances.length;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < instances.length; ++i) {
+			sb.append("instance(v").append(i).append(", ").append(instances[i])
+					.append(")\n");
+		}
+		for (final Attribute attribute : attributes) {
+			sb.append(attribute).append('\n');
+		}
+		for (final Relation relation : relations) {
+			sb.append(relation).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public static class Attribute {
+		private final String	name;
+		private final String	value;
+		private final int		variable;
+
+		public Attribute(String name, int variable, String value) {
+			this.name = name;
+			this.variable = variable;
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Attribute)) {
+				return false;
+			}
+			final Attribute other = (Attribute) obj;
+			return variable == other.variable && name.equals(other.name)
+					&& value.equals(other.value);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public int getVariable() {
+			return variable;
+		}
+
+		@Override
+		public int hashCode() {
+			return (name.hashCode() * 31 + value.hashCode()) * 31 + variable;
+		}
+
+		@Override
+		public String toString() {
+			return name + "(v" + variable + ", " + value + ")";
+		}
+	}
+
+	public static class Relation {
+		private final String	name;
+		private final int		source;
+		private final int		target;
+
+		public Relation(String name, int source, int target) {
+			this.name = name;
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Relation)) {
+				return false;
+			}
+			final Relation other = (Relation) obj;
+			return source == other.source && target == other.target
+					&& name.equals(other.name);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getSource() {
+			return source;
+		}
+
+		public int getTarget() {
+			return target;
+		}
+
+		@Override
+		public int hashCode() {
+			return (name.hashCode() * 31 + source) * 31 + target;
+		}
+
+		@Override
+		public String toString() {
+			return name + "(v" + source + ", v" + target + ")";
+		}
+	}
+
+	/**
+	 * Recursive descent parser for PENMAN notation. Values that are not
+	 * variables are resolved only after the complete AMR is read, since
+	 * re-entrant variables may be referenced before they are defined.
+	 */
+	private static class Parser {
+		private final List<String>			concepts	= new ArrayList<>();
+		/**
+		 * Edges: relation name, source variable name and target, which is
+		 * either a variable name or a constant value token (quoted if a
+		 * string).
+		 */
+		private final List<String[]>		edges		= new ArrayList<>();
+		private final String				input;
+		private int							position	= 0;
+		private final Map<String, Integer>	variables	= new HashMap<>();
+
+		public Parser(String input) {
+			this.input = input;
+		}
+
+		private static boolean isInverse(String relation) {
+			return relation.endsWith("-of")
+					&& !NON_INVERSE_RELATIONS.contains(relation);
+		}
+
+		public SmatchAmr parse() {
+			skipWhitespace();
+			final String root = parseNode();
+			skipWhitespace();
+			if (position != input.length()) {
+				throw error("Trailing characters");
+			}
+
+			// Resolve edges. Use sets to drop duplicate triples.
+			final Set<Attribute> attributes = new LinkedHashSet<>();
+			final Set<Relation> relations = new LinkedHashSet<>();
+			final int rootIndex = variables.get(root);
+			attributes.add(new Attribute(TOP_RELATION, rootIndex,
+					concepts.get(rootIndex)));
+			for (final String[] edge : edges) {
+				final String relation = edge[0];
+				final int source = variables.get(edge[1]);
+				final String value = edge[2];
+				if (value.startsWith("\"")) {
+					attributes.add(new Attribute(relation, source,
+							value.substring(1, value.length() - 1)
+									.toLowerCase()));
+				} else if (variables.containsKey(value)) {
+					final int target = variables.get(value);
+					if (isInverse(relation)) {
+						relations.add(new Relation(
+								relation.substring(0, relation.length() - 3),
+								target, source));
+					} else {
+						relations.add(new Relation(relation, source, target));
+					}
+				} else {
+					attributes.add(new Attribute(relation, source,
+							value.toLowerCase()));
+				}
+			}
+
+			return new SmatchAmr(concepts.toArray(new String[concepts.size()]),
+					new ArrayList<>(attributes), new ArrayList<>(relations));
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(String.format(
+					"%s at position %d: %s", message, position, input));
+		}
+
+		private void expect(char c) {
+			skipWhitespace();
+			if (position >= input.length() || input.charAt(position) != c) {
+				throw error("Expected '" + c + "'");
+			}
+			++position;
+		}
+
+		/**
+		 * Parse a node "(var / concept :rel value ...)" and return the name of
+		 * its variable.
+		 */
+		private String parseNode() {
+			expect('(');
+			final String variable = readToken();
+			if (variables.containsKey(variable)) {
+				throw error("Duplicate variable " + variable);
+			}
+			variables.put(variable, concepts.size());
+			concepts.add(null);
+			expect('/');
+			concepts.set(variables.get(variable),
+					readToken().toLowerCase());
+
+			while (true) {
+				skipWhitespace();
+				if (position >= input.length()) {
+					throw error("Unbalanced parentheses");
+				}
+				final char c = input.charAt(position);
+				if (c == ')') {
+					++position;
+					return variable;
+				} else if (c == ':') {
+					++position;
+					final String relation = readToken().toLowerCase();
+					skipWhitespace();
+					if (position < input.length()
+							&& input.charAt(position) == '(') {
+						final String child = parseNode();
+						if (isInverse(relation)) {
+							edges.add(new String[] {
+									relation.substring(0,
+											relation.length() - 3),
+									child, variable });
+						} else {
+							edges.add(new String[] { relation, variable,
+									child });
+						}
+					} else {
+						edges.add(new String[] { relation, variable,
+								readToken() });
+					}
+				} else {
+					throw error("Unexpected character");
+				}
+			}
+		}
+
+		/**
+		 * Read a token, which is either a quoted string (returned with the
+		 * quotes) or a sequence of characters up to whitespace or a
+		 * parenthesis.
+		 */
+		private String readToken() {
+			skipWhitespace();
+			final int start = position;
+			if (position < input.length() && input.charAt(position) == '"') {
+				++position;
+				while (position < input.length()
+						&& input.charAt(position) != '"') {
+					if (input.charAt(position) == '\\') {
+						++position;
+					}
+					++position;
+				}
+				if (position >= input.length()) {
+					throw error("Unterminated string");
+				}
+				++position;
+			} else {
+				while (position < input.length()) {
+					final char c = input.charAt(position);
+					if (Character.isWhitespace(c) || c == '(' || c == ')') {
+						break;
+					}
+					++position;
+				}
+			}
+			if (start == position) {
+				throw error("Expected token");
+			}
+			return input.substring(start, position);
+		}
+
+		private void skipWhitespace() {
+			while (position < input.length()
+					&& Character.isWhitespace(input.charAt(position))) {
+				++position;
+			}
+		}
+	}
+
+}
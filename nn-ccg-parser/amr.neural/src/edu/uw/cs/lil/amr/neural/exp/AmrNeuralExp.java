@@ -356,6 +356,11 @@ public class AmrNeuralExp extends DistributedExperiment {
 		final IExecTester<SituatedSentence<AMRMeta>, LogicalExpression, LabeledAmrSentence> tester = get(
 				params.get("tester"));
 
+		// Optional model to freeze while testing. Theta doesn't change during
+		// testing, so scoring can use the compiled theta.
+		final Model<?, ?> frozenModel = params.contains("model")
+				? (Model<?, ?>) get(params.get("model")) : null;
+
 		// Get the data.
 		final IDataCollection<LabeledAmrSentence> data = get(
 				params.get("data"));
@@ -388,7 +393,18 @@ public class AmrNeuralExp extends DistributedExperiment {
 				LOG.info("============ (Job %s started)", getId());
 
 				// Test the final model.
-				tester.test(exec, filterData/*data*/, testStatistics);
+				final boolean freeze = frozenModel != null
+						&& !frozenModel.isFrozen();
+				if (freeze) {
+					frozenModel.freeze();
+				}
+				try {
+					tester.test(exec, filterData/*data*/, testStatistics);
+				} finally {
+					if (freeze) {
+						frozenModel.unfreeze();
+					}
+				}
 				LOG.info("%s\n", testStatistics);
 				getOutputStream()
 						.println(testStatistics.toTabDelimitedString());
@@ -20,6 +20,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -27,6 +28,10 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import edu.cornell.cs.nlp.spf.base.exceptions.FileReadingException;
 import edu.cornell.cs.nlp.spf.explat.resources.IResourceObjectCreator;
@@ -36,6 +41,7 @@ import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.counter.Counter;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+import edu.cornell.cs.nlp.utils.log.thread.LoggingThreadFactory;
 import jregex.Matcher;
 import jregex.Pattern;
 import jregex.Replacer;
@@ -50,13 +56,27 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 	public static final String				ONTOLOGY_RESOURCE			= "ontology";
 	public static final String				PARSER_RESOURCE				= "parser";
 	private static final String				INCLUDE_DIRECTIVE			= "include";
+	private static final String				LAZY_PARAM					= "lazy";
 	private static final Pattern			LINE_REPEAT_PATTERN			= new Pattern(
 			"\\[({var}\\w+)=({start}\\d+)-({end}\\d+)\\]\\s+({rest}.+)$");
 	private static final Pattern			PARAM_SPLIT_PATTERN			= new Pattern(
 			"(?<!\\\\)\\s");
+	private static final String				RESOURCE_THREADS_PARAM		= "resourceThreads";
 	private static final Pattern			VAR_REF						= new Pattern(
 			"%\\{({var}[\\w@]+)\\}");
 	private final ResourceCreatorRepository	creatorRepo;
+
+	/**
+	 * The resource currently created by this thread, if any.
+	 */
+	private final ThreadLocal<PendingResource>	creating				= new ThreadLocal<PendingResource>();
+
+	/**
+	 * Declared resources that are not created yet. Guarded by
+	 * {@link #resources}.
+	 */
+	private final Map<String, PendingResource>	pendingResources		= new HashMap<String, PendingResource>();
+
 	private final Map<String, Object>		resources					= new HashMap<String, Object>();
 
 	private final File						rootDir;
@@ -160,8 +180,15 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T> T get(String id) {
-		if (resources.containsKey(id)) {
-			return (T) resources.get(id);
+		final PendingResource pending;
+		synchronized (resources) {
+			if (resources.containsKey(id)) {
+				return (T) resources.get(id);
+			}
+			pending = pendingResources.get(id);
+		}
+		if (pending != null && pending.isAvailable()) {
+			return (T) pending.get();
 		} else {
 			throw new IllegalStateException("Invalid resource: " + id);
 		}
@@ -169,7 +196,7 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 
 	@Override
 	public <T> T get(String id, T defaultObject) {
-		if (resources.containsKey(id)) {
+		if (hasResource(id)) {
 			return get(id);
 		} else {
 			return defaultObject;
@@ -181,7 +208,13 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 	}
 
 	public boolean hasResource(String id) {
-		return resources.containsKey(id);
+		synchronized (resources) {
+			if (resources.containsKey(id)) {
+				return true;
+			}
+			final PendingResource pending = pendingResources.get(id);
+			return pending != null && pending.isAvailable();
+		}
 	}
 
 	public File makeAbsolute(File file) {
@@ -192,18 +225,82 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 		}
 	}
 
+	/**
+	 * Create the resources declared in the resources section. A resource may
+	 * only use resources declared before it. By default, resources are created
+	 * one by one in declaration order. With the "resourceThreads" global
+	 * parameter, resources are created in parallel: each thread creates
+	 * resources in declaration order, and a resource that requests another
+	 * resource that is not created yet either creates it or waits for the
+	 * thread creating it. Resources with "lazy=true" (possibly set globally)
+	 * are only created when first requested, for example by a job.
+	 */
 	public void readResrouces() {
-		for (final Parameters params : resourceParams) {
-			final String type = params.get("type");
-			final String id = params.get("id");
-			/*LOG.info("id is "+id);*/
-			if (getCreator(type) == null) {
-				throw new IllegalArgumentException(
-						"Invalid resource type: " + type);
+		// Register all resources, so they can be created on demand.
+		final List<PendingResource> declared = new ArrayList<PendingResource>();
+		synchronized (resources) {
+			for (final Parameters params : resourceParams) {
+				final String type = params.get("type");
+				final String id = params.get("id");
+				if (getCreator(type) == null) {
+					throw new IllegalArgumentException(
+							"Invalid resource type: " + type);
+				}
+				final PendingResource pending = new PendingResource(
+						declared.size(), id, type, params);
+				if (resources.containsKey(id)
+						|| pendingResources.put(id, pending) != null) {
+					throw new IllegalStateException(
+							"Resource already exists: " + id);
+				}
+				declared.add(pending);
+			}
+		}
+
+		final List<PendingResource> eager = new ArrayList<PendingResource>();
+		for (final PendingResource pending : declared) {
+			if (pending.params.getAsBoolean(LAZY_PARAM, false)) {
+				LOG.info("Resource %s of type %s will be created on demand",
+						pending.id, pending.type);
 			} else {
-				LOG.info("Creating resource %s of type %s ...", id, type);
-				storeResource(id, getCreator(type).create(params, this));
+				eager.add(pending);
+			}
+		}
+
+		final int numThreads = globalParams
+				.getAsInteger(RESOURCE_THREADS_PARAM, 1);
+		if (numThreads <= 1) {
+			for (final PendingResource pending : eager) {
+				pending.get();
 			}
+			return;
+		}
+
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(numThreads, new LoggingThreadFactory());
+		final List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		try {
+			for (final PendingResource pending : eager) {
+				futures.add(CompletableFuture.runAsync(pending::get, executor));
+			}
+
+			// Wait for all resources and re-throw the first failure in
+			// declaration order.
+			for (final CompletableFuture<Void> future : futures) {
+				try {
+					future.join();
+				} catch (final CompletionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					} else if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					} else {
+						throw e;
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
 		}
 	}
 
@@ -259,10 +356,13 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 	}
 
 	protected <T> void storeResource(String id, T resource) {
-		if (resources.containsKey(id)) {
-			throw new IllegalStateException("Resource already exists: " + id);
-		} else {
-			resources.put(id, resource);
+		synchronized (resources) {
+			if (resources.containsKey(id)) {
+				throw new IllegalStateException(
+						"Resource already exists: " + id);
+			} else {
+				resources.put(id, resource);
+			}
 		}
 	}
 
@@ -422,4 +522,80 @@ public abstract class ParameterizedExperiment implements IResourceRepository {
 			}
 		}
 	}
+
+	/**
+	 * A declared resource that is created once, by the first thread that
+	 * requests it. Other threads requesting it wait for its creation.
+	 */
+	private class PendingResource {
+		private boolean				done	= false;
+		private Throwable			failure	= null;
+		private final String		id;
+		private final int			index;
+		private final Parameters	params;
+		private boolean				started	= false;
+		private final String		type;
+
+		public PendingResource(int index, String id, String type,
+				Parameters params) {
+			this.index = index;
+			this.id = id;
+			this.type = type;
+			this.params = params;
+		}
+
+		public Object get() {
+			synchronized (this) {
+				while (started && !done) {
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException(e);
+					}
+				}
+				if (done) {
+					if (failure != null) {
+						throw new IllegalStateException(
+								"Failed to create resource: " + id, failure);
+					}
+					synchronized (resources) {
+						return resources.get(id);
+					}
+				}
+				started = true;
+			}
+
+			final PendingResource previous = creating.get();
+			creating.set(this);
+			try {
+				LOG.info("Creating resource %s of type %s ...", id, type);
+				final Object resource = getCreator(type).create(params,
+						ParameterizedExperiment.this);
+				synchronized (resources) {
+					pendingResources.remove(id);
+					storeResource(id, resource);
+				}
+				return resource;
+			} catch (RuntimeException | Error e) {
+				failure = e;
+				throw e;
+			} finally {
+				creating.set(previous);
+				synchronized (this) {
+					done = true;
+					notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * A resource is available to the current thread, unless the thread is
+		 * creating a resource declared before it.
+		 */
+		public boolean isAvailable() {
+			final PendingResource current = creating.get();
+			return current == null || index < current.index;
+		}
+	}
 }
@@ -16,8 +16,11 @@
  *******************************************************************************/
 package edu.cornell.cs.nlp.spf.genlex.ccg.unification.split;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.cornell.cs.nlp.spf.ccg.categories.Category;
 import edu.cornell.cs.nlp.spf.ccg.categories.ICategoryServices;
@@ -28,24 +31,62 @@ import edu.cornell.cs.nlp.spf.explat.resources.IResourceObjectCreator;
 import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
 import edu.cornell.cs.nlp.spf.genlex.ccg.unification.split.SplittingServices.SplittingPair;
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.utils.composites.Pair;
 
 /**
- * Splitting service object.
+ * Splitting service object. Splits of a category are memoized, so categories
+ * that re-appear in different sentences and epochs are split once. The memo
+ * is thread safe, and is cleared when it grows beyond its capacity.
  * 
  * @author Yoav Artzi
  */
 public class Splitter implements IUnificationSplitter {
-	private final ICategoryServices<LogicalExpression>	categoryServices;
+	public static final int														DEFAULT_CAPACITY	= 100000;
+
+	private final int															capacity;
+	private final ICategoryServices<LogicalExpression>							categoryServices;
+	private final Map<Pair<Category<LogicalExpression>, SplitType>, Set<SplittingPair>>	splits				= new ConcurrentHashMap<>();
 	
 	public Splitter(ICategoryServices<LogicalExpression> categoryServices) {
+		this(categoryServices, DEFAULT_CAPACITY);
+	}
+	
+	public Splitter(ICategoryServices<LogicalExpression> categoryServices,
+			int capacity) {
 		this.categoryServices = categoryServices;
+		this.capacity = capacity;
 	}
 	
 	public Set<SplittingPair> getSplits(Category<LogicalExpression> category) {
-		final Set<SplittingPair> splits = new HashSet<SplittingPair>();
-		splits.addAll(MakeApplicationSplits.of(category, categoryServices));
-		splits.addAll(MakeCompositionSplits.of(category, categoryServices));
-		return splits;
+		final Set<SplittingPair> allSplits = new HashSet<SplittingPair>();
+		allSplits.addAll(getSplits(category, SplitType.APPLICATION));
+		allSplits.addAll(getSplits(category, SplitType.COMPOSITION));
+		return allSplits;
+	}
+	
+	private Set<SplittingPair> getSplits(Category<LogicalExpression> category,
+			SplitType type) {
+		final Pair<Category<LogicalExpression>, SplitType> key = Pair.of(
+				category, type);
+		final Set<SplittingPair> cached = splits.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		
+		// Compute outside of the map to avoid holding its locks.
+		final Set<SplittingPair> computed = Collections
+				.unmodifiableSet(type == SplitType.APPLICATION ? MakeApplicationSplits
+						.of(category, categoryServices) : MakeCompositionSplits
+						.of(category, categoryServices));
+		if (splits.size() >= capacity) {
+			splits.clear();
+		}
+		splits.put(key, computed);
+		return computed;
+	}
+	
+	private enum SplitType {
+		APPLICATION, COMPOSITION
 	}
 	
 	public static class Creator implements IResourceObjectCreator<Splitter> {
@@ -56,7 +97,8 @@ public class Splitter implements IUnificationSplitter {
 				IResourceRepository resourceRepo) {
 			return new Splitter(
 					(ICategoryServices<LogicalExpression>) resourceRepo
-							.get(ParameterizedExperiment.CATEGORY_SERVICES_RESOURCE));
+							.get(ParameterizedExperiment.CATEGORY_SERVICES_RESOURCE),
+					parameters.getAsInteger("cacheSize", DEFAULT_CAPACITY));
 		}
 		
 		@Override
@@ -69,6 +111,9 @@ public class Splitter implements IUnificationSplitter {
 			return new ResourceUsage.Builder(type(), Splitter.class)
 					.setDescription(
 							"Logical expression splitter for unification-based GENLEX")
+					.addParam("cacheSize", Integer.class,
+							"Number of split categories to memoize (default: "
+									+ DEFAULT_CAPACITY + ")")
 					.build();
 		}
 		
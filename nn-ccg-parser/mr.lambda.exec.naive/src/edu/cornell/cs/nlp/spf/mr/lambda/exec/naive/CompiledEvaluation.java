@@ -0,0 +1,476 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.mr.lambda.exec.naive;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cornell.cs.nlp.spf.mr.lambda.Lambda;
+import edu.cornell.cs.nlp.spf.mr.lambda.Literal;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicLanguageServices;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalConstant;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.mr.lambda.Variable;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.ArgMax;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.ArgMin;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Equals;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Exists;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Not;
+import edu.cornell.cs.nlp.utils.composites.Pair;
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+import edu.cornell.cs.nlp.utils.log.thread.InterruptedRuntimeException;
+
+/**
+ * Compiled evaluation of {@link LogicalExpression}s. Computes the same
+ * denotations as {@link Evaluation} with the same services, but each
+ * expression is first translated into a tree of closures bound to the
+ * evaluation services. Compiled
+ * expressions are cached and re-used for equal expressions (i.e., up to
+ * variable renaming), so candidate logical forms that are evaluated many times
+ * are compiled once. Compared to {@link Evaluation}:
+ * <ul>
+ * <li>Denotations of variables are stored in an array instead of a map.</li>
+ * <li>Sub-expressions without free variables are evaluated at most once in
+ * each evaluation, even when nested in a lambda term that iterates over many
+ * denotations. Only these sub-expressions are cached with the services, so
+ * the services are not notified of denotation changes.</li>
+ * <li>Literals evaluated with {@link Exists} stop at the first denotation that
+ * satisfies the lambda term, literals evaluated with {@link ArgMax} and
+ * {@link ArgMin} skip the ordering function when the set alone determines the
+ * result, and {@link Equals} and {@link Not} are evaluated directly. This
+ * requires the services to expose their evaluators via
+ * {@link IEvaluationServices#getEvaluator(LogicalExpression)}.</li>
+ * </ul>
+ * Stops when executing thread receives an interrupt and throws a
+ * {@link InterruptedRuntimeException}. Not thread safe.
+ *
+ * @author Yoav Artzi
+ */
+public class CompiledEvaluation {
+	public static final int							DEFAULT_CACHE_SIZE	= 10000;
+	public static final ILogger						LOG					= LoggerFactory
+			.create(CompiledEvaluation.class);
+
+	private final Map<LogicalExpression, Program>	cache;
+	private final IEvaluationServices				services;
+
+	public CompiledEvaluation(IEvaluationServices services) {
+		this(services, DEFAULT_CACHE_SIZE);
+	}
+
+	public CompiledEvaluation(IEvaluationServices services,
+			final int cacheSize) {
+		this.services = services;
+		this.cache = new LinkedHashMap<LogicalExpression, Program>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = -2917469361925442651L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<LogicalExpression, Program> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	private static void testInterruption() {
+		if (Thread.interrupted()) {
+			throw new InterruptedRuntimeException(new InterruptedException(
+					"Evaluation interuppted"));
+		}
+	}
+
+	public void clearCache() {
+		cache.clear();
+	}
+
+	/**
+	 * Evaluate the expression. The expression is compiled if no equal
+	 * expression was compiled before.
+	 */
+	public Object evaluate(LogicalExpression exp) {
+		Program program = cache.get(exp);
+		if (program == null) {
+			program = new Compiler().compile(exp);
+			cache.put(exp, program);
+			LOG.debug("Compiled: %s", exp);
+		}
+		return program.run();
+	}
+
+	private static class Frame {
+		private final Object[]	memo;
+		private final boolean[]	memoized;
+		private final Object[]	slots;
+
+		public Frame(int numSlots, int numMemos) {
+			this.slots = new Object[numSlots];
+			this.memo = new Object[numMemos];
+			this.memoized = new boolean[numMemos];
+		}
+	}
+
+	@FunctionalInterface
+	private interface Node {
+		Object evaluate(Frame frame);
+	}
+
+	private static class Program {
+		private final int	numMemos;
+		private final int	numSlots;
+		private final Node	root;
+
+		public Program(Node root, int numSlots, int numMemos) {
+			this.root = root;
+			this.numSlots = numSlots;
+			this.numMemos = numMemos;
+		}
+
+		public Object run() {
+			testInterruption();
+			return root.evaluate(new Frame(numSlots, numMemos));
+		}
+	}
+
+	private class Compiler {
+		private int							numMemos	= 0;
+		private int							numSlots	= 0;
+		private final Map<Variable, Integer>	slots		= new IdentityHashMap<Variable, Integer>();
+
+		public Program compile(LogicalExpression exp) {
+			final Node root = compileNode(exp);
+			return new Program(root, numSlots, numMemos);
+		}
+
+		private Node[] compileArgs(Literal literal) {
+			final int len = literal.numArgs();
+			final Node[] args = new Node[len];
+			for (int i = 0; i < len; ++i) {
+				args[i] = compileNode(literal.getArg(i));
+			}
+			return args;
+		}
+
+		/**
+		 * {@link ArgMax} and {@link ArgMin} return null when the set has a
+		 * single entry, no entries or entries with multiple keys, so the
+		 * ordering function is only evaluated when the set doesn't determine
+		 * the result. Otherwise, the arguments are passed to the evaluator.
+		 */
+		private Node compileArgExtremum(Literal literal,
+				ILiteralEvaluator evaluator) {
+			final Node set = compileNode(literal.getArg(0));
+			final Node ordering = compileNode(literal.getArg(1));
+
+			return frame -> {
+				final Object setValue = set.evaluate(frame);
+				if (!(setValue instanceof ILambdaResult)
+						|| ((ILambdaResult) setValue).size() <= 1) {
+					return null;
+				}
+				for (final Tuple tuple : (ILambdaResult) setValue) {
+					if (tuple.numKeys() != 1) {
+						return null;
+					}
+				}
+				final Object orderingValue = ordering.evaluate(frame);
+				if (orderingValue == null) {
+					return null;
+				}
+				return evaluator
+						.evaluate(new Object[] { setValue, orderingValue });
+			};
+		}
+
+		private Node compileConstant(LogicalConstant constant) {
+			if (constant.equals(LogicLanguageServices.getTrue())) {
+				return frame -> Boolean.TRUE;
+			} else if (constant.equals(LogicLanguageServices.getFalse())) {
+				return frame -> Boolean.FALSE;
+			} else {
+				// Call domain services to process.
+				return memoize(frame -> services.evaluateConstant(constant),
+						constant);
+			}
+		}
+
+		private Node compileCoordination(Literal literal) {
+			// Get short-circuiting argument value.
+			final Boolean shortCircuitingValue;
+			if (LogicLanguageServices.getConjunctionPredicate()
+					.equals(literal.getPredicate())) {
+				shortCircuitingValue = Boolean.FALSE;
+			} else if (LogicLanguageServices.getDisjunctionPredicate()
+					.equals(literal.getPredicate())) {
+				shortCircuitingValue = Boolean.TRUE;
+			} else {
+				return frame -> {
+					throw new IllegalStateException(
+							"unhandled coordination predicate: " + literal);
+				};
+			}
+			final Boolean defaultValue = !shortCircuitingValue;
+			final Node[] args = compileArgs(literal);
+
+			return frame -> {
+				for (final Node arg : args) {
+					final Object value = arg.evaluate(frame);
+					if (value == null || shortCircuitingValue.equals(value)) {
+						return value;
+					}
+				}
+				// Case not short-circuited, so return the default value.
+				return defaultValue;
+			};
+		}
+
+		private Node compileLiteral(Literal literal) {
+			if (LogicLanguageServices
+					.isCoordinationPredicate(literal.getPredicate())) {
+				return compileCoordination(literal);
+			}
+
+			// Specialize known evaluators. Sub-classes may change the
+			// semantics, so only the classes themselves are specialized.
+			final int len = literal.numArgs();
+			final ILiteralEvaluator evaluator = services
+					.getEvaluator(literal.getPredicate());
+			final Class<?> evaluatorClass = evaluator == null ? null
+					: evaluator.getClass();
+			if (evaluatorClass == Exists.class && len == 1
+					&& literal.getArg(0) instanceof Lambda) {
+				final Select select = compileSelect(
+						(Lambda) literal.getArg(0));
+				if (select != null) {
+					return frame -> select.exists(frame);
+				}
+			} else if ((evaluatorClass == ArgMax.class
+					|| evaluatorClass == ArgMin.class) && len == 2) {
+				return compileArgExtremum(literal, evaluator);
+			} else if (evaluatorClass == Equals.class && len == 2) {
+				final Node first = compileNode(literal.getArg(0));
+				final Node second = compileNode(literal.getArg(1));
+				return frame -> {
+					final Object firstValue = first.evaluate(frame);
+					if (firstValue == null) {
+						return null;
+					}
+					final Object secondValue = second.evaluate(frame);
+					if (secondValue == null) {
+						return null;
+					}
+					return firstValue.equals(secondValue);
+				};
+			} else if (evaluatorClass == Not.class && len == 1) {
+				final Node arg = compileNode(literal.getArg(0));
+				return frame -> {
+					final Object value = arg.evaluate(frame);
+					return value instanceof Boolean
+							? !Boolean.TRUE.equals(value) : null;
+				};
+			}
+
+			// Case no specialization, use domain executors to evaluate.
+			final LogicalExpression predicate = literal.getPredicate();
+			final Node[] args = compileArgs(literal);
+			return frame -> {
+				final Object[] evalArgs = new Object[args.length];
+				for (int i = 0; i < args.length; ++i) {
+					evalArgs[i] = args[i].evaluate(frame);
+					if (evalArgs[i] == null) {
+						// If failed to evaluate, propagate failure to literal.
+						return null;
+					}
+				}
+				return services.evaluateLiteral(predicate, evalArgs);
+			};
+		}
+
+		private Node compileNode(LogicalExpression exp) {
+			if (exp instanceof Variable) {
+				// Variables are never memoized, since their denotation
+				// constantly changes. Free variables have no denotation.
+				final Integer slot = slots.get(exp);
+				if (slot == null) {
+					return frame -> null;
+				}
+				final int index = slot;
+				return frame -> frame.slots[index];
+			} else if (exp instanceof LogicalConstant) {
+				return compileConstant((LogicalConstant) exp);
+			} else if (exp instanceof Literal) {
+				return memoize(compileLiteral((Literal) exp), exp);
+			} else if (exp instanceof Lambda) {
+				final Select select = compileSelect((Lambda) exp);
+				if (select == null) {
+					return frame -> {
+						throw new IllegalArgumentException(
+								"invalid lambda: " + exp);
+					};
+				}
+				return memoize(frame -> select.evaluate(frame), exp);
+			} else {
+				throw new IllegalArgumentException(
+						"Unsupported expression: " + exp);
+			}
+		}
+
+		/**
+		 * Compile a lambda term as a SELECT query, see
+		 * {@link Evaluation#decomposeLogicalExpressionAsSelect(LogicalExpression)}
+		 * . Returns null if the lambda term is not a SELECT query.
+		 */
+		private Select compileSelect(Lambda lambda) {
+			final Pair<List<Variable>, LogicalExpression> decomposition = Evaluation
+					.decomposeLogicalExpressionAsSelect(lambda);
+			if (decomposition == null) {
+				return null;
+			}
+			final List<Variable> variables = decomposition.first();
+			final int[] variableSlots = new int[variables.size()];
+			for (int i = 0; i < variableSlots.length; ++i) {
+				variableSlots[i] = numSlots++;
+				slots.put(variables.get(i), variableSlots[i]);
+			}
+			final LogicalExpression body = decomposition.second();
+			return new Select(variables.toArray(new Variable[variables.size()]),
+					variableSlots, compileNode(body),
+					LogicLanguageServices.getTypeRepository()
+							.getTruthValueType().equals(body.getType()));
+		}
+
+		/**
+		 * Sub-expressions without free variables are evaluated once for each
+		 * evaluation and cached with the services.
+		 */
+		private Node memoize(Node node, LogicalExpression exp) {
+			if (exp.numFreeVariables() != 0) {
+				return node;
+			}
+			final int index = numMemos++;
+			return frame -> {
+				if (frame.memoized[index]) {
+					return frame.memo[index];
+				}
+				final Object result;
+				if (services.isCached(exp)) {
+					result = services.getFromCache(exp);
+				} else {
+					result = node.evaluate(frame);
+					services.cacheResult(exp, result);
+				}
+				frame.memo[index] = result;
+				frame.memoized[index] = true;
+				return result;
+			};
+		}
+	}
+
+	/**
+	 * A compiled SELECT query: the queried variables and the body.
+	 */
+	private class Select {
+		private final Node			body;
+		private final int[]			slots;
+		private final boolean		truthTyped;
+		private final Variable[]	variables;
+
+		public Select(Variable[] variables, int[] slots, Node body,
+				boolean truthTyped) {
+			this.variables = variables;
+			this.slots = slots;
+			this.body = body;
+			this.truthTyped = truthTyped;
+		}
+
+		public LambdaResult evaluate(Frame frame) {
+			final LambdaResult result = new LambdaResult(slots.length);
+			iterate(frame, result);
+			return result;
+		}
+
+		public boolean exists(Frame frame) {
+			return iterate(frame, null);
+		}
+
+		/**
+		 * Try all possible combinations of denotations. Tuples that evaluate
+		 * the body to null are ignored, since it's an indication towards
+		 * invalid arity or typing. For a truth-typed body, only tuples that
+		 * evaluate to 'true' are included, otherwise all tuples are welcome.
+		 *
+		 * @param result
+		 *            Result to add the tuples to. If null, stops at the first
+		 *            tuple.
+		 * @return 'true' iff stopped at a tuple.
+		 */
+		private boolean iterate(Frame frame, LambdaResult result) {
+			final int numVariables = slots.length;
+			final Object[][] domains = new Object[numVariables][];
+			for (int i = 0; i < numVariables; ++i) {
+				domains[i] = services.getAllDenotations(variables[i])
+						.toArray();
+				if (domains[i].length == 0) {
+					return false;
+				}
+			}
+
+			final int[] indices = new int[numVariables];
+			boolean stopped = false;
+			while (true) {
+				testInterruption();
+				for (int i = 0; i < numVariables; ++i) {
+					frame.slots[slots[i]] = domains[i][indices[i]];
+				}
+
+				final Object value = body.evaluate(frame);
+				if (value != null
+						&& (!truthTyped || Boolean.TRUE.equals(value))) {
+					if (result == null) {
+						stopped = true;
+						break;
+					}
+					final Object[] tuple = new Object[numVariables];
+					for (int i = 0; i < numVariables; ++i) {
+						tuple[i] = domains[i][indices[i]];
+					}
+					result.addTuple(new Tuple(tuple, value));
+				}
+
+				// Advance to the next combination.
+				int i = numVariables - 1;
+				while (i >= 0 && ++indices[i] == domains[i].length) {
+					indices[i] = 0;
+					--i;
+				}
+				if (i < 0) {
+					break;
+				}
+			}
+
+			// Remove the denotations of the variables.
+			for (int i = 0; i < numVariables; ++i) {
+				frame.slots[slots[i]] = null;
+			}
+			return stopped;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.mr.lambda.exec.naive;
+
+import edu.cornell.cs.nlp.spf.data.ILabeledDataItem;
+import edu.cornell.cs.nlp.spf.data.utils.IValidator;
+import edu.cornell.cs.nlp.spf.explat.IResourceRepository;
+import edu.cornell.cs.nlp.spf.explat.ParameterizedExperiment.Parameters;
+import edu.cornell.cs.nlp.spf.explat.resources.IResourceObjectCreator;
+import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+/**
+ * Validator that compares the denotation of the hypothesis logical form to the
+ * denotation of the gold logical form. Logical forms are evaluated with
+ * {@link CompiledEvaluation}, so hypotheses that are validated repeatedly
+ * (e.g., in every epoch) are compiled once. A hypothesis that fails to
+ * evaluate is never valid.
+ *
+ * @author Yoav Artzi
+ * @param <DI>
+ *            Labeled data item to use for validation.
+ */
+public class DenotationValidator<DI extends ILabeledDataItem<?, LogicalExpression>>
+		implements IValidator<DI, LogicalExpression> {
+
+	private final CompiledEvaluation	evaluation;
+
+	public DenotationValidator(IEvaluationServices services) {
+		this.evaluation = new CompiledEvaluation(services);
+	}
+
+	@Override
+	public synchronized boolean isValid(DI dataItem, LogicalExpression label) {
+		final Object denotation = evaluation.evaluate(label);
+		return denotation != null
+				&& denotation.equals(evaluation.evaluate(dataItem.getLabel()));
+	}
+
+	public static class Creator<DI extends ILabeledDataItem<?, LogicalExpression>>
+			implements IResourceObjectCreator<DenotationValidator<DI>> {
+
+		private final String	type;
+
+		public Creator() {
+			this("validator.denotation");
+		}
+
+		public Creator(String type) {
+			this.type = type;
+		}
+
+		@Override
+		public DenotationValidator<DI> create(Parameters params,
+				IResourceRepository repo) {
+			return new DenotationValidator<DI>(
+					(IEvaluationServices) repo.get(params.get("services")));
+		}
+
+		@Override
+		public String type() {
+			return type;
+		}
+
+		@Override
+		public ResourceUsage usage() {
+			return new ResourceUsage.Builder(type(), DenotationValidator.class)
+					.setDescription(
+							"Validates a logical form by comparing its denotation to the denotation of the gold logical form")
+					.addParam("services", IEvaluationServices.class,
+							"Evaluation services")
+					.build();
+		}
+
+	}
+
+}
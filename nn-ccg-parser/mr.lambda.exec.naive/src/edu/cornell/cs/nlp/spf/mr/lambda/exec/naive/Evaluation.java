@@ -69,7 +69,7 @@ public class Evaluation implements ILogicalExpressionVisitor {
 	 * @return Pair of queried variables and SELECT body. If not a SELECT query,
 	 *         returns null.
 	 */
-	private static Pair<List<Variable>, LogicalExpression> decomposeLogicalExpressionAsSelect(
+	static Pair<List<Variable>, LogicalExpression> decomposeLogicalExpressionAsSelect(
 			LogicalExpression exp) {
 		LogicalExpression currentBody = exp;
 		final List<Variable> queryVariables = new LinkedList<Variable>();
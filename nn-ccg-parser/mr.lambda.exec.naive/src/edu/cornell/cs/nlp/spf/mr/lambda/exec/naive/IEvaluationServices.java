@@ -34,6 +34,18 @@ public interface IEvaluationServices {
 	
 	List<?> getAllDenotations(Variable variable);
 	
+	/**
+	 * Returns the evaluator used for the given predicate, if one exists. Used
+	 * by {@link CompiledEvaluation} to specialize the evaluation of known
+	 * evaluators (e.g.,
+	 * {@link edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Exists}).
+	 * Services that don't expose their evaluators return null, which disables
+	 * specialization.
+	 */
+	default ILiteralEvaluator getEvaluator(LogicalExpression predicate) {
+		return null;
+	}
+	
 	Object getFromCache(LogicalExpression exp);
 	
 	boolean isCached(LogicalExpression exp);
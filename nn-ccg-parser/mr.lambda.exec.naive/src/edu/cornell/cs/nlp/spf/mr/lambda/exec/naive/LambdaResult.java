@@ -38,10 +38,40 @@ public class LambdaResult implements ILambdaResult {
 		return tuples.add(tuple);
 	}
 	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final LambdaResult other = (LambdaResult) obj;
+		if (numKeys != other.numKeys) {
+			return false;
+		}
+		if (!tuples.equals(other.tuples)) {
+			return false;
+		}
+		return true;
+	}
+	
 	public int getNumKeys() {
 		return numKeys;
 	}
 	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + numKeys;
+		result = prime * result + tuples.hashCode();
+		return result;
+	}
+	
 	@Override
 	public boolean isEmpty() {
 		return tuples.isEmpty();
@@ -19,6 +19,7 @@ package edu.cornell.cs.nlp.spf.mr.lambda.exec.tabular;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -106,7 +107,7 @@ public class Execution implements ILogicalExpressionVisitor {
 		LogicalExpression currentBody = exp;
 		final List<Variable> queryVariables = new LinkedList<Variable>();
 		while (currentBody instanceof Lambda) {
-			final Lambda lambda = (Lambda) exp;
+			final Lambda lambda = (Lambda) currentBody;
 			if (lambda.getArgument().getType().isComplex()) {
 				// Case argument is complex
 				return null;
@@ -158,45 +159,54 @@ public class Execution implements ILogicalExpressionVisitor {
 
 			queryBody.accept(this);
 
-			// Iterate over all rows. Collect the set of variables, remove body
-			// and queried varialbes and cluster them back together. Basically
-			// compressing the table back.
-			final Map<Map<LogicalExpression, Object>, Set<List<Object>>> compressedRows = new HashMap<Map<LogicalExpression, Object>, Set<List<Object>>>();
+			// Collect the queried tuple of each row that evaluated the body to
+			// 'true' and let the services update the rows before the variables
+			// are removed.
+			final List<List<Object>> queryTuples = new ArrayList<List<Object>>(
+					table.numRows());
 			for (final Map<LogicalExpression, Object> row : table) {
-				// Create the queried tuple from the row
-				final List<Object> queryObjects;
 				if (Boolean.TRUE.equals(row.get(queryBody))) {
 					// Case a valid assignment of the Lambda body
-					queryObjects = new ArrayList<Object>(queryVariables.size());
+					final List<Object> queryObjects = new ArrayList<Object>(
+							queryVariables.size());
 					for (final Variable var : queryVariables) {
 						queryObjects.add(row.get(var));
-						// Remove the variable from the row
-						services.removingVariable(var, row);
-						row.remove(var);
 					}
+					queryTuples.add(queryObjects);
 				} else {
 					// Case not a valid assignment, this tuple is not included
 					// in the set
-					queryObjects = null;
-					// Clean the row from the variables
-					for (final Variable var : queryVariables) {
-						// Remove the variable from the row
-						services.removingVariable(var, row);
-						row.remove(var);
-					}
+					queryTuples.add(null);
 				}
-				// Remove the body from the row
-				row.remove(queryBody);
+				for (final Variable var : queryVariables) {
+					// Remove the variable from the row
+					services.removingVariable(var, row);
+					row.remove(var);
+				}
+			}
 
-				// Add the row to the cluster, add the result tuple to the
-				// output list
-				if (!compressedRows.containsKey(row)) {
-					compressedRows.put(row, new HashSet<List<Object>>());
+			// Drop the queried variables and the body, and cluster the rows
+			// that are identical in all other columns. Basically compressing
+			// the table back. Each compressed row is paired with the set of
+			// tuples of its cluster.
+			for (final Variable var : queryVariables) {
+				table.removeColumn(var);
+			}
+			table.removeColumn(queryBody);
+			final Map<Map<LogicalExpression, Object>, Set<List<Object>>> compressedRows = new HashMap<Map<LogicalExpression, Object>, Set<List<Object>>>();
+			final Iterator<List<Object>> tupleIterator = queryTuples
+					.iterator();
+			for (final Map<LogicalExpression, Object> row : table) {
+				final Map<LogicalExpression, Object> rowCopy = new HashMap<LogicalExpression, Object>(
+						row);
+				if (!compressedRows.containsKey(rowCopy)) {
+					compressedRows.put(rowCopy, new HashSet<List<Object>>());
 				}
+				final List<Object> queryObjects = tupleIterator.next();
 				if (queryObjects != null) {
 					// Only add the tuple of values, if it evaluated the body to
 					// 'true'
-					compressedRows.get(row).add(queryObjects);
+					compressedRows.get(rowCopy).add(queryObjects);
 				}
 			}
 
@@ -218,11 +228,16 @@ public class Execution implements ILogicalExpressionVisitor {
 	public void visit(Literal literal) {
 		LOG.info("Visiting literal: %s", literal);
 		final int len = literal.numArgs();
-		for (int i = 0; i < len; ++i) {
-			literal.getArg(i).accept(this);
-		}
+		if (table.numRows() > 0 && LogicLanguageServices
+				.getConjunctionPredicate().equals(literal.getPredicate())) {
+			executeConjunction(literal);
+		} else {
+			for (int i = 0; i < len; ++i) {
+				literal.getArg(i).accept(this);
+			}
 
-		services.augmentTableWithLiteral(literal, table);
+			services.augmentTableWithLiteral(literal, table);
+		}
 
 		// Remove the arguments from the table
 		for (int i = 0; i < len; ++i) {
@@ -254,4 +269,23 @@ public class Execution implements ILogicalExpressionVisitor {
 	public void visit(Variable variable) {
 		// Nothing to do
 	}
+
+	/**
+	 * Executes a conjunction one conjunct at a time. After each conjunct, rows
+	 * for which it's not true are set aside and the following conjuncts are
+	 * only executed for the remaining rows. This pushes the selection of each
+	 * conjunct down, before the next conjuncts augment the table.
+	 */
+	private void executeConjunction(Literal literal) {
+		final Table rejected = new Table();
+		final int len = literal.numArgs();
+		for (int i = 0; i < len && table.numRows() > 0; ++i) {
+			final LogicalExpression arg = literal.getArg(i);
+			arg.accept(this);
+			rejected.addAll(table.select(arg));
+		}
+		table.setColumn(literal, Boolean.TRUE);
+		rejected.setColumn(literal, Boolean.FALSE);
+		table.addAll(rejected);
+	}
 }
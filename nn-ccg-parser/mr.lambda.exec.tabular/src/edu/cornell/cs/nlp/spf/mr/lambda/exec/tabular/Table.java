@@ -16,90 +16,230 @@
  *******************************************************************************/
 package edu.cornell.cs.nlp.spf.mr.lambda.exec.tabular;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
 
+/**
+ * Execution table. The table is stored by column: each header (a variable or
+ * an executed sub-expression) has an array with the values of all rows. Rows
+ * are exposed as {@link Map} views, which write through to the columns. A
+ * view is valid until rows are added to or removed from the table.
+ * <p>
+ * Augmenting the table creates the cross product of its rows with the new
+ * values by copying columns, without creating a map for each row. Augmenting
+ * the table with another table is a hash join on their shared headers.
+ * Duplicate rows are removed using hashing when rows are added, as for a set of
+ * rows. Modifying rows in place doesn't remove duplicates.
+ *
+ * @author Yoav Artzi
+ */
 public class Table implements Iterable<Map<LogicalExpression, Object>> {
-	
-	private Set<Map<LogicalExpression, Object>>	rows;
-	
+
+	/**
+	 * Value of a cell of a row that has no value for the column.
+	 */
+	private static final Object						ABSENT				= new Object();
+	private static final int						INITIAL_CAPACITY	= 16;
+
+	private int										capacity;
+	private final List<Object[]>					columns				= new ArrayList<Object[]>();
+
+	/**
+	 * Set if the rows are known to be distinct.
+	 */
+	private boolean									distinct			= true;
+	private final List<LogicalExpression>			headers				= new ArrayList<LogicalExpression>();
+	private final Map<LogicalExpression, Integer>	indices				= new HashMap<LogicalExpression, Integer>();
+	private int										numRows				= 0;
+
+	/**
+	 * Index of the rows, used to remove duplicates when adding rows one at a
+	 * time. Only valid while the table is not modified otherwise. Null if not
+	 * available.
+	 */
+	private Set<List<Object>>						rowIndex			= null;
+
 	public Table() {
-		this.rows = new HashSet<Map<LogicalExpression, Object>>();
+		this.capacity = INITIAL_CAPACITY;
 	}
-	
+
 	public Table(Set<Map<LogicalExpression, Object>> rows) {
-		this.rows = rows;
+		this();
+		for (final Map<LogicalExpression, Object> row : rows) {
+			addRow(row);
+		}
+	}
+
+	Table(List<LogicalExpression> headers) {
+		this();
+		for (final LogicalExpression header : headers) {
+			addColumn(header);
+		}
 	}
-	
+
 	public void addRow(Map<LogicalExpression, Object> row) {
-		rows.add(row);
+		for (final LogicalExpression header : row.keySet()) {
+			if (!indices.containsKey(header)) {
+				// New column, the row index is no longer valid.
+				addColumn(header);
+				rowIndex = null;
+			}
+		}
+		final Object[] values = new Object[headers.size()];
+		Arrays.fill(values, ABSENT);
+		for (final Map.Entry<LogicalExpression, Object> entry : row
+				.entrySet()) {
+			values[indices.get(entry.getKey())] = entry.getValue();
+		}
+		addRow(values);
 	}
-	
+
 	public void augment(LogicalExpression newHeader, List<?> values) {
-		if (rows.isEmpty()) {
-			for (final Object obj : values) {
+		if (numRows == 0) {
+			for (final Object value : values) {
 				final Map<LogicalExpression, Object> row = new HashMap<LogicalExpression, Object>();
-				row.put(newHeader, obj);
-				rows.add(row);
+				row.put(newHeader, value);
+				addRow(row);
 			}
 		} else if (!values.isEmpty()) {
-			final Set<Map<LogicalExpression, Object>> oldRows = rows;
-			rows = new HashSet<Map<LogicalExpression, Object>>(rows.size()
-					* values.size());
-			for (final Map<LogicalExpression, Object> row : oldRows) {
-				for (final Object value : values) {
-					final HashMap<LogicalExpression, Object> newRow = new HashMap<LogicalExpression, Object>(
-							row);
-					newRow.put(newHeader, value);
-					rows.add(newRow);
+			final Object[] valueArray = values.toArray();
+			final int m = valueArray.length;
+			final boolean existingHeader = indices.containsKey(newHeader);
+			if (!existingHeader) {
+				addColumn(newHeader);
+			}
+
+			// Each row is repeated once for each value.
+			final int newNumRows = numRows * m;
+			final int newCapacity = Math.max(newNumRows, INITIAL_CAPACITY);
+			final int headerIndex = indices.get(newHeader);
+			for (int c = 0; c < columns.size(); ++c) {
+				final Object[] column = columns.get(c);
+				final Object[] newColumn = new Object[newCapacity];
+				if (c == headerIndex) {
+					for (int i = 0; i < numRows; ++i) {
+						System.arraycopy(valueArray, 0, newColumn, i * m, m);
+					}
+				} else {
+					for (int i = 0; i < numRows; ++i) {
+						Arrays.fill(newColumn, i * m, (i + 1) * m, column[i]);
+					}
 				}
+				columns.set(c, newColumn);
 			}
+			numRows = newNumRows;
+			capacity = newCapacity;
+			rowIndex = null;
+			distinct = distinct && !existingHeader
+					&& new HashSet<Object>(values).size() == m;
+			removeDuplicates();
 		}
 	}
-	
+
 	public void augment(LogicalExpression header, Object value) {
-		if (rows.isEmpty()) {
+		if (numRows == 0) {
 			final Map<LogicalExpression, Object> row = new HashMap<LogicalExpression, Object>();
 			row.put(header, value);
-			rows.add(row);
+			addRow(row);
 		} else {
-			for (final Map<LogicalExpression, Object> row : rows) {
-				row.put(header, value);
-			}
+			setColumn(header, value);
 		}
 	}
-	
+
+	/**
+	 * Join the table with another table. Rows are joined if they have the same
+	 * values for all the headers the two tables share. If the tables share no
+	 * headers, this is a cross product.
+	 */
 	public void augment(Table other) {
-		if (rows.isEmpty()) {
-			for (final Map<LogicalExpression, Object> row : other.rows) {
-				rows.add(new HashMap<LogicalExpression, Object>(row));
+		if (numRows == 0) {
+			replaceWith(other.copy());
+		} else if (other.numRows != 0) {
+			// Headers of the other table and their indices in this table. -1
+			// for headers that are not shared.
+			final int otherWidth = other.headers.size();
+			final int[] sharedIndices = new int[otherWidth];
+			final List<Integer> otherShared = new ArrayList<Integer>();
+			for (int c = 0; c < otherWidth; ++c) {
+				final Integer index = indices.get(other.headers.get(c));
+				sharedIndices[c] = index == null ? -1 : index;
+				if (index != null) {
+					otherShared.add(c);
+				}
 			}
-		} else if (!other.rows.isEmpty()) {
-			final Set<Map<LogicalExpression, Object>> oldRows = rows;
-			rows = new HashSet<Map<LogicalExpression, Object>>(oldRows.size()
-					* other.rows.size());
-			for (final Map<LogicalExpression, Object> row1 : oldRows) {
-				for (final Map<LogicalExpression, Object> row2 : other.rows) {
-					final HashMap<LogicalExpression, Object> newRow = new HashMap<LogicalExpression, Object>(
-							row1);
-					newRow.putAll(row2);
-					this.rows.add(newRow);
+
+			// Hash the rows of the other table by their shared values. With
+			// no shared headers, all rows have the same (empty) key.
+			final Map<List<Object>, List<Integer>> hashed = new HashMap<List<Object>, List<Integer>>();
+			for (int j = 0; j < other.numRows; ++j) {
+				final Object[] key = new Object[otherShared.size()];
+				for (int k = 0; k < key.length; ++k) {
+					key[k] = other.columns.get(otherShared.get(k))[j];
+				}
+				final List<Object> keyList = Arrays.asList(key);
+				List<Integer> matches = hashed.get(keyList);
+				if (matches == null) {
+					matches = new LinkedList<Integer>();
+					hashed.put(keyList, matches);
+				}
+				matches.add(j);
+			}
+
+			// Probe with each row of this table.
+			final List<LogicalExpression> joinedHeaders = new ArrayList<LogicalExpression>(
+					headers);
+			for (int c = 0; c < otherWidth; ++c) {
+				if (sharedIndices[c] < 0) {
+					joinedHeaders.add(other.headers.get(c));
 				}
 			}
-			
+			final Table joined = new Table(joinedHeaders);
+			final int width = headers.size();
+			for (int i = 0; i < numRows; ++i) {
+				final Object[] key = new Object[otherShared.size()];
+				for (int k = 0; k < key.length; ++k) {
+					key[k] = columns.get(sharedIndices[otherShared.get(k)])[i];
+				}
+				final List<Integer> matches = hashed.get(Arrays.asList(key));
+				if (matches != null) {
+					for (final int j : matches) {
+						final Object[] values = new Object[joinedHeaders
+								.size()];
+						for (int c = 0; c < width; ++c) {
+							values[c] = columns.get(c)[i];
+						}
+						for (int c = 0, next = width; c < otherWidth; ++c) {
+							if (sharedIndices[c] < 0) {
+								values[next++] = other.columns.get(c)[j];
+							}
+						}
+						joined.appendRow(values);
+					}
+				}
+			}
+			joined.distinct = distinct && other.distinct;
+			joined.removeDuplicates();
+			replaceWith(joined);
 		}
 	}
-	
+
 	/**
 	 * Augments an existing row with a new column
-	 * 
+	 *
 	 * @param row
 	 *            A table row. Assumed to be in the table.
 	 * @param newHeader
@@ -107,52 +247,412 @@ public class Table implements Iterable<Map<LogicalExpression, Object>> {
 	 */
 	public void augmentRow(Map<LogicalExpression, Object> row,
 			LogicalExpression newHeader, Collection<?> values) {
+		if (!(row instanceof Row) || ((Row) row).table() != this) {
+			throw new IllegalArgumentException("Row is not in the table");
+		}
+		final int index = ((Row) row).index;
+		if (!indices.containsKey(newHeader)) {
+			addColumn(newHeader);
+		}
+		final int headerIndex = indices.get(newHeader);
 		final Iterator<?> iterator = values.iterator();
 		boolean first = true;
 		while (iterator.hasNext()) {
 			if (first) {
 				first = false;
-				row.put(newHeader, iterator.next());
+				columns.get(headerIndex)[index] = iterator.next();
 			} else {
-				final Map<LogicalExpression, Object> rowClone = new HashMap<LogicalExpression, Object>(
-						row);
-				row.put(newHeader, iterator.next());
-				rows.add(rowClone);
+				final Object[] clone = new Object[columns.size()];
+				for (int c = 0; c < clone.length; ++c) {
+					clone[c] = columns.get(c)[index];
+				}
+				clone[headerIndex] = iterator.next();
+				appendRow(clone);
 			}
 		}
+		rowIndex = null;
+		distinct = false;
 	}
-	
+
 	public void clear() {
-		rows.clear();
+		columns.clear();
+		headers.clear();
+		indices.clear();
+		numRows = 0;
+		capacity = INITIAL_CAPACITY;
+		distinct = true;
+		rowIndex = null;
+	}
+
+	/**
+	 * @return The value of the header in the given row, or null if the row has
+	 *         no value for it.
+	 */
+	public Object get(int row, LogicalExpression header) {
+		final Integer index = indices.get(header);
+		if (index == null) {
+			return null;
+		}
+		final Object value = columns.get(index)[row];
+		return value == ABSENT ? null : value;
+	}
+
+	public List<LogicalExpression> getHeaders() {
+		return Collections.unmodifiableList(headers);
 	}
-	
+
 	@Override
 	public Iterator<Map<LogicalExpression, Object>> iterator() {
-		return rows.iterator();
+		final int size = numRows;
+		return new Iterator<Map<LogicalExpression, Object>>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Map<LogicalExpression, Object> next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return new Row(next++);
+			}
+		};
 	}
-	
+
 	public int numRows() {
-		return rows.size();
+		return numRows;
 	}
-	
+
 	public void removeColumn(LogicalExpression arg) {
-		for (final Map<LogicalExpression, Object> row : rows) {
-			row.remove(arg);
+		final Integer index = indices.remove(arg);
+		if (index != null) {
+			columns.remove((int) index);
+			headers.remove((int) index);
+			for (int c = index; c < headers.size(); ++c) {
+				indices.put(headers.get(c), c);
+			}
+			rowIndex = null;
+			distinct = false;
 		}
 	}
-	
+
+	/**
+	 * Selection: keeps only the rows that have the value {@link Boolean#TRUE}
+	 * for the given header.
+	 *
+	 * @return The removed rows, in a new table with the same headers.
+	 */
+	public Table select(LogicalExpression header) {
+		final Table removed = new Table(headers);
+		final Integer index = indices.get(header);
+		final Object[] selector = index == null ? null : columns.get(index);
+		int kept = 0;
+		for (int i = 0; i < numRows; ++i) {
+			if (selector != null && Boolean.TRUE.equals(selector[i])) {
+				if (kept != i) {
+					for (final Object[] column : columns) {
+						column[kept] = column[i];
+					}
+				}
+				++kept;
+			} else {
+				removed.appendRow(getRowValues(i));
+			}
+		}
+		for (final Object[] column : columns) {
+			Arrays.fill(column, kept, numRows, ABSENT);
+		}
+		numRows = kept;
+		rowIndex = null;
+		removed.distinct = distinct;
+		return removed;
+	}
+
+	/**
+	 * Sets the value of the header for all existing rows. Doesn't create rows.
+	 */
+	public void setColumn(LogicalExpression header, Object value) {
+		if (!indices.containsKey(header)) {
+			addColumn(header);
+		}
+		Arrays.fill(columns.get(indices.get(header)), 0, numRows, value);
+		rowIndex = null;
+		distinct = false;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
-		for (final Map<LogicalExpression, Object> row : rows) {
-			for (final Map.Entry<LogicalExpression, Object> entry : row
-					.entrySet()) {
-				sb.append(entry.getKey()).append("=").append(entry.getValue())
-						.append("; ");
+		for (int i = 0; i < numRows; ++i) {
+			for (int c = 0; c < headers.size(); ++c) {
+				final Object value = columns.get(c)[i];
+				if (value != ABSENT) {
+					sb.append(headers.get(c)).append("=").append(value)
+							.append("; ");
+				}
 			}
 			sb.append('\n');
 		}
 		return sb.toString();
 	}
-	
+
+	private void addColumn(LogicalExpression header) {
+		final Object[] column = new Object[capacity];
+		Arrays.fill(column, ABSENT);
+		indices.put(header, headers.size());
+		headers.add(header);
+		columns.add(column);
+	}
+
+	private void appendRow(Object[] values) {
+		if (numRows == capacity) {
+			capacity *= 2;
+			for (int c = 0; c < columns.size(); ++c) {
+				final Object[] column = Arrays.copyOf(columns.get(c), capacity);
+				Arrays.fill(column, numRows, capacity, ABSENT);
+				columns.set(c, column);
+			}
+		}
+		for (int c = 0; c < values.length; ++c) {
+			columns.get(c)[numRows] = values[c];
+		}
+		++numRows;
+	}
+
+	private Table copy() {
+		final Table copy = new Table(headers);
+		for (int i = 0; i < numRows; ++i) {
+			copy.appendRow(getRowValues(i));
+		}
+		copy.distinct = distinct;
+		return copy;
+	}
+
+	/**
+	 * The values of the row, by the order of the headers.
+	 */
+	private Object[] getRowValues(int row) {
+		final Object[] values = new Object[columns.size()];
+		for (int c = 0; c < values.length; ++c) {
+			values[c] = columns.get(c)[row];
+		}
+		return values;
+	}
+
+	/**
+	 * Removes duplicate rows, keeping the first occurrence. Does nothing if
+	 * rows are known to be distinct.
+	 */
+	private void removeDuplicates() {
+		if (distinct) {
+			return;
+		}
+		final Set<List<Object>> seen = new HashSet<List<Object>>();
+		int kept = 0;
+		for (int i = 0; i < numRows; ++i) {
+			if (seen.add(Arrays.asList(getRowValues(i)))) {
+				if (kept != i) {
+					for (final Object[] column : columns) {
+						column[kept] = column[i];
+					}
+				}
+				++kept;
+			}
+		}
+		for (final Object[] column : columns) {
+			Arrays.fill(column, kept, numRows, ABSENT);
+		}
+		numRows = kept;
+		distinct = true;
+		rowIndex = seen;
+	}
+
+	private void replaceWith(Table other) {
+		columns.clear();
+		columns.addAll(other.columns);
+		headers.clear();
+		headers.addAll(other.headers);
+		indices.clear();
+		indices.putAll(other.indices);
+		numRows = other.numRows;
+		capacity = other.capacity;
+		distinct = other.distinct;
+		rowIndex = other.rowIndex;
+	}
+
+	/**
+	 * Adds the values as a row, if it's not in the table.
+	 */
+	void addRow(Object[] values) {
+		if (rowIndex == null) {
+			removeDuplicates();
+			if (rowIndex == null) {
+				// Rows were known to be distinct, index them.
+				rowIndex = new HashSet<List<Object>>();
+				for (int i = 0; i < numRows; ++i) {
+					rowIndex.add(Arrays.asList(getRowValues(i)));
+				}
+			}
+		}
+		if (rowIndex.add(Arrays.asList(values))) {
+			appendRow(values);
+		}
+	}
+
+	/**
+	 * Appends the rows of the other table. Missing columns are added.
+	 * Duplicates are not removed.
+	 */
+	void addAll(Table other) {
+		for (final LogicalExpression header : other.headers) {
+			if (!indices.containsKey(header)) {
+				addColumn(header);
+			}
+		}
+		final int[] targets = new int[other.headers.size()];
+		for (int c = 0; c < targets.length; ++c) {
+			targets[c] = indices.get(other.headers.get(c));
+		}
+		for (int j = 0; j < other.numRows; ++j) {
+			final Object[] values = new Object[headers.size()];
+			Arrays.fill(values, ABSENT);
+			for (int c = 0; c < targets.length; ++c) {
+				values[targets[c]] = other.columns.get(c)[j];
+			}
+			appendRow(values);
+		}
+		rowIndex = null;
+		distinct = distinct && other.numRows == 0;
+	}
+
+	/**
+	 * Live view of a row.
+	 */
+	private class Row extends AbstractMap<LogicalExpression, Object> {
+		private final int index;
+
+		public Row(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			final Integer column = indices.get(key);
+			return column != null && columns.get(column)[index] != ABSENT;
+		}
+
+		@Override
+		public Set<Map.Entry<LogicalExpression, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<LogicalExpression, Object>>() {
+
+				@Override
+				public Iterator<Map.Entry<LogicalExpression, Object>> iterator() {
+					final List<Map.Entry<LogicalExpression, Object>> entries = new ArrayList<Map.Entry<LogicalExpression, Object>>();
+					for (int c = 0; c < headers.size(); ++c) {
+						if (columns.get(c)[index] != ABSENT) {
+							entries.add(new Cell(headers.get(c)));
+						}
+					}
+					return entries.iterator();
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (final Object[] column : columns) {
+						if (column[index] != ABSENT) {
+							++size;
+						}
+					}
+					return size;
+				}
+			};
+		}
+
+		@Override
+		public Object get(Object key) {
+			final Integer column = indices.get(key);
+			if (column == null) {
+				return null;
+			}
+			final Object value = columns.get(column)[index];
+			return value == ABSENT ? null : value;
+		}
+
+		@Override
+		public Object put(LogicalExpression key, Object value) {
+			if (!indices.containsKey(key)) {
+				addColumn(key);
+			}
+			final Object[] column = columns.get(indices.get(key));
+			final Object previous = column[index];
+			column[index] = value;
+			rowIndex = null;
+			distinct = false;
+			return previous == ABSENT ? null : previous;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			final Integer column = indices.get(key);
+			if (column == null) {
+				return null;
+			}
+			final Object previous = columns.get(column)[index];
+			columns.get(column)[index] = ABSENT;
+			rowIndex = null;
+			distinct = false;
+			return previous == ABSENT ? null : previous;
+		}
+
+		private Table table() {
+			return Table.this;
+		}
+
+		private class Cell implements Map.Entry<LogicalExpression, Object> {
+			private final LogicalExpression header;
+
+			public Cell(LogicalExpression header) {
+				this.header = header;
+			}
+
+			@Override
+			public boolean equals(Object obj) {
+				if (!(obj instanceof Map.Entry)) {
+					return false;
+				}
+				final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+				final Object value = getValue();
+				return header.equals(other.getKey()) && (value == null
+						? other.getValue() == null
+						: value.equals(other.getValue()));
+			}
+
+			@Override
+			public LogicalExpression getKey() {
+				return header;
+			}
+
+			@Override
+			public Object getValue() {
+				return Row.this.get(header);
+			}
+
+			@Override
+			public int hashCode() {
+				final Object value = getValue();
+				return header.hashCode()
+						^ (value == null ? 0 : value.hashCode());
+			}
+
+			@Override
+			public Object setValue(Object value) {
+				return put(header, value);
+			}
+		}
+	}
+
 }
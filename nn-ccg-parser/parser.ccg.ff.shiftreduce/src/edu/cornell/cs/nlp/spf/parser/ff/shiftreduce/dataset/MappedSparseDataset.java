@@ -0,0 +1,381 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
+import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
+import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+/** Decision points stored by {@link SparseDatasetWriter}, memory-mapped so that the points live outside the
+ * java heap. Points are read with a {@link Cursor} without creating any objects, or decoded one at a time
+ * into {@link SparseFeatureAndStateDataset} when needed by the learner. Since points are accessed by index,
+ * the dataset can be shuffled by permuting indices, see {@link #asStateDatasetList(int[])}.
+ *
+ * Feature and sentence dictionaries are loaded on the heap. Semantics are parsed when first requested,
+ * which requires the logical language services to be initialized. All reads use absolute positions,
+ * so a single instance can be shared across threads (every thread must use its own cursor).
+ * @author Dipendra Misra
+ */
+public class MappedSparseDataset<MR> {
+
+	/** a single mapping can't exceed 2GB, so points are mapped in chunks that never split a point */
+	private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+	private final String fileName;
+	private final int size;
+
+	private final ByteBuffer[] chunks;
+	private final long[] chunkStarts;
+	private final LongBuffer index;
+
+	private final KeyArgs[] features;
+	private final String[] sentences;
+	private final String[] semanticsStrings;
+	private final LogicalExpression[] semantics;
+
+	public MappedSparseDataset(String fileName) throws IOException {
+
+		this.fileName = fileName;
+
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+
+			final long fileSize = channel.size();
+			if(fileSize < SparseDatasetWriter.FOOTER_BYTES) {
+				throw new IOException("Not a sparse dataset file: " + fileName);
+			}
+
+			final ByteBuffer footer = channel.map(MapMode.READ_ONLY, fileSize - SparseDatasetWriter.FOOTER_BYTES,
+												  SparseDatasetWriter.FOOTER_BYTES);
+			if(footer.getInt(4 * Long.BYTES + 2 * Integer.BYTES) != SparseDatasetWriter.MAGIC) {
+				throw new IOException("Not a sparse dataset file: " + fileName);
+			}
+			final int version = footer.getInt(4 * Long.BYTES + Integer.BYTES);
+			if(version != SparseDatasetWriter.VERSION) {
+				throw new IOException("Unsupported sparse dataset file version " + version);
+			}
+
+			final long featuresOffset = footer.getLong(0);
+			final long semanticsOffset = footer.getLong(Long.BYTES);
+			final long sentencesOffset = footer.getLong(2 * Long.BYTES);
+			final long indexOffset = footer.getLong(3 * Long.BYTES);
+			this.size = footer.getInt(4 * Long.BYTES);
+
+			if((long) this.size * Long.BYTES > MAX_CHUNK_BYTES) {
+				throw new IOException("Too many points in " + fileName + ": " + this.size);
+			}
+			this.index = channel.map(MapMode.READ_ONLY, indexOffset, (long) this.size * Long.BYTES).asLongBuffer();
+
+			// dictionaries
+			if(indexOffset - featuresOffset > MAX_CHUNK_BYTES) {
+				throw new IOException("Dictionaries of " + fileName + " are too large");
+			}
+			final ByteBuffer dictionaries = channel.map(MapMode.READ_ONLY, featuresOffset,
+														indexOffset - featuresOffset);
+			int position = 0;
+
+			this.features = new KeyArgs[dictionaries.getInt(position)];
+			position = position + Integer.BYTES;
+			final String[] args = new String[5];
+			for(int i = 0; i < this.features.length; i++) {
+				final int numArgs = dictionaries.getInt(position);
+				position = position + Integer.BYTES;
+				Arrays.fill(args, null);
+				for(int j = 0; j < numArgs; j++) {
+					args[j] = readString(dictionaries, position);
+					position = position + Integer.BYTES + dictionaries.getInt(position);
+				}
+				this.features[i] = createKey(args, numArgs);
+			}
+
+			position = (int) (semanticsOffset - featuresOffset);
+			this.semanticsStrings = new String[dictionaries.getInt(position)];
+			position = position + Integer.BYTES;
+			for(int i = 0; i < this.semanticsStrings.length; i++) {
+				this.semanticsStrings[i] = readString(dictionaries, position);
+				position = position + Integer.BYTES + dictionaries.getInt(position);
+			}
+			this.semantics = new LogicalExpression[this.semanticsStrings.length];
+
+			position = (int) (sentencesOffset - featuresOffset);
+			this.sentences = new String[dictionaries.getInt(position)];
+			position = position + Integer.BYTES;
+			for(int i = 0; i < this.sentences.length; i++) {
+				this.sentences[i] = readString(dictionaries, position);
+				position = position + Integer.BYTES + dictionaries.getInt(position);
+			}
+
+			// points, chunk boundaries are placed at starts of points
+			final List<Long> starts = new ArrayList<Long>();
+			final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+			long chunkStart = 0;
+			for(int i = 0; i <= this.size; i++) {
+				final long pointEnd = i < this.size - 1 ? this.index.get(i + 1) : featuresOffset;
+				if(i == this.size || pointEnd - chunkStart > MAX_CHUNK_BYTES) {
+					final long chunkEnd = i == this.size ? featuresOffset : this.index.get(i);
+					if(chunkEnd > chunkStart) {
+						starts.add(chunkStart);
+						buffers.add(channel.map(MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart));
+					}
+					chunkStart = chunkEnd;
+				}
+			}
+
+			this.chunks = buffers.toArray(new ByteBuffer[buffers.size()]);
+			this.chunkStarts = new long[starts.size()];
+			for(int i = 0; i < this.chunkStarts.length; i++) {
+				this.chunkStarts[i] = starts.get(i);
+			}
+		}
+	}
+
+	private static KeyArgs createKey(String[] args, int numArgs) {
+		switch(numArgs) {
+			case 1:
+				return new KeyArgs(args[0]);
+			case 2:
+				return new KeyArgs(args[0], args[1]);
+			case 3:
+				return new KeyArgs(args[0], args[1], args[2]);
+			case 4:
+				return new KeyArgs(args[0], args[1], args[2], args[3]);
+			case 5:
+				return new KeyArgs(args[0], args[1], args[2], args[3], args[4]);
+			default:
+				throw new IllegalArgumentException("Illegal number of feature keys " + numArgs);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, int position) {
+		final int length = buffer.getInt(position);
+		final byte[] bytes = new byte[length];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(position + Integer.BYTES);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public String getFileName() {
+		return this.fileName;
+	}
+
+	public int numFeatures() {
+		return this.features.length;
+	}
+
+	public KeyArgs getFeature(int id) {
+		return this.features[id];
+	}
+
+	public String getSentence(int id) {
+		return this.sentences[id];
+	}
+
+	/** returns the logical expression with the given id, null for id -1 */
+	public LogicalExpression getSemantics(int id) {
+
+		if(id < 0) {
+			return null;
+		}
+
+		LogicalExpression exp = this.semantics[id];
+		if(exp == null) {
+			//parsing the same expression twice in a race is harmless
+			exp = LogicalExpression.read(this.semanticsStrings[id]);
+			this.semantics[id] = exp;
+		}
+
+		return exp;
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/** decodes the point with the given index. Possible actions are not stored and are null. */
+	public SparseFeatureAndStateDataset<MR> getStateDataset(int i) {
+
+		final Cursor cursor = new Cursor().seek(i);
+		if(!cursor.hasState()) {
+			throw new IllegalStateException("Point " + i + " has no state feature");
+		}
+
+		final List<IHashVector> actionFeatures = new ArrayList<IHashVector>(cursor.numActions());
+		for(int a = 0; a < cursor.numActions(); a++) {
+			actionFeatures.add(cursor.toHashVector(a + 1));
+		}
+
+		final SparseFeatureAndStateDataset<MR> pt = new SparseFeatureAndStateDataset<MR>(cursor.toHashVector(0),
+				actionFeatures, cursor.groundTruthIndex(), this.getSentence(cursor.sentenceId()), null);
+
+		if(cursor.isSemanticsSet()) {
+			pt.setSemantics(this.getSemantics(cursor.lastSemanticsId()), this.getSemantics(cursor.sndLastSemanticsId()),
+							this.getSemantics(cursor.thirdLastSemanticsId()));
+		}
+
+		return pt;
+	}
+
+	/** decodes the point with the given index. Possible actions are not stored and are null. */
+	public SparseFeatureDataset<MR> getDataset(int i) {
+
+		final Cursor cursor = new Cursor().seek(i);
+
+		final List<IHashVector> actionFeatures = new ArrayList<IHashVector>(cursor.numActions());
+		for(int a = 0; a < cursor.numActions(); a++) {
+			actionFeatures.add(cursor.toHashVector(a + 1));
+		}
+
+		return new SparseFeatureDataset<MR>(actionFeatures, cursor.groundTruthIndex(),
+											this.getSentence(cursor.sentenceId()), null);
+	}
+
+	/** read-only view of all points, which are decoded on access */
+	public List<SparseFeatureAndStateDataset<MR>> asStateDatasetList() {
+		final int[] indices = new int[this.size];
+		for(int i = 0; i < this.size; i++) {
+			indices[i] = i;
+		}
+		return this.asStateDatasetList(indices);
+	}
+
+	/** read-only view of the points with the given indices, in the given order. Points are decoded on access. */
+	public List<SparseFeatureAndStateDataset<MR>> asStateDatasetList(int[] indices) {
+		return new StateDatasetList(indices);
+	}
+
+	private class StateDatasetList extends AbstractList<SparseFeatureAndStateDataset<MR>> implements RandomAccess {
+
+		private final int[] indices;
+
+		StateDatasetList(int[] indices) {
+			this.indices = indices;
+		}
+
+		@Override
+		public SparseFeatureAndStateDataset<MR> get(int i) {
+			return MappedSparseDataset.this.getStateDataset(this.indices[i]);
+		}
+
+		@Override
+		public int size() {
+			return this.indices.length;
+		}
+	}
+
+	/** Reads a point directly from the mapped file. Vector 0 is the state feature and vector k + 1 is the
+	 * feature of action k. A cursor is not thread-safe. */
+	public class Cursor {
+
+		private ByteBuffer buffer;
+		private int start;
+		private int numActions;
+		private int idsStart;
+		private int valuesStart;
+
+		/** moves the cursor to the point with the given index */
+		public Cursor seek(int i) {
+
+			if(i < 0 || i >= MappedSparseDataset.this.size) {
+				throw new IndexOutOfBoundsException("Point " + i + ", size " + MappedSparseDataset.this.size);
+			}
+
+			final long offset = MappedSparseDataset.this.index.get(i);
+			int chunk = Arrays.binarySearch(MappedSparseDataset.this.chunkStarts, offset);
+			if(chunk < 0) {
+				chunk = -chunk - 2;
+			}
+
+			this.buffer = MappedSparseDataset.this.chunks[chunk];
+			this.start = (int) (offset - MappedSparseDataset.this.chunkStarts[chunk]);
+			this.numActions = this.buffer.getInt(this.start + 6 * Integer.BYTES);
+
+			final int offsetsStart = this.start + SparseDatasetWriter.POINT_HEADER_INTS * Integer.BYTES;
+			final int nnz = this.buffer.getInt(offsetsStart + (this.numActions + 1) * Integer.BYTES);
+			this.idsStart = offsetsStart + (this.numActions + 2) * Integer.BYTES;
+			this.valuesStart = this.idsStart + nnz * Integer.BYTES;
+
+			return this;
+		}
+
+		public boolean hasState() {
+			return (this.buffer.getInt(this.start) & SparseDatasetWriter.FLAG_STATE) != 0;
+		}
+
+		public boolean isSemanticsSet() {
+			return (this.buffer.getInt(this.start) & SparseDatasetWriter.FLAG_SEMANTICS) != 0;
+		}
+
+		public int sentenceId() {
+			return this.buffer.getInt(this.start + Integer.BYTES);
+		}
+
+		public int groundTruthIndex() {
+			return this.buffer.getInt(this.start + 2 * Integer.BYTES);
+		}
+
+		public int lastSemanticsId() {
+			return this.buffer.getInt(this.start + 3 * Integer.BYTES);
+		}
+
+		public int sndLastSemanticsId() {
+			return this.buffer.getInt(this.start + 4 * Integer.BYTES);
+		}
+
+		public int thirdLastSemanticsId() {
+			return this.buffer.getInt(this.start + 5 * Integer.BYTES);
+		}
+
+		public int numActions() {
+			return this.numActions;
+		}
+
+		private int vectorOffset(int vector) {
+			return this.buffer.getInt(this.start + (SparseDatasetWriter.POINT_HEADER_INTS + vector) * Integer.BYTES);
+		}
+
+		/** number of non-zero entries of the given vector */
+		public int numEntries(int vector) {
+			return this.vectorOffset(vector + 1) - this.vectorOffset(vector);
+		}
+
+		public int featureId(int vector, int k) {
+			return this.buffer.getInt(this.idsStart + (this.vectorOffset(vector) + k) * Integer.BYTES);
+		}
+
+		public float featureValue(int vector, int k) {
+			return this.buffer.getFloat(this.valuesStart + (this.vectorOffset(vector) + k) * Float.BYTES);
+		}
+
+		IHashVector toHashVector(int vector) {
+
+			final IHashVector feature = HashVectorFactory.create();
+			final int begin = this.vectorOffset(vector);
+			final int end = this.vectorOffset(vector + 1);
+
+			for(int k = begin; k < end; k++) {
+				final int id = this.buffer.getInt(this.idsStart + k * Integer.BYTES);
+				final float value = this.buffer.getFloat(this.valuesStart + k * Float.BYTES);
+				feature.set(MappedSparseDataset.this.features[id], value);
+			}
+
+			return feature;
+		}
+	}
+}
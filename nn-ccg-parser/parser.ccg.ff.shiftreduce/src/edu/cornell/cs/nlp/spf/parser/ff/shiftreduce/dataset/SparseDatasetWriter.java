@@ -0,0 +1,266 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
+import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.utils.composites.Pair;
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/** Writes decision points to a compact binary file, which can be read back with {@link MappedSparseDataset}.
+ * Features, semantics and sentences are interned and points only store their ids. The file has the layout:
+ *
+ * <pre>
+ * points    : one record per point
+ *             int flags (bit 0: state feature is present, bit 1: semantics are set)
+ *             int sentence id, int ground truth index
+ *             int last, second last and third last semantics ids (-1 for null)
+ *             int number of actions a
+ *             int[a + 2] offsets, vector 0 is the state feature and vector k + 1 is the feature of action k.
+ *                        Vector v has entries [offsets[v], offsets[v + 1]).
+ *             int[nnz] feature ids
+ *             float[nnz] feature values
+ * features  : int n, then every feature as int number of args followed by the args
+ * semantics : int n, then every logical expression as a string
+ * sentences : int n, then every sentence
+ * index     : long[number of points], offset of every point
+ * footer    : long offsets of features, semantics, sentences and index, int number of points, version, magic
+ * </pre>
+ *
+ * Strings are written as int length followed by utf-8 bytes. Possible actions (parsing operations) are not
+ * stored, since they are only used for displaying the dataset. Feature values are stored as floats.
+ * @author Dipendra Misra
+ */
+public class SparseDatasetWriter<MR> implements Consumer<List<SparseFeatureAndStateDataset<MR>>>, Closeable {
+
+	public static final ILogger	LOG = LoggerFactory.create(SparseDatasetWriter.class);
+
+	/** "SDDS" */
+	static final int MAGIC = 0x53444453;
+	static final int VERSION = 1;
+	static final int FOOTER_BYTES = 4 * Long.BYTES + 3 * Integer.BYTES;
+	static final int POINT_HEADER_INTS = 7;
+
+	static final int FLAG_STATE = 1;
+	static final int FLAG_SEMANTICS = 2;
+
+	private final String fileName;
+	private final DataOutputStream out;
+	private long position;
+
+	private final Map<KeyArgs, Integer> featureIds;
+	private final List<KeyArgs> features;
+	private final Map<LogicalExpression, Integer> semanticsIds;
+	private final List<LogicalExpression> semantics;
+	private final Map<String, Integer> sentenceIds;
+	private final List<String> sentences;
+
+	/** offset of every point */
+	private long[] index;
+	private int numPoints;
+
+	private boolean closed;
+
+	public SparseDatasetWriter(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		this.position = 0;
+
+		this.featureIds = new HashMap<KeyArgs, Integer>();
+		this.features = new ArrayList<KeyArgs>();
+		this.semanticsIds = new HashMap<LogicalExpression, Integer>();
+		this.semantics = new ArrayList<LogicalExpression>();
+		this.sentenceIds = new HashMap<String, Integer>();
+		this.sentences = new ArrayList<String>();
+
+		this.index = new long[1024];
+		this.numPoints = 0;
+		this.closed = false;
+	}
+
+	/** writes the points, allows using the writer as the sink of dataset creation */
+	@Override
+	public void accept(List<SparseFeatureAndStateDataset<MR>> points) {
+		try {
+			for(SparseFeatureAndStateDataset<MR> pt: points) {
+				this.write(pt);
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException("Could not write the dataset to " + this.fileName, e);
+		}
+	}
+
+	public synchronized void write(SparseFeatureAndStateDataset<MR> pt) throws IOException {
+
+		final int flags = FLAG_STATE | (pt.isSemanticsSet() ? FLAG_SEMANTICS : 0);
+		this.writePoint(flags, pt.getSentence(), pt.getGroundTruthIndex(), pt.getLastSemantics(),
+				pt.getSndLastSemantics(), pt.getThirdLastSemantics(), pt.getStateFeature(), pt.getPossibleActionFeatures());
+	}
+
+	public synchronized void write(SparseFeatureDataset<MR> pt) throws IOException {
+		this.writePoint(0, pt.getSentence(), pt.getGroundTruthIndex(), null, null, null, null,
+						pt.getPossibleActionFeatures());
+	}
+
+	private void writePoint(int flags, String sentence, int gTruthIx, LogicalExpression last, LogicalExpression sndLast,
+			LogicalExpression thirdLast, IHashVector stateFeature, List<IHashVector> actionFeatures) throws IOException {
+
+		if(this.closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+
+		if(this.numPoints == this.index.length) {
+			this.index = Arrays.copyOf(this.index, 2 * this.index.length);
+		}
+		this.index[this.numPoints++] = this.position;
+
+		final int numActions = actionFeatures.size();
+
+		this.writeInt(flags);
+		this.writeInt(this.intern(sentence, this.sentenceIds, this.sentences));
+		this.writeInt(gTruthIx);
+		this.writeInt(last == null ? -1 : this.intern(last, this.semanticsIds, this.semantics));
+		this.writeInt(sndLast == null ? -1 : this.intern(sndLast, this.semanticsIds, this.semantics));
+		this.writeInt(thirdLast == null ? -1 : this.intern(thirdLast, this.semanticsIds, this.semantics));
+		this.writeInt(numActions);
+
+		//offsets
+		int nnz = 0;
+		this.writeInt(nnz);
+		nnz = nnz + (stateFeature == null ? 0 : stateFeature.size());
+		this.writeInt(nnz);
+		for(IHashVector actionFeature: actionFeatures) {
+			nnz = nnz + actionFeature.size();
+			this.writeInt(nnz);
+		}
+
+		//feature ids and values of all vectors
+		final float[] values = new float[nnz];
+		int k = 0;
+
+		if(stateFeature != null) {
+			for(Pair<KeyArgs, Double> entry: stateFeature) {
+				this.writeInt(this.intern(entry.first(), this.featureIds, this.features));
+				values[k++] = entry.second().floatValue();
+			}
+		}
+
+		for(IHashVector actionFeature: actionFeatures) {
+			for(Pair<KeyArgs, Double> entry: actionFeature) {
+				this.writeInt(this.intern(entry.first(), this.featureIds, this.features));
+				values[k++] = entry.second().floatValue();
+			}
+		}
+
+		if(k != nnz) {
+			throw new IllegalStateException("Feature vector changed while writing. Expected " + nnz + " found " + k);
+		}
+
+		for(float value: values) {
+			this.out.writeFloat(value);
+		}
+		this.position = this.position + (long) nnz * Float.BYTES;
+	}
+
+	private <T> int intern(T obj, Map<T, Integer> ids, List<T> objs) {
+
+		final Integer id = ids.get(obj);
+		if(id != null) {
+			return id;
+		}
+
+		final int newId = objs.size();
+		ids.put(obj, newId);
+		objs.add(obj);
+		return newId;
+	}
+
+	private void writeInt(int value) throws IOException {
+		this.out.writeInt(value);
+		this.position = this.position + Integer.BYTES;
+	}
+
+	private void writeString(String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		this.writeInt(bytes.length);
+		this.out.write(bytes);
+		this.position = this.position + bytes.length;
+	}
+
+	public synchronized int size() {
+		return this.numPoints;
+	}
+
+	/** writes the dictionaries, index and footer and closes the file */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+
+		try {
+			final long featuresOffset = this.position;
+			this.writeInt(this.features.size());
+			for(KeyArgs feature: this.features) {
+				final String[] args = {feature.getArg1(), feature.getArg2(), feature.getArg3(),
+									   feature.getArg4(), feature.getArg5()};
+				int numArgs = 0;
+				while(numArgs < args.length && args[numArgs] != null) {
+					numArgs++;
+				}
+
+				this.writeInt(numArgs);
+				for(int i = 0; i < numArgs; i++) {
+					this.writeString(args[i]);
+				}
+			}
+
+			final long semanticsOffset = this.position;
+			this.writeInt(this.semantics.size());
+			for(LogicalExpression exp: this.semantics) {
+				this.writeString(exp.toString());
+			}
+
+			final long sentencesOffset = this.position;
+			this.writeInt(this.sentences.size());
+			for(String sentence: this.sentences) {
+				this.writeString(sentence);
+			}
+
+			final long indexOffset = this.position;
+			for(int i = 0; i < this.numPoints; i++) {
+				this.out.writeLong(this.index[i]);
+			}
+			this.position = this.position + (long) this.numPoints * Long.BYTES;
+
+			this.out.writeLong(featuresOffset);
+			this.out.writeLong(semanticsOffset);
+			this.out.writeLong(sentencesOffset);
+			this.out.writeLong(indexOffset);
+			this.out.writeInt(this.numPoints);
+			this.out.writeInt(VERSION);
+			this.out.writeInt(MAGIC);
+		} finally {
+			this.out.close();
+		}
+
+		LOG.info("Wrote %s points to %s. Features %s, semantics %s, sentences %s", this.numPoints, this.fileName,
+								this.features.size(), this.semantics.size(), this.sentences.size());
+	}
+}
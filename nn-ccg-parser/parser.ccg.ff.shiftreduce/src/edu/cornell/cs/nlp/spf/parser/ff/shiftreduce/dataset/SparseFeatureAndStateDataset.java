@@ -100,6 +100,19 @@ public class SparseFeatureAndStateDataset<MR> {
 		this.thirdLast = thirdLast;
 	}
 	
+	/** sets the semantics directly, used when reading stored datasets */
+	void setSemantics(LogicalExpression last, LogicalExpression sndLast, LogicalExpression thirdLast) {
+
+		if(this.setSemantics) {
+			throw new RuntimeException("Cannot set semantics twice");
+		}
+
+		this.setSemantics = true;
+		this.last = last;
+		this.sndLast = sndLast;
+		this.thirdLast = thirdLast;
+	}
+
 	public LogicalExpression getLastSemantics() {
 		return this.last;
 	}
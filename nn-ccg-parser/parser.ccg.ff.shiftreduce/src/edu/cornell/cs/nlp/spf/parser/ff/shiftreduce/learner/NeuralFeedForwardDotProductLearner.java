@@ -13,12 +13,18 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -41,9 +47,15 @@ import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
 import edu.cornell.cs.nlp.spf.parser.ParsingOp;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.categoryembeddings.LogicalExpressionEmbedding;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset.DatasetPipeline;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.CheckpointWriter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Helper;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.LearningRate;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.MappedCheckpoint;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.CreateSparseFeatureAndStateDataset;
+import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.MappedSparseDataset;
+import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.SparseDatasetWriter;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.SparseFeatureAndStateDataset;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser.FeatureEmbedding;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser.LocalEnsembleNeuralDotProductShiftReduceParser;
@@ -64,6 +76,9 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI extends ILabeledDataItem<SAMPLE, ?>, MR> {
 	
 	public static final ILogger	LOG = LoggerFactory.create(NeuralFeedForwardDotProductLearner.class);
+	
+	/** Number of validation points on which the inference precision is compared against double */
+	private static final int NUM_PRECISION_CHECK_POINTS = 500;
 
 	private final NeuralDotProductShiftReduceParser<Sentence, MR> parser;
 	
@@ -77,6 +92,36 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 	private final String bootstrapFolderName;
 	private final boolean saveModelAfterLearning;
 	
+	/** Number of examples whose gradients are summed before an update. A value of 1 performs
+	 * per-example SGD. Larger batches compute the gradients of the examples in parallel. */
+	private final Integer batchSize;
+	
+	/** If true then gradients of the sparse feature embeddings are accumulated without locking */
+	private final boolean hogwild;
+	
+	/** If positive then the dataset is created on a separate thread while training on the created points.
+	 * At most pipelineCapacity points are buffered and the points of at most pipelineStaleness sentences
+	 * are waiting to be consumed. Staleness only bounds the lag of W and the feature embeddings, which the
+	 * parser reads directly. The parser evaluates the MLP and the action mixing layer on clones that are
+	 * refreshed at the end of every epoch, so these lag behind by up to an epoch. */
+	private final Integer pipelineCapacity;
+	private final Integer pipelineStaleness;
+	
+	/** Every pipelineValidationInterval-th point created by the pipeline is held out for validation */
+	private final Integer pipelineValidationInterval;
+	
+	/** If not null then the dataset of every epoch is stored in this folder in a compact binary format and
+	 * training reads the points from the memory-mapped file. If reuseDatasets is true then datasets stored 
+	 * by an earlier run are used instead of parsing. */
+	private final String datasetFolder;
+	private final boolean reuseDatasets;
+	
+	/** If true then models are logged as a single file checkpoint instead of a folder */
+	private final boolean singleFileCheckpoint;
+	
+	/** Shuffles the training points. Seeded so that the order of updates is repeatable. */
+	private final Random random;
+	
 	private final boolean doGradientCheck;
 	private boolean setDisplay;
 	private double empiricalGradW, empiricalGradSemanticInput;
@@ -88,7 +133,9 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 			Integer epoch, Double learningRate, Double learningRateDecay, Double l2, Integer beamSize, 
 			Integer partitionFunctionApproximationK, IParsingFilterFactory<DI, MR> parsingFilterFactory, 
 			CompositeImmutableLexicon<MR> compositeLexicon, ILexiconImmutable<MR> tempLexicon, 
-			boolean preTrain, String folderName, boolean saveModelAfterLearning, ValidationStatistics stats) {
+			boolean preTrain, String folderName, boolean saveModelAfterLearning, Integer batchSize, 
+			boolean hogwild, Integer pipelineCapacity, Integer pipelineStaleness, 
+			Integer pipelineValidationInterval, String datasetFolder, boolean reuseDatasets, boolean singleFileCheckpoint, int seed, ValidationStatistics stats) {
 		this.parser = parser;
 		
 		this.epoch = epoch;
@@ -104,6 +151,24 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		this.bootstrapFolderName = folderName;
 		this.saveModelAfterLearning = saveModelAfterLearning;
 		
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1. Found " + batchSize);
+		}
+		this.batchSize = batchSize;
+		this.hogwild = hogwild;
+		this.pipelineCapacity = pipelineCapacity;
+		this.pipelineStaleness = pipelineStaleness;
+		
+		if(pipelineValidationInterval < 2) {
+			throw new IllegalArgumentException("Pipeline validation interval must be at least 2. Found " 
+												+ pipelineValidationInterval);
+		}
+		this.pipelineValidationInterval = pipelineValidationInterval;
+		this.datasetFolder = datasetFolder;
+		this.reuseDatasets = reuseDatasets;
+		this.singleFileCheckpoint = singleFileCheckpoint;
+		this.random = new Random(seed);
+		
 		this.setDisplay = false;
 		this.doGradientCheck = false;
 		
@@ -113,6 +178,11 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 														this.epoch, this.learningRate, l2, this.beamSize);
 		LOG.info("\t... minEpoch %s, partitionFunctionK %s, bootstrapFolderName %s ", this.minEpoch, 
 										  this.partitionFunctionApproximationK, this.bootstrapFolderName);
+		LOG.info("\t... batchSize %s, hogwild %s, pipelineCapacity %s, pipelineStaleness %s", this.batchSize, 
+										  this.hogwild, this.pipelineCapacity, this.pipelineStaleness);
+		LOG.info("\t... pipelineValidationInterval %s", this.pipelineValidationInterval);
+		LOG.info("\t... datasetFolder %s, reuseDatasets %s, singleFileCheckpoint %s, seed %s", this.datasetFolder, 
+										  this.reuseDatasets, this.singleFileCheckpoint, seed);
 	}
 	
 	private double calcLossOfPoint(SparseFeatureAndStateDataset<MR> pt) {
@@ -339,7 +409,7 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 				correct.incrementAndGet();
 			}
 			
-			if(this.setDisplay) {
+			if(this.setDisplay && pt.getPossibleActions() != null) { //actions are not kept in stored datasets
 				List<ParsingOp<MR>> possibleActions = pt.getPossibleActions();
 				if(logSoftMax[gTruthIx] < logSoftMax[maxScore]) {
 					LOG.info("Right parsing action score %s -> %s ", 
@@ -362,273 +432,775 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		return sumLogLikelihood;
 	}
 	
-
-	/** In every epoch creates dataset  by parsing under the current model and using a multi-parse tree filter
-	 *  which allows parser to create dataset using the current parameters. After creating the dataset, online SGD
-	 *  is performed. Learning algorithm terminates when in a given epoch, the learner cannot improve the validation
-	 *  accuracy of the created validation dataset. */
-	public void fitCompositeDataSet(CreateSparseFeatureAndStateDataset/*WithExploration*/<SAMPLE, DI, MR> datasetCreator, 
-			IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model) {
+	/** Log-softmax scores of the actions of every point, computed in the current nd4j precision */
+	private List<double[]> calcActionLogSoftMax(List<SparseFeatureAndStateDataset<MR>> points) {
 		
 		final NeuralParsingDotProductStepScorer mlpScorer = this.parser.getMLPScorer();
 		final FeatureEmbedding<MR> stateFeatureEmbedding = this.parser.getStateFeatureEmbedding();
 		final FeatureEmbedding<MR> actionFeatureEmbedding = this.parser.getActionFeatureEmbedding();
 		final SemanticFeaturesEmbedding semanticFeaturesEmbedding = this.parser.getSemanticFeatureEmbedding();
 		final NeuralActionEmbeddingMixer actionMixingLayer = this.parser.getActionMixingLayer();
-		
-		if(semanticFeaturesEmbedding != null) {
-			datasetCreator.induceSemanticsVector(semanticFeaturesEmbedding.getSemanticEmbeddingObject());
-		}
-		
 		final INDArray W = this.parser.getAffineW();
 		
-		this.parser.disablePacking();
-		
-		long totalTime = 0;	
-		int numIterations = 0;
-		
-		INDArray gradSumSquareW  = Nd4j.zeros(W.shape());
-		
-		// Save the initial model
-		this.logModel("init");
-		
-		List<SparseFeatureAndStateDataset<MR>> dataset = null;
-		this.parser.testing = false;
+		final List<double[]> scores = new ArrayList<double[]>();
 		
-		final long start = System.currentTimeMillis();
-		
-		for(int iter = 1; iter <= this.epoch; iter++) {
-			LOG.info("=========================");
-			LOG.info("Create Training Data. Epoch %s", iter);
+		for(SparseFeatureAndStateDataset<MR> pt: points) {
 			
-			if(iter %2 == 1) { //first phase
-				dataset = datasetCreator.createDataset(model);
-			} else if(iter %2 == 0) { //second phase -- early update
-				dataset = datasetCreator.createDiscontiguousEarlyUpdateDataset(model);
+			final INDArray stateStandardFeatureEmbedding = stateFeatureEmbedding
+															.embedFeatures(pt.getStateFeature(), true).first();
+			final INDArray stateInEmbedding;
+			if(semanticFeaturesEmbedding != null) {
+				INDArray semanticsEmbedding = semanticFeaturesEmbedding
+						.getSemanticEmbedding(pt.getLastSemantics(), pt.getSndLastSemantics(), pt.getThirdLastSemantics())
+						.getEmbedding();
+				stateInEmbedding = Nd4j.concat(1, stateStandardFeatureEmbedding, semanticsEmbedding);
+			} else {
+				stateInEmbedding = stateStandardFeatureEmbedding;
 			}
 			
-			//dataset = datasetCreator.createDatasetWithExploration(model, iter);
-			stateFeatureEmbedding.registerStateFeatures(dataset);
-			actionFeatureEmbedding.registerActionFeatures(dataset);
-//			datasetCreator.swap();
-			
-			final int dataSize = dataset.size();
-			final int trainSize = (int)(0.99*dataSize);
-			List<SparseFeatureAndStateDataset<MR>> train = dataset.subList(dataSize - trainSize, trainSize);//0, trainSize);
-			List<SparseFeatureAndStateDataset<MR>> validation = dataset.subList(0, dataSize - trainSize);//trainSize, dataSize);
-			
-			////shuffle train /////
-			Collections.shuffle(train);
-			
-			LOG.info("-------- train initialization epoch %s  ------------", iter);
-			this.calcCompositeBatchLikelihood(train);
-			LOG.info("-------- train, end of initialization ------------");
-			
-			LOG.info("-------- validation initialization epoch %s  ------------", iter);
-			double prevValidationLogLikelihood = this.calcCompositeBatchLikelihood(validation);
-			LOG.info("-------- validation, end of initialization ------------");
+			final INDArray stateOutEmbedding = mlpScorer.getEmbedding(stateInEmbedding);
 			
-			if(this.stats != null) {
-				LOG.info("-------- validation end-to-end epoch %s  ------------", iter);
-				this.stats.calcValidationMetric();
-				LOG.info("-------- validation end-to-end epoch %s  ------------", iter);
+			final List<IHashVector> features = pt.getPossibleActionFeatures();
+			final double[] exponents = new double[features.size()];
+			int i = 0;
+			for(IHashVector feature: features) {
+				INDArray actionEmbedding = actionFeatureEmbedding.embedFeatures(feature, true).first();
+				if(actionMixingLayer != null) {
+					actionEmbedding = actionMixingLayer.getEmbedding(actionEmbedding);
+				}
+				INDArray affineActionEmbedding = W.mmul(actionEmbedding.transpose());
+				exponents[i++] = stateOutEmbedding.mmul(affineActionEmbedding).getDouble(new int[]{0, 0});
 			}
 			
-			stateFeatureEmbedding.stats();
-			actionFeatureEmbedding.stats();
-			
-			LOG.info("Fitting Dataset of size %s, train %s, validation %s", 
-											dataset.size(), trainSize, dataSize - trainSize);
+			scores.add(mlpScorer.toLogSoftMax(exponents));
+		}
+		
+		return scores;
+	}
+	
+	/** Scores the points in double precision, switches the parser to its inference precision and scores 
+	 * them again. Logs the maximum deviation of the action log-probabilities and the number of points 
+	 * whose highest scoring action changes. The parser is left in the inference precision. */
+	private void checkInferencePrecision(List<SparseFeatureAndStateDataset<MR>> points) {
+		
+		if(Precision.current() != Precision.DOUBLE) {
+			LOG.warn("Parser is already converted to %s, cannot compare against double", Precision.current());
+			return;
+		}
+		
+		final List<double[]> reference = this.calcActionLogSoftMax(points);
+		this.parser.applyInferencePrecision();
+		final List<double[]> converted = this.calcActionLogSoftMax(points);
+		
+		double maxDeviation = 0.0, sumDeviation = 0.0;
+		int numScores = 0, argmaxChanged = 0;
+		
+		for(int i = 0; i < reference.size(); i++) {
 			
-			LOG.info("Fit Dataset Iteration: %s", iter);
-			int exampleIndex = 0;
-			double sumLogLikelihood = 0.0, sumLikelihood = 0.0;
+			final double[] expected = reference.get(i);
+			final double[] actual = converted.get(i);
+			int expectedArgmax = 0, actualArgmax = 0;
 			
-			final long start1 = System.currentTimeMillis();
-			for(SparseFeatureAndStateDataset<MR> pt: train) {
-				LOG.info("=========================");
-				LOG.info("Example: %s", ++exampleIndex);
+			for(int j = 0; j < expected.length; j++) {
+				final double deviation = Math.abs(expected[j] - actual[j]);
+				maxDeviation = Math.max(maxDeviation, deviation);
+				sumDeviation = sumDeviation + deviation;
+				numScores++;
 				
-				if(this.doGradientCheck) {
-					this.gradientCheck(pt);
+				if(expected[j] > expected[expectedArgmax]) {
+					expectedArgmax = j;
 				}
-				
-				final IHashVector stateFeature = pt.getStateFeature();
-				
-				final INDArray stateInEmbedding;
-				final Pair<INDArray, List<int[]>> stateStandardFeatureEmbedding = 
-											stateFeatureEmbedding.embedFeatures(stateFeature, true);
-				final SemanticFeaturesEmbeddingResult semanticEmbeddingResult;
-				
-				if(semanticFeaturesEmbedding != null) {
-	
-					semanticEmbeddingResult = semanticFeaturesEmbedding
-							.getSemanticEmbedding(pt.getLastSemantics(), pt.getSndLastSemantics(), pt.getThirdLastSemantics());
-					INDArray semanticsEmbedding = semanticEmbeddingResult.getEmbedding();
-					stateInEmbedding = Nd4j.concat(1, stateStandardFeatureEmbedding.first(), semanticsEmbedding);
-				} else {
-					semanticEmbeddingResult = null;
-					stateInEmbedding = stateStandardFeatureEmbedding.first();
+				if(actual[j] > actual[actualArgmax]) {
+					actualArgmax = j;
 				}
-				
-				//final Pair<INDArray, List<int[]>> stateInEmbedding = stateFeatureEmbedding.embedFeatures(stateFeature, true);
-				//final INDArray stateOutEmbedding = mlpScorer.getEmbedding(stateInEmbedding.first());
-				final INDArray stateOutEmbedding = mlpScorer.getEmbedding(stateInEmbedding);
-				
-//				INDArray eye = Nd4j.zeros(1);
-//				eye.putScalar(new int[]{0,  0}, 1.0);
-//				final  INDArray stateOutEmbedding = Nd4j.concat(1, stateOutEmbedding_, eye);
-				
-				final List<IHashVector> features = pt.getPossibleActionFeatures();
+			}
+			
+			if(expectedArgmax != actualArgmax) {
+				argmaxChanged++;
+			}
+		}
+		
+		LOG.info("Inference precision %s on %s validation points. Max score deviation %s, mean deviation %s",
+				this.parser.getInferencePrecision(), points.size(), maxDeviation, sumDeviation/(double) Math.max(numScores, 1));
+		LOG.info(".. highest scoring action changed for %s out of %s points", argmaxChanged, points.size());
+	}
+	
 
-				double[] exponents = new double[features.size()];
-				
-				List<Pair<INDArray, List<int[]>>> results = new ArrayList<Pair<INDArray, List<int[]>>>();
-				List<int[]> frequencies = new ArrayList<int[]>();
-				int j = 0;
-				
-				////////////////////
-				List<INDArray> batch = new ArrayList<INDArray>();
-				List<List<int[]>> batchFrequencies = new ArrayList<List<int[]>>();
-				for(IHashVector actionFeature: features) {
-					Pair<INDArray, List<int[]>> result = actionFeatureEmbedding.embedFeatures(actionFeature, true);
-					batch.add(result.first());
-					batchFrequencies.add(result.second());
-				}
-				
-				List<INDArray> actionEmbeddings = actionMixingLayer.getEmbedding(batch);
-				for(INDArray actionEmbedding: actionEmbeddings) {
-					INDArray affineActionEmbedding = W.mmul(actionEmbedding.transpose());
-					exponents[j] = stateOutEmbedding.mmul(affineActionEmbedding).getDouble(new int[]{0, 0});
-					results.add(Pair.of(actionEmbedding, batchFrequencies.get(j)));
-					frequencies.add(batchFrequencies.get(j).get(0));
-					j++;
+	/** Creates the dataset of the epoch in the compact binary format and maps it. If reuseDatasets is true and the
+	 * dataset of this epoch was stored by an earlier run, then it is mapped without parsing. */
+	private MappedSparseDataset<MR> createStoredDataset(CreateSparseFeatureAndStateDataset<SAMPLE, DI, MR> datasetCreator,
+			IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model, int iter) {
+		
+		final File file = new File(this.datasetFolder, "dataset_epoch_" + iter + ".bin");
+		
+		try {
+			if(this.reuseDatasets && file.exists()) {
+				LOG.info("Reusing stored dataset %s", file);
+			} else {
+				file.getParentFile().mkdirs();
+				
+				// write to a temporary file so that an incomplete dataset is never reused
+				final File tmpFile = new File(file.getPath() + ".tmp");
+				try(SparseDatasetWriter<MR> writer = new SparseDatasetWriter<MR>(tmpFile.getPath())) {
+					if(iter %2 == 1) { //first phase
+						datasetCreator.createDataset(model, writer);
+					} else { //second phase -- early update
+						datasetCreator.createDiscontiguousEarlyUpdateDataset(model, writer);
+					}
 				}
-				////////////////////
-				
-				/* remove above code and uncomment this when removing mixing layer
-				for(IHashVector actionFeature: features) {
-					Pair<INDArray, List<int[]>> result = actionFeatureEmbedding.embedFeatures(actionFeature, true);
-					INDArray affineActionEmbedding = W.mmul(result.first().transpose());
-					exponents[j++] = stateOutEmbedding.mmul(affineActionEmbedding).getDouble(new int[]{0, 0});
-					results.add(result);
-					frequencies.add(result.second().get(0));
-				}*/
-				
-				double[] logSoftMax = mlpScorer.toLogSoftMax(exponents);
 				
-				final int gTruthIx = pt.getGroundTruthIndex();
-				
-				//Compute log-liklelihood and likelihood
-				final double logLikelihood = logSoftMax[gTruthIx];
-				final double likelihood = Math.exp(logLikelihood);
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			
+			return new MappedSparseDataset<MR>(file.getPath());
+			
+		} catch(IOException e) {
+			throw new RuntimeException("Could not store the dataset in " + file + ". Error: " + e);
+		}
+	}
+	
+	/** Runs an epoch in which the dataset is created on a producer thread while the learner trains on the points
+	 * that have been created so far. Points are consumed in the order they are created and every 
+	 * pipelineValidationInterval-th point is held out for validation. Returns the average validation log-likelihood and the number of updates. */
+	private double[] fitPipelinedEpoch(CreateSparseFeatureAndStateDataset<SAMPLE, DI, MR> datasetCreator, 
+			IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model, int iter,
+			INDArray gradSumSquareW) {
+		
+		final FeatureEmbedding<MR> stateFeatureEmbedding = this.parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<MR> actionFeatureEmbedding = this.parser.getActionFeatureEmbedding();
+		
+		final DatasetPipeline<SparseFeatureAndStateDataset<MR>> pipeline = 
+				new DatasetPipeline<SparseFeatureAndStateDataset<MR>>(sink -> {
+					if(iter %2 == 1) { //first phase
+						datasetCreator.createDataset(model, sink);
+					} else { //second phase -- early update
+						datasetCreator.createDiscontiguousEarlyUpdateDataset(model, sink);
+					}
+				}, this.pipelineCapacity, this.pipelineStaleness);
+		
+		final List<SparseFeatureAndStateDataset<MR>> validation = new ArrayList<SparseFeatureAndStateDataset<MR>>();
+		final List<SparseFeatureAndStateDataset<MR>> batch = new ArrayList<SparseFeatureAndStateDataset<MR>>();
+		
+		double sumLogLikelihood = 0.0, sumLikelihood = 0.0;
+		int numPoints = 0, numUpdates = 0;
+		
+		final long start = System.currentTimeMillis();
+		pipeline.start();
+		
+		try {
+			while(pipeline.hasNext()) {
 				
-				LOG.info("Iteration: %s, Sum of Likelihood %s, NLL %s", iter, likelihood, -logLikelihood);
+				final SparseFeatureAndStateDataset<MR> pt = pipeline.next();
 				
-				if(Double.isNaN(logLikelihood)) {
+				if(++numPoints % this.pipelineValidationInterval == 0) {
+					validation.add(pt);
 					continue;
 				}
 				
-				sumLogLikelihood = sumLogLikelihood + logLikelihood;
-				sumLikelihood = sumLikelihood + likelihood;
-				
-				//Compute gradients
-				INDArray gamma = results.get(gTruthIx).first().mul(-1);
-				INDArray stateMulW = stateOutEmbedding.mmul(W);
-				
-				List<INDArray> gradActions = new ArrayList<INDArray>();
+				batch.add(pt);
 				
-				for(int i = 0; i < exponents.length; i++) {
-					double prob = Math.exp(logSoftMax[i]);
-					gamma.addi(results.get(i).first().mul(prob));
+				if(batch.size() == this.batchSize) {
+					stateFeatureEmbedding.registerStateFeatures(batch);
+					actionFeatureEmbedding.registerActionFeatures(batch);
 					
-					final INDArray gradAction;
-					if(i == gTruthIx) {
-						gradAction = stateMulW.mul(-1 + prob);
-					} else {
-						gradAction = stateMulW.mul(prob);
-					}
-					gradActions.add(gradAction);
+					final double[] batchStats = this.fitBatch(batch, iter, gradSumSquareW);
+					sumLogLikelihood = sumLogLikelihood + batchStats[0];
+					sumLikelihood = sumLikelihood + batchStats[1];
+					numUpdates = numUpdates + (int) batchStats[2];
+					batch.clear();
 				}
+			}
+			
+			if(!batch.isEmpty()) {
+				stateFeatureEmbedding.registerStateFeatures(batch);
+				actionFeatureEmbedding.registerActionFeatures(batch);
 				
-				////////////////
-				gradActions = actionMixingLayer.backprop(gradActions);
-				////////////////
-				actionFeatureEmbedding.backprop(gradActions, features, frequencies);
-				
-				INDArray gradStateEmbedding = gamma.mmul(W.transpose());
+				final double[] batchStats = this.fitBatch(batch, iter, gradSumSquareW);
+				sumLogLikelihood = sumLogLikelihood + batchStats[0];
+				sumLikelihood = sumLikelihood + batchStats[1];
+				numUpdates = numUpdates + (int) batchStats[2];
+				batch.clear();
+			}
+		} finally {
+			pipeline.close();
+		}
+		
+		LOG.info("Pipelined epoch %s. Points %s, validation %s, time taken %s", iter, numPoints, 
+										validation.size(), System.currentTimeMillis() - start);
+		LOG.info("Iteration: %s, Sum of Log-Likelihood %s, Sum of Likelihood %s", iter, sumLogLikelihood, sumLikelihood);
+		
+		stateFeatureEmbedding.registerStateFeatures(validation);
+		actionFeatureEmbedding.registerActionFeatures(validation);
+		
+		LOG.info("-------- validation iteration %s  ------------", iter);
+		final double validationLogLikelihood = this.calcCompositeBatchLikelihood(validation);
+		LOG.info("-------- validation, end of iteration %s ------------", iter);
+		
+		return new double[]{validationLogLikelihood/Math.max(validation.size(), 1), numUpdates};
+	}
+	
+	/** Fits a single example and updates the parameters using its gradient. Returns the log-likelihood,
+	 * the likelihood and the number of examples used, which is 0 if the log-likelihood is not a number. */
+	private double[] fitExample(SparseFeatureAndStateDataset<MR> pt, int iter, INDArray gradSumSquareW) {
+		
+		final NeuralParsingDotProductStepScorer mlpScorer = this.parser.getMLPScorer();
+		final FeatureEmbedding<MR> stateFeatureEmbedding = this.parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<MR> actionFeatureEmbedding = this.parser.getActionFeatureEmbedding();
+		final SemanticFeaturesEmbedding semanticFeaturesEmbedding = this.parser.getSemanticFeatureEmbedding();
+		final NeuralActionEmbeddingMixer actionMixingLayer = this.parser.getActionMixingLayer();
+		final INDArray W = this.parser.getAffineW();
+		
+		LOG.debug("=========================");
+	
+		if(this.doGradientCheck) {
+			this.gradientCheck(pt);
+		}
+	
+		final IHashVector stateFeature = pt.getStateFeature();
+	
+		final INDArray stateInEmbedding;
+		final Pair<INDArray, List<int[]>> stateStandardFeatureEmbedding = 
+									stateFeatureEmbedding.embedFeatures(stateFeature, true);
+		final SemanticFeaturesEmbeddingResult semanticEmbeddingResult;
+	
+		if(semanticFeaturesEmbedding != null) {
+		
+			semanticEmbeddingResult = semanticFeaturesEmbedding
+					.getSemanticEmbedding(pt.getLastSemantics(), pt.getSndLastSemantics(), pt.getThirdLastSemantics());
+			INDArray semanticsEmbedding = semanticEmbeddingResult.getEmbedding();
+			stateInEmbedding = Nd4j.concat(1, stateStandardFeatureEmbedding.first(), semanticsEmbedding);
+		} else {
+			semanticEmbeddingResult = null;
+			stateInEmbedding = stateStandardFeatureEmbedding.first();
+		}
+	
+		//final Pair<INDArray, List<int[]>> stateInEmbedding = stateFeatureEmbedding.embedFeatures(stateFeature, true);
+		//final INDArray stateOutEmbedding = mlpScorer.getEmbedding(stateInEmbedding.first());
+		final INDArray stateOutEmbedding = mlpScorer.getEmbedding(stateInEmbedding);
+	
+//				INDArray eye = Nd4j.zeros(1);
+//				eye.putScalar(new int[]{0,  0}, 1.0);
+//				final  INDArray stateOutEmbedding = Nd4j.concat(1, stateOutEmbedding_, eye);
+	
+		final List<IHashVector> features = pt.getPossibleActionFeatures();
+
+		double[] exponents = new double[features.size()];
+	
+		List<Pair<INDArray, List<int[]>>> results = new ArrayList<Pair<INDArray, List<int[]>>>();
+		List<int[]> frequencies = new ArrayList<int[]>();
+		int j = 0;
+	
+		////////////////////
+		List<INDArray> batch = new ArrayList<INDArray>();
+		List<List<int[]>> batchFrequencies = new ArrayList<List<int[]>>();
+		for(IHashVector actionFeature: features) {
+			Pair<INDArray, List<int[]>> result = actionFeatureEmbedding.embedFeatures(actionFeature, true);
+			batch.add(result.first());
+			batchFrequencies.add(result.second());
+		}
+	
+		List<INDArray> actionEmbeddings = actionMixingLayer.getEmbedding(batch);
+		for(INDArray actionEmbedding: actionEmbeddings) {
+			INDArray affineActionEmbedding = W.mmul(actionEmbedding.transpose());
+			exponents[j] = stateOutEmbedding.mmul(affineActionEmbedding).getDouble(new int[]{0, 0});
+			results.add(Pair.of(actionEmbedding, batchFrequencies.get(j)));
+			frequencies.add(batchFrequencies.get(j).get(0));
+			j++;
+		}
+		////////////////////
+	
+		/* remove above code and uncomment this when removing mixing layer
+		for(IHashVector actionFeature: features) {
+			Pair<INDArray, List<int[]>> result = actionFeatureEmbedding.embedFeatures(actionFeature, true);
+			INDArray affineActionEmbedding = W.mmul(result.first().transpose());
+			exponents[j++] = stateOutEmbedding.mmul(affineActionEmbedding).getDouble(new int[]{0, 0});
+			results.add(result);
+			frequencies.add(result.second().get(0));
+		}*/
+	
+		double[] logSoftMax = mlpScorer.toLogSoftMax(exponents);
+	
+		final int gTruthIx = pt.getGroundTruthIndex();
+	
+		//Compute log-liklelihood and likelihood
+		final double logLikelihood = logSoftMax[gTruthIx];
+		final double likelihood = Math.exp(logLikelihood);
+	
+		LOG.debug("Iteration: %s, Sum of Likelihood %s, NLL %s", iter, likelihood, -logLikelihood);
+	
+		if(Double.isNaN(logLikelihood)) {
+			return new double[]{0.0, 0.0, 0};
+		}
+	
+		//Compute gradients
+		INDArray gamma = results.get(gTruthIx).first().mul(-1);
+		INDArray stateMulW = stateOutEmbedding.mmul(W);
+	
+		List<INDArray> gradActions = new ArrayList<INDArray>();
+	
+		for(int i = 0; i < exponents.length; i++) {
+			double prob = Math.exp(logSoftMax[i]);
+			gamma.addi(results.get(i).first().mul(prob));
+		
+			final INDArray gradAction;
+			if(i == gTruthIx) {
+				gradAction = stateMulW.mul(-1 + prob);
+			} else {
+				gradAction = stateMulW.mul(prob);
+			}
+			gradActions.add(gradAction);
+		}
+	
+		////////////////
+		gradActions = actionMixingLayer.backprop(gradActions);
+		////////////////
+		actionFeatureEmbedding.backprop(gradActions, features, frequencies);
+	
+		INDArray gradStateEmbedding = gamma.mmul(W.transpose());
 //				gradStateEmbedding = gradStateEmbedding.get(NDArrayIndex.point(0), 
 //											NDArrayIndex.interval(0, gradStateEmbedding.size(1) - 1));
+	
+		//Do backpropagation through the neural network
+		INDArray gradStateEmbeddingInput = mlpScorer.backprop(gradStateEmbedding);
+	
+		if(this.doGradientCheck) {
+//					LOG.info("Gradient Check:: Batch input: Empirical %s Estimate %s", this.empiricalGrad, 
+//						errorFeatureInput.get(0).getDouble(new int[]{0, 0}));
+		}
+	
+		//Split error into standard state features and semantics
+		final INDArray gradStandardStateError;
+		final INDArray gradSemanticFeatureError;
+	
+		if(semanticFeaturesEmbedding != null) {
+			final int dim = semanticFeaturesEmbedding.getDimension();
+			final int size = gradStateEmbeddingInput.size(1);
+			gradStandardStateError = gradStateEmbeddingInput.get(NDArrayIndex.interval(0, size - dim));
+			gradSemanticFeatureError = gradStateEmbeddingInput.get(NDArrayIndex.interval(size - dim, size));
+		} else {
+			gradStandardStateError = gradStateEmbeddingInput;
+			gradSemanticFeatureError = null;
+		}
+	
+		//backprop the gradients to standard state feature embedding
+		List<IHashVector> singletonFeature = new ArrayList<IHashVector>();
+		singletonFeature.add(stateFeature);
+	
+		List<INDArray> singletonError = new ArrayList<INDArray>();
+		//singletonError.add(gradStateEmbeddingInput);
+		singletonError.add(gradStandardStateError);
+	
+		//stateFeatureEmbedding.backprop(singletonError, singletonFeature, stateInEmbedding.second());
+		stateFeatureEmbedding.backprop(singletonError, singletonFeature, stateStandardFeatureEmbedding.second());
+	
+		// backprop gradients to semantics feature embedding
+		// this involves backproping through the recursive networks
+		if(semanticFeaturesEmbedding != null) {
+			semanticFeaturesEmbedding.backprop(gradSemanticFeatureError, semanticEmbeddingResult);
+		}
+	
+		// Update the W parameter
+		INDArray gradW = stateOutEmbedding.transpose().mmul(gamma);
+		Helper.updateVector(W, gradW, gradSumSquareW, this.l2, this.learningRate.getLearningRate());
+	
+		if(this.doGradientCheck) {
+			LOG.info("Empirical Grad W %s estimated grad W %s", 
+									this.empiricalGradW, gradW.getDouble(new int[]{0, 0}));
+		}
+	
+		// Update the action and standard state feature embeddings
+		stateFeatureEmbedding.update();
+		actionFeatureEmbedding.update();
+	
+		// Update the semantic (or non-standard) feature embeddings
+		if(semanticFeaturesEmbedding != null) {
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().updateParameters();
+		}
+	
+		//Flush the gradients
+		stateFeatureEmbedding.flush();
+		actionFeatureEmbedding.flush();
+	
+		if(semanticFeaturesEmbedding != null) {
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().flushGradients();
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().invalidateCache();
+		}
+		
+		return new double[]{logLikelihood, likelihood, 1};
+	}
+	
+	/** Fits a batch of examples with a single update. A batch of one example performs per-example SGD. */
+	private double[] fitBatch(List<SparseFeatureAndStateDataset<MR>> batch, int iter, INDArray gradSumSquareW) {
+		
+		if(batch.size() == 1) {
+			return this.fitExample(batch.get(0), iter, gradSumSquareW);
+		}
+		
+		return this.fitMiniBatch(batch, gradSumSquareW);
+	}
+	
+	/** Fits a mini-batch of examples and updates the parameters once using the sum of their gradients.
+	 * Features are embedded and the per-example loss and gradients are computed in parallel. The MLP
+	 * and the action mixing layer are evaluated once on the stacked batch, since the underlying networks
+	 * hold the activations used in backpropagation. Gradients of W are accumulated in a buffer per
+	 * worker thread and are reduced before the update. Returns the sum of log-likelihood, the sum of
+	 * likelihood and the number of examples used. */
+	private double[] fitMiniBatch(List<SparseFeatureAndStateDataset<MR>> batch, INDArray gradSumSquareW) {
+		
+		final NeuralParsingDotProductStepScorer mlpScorer = this.parser.getMLPScorer();
+		final FeatureEmbedding<MR> stateFeatureEmbedding = this.parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<MR> actionFeatureEmbedding = this.parser.getActionFeatureEmbedding();
+		final SemanticFeaturesEmbedding semanticFeaturesEmbedding = this.parser.getSemanticFeatureEmbedding();
+		final NeuralActionEmbeddingMixer actionMixingLayer = this.parser.getActionMixingLayer();
+		final INDArray W = this.parser.getAffineW();
+		
+		final int numExamples = batch.size();
+		
+		// Embed state and action features of every example
+		final List<Pair<INDArray, List<int[]>>> stateStandardFeatureEmbeddings = 
+									new ArrayList<Pair<INDArray, List<int[]>>>(Collections.nCopies(numExamples, null));
+		final SemanticFeaturesEmbeddingResult[] semanticEmbeddingResults = 
+											new SemanticFeaturesEmbeddingResult[numExamples];
+		final INDArray[] stateInEmbeddings = new INDArray[numExamples];
+		final List<List<Pair<INDArray, List<int[]>>>> actionFeatureEmbeddings = 
+									new ArrayList<List<Pair<INDArray, List<int[]>>>>(Collections.nCopies(numExamples, null));
+		
+		IntStream.range(0, numExamples).parallel().forEach(ex -> {
+			
+			final SparseFeatureAndStateDataset<MR> pt = batch.get(ex);
+			
+			final Pair<INDArray, List<int[]>> stateStandardFeatureEmbedding = 
+												stateFeatureEmbedding.embedFeatures(pt.getStateFeature(), true);
+			stateStandardFeatureEmbeddings.set(ex, stateStandardFeatureEmbedding);
+			
+			if(semanticFeaturesEmbedding != null) {
+				semanticEmbeddingResults[ex] = semanticFeaturesEmbedding
+						.getSemanticEmbedding(pt.getLastSemantics(), pt.getSndLastSemantics(), pt.getThirdLastSemantics());
+				stateInEmbeddings[ex] = Nd4j.concat(1, stateStandardFeatureEmbedding.first(), 
+													   semanticEmbeddingResults[ex].getEmbedding());
+			} else {
+				stateInEmbeddings[ex] = stateStandardFeatureEmbedding.first();
+			}
+			
+			final List<Pair<INDArray, List<int[]>>> actionEmbeddings = new ArrayList<Pair<INDArray, List<int[]>>>();
+			for(IHashVector actionFeature: pt.getPossibleActionFeatures()) {
+				actionEmbeddings.add(actionFeatureEmbedding.embedFeatures(actionFeature, true));
+			}
+			actionFeatureEmbeddings.set(ex, actionEmbeddings);
+		});
+		
+		// Evaluate the MLP and the action mixing layer on the stacked batch
+		final INDArray stateIn = Nd4j.create(new int[]{numExamples, stateInEmbeddings[0].size(1)}, 'c');
+		for(int ex = 0; ex < numExamples; ex++) {
+			stateIn.putRow(ex, stateInEmbeddings[ex]);
+		}
+		final INDArray stateOut = mlpScorer.getEmbedding(stateIn);
+		
+		final int[] actionOffset = new int[numExamples + 1];
+		final List<INDArray> mixerInput = new ArrayList<INDArray>();
+		for(int ex = 0; ex < numExamples; ex++) {
+			actionOffset[ex] = mixerInput.size();
+			for(Pair<INDArray, List<int[]>> result: actionFeatureEmbeddings.get(ex)) {
+				mixerInput.add(result.first());
+			}
+		}
+		actionOffset[numExamples] = mixerInput.size();
+		final List<INDArray> actionEmbeddings = actionMixingLayer.getEmbedding(mixerInput);
+		
+		// Compute the loss and gradients of every example. Gradient of W is accumulated in thread-local buffers.
+		final INDArray[] gammas = new INDArray[numExamples];
+		final INDArray[] gradActions = new INDArray[mixerInput.size()];
+		final double[] logLikelihoods = new double[numExamples];
+		final ConcurrentHashMap<Long, INDArray> gradWBuffers = new ConcurrentHashMap<Long, INDArray>();
+		
+		IntStream.range(0, numExamples).parallel().forEach(ex -> {
+			
+			final INDArray stateOutEmbedding = stateOut.getRow(ex).dup();
+			final int numActions = actionOffset[ex + 1] - actionOffset[ex];
+			final int gTruthIx = batch.get(ex).getGroundTruthIndex();
+			
+			final INDArray stateMulW = stateOutEmbedding.mmul(W);
+			final double[] exponents = new double[numActions];
+			for(int i = 0; i < numActions; i++) {
+				exponents[i] = stateMulW.mmul(actionEmbeddings.get(actionOffset[ex] + i).transpose())
+										.getDouble(new int[]{0, 0});
+			}
+			
+			final double[] logSoftMax = mlpScorer.toLogSoftMax(exponents);
+			logLikelihoods[ex] = logSoftMax[gTruthIx];
+			
+			if(Double.isNaN(logLikelihoods[ex])) {
+				// example is skipped, it contributes zero error to the batched backpropagation
+				gammas[ex] = Nd4j.zeros(W.size(1));
+				for(int i = 0; i < numActions; i++) {
+					gradActions[actionOffset[ex] + i] = Nd4j.zeros(stateMulW.size(1));
+				}
+				return;
+			}
+			
+			final INDArray gamma = actionEmbeddings.get(actionOffset[ex] + gTruthIx).mul(-1);
+			for(int i = 0; i < numActions; i++) {
+				final double prob = Math.exp(logSoftMax[i]);
+				gamma.addi(actionEmbeddings.get(actionOffset[ex] + i).mul(prob));
+				
+				if(i == gTruthIx) {
+					gradActions[actionOffset[ex] + i] = stateMulW.mul(-1 + prob);
+				} else {
+					gradActions[actionOffset[ex] + i] = stateMulW.mul(prob);
+				}
+			}
+			gammas[ex] = gamma;
+			
+			final INDArray gradWBuffer = gradWBuffers.computeIfAbsent(Thread.currentThread().getId(), 
+																	  id -> Nd4j.zeros(W.shape()));
+			gradWBuffer.addi(stateOutEmbedding.transpose().mmul(gamma));
+		});
+		
+		// Backpropagate through the action mixing layer and the MLP
+		final List<INDArray> gradActionEmbeddings = actionMixingLayer.backprop(Arrays.asList(gradActions));
+		
+		final INDArray gradStateEmbedding = Nd4j.create(new int[]{numExamples, W.size(0)}, 'c');
+		for(int ex = 0; ex < numExamples; ex++) {
+			gradStateEmbedding.putRow(ex, gammas[ex].mmul(W.transpose()));
+		}
+		final INDArray gradStateEmbeddingInput = mlpScorer.backprop(gradStateEmbedding);
+		
+		// Backpropagate into the feature embeddings
+		final List<INDArray> actionErrors = new ArrayList<INDArray>();
+		final List<IHashVector> actionFeatures = new ArrayList<IHashVector>();
+		final List<int[]> actionFrequencies = new ArrayList<int[]>();
+		
+		final List<INDArray> stateErrors = new ArrayList<INDArray>();
+		final List<IHashVector> stateFeatures = new ArrayList<IHashVector>();
+		final List<int[]> stateFrequencies = new ArrayList<int[]>();
+		
+		double sumLogLikelihood = 0.0, sumLikelihood = 0.0;
+		int numUsed = 0;
+		
+		for(int ex = 0; ex < numExamples; ex++) {
+			
+			if(Double.isNaN(logLikelihoods[ex])) {
+				continue;
+			}
+			
+			sumLogLikelihood = sumLogLikelihood + logLikelihoods[ex];
+			sumLikelihood = sumLikelihood + Math.exp(logLikelihoods[ex]);
+			numUsed++;
+			
+			final SparseFeatureAndStateDataset<MR> pt = batch.get(ex);
+			
+			final List<IHashVector> features = pt.getPossibleActionFeatures();
+			for(int i = 0; i < features.size(); i++) {
+				actionErrors.add(gradActionEmbeddings.get(actionOffset[ex] + i));
+				actionFeatures.add(features.get(i));
+				actionFrequencies.add(actionFeatureEmbeddings.get(ex).get(i).second().get(0));
+			}
+			
+			//Split error into standard state features and semantics
+			final INDArray gradStateInput = gradStateEmbeddingInput.getRow(ex).dup();
+			
+			if(semanticFeaturesEmbedding != null) {
+				final int dim = semanticFeaturesEmbedding.getDimension();
+				final int size = gradStateInput.size(1);
+				stateErrors.add(gradStateInput.get(NDArrayIndex.interval(0, size - dim)));
+				semanticFeaturesEmbedding.backprop(gradStateInput.get(NDArrayIndex.interval(size - dim, size)), 
+												   semanticEmbeddingResults[ex]);
+			} else {
+				stateErrors.add(gradStateInput);
+			}
+			
+			stateFeatures.add(pt.getStateFeature());
+			stateFrequencies.add(stateStandardFeatureEmbeddings.get(ex).second().get(0));
+		}
+		
+		actionFeatureEmbedding.backprop(actionErrors, actionFeatures, actionFrequencies);
+		stateFeatureEmbedding.backprop(stateErrors, stateFeatures, stateFrequencies);
+		
+		// Reduce the gradient buffers and update W
+		final INDArray gradW = Nd4j.zeros(W.shape());
+		for(INDArray gradWBuffer: gradWBuffers.values()) {
+			gradW.addi(gradWBuffer);
+		}
+		Helper.updateVector(W, gradW, gradSumSquareW, this.l2, this.learningRate.getLearningRate());
+		
+		// Update the action, standard state and semantic feature embeddings
+		stateFeatureEmbedding.update();
+		actionFeatureEmbedding.update();
+		
+		if(semanticFeaturesEmbedding != null) {
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().updateParameters();
+		}
+		
+		//Flush the gradients
+		stateFeatureEmbedding.flush();
+		actionFeatureEmbedding.flush();
+		
+		if(semanticFeaturesEmbedding != null) {
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().flushGradients();
+			semanticFeaturesEmbedding.getSemanticEmbeddingObject().invalidateCache();
+		}
+		
+		LOG.debug("Mini-batch of size %s, used %s, Sum of Log-Likelihood %s", numExamples, numUsed, sumLogLikelihood);
+		
+		return new double[]{sumLogLikelihood, sumLikelihood, numUsed};
+	}
+	
+	/** In every epoch creates dataset  by parsing under the current model and using a multi-parse tree filter
+	 *  which allows parser to create dataset using the current parameters. After creating the dataset, online SGD
+	 *  is performed. Learning algorithm terminates when in a given epoch, the learner cannot improve the validation
+	 *  accuracy of the created validation dataset. */
+	public void fitCompositeDataSet(CreateSparseFeatureAndStateDataset/*WithExploration*/<SAMPLE, DI, MR> datasetCreator, 
+			IJointModelImmutable<SituatedSentence<AMRMeta>, LogicalExpression, LogicalExpression> model) {
+		
+		final NeuralParsingDotProductStepScorer mlpScorer = this.parser.getMLPScorer();
+		final FeatureEmbedding<MR> stateFeatureEmbedding = this.parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<MR> actionFeatureEmbedding = this.parser.getActionFeatureEmbedding();
+		final SemanticFeaturesEmbedding semanticFeaturesEmbedding = this.parser.getSemanticFeatureEmbedding();
+		final NeuralActionEmbeddingMixer actionMixingLayer = this.parser.getActionMixingLayer();
+		
+		if(semanticFeaturesEmbedding != null) {
+			datasetCreator.induceSemanticsVector(semanticFeaturesEmbedding.getSemanticEmbeddingObject());
+		}
+		
+		final INDArray W = this.parser.getAffineW();
+		
+		this.parser.disablePacking();
+		
+		stateFeatureEmbedding.setHogwild(this.hogwild);
+		actionFeatureEmbedding.setHogwild(this.hogwild);
+		
+		long totalTime = 0;	
+		int numIterations = 0;
+		
+		INDArray gradSumSquareW  = Nd4j.zeros(W.shape());
+		
+		// Save the initial model
+		this.logModel("init");
+		
+		List<SparseFeatureAndStateDataset<MR>> dataset = null;
+		this.parser.testing = false;
+		
+		// validation points of the last epoch, used to check the inference precision against double
+		List<SparseFeatureAndStateDataset<MR>> precisionCheckPoints = Collections.emptyList();
+		
+		final long start = System.currentTimeMillis();
+		double prevPipelinedLogLikelihood = Double.NEGATIVE_INFINITY;
+		
+		for(int iter = 1; iter <= this.epoch; iter++) {
+			LOG.info("=========================");
+			LOG.info("Create Training Data. Epoch %s", iter);
+			
+			if(this.pipelineCapacity > 0) {
 				
-				//Do backpropagation through the neural network
-				INDArray gradStateEmbeddingInput = mlpScorer.backprop(gradStateEmbedding);
+				// Dataset creation and training overlap. Returns average validation log-likelihood and number of updates.
+				final double[] epochStats = this.fitPipelinedEpoch(datasetCreator, model, iter, gradSumSquareW);
+				numIterations = numIterations + (int) epochStats[1];
 				
-				if(this.doGradientCheck) {
-//					LOG.info("Gradient Check:: Batch input: Empirical %s Estimate %s", this.empiricalGrad, 
-//						errorFeatureInput.get(0).getDouble(new int[]{0, 0}));
+				if(this.stats != null) {
+					LOG.info("-------- validation end-to-end iteration %s  ------------", iter);
+					this.stats.calcValidationMetric();
+					LOG.info("-------- validation end-to-end iteration %s  ------------", iter);
 				}
 				
-				//Split error into standard state features and semantics
-				final INDArray gradStandardStateError;
-				final INDArray gradSemanticFeatureError;
-				
-				if(semanticFeaturesEmbedding != null) {
-					final int dim = semanticFeaturesEmbedding.getDimension();
-					final int size = gradStateEmbeddingInput.size(1);
-					gradStandardStateError = gradStateEmbeddingInput.get(NDArrayIndex.interval(0, size - dim));
-					gradSemanticFeatureError = gradStateEmbeddingInput.get(NDArrayIndex.interval(size - dim, size));
-				} else {
-					gradStandardStateError = gradStateEmbeddingInput;
-					gradSemanticFeatureError = null;
+				if(iter != this.epoch) {
+					this.logModel("epoch-" + iter);
 				}
 				
-				//backprop the gradients to standard state feature embedding
-				List<IHashVector> singletonFeature = new ArrayList<IHashVector>();
-				singletonFeature.add(stateFeature);
-				
-				List<INDArray> singletonError = new ArrayList<INDArray>();
-				//singletonError.add(gradStateEmbeddingInput);
-				singletonError.add(gradStandardStateError);
-				
-				//stateFeatureEmbedding.backprop(singletonError, singletonFeature, stateInEmbedding.second());
-				stateFeatureEmbedding.backprop(singletonError, singletonFeature, stateStandardFeatureEmbedding.second());
-				
-				// backprop gradients to semantics feature embedding
-				// this involves backproping through the recursive networks
-				if(semanticFeaturesEmbedding != null) {
-					semanticFeaturesEmbedding.backprop(gradSemanticFeatureError, semanticEmbeddingResult);
+				// Validation points are different in every epoch, therefore average log-likelihood is compared
+				if(prevPipelinedLogLikelihood > epochStats[0] && iter > this.minEpoch) {
+					LOG.info("Convergence reached. Average validation Log-Likelihood %s", prevPipelinedLogLikelihood);
+					break;
 				}
+				prevPipelinedLogLikelihood = epochStats[0];
 				
-				// Update the W parameter
-				INDArray gradW = stateOutEmbedding.transpose().mmul(gamma);
-				Helper.updateVector(W, gradW, gradSumSquareW, this.l2, this.learningRate.getLearningRate());
+				System.gc();
 				
-				if(this.doGradientCheck) {
-					LOG.info("Empirical Grad W %s estimated grad W %s", 
-											this.empiricalGradW, gradW.getDouble(new int[]{0, 0}));
-				}
-				
-				// Update the action and standard state feature embeddings
-				stateFeatureEmbedding.update();
-				actionFeatureEmbedding.update();
+				mlpScorer.reclone();
+				/////////
+				actionMixingLayer.reclone();
+				/////////
+				continue;
+			}
+			
+			final MappedSparseDataset<MR> storedDataset;
+			if(this.datasetFolder != null) {
+				storedDataset = this.createStoredDataset(datasetCreator, model, iter);
+				dataset = storedDataset.asStateDatasetList();
+			} else {
+				storedDataset = null;
 				
-				// Update the semantic (or non-standard) feature embeddings
-				if(semanticFeaturesEmbedding != null) {
-					semanticFeaturesEmbedding.getSemanticEmbeddingObject().updateParameters();
+				if(iter %2 == 1) { //first phase
+					dataset = datasetCreator.createDataset(model);
+				} else if(iter %2 == 0) { //second phase -- early update
+					dataset = datasetCreator.createDiscontiguousEarlyUpdateDataset(model);
 				}
+			}
+			
+			//dataset = datasetCreator.createDatasetWithExploration(model, iter);
+			stateFeatureEmbedding.registerStateFeatures(dataset);
+			actionFeatureEmbedding.registerActionFeatures(dataset);
+//			datasetCreator.swap();
+			
+			final int dataSize = dataset.size();
+			final int trainSize = (int)(0.99*dataSize);
+			List<SparseFeatureAndStateDataset<MR>> train;
+			List<SparseFeatureAndStateDataset<MR>> validation = dataset.subList(0, dataSize - trainSize);//trainSize, dataSize);
+			
+			////shuffle train /////
+			if(storedDataset != null) {
+				// stored points are read-only, shuffle their indices
+				final List<Integer> trainIndices = IntStream.range(dataSize - trainSize, trainSize).boxed()
+															.collect(Collectors.toList());
+				Collections.shuffle(trainIndices, this.random);
+				train = storedDataset.asStateDatasetList(trainIndices.stream().mapToInt(Integer::intValue).toArray());
+			} else {
+				train = dataset.subList(dataSize - trainSize, trainSize);//0, trainSize);
+				Collections.shuffle(train, this.random);
+			}
+			
+			if(this.parser.getInferencePrecision() != Precision.DOUBLE) {
+				precisionCheckPoints = new ArrayList<SparseFeatureAndStateDataset<MR>>(
+						validation.subList(0, Math.min(validation.size(), NUM_PRECISION_CHECK_POINTS)));
+			}
+			
+			LOG.info("-------- train initialization epoch %s  ------------", iter);
+			this.calcCompositeBatchLikelihood(train);
+			LOG.info("-------- train, end of initialization ------------");
+			
+			LOG.info("-------- validation initialization epoch %s  ------------", iter);
+			double prevValidationLogLikelihood = this.calcCompositeBatchLikelihood(validation);
+			LOG.info("-------- validation, end of initialization ------------");
+			
+			if(this.stats != null) {
+				LOG.info("-------- validation end-to-end epoch %s  ------------", iter);
+				this.stats.calcValidationMetric();
+				LOG.info("-------- validation end-to-end epoch %s  ------------", iter);
+			}
+			
+			stateFeatureEmbedding.stats();
+			actionFeatureEmbedding.stats();
+			
+			LOG.info("Fitting Dataset of size %s, train %s, validation %s", 
+											dataset.size(), trainSize, dataSize - trainSize);
+			
+			LOG.info("Fit Dataset Iteration: %s", iter);
+			double sumLogLikelihood = 0.0, sumLikelihood = 0.0;
+			
+			final long start1 = System.currentTimeMillis();
+			
+			for(int batchStart = 0; batchStart < train.size(); batchStart += this.batchSize) {
 				
-				//Flush the gradients
-				stateFeatureEmbedding.flush();
-				actionFeatureEmbedding.flush();
-				
-				if(semanticFeaturesEmbedding != null) {
-					semanticFeaturesEmbedding.getSemanticEmbeddingObject().flushGradients();
-					semanticFeaturesEmbedding.getSemanticEmbeddingObject().invalidateCache();
-				}
+				final List<SparseFeatureAndStateDataset<MR>> batch = 
+						train.subList(batchStart, Math.min(batchStart + this.batchSize, train.size()));
+				final double[] batchStats = this.fitBatch(batch, iter, gradSumSquareW);
 				
-				numIterations++;
+				sumLogLikelihood = sumLogLikelihood + batchStats[0];
+				sumLikelihood = sumLikelihood + batchStats[1];
+				numIterations = numIterations + (int) batchStats[2];
 			}
 			
+			LOG.info("Iteration: %s, Sum of Log-Likelihood %s, Sum of Likelihood %s", iter, sumLogLikelihood, sumLikelihood);
+			
 			LOG.info("Time taken in inner loop %s", System.currentTimeMillis() - start1);
 			
 			if(iter == this.epoch) {
@@ -685,7 +1257,11 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 			}
 			
 			/// Clear the dataset to release memory. This is important.
-			dataset.clear();
+			if(storedDataset == null) {
+				dataset.clear();
+			} else {
+				dataset = null;
+			}
 			//LOG.info("train %s validation %s", train.size(), validation.size());
 			System.gc();
 			
@@ -714,6 +1290,9 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 	
 		this.parser.enablePacking();
 		
+		stateFeatureEmbedding.setHogwild(false);
+		actionFeatureEmbedding.setHogwild(false);
+		
 		actionFeatureEmbedding.stopAddingFeatures();
 		actionFeatureEmbedding.stats();
 		actionFeatureEmbedding.clearSeenFeaturesStats();
@@ -726,6 +1305,10 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		this.parser.modelNewFeatures  = datasetCreator.getModelNewFeatures();
 		stateFeatureEmbedding.projectWordEmbeddings();
 		actionFeatureEmbedding.projectWordEmbeddings();
+		if(!precisionCheckPoints.isEmpty()) {
+			this.checkInferencePrecision(precisionCheckPoints);
+		}
+		this.parser.applyInferencePrecision();
 		this.parser.testing = true;
 	}
 		
@@ -1089,6 +1672,7 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		this.parser.modelNewFeatures  = datasetCreator.getModelNewFeatures();
 		stateFeatureEmbedding.projectWordEmbeddings();
 		actionFeatureEmbedding.projectWordEmbeddings();
+		this.parser.applyInferencePrecision();
 		this.parser.testing = true;
 	}
 	
@@ -1109,6 +1693,7 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		this.parser.modelNewFeatures  = datasetCreator.getModelNewFeatures();
 		stateFeatureEmbedding.projectWordEmbeddings();
 		actionFeatureEmbedding.projectWordEmbeddings();
+		this.parser.applyInferencePrecision();
 		this.parser.testing = true;
 	}
 	
@@ -1130,6 +1715,7 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		parser.modelNewFeatures  = modelNewFeatures;
 		stateFeatureEmbedding.projectWordEmbeddings();
 		actionFeatureEmbedding.projectWordEmbeddings();
+		parser.applyInferencePrecision();
 		parser.testing = true;
 	}
 	
@@ -1149,6 +1735,11 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 
 	public void logModel(String modelName) {
 		
+		if(this.singleFileCheckpoint) {
+			logCheckpoint(modelName + "_" + System.currentTimeMillis() + ".ckpt", this.parser);
+			return;
+		}
+		
 		final String folderName = modelName + "_" + System.currentTimeMillis();
 		LOG.info("Logging the model %s", folderName);
 		
@@ -1250,8 +1841,14 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 //		System.exit(0);
 	}
 	
+	/** Bootstraps the parser from a folder created by logModel, or from a single file checkpoint */
 	public static void bootstrap(String folderName, NeuralDotProductShiftReduceParser<?, ?> parser) {
 		
+		if(new File(folderName).isFile()) {
+			bootstrapFromCheckpoint(folderName, parser);
+			return;
+		}
+		
 		final NeuralParsingDotProductStepScorer mlpScorer = parser.getMLPScorer();
 		final FeatureEmbedding<?> stateFeatureEmbedding = parser.getStateFeatureEmbedding();
 		final FeatureEmbedding<?> actionFeatureEmbedding = parser.getActionFeatureEmbedding();
@@ -1293,6 +1890,88 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		}
 	}
 	
+	/** Logs all components of the parser in a single file checkpoint. See {@link CheckpointWriter}. */
+	public static void logCheckpoint(String fileName, NeuralDotProductShiftReduceParser<?, ?> parser) {
+		
+		LOG.info("Logging the model in checkpoint %s", fileName);
+		
+		final NeuralParsingDotProductStepScorer mlpScorer = parser.getMLPScorer();
+		final FeatureEmbedding<?> stateFeatureEmbedding = parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<?> actionFeatureEmbedding = parser.getActionFeatureEmbedding();
+		final SemanticFeaturesEmbedding semanticFeatureEmbedding = parser.getSemanticFeatureEmbedding();
+		final PerceptronLayer perceptronLayer = parser.getPerceptronLayer();
+		final NeuralActionEmbeddingMixer actionMixingLayer = parser.getActionMixingLayer();
+		
+		try (CheckpointWriter writer = new CheckpointWriter(fileName)) {
+			
+			mlpScorer.logNetwork(writer);
+			stateFeatureEmbedding.logEmbeddings(writer, "state");
+			actionFeatureEmbedding.logEmbeddings(writer, "action");
+			
+			if(semanticFeatureEmbedding != null) {
+				semanticFeatureEmbedding.getSemanticEmbeddingObject().logEmbeddingAndRecursiveNetworkParam(writer);
+			}
+			
+			if(perceptronLayer != null) {
+				perceptronLayer.logPerceptronWeights(writer);
+			}
+			
+			if(actionMixingLayer != null) {
+				actionMixingLayer.logNetwork(writer);
+			}
+			
+			writer.writeArray("W", parser.getAffineW());
+			
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the checkpoint " + fileName + ". Error: " + e);
+		}
+	}
+	
+	/** Bootstraps the parser from a single file checkpoint. The checkpoint is memory-mapped and 
+	 * feature embeddings are only read when a feature is used. */
+	public static void bootstrapFromCheckpoint(String fileName, NeuralDotProductShiftReduceParser<?, ?> parser) {
+		
+		final long start = System.currentTimeMillis();
+		
+		final MappedCheckpoint checkpoint;
+		try {
+			checkpoint = new MappedCheckpoint(fileName, true);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the checkpoint " + fileName + ". Error: " + e);
+		}
+		
+		final NeuralParsingDotProductStepScorer mlpScorer = parser.getMLPScorer();
+		final FeatureEmbedding<?> stateFeatureEmbedding = parser.getStateFeatureEmbedding();
+		final FeatureEmbedding<?> actionFeatureEmbedding = parser.getActionFeatureEmbedding();
+		final SemanticFeaturesEmbedding semanticFeatureEmbedding = parser.getSemanticFeatureEmbedding();
+		final PerceptronLayer perceptronLayer = parser.getPerceptronLayer();
+		final NeuralActionEmbeddingMixer actionMixingLayer = parser.getActionMixingLayer();
+		
+		mlpScorer.bootstrapNetworkParam(checkpoint);
+		mlpScorer.reclone();
+		
+		stateFeatureEmbedding.bootstrapEmbeddings(checkpoint, "state");
+		actionFeatureEmbedding.bootstrapEmbeddings(checkpoint, "action");
+		
+		if(semanticFeatureEmbedding != null) {
+			semanticFeatureEmbedding.getSemanticEmbeddingObject().bootstrapCategoryEmbeddingAndRecursiveNetworkParam(checkpoint);
+		}
+		
+		if(perceptronLayer != null) {
+			perceptronLayer.bootstrapPerceptronWeights(checkpoint);
+		}
+		
+		if(actionMixingLayer != null) {
+			actionMixingLayer.bootstrapNetworkParam(checkpoint);
+			actionMixingLayer.reclone();
+		}
+		
+		Nd4j.copy(checkpoint.readArray("W"), parser.getAffineW());
+		
+		LOG.info("Bootstrapped the model from checkpoint %s. Time taken %s", fileName, 
+														System.currentTimeMillis() - start);
+	}
+	
 	public static void bootstrapAsCSV(String folderName, NeuralDotProductShiftReduceParser<?, ?> parser) {
 		
 		final NeuralParsingDotProductStepScorer mlpScorer = parser.getMLPScorer();
@@ -1354,6 +2033,22 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		private Integer beamSize = 10; 
 		private boolean preTrain = false;
 		private boolean saveModelAfterLearning = true;
+		private Integer batchSize = 1;
+		private boolean hogwild = false;
+		
+		/** Dataset creation is pipelined with training if capacity is positive */
+		private Integer pipelineCapacity = 0;
+		private Integer pipelineStaleness = 8;
+		private Integer pipelineValidationInterval = 100;
+		
+		/** Datasets are stored in this folder in a compact binary format if it is not null */
+		private String datasetFolder = null;
+		private boolean reuseDatasets = false;
+		
+		private boolean singleFileCheckpoint = false;
+		
+		/** Seed for shuffling the training points */
+		private int seed = 1234;
 		
 		/** How many top samples to consider while approximating the partition function.
 		 * This is used during backpropagation where we only backprop through top k samples.*/
@@ -1378,7 +2073,9 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 		public NeuralFeedForwardDotProductLearner<SAMPLE, DI, MR> build() {
 			return new NeuralFeedForwardDotProductLearner<SAMPLE, DI, MR>(trainingData, parser, validator,  
 					epoch, learningRate, learningRateDecay, l2, beamSize, partitionFunctionApproximationK, 
-					parsingFilterFactory, compositeLexicon, tempLexicon, preTrain, folderName, saveModelAfterLearning, stats);
+					parsingFilterFactory, compositeLexicon, tempLexicon, preTrain, folderName, saveModelAfterLearning, 
+					batchSize, hogwild, pipelineCapacity, pipelineStaleness, pipelineValidationInterval, datasetFolder, 
+					reuseDatasets, singleFileCheckpoint, seed, stats);
 		}
 		
 		public Builder<SAMPLE, DI, MR> setLexiconImmutable(ILexiconImmutable<MR> tempLexicon) {
@@ -1445,6 +2142,51 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 			this.saveModelAfterLearning = saveModelAfterLearning;
 			return this;
 		}
+		
+		public Builder<SAMPLE, DI, MR> setBatchSize(Integer batchSize) {
+			this.batchSize = batchSize;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setHogwild(boolean hogwild) {
+			this.hogwild = hogwild;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setPipelineCapacity(Integer pipelineCapacity) {
+			this.pipelineCapacity = pipelineCapacity;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setPipelineStaleness(Integer pipelineStaleness) {
+			this.pipelineStaleness = pipelineStaleness;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setPipelineValidationInterval(Integer pipelineValidationInterval) {
+			this.pipelineValidationInterval = pipelineValidationInterval;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setDatasetFolder(String datasetFolder) {
+			this.datasetFolder = datasetFolder;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> reuseDatasets(boolean reuseDatasets) {
+			this.reuseDatasets = reuseDatasets;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setSeed(int seed) {
+			this.seed = seed;
+			return this;
+		}
+		
+		public Builder<SAMPLE, DI, MR> setSingleFileCheckpoint(boolean singleFileCheckpoint) {
+			this.singleFileCheckpoint = singleFileCheckpoint;
+			return this;
+		}
 	}
 	
 	public static class Creator<SAMPLE extends IDataItem<?>, DI extends ILabeledDataItem<SAMPLE, ?>, MR> 
@@ -1514,6 +2256,42 @@ public class NeuralFeedForwardDotProductLearner<SAMPLE extends IDataItem<?>, DI
 				builder.saveModelAfterLearning(params.getAsBoolean("saveModelAfterLearning"));
 			}
 			
+			if(params.contains("batchSize")) {
+				builder.setBatchSize(params.getAsInteger("batchSize"));
+			}
+			
+			if(params.contains("hogwild")) {
+				builder.setHogwild(params.getAsBoolean("hogwild"));
+			}
+			
+			if(params.contains("pipelineCapacity")) {
+				builder.setPipelineCapacity(params.getAsInteger("pipelineCapacity"));
+			}
+			
+			if(params.contains("pipelineStaleness")) {
+				builder.setPipelineStaleness(params.getAsInteger("pipelineStaleness"));
+			}
+			
+			if(params.contains("pipelineValidationInterval")) {
+				builder.setPipelineValidationInterval(params.getAsInteger("pipelineValidationInterval"));
+			}
+			
+			if(params.contains("datasetFolder")) {
+				builder.setDatasetFolder(params.get("datasetFolder"));
+			}
+			
+			if(params.contains("reuseDatasets")) {
+				builder.reuseDatasets(params.getAsBoolean("reuseDatasets"));
+			}
+			
+			if(params.contains("singleFileCheckpoint")) {
+				builder.setSingleFileCheckpoint(params.getAsBoolean("singleFileCheckpoint"));
+			}
+			
+			if(params.contains("seed")) {
+				builder.setSeed(params.getAsInteger("seed"));
+			}
+			
 			if(params.contains("validationStats")) {
 				builder.setValidationStatistics(repo.get("validationStats"));
 			}
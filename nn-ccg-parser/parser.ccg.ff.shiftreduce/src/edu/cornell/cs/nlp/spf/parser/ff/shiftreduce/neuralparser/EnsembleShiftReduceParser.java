@@ -2,8 +2,15 @@ package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 
 import com.google.common.base.Joiner;
@@ -22,12 +29,15 @@ import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.ShiftReduceParserOutput;
 import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.stacks.DerivationState;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.learner.NeuralFeedForwardDotProductLearner;
 import edu.cornell.cs.nlp.spf.parser.graph.IGraphParserOutput;
+import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 
 	/** 
 	 * Parses utterance using an ensemble of feed forward neural network shift reduce parser 
-	 * with a dot product objective making it faster.
+	 * with a dot product objective making it faster. Work that only depends on the sentence is done
+	 * once and shared by the parsers, which then decode concurrently. If early exit is enabled then 
+	 * decoding stops once the first parsers to finish agree on the highest scoring logical form.
 	 * @author Dipendra Misra
 	 */
 	public class EnsembleShiftReduceParser<DI extends Sentence, MR> 
@@ -42,13 +52,29 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 		private final List<Double> mixingProbability;
 		private final Predicate<ParsingOp<MR>> pruningFilter;
 		
+		/** Number of parsers that decode concurrently */
+		private final int numThreads;
+		
+		/** If greater than 0, decoding stops once this many parsers have finished and agree on the 
+		 * highest scoring logical form. The remaining parsers are interrupted and their outputs are not used. */
+		private final int earlyExitAgreement;
+		
+		private transient volatile ExecutorService decodingPool;
+		
 		/** TODO -- separate learning parts from other components */
 		public EnsembleShiftReduceParser(List<AbstractNeuralShiftReduceParser<DI, MR>> ensemble, 
-										List<Double> mixingProbability) {
+										List<Double> mixingProbability, int numThreads, int earlyExitAgreement) {
 		
 			this.ensemble = ensemble;
 			this.mixingProbability = mixingProbability;
 			this.pruningFilter = null;
+			this.numThreads = numThreads;
+			this.earlyExitAgreement = earlyExitAgreement;
+			
+			if(this.mixingProbability.size() != this.ensemble.size()) {
+				throw new IllegalArgumentException("Number of mixing probabilities " + this.mixingProbability.size() 
+											+ " does not match number of parsers " + this.ensemble.size());
+			}
 			
 			double sum = 0.0;
 			for(double prob: this.mixingProbability) {
@@ -66,6 +92,26 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 			
 			LOG.info("Ensemble of %s Shift Reduce Parser. Mixing probability %s sum to 1.0 verified", 
 										this.ensemble.size(), Joiner.on(", ").join(this.mixingProbability));
+			LOG.info(".. decoding threads %s, early exit agreement %s", this.numThreads, this.earlyExitAgreement);
+		}
+		
+		private ExecutorService getDecodingPool() {
+			
+			if(this.decodingPool == null) {
+				synchronized(this) {
+					if(this.decodingPool == null) {
+						// parsers deserialized from older versions have no number of threads
+						final int threads = this.numThreads > 0 ? this.numThreads : this.ensemble.size();
+						this.decodingPool = Executors.newFixedThreadPool(threads, runnable -> {
+							final Thread thread = new Thread(runnable, "ensemble-decoder");
+							thread.setDaemon(true);
+							return thread;
+						});
+					}
+				}
+			}
+			
+			return this.decodingPool;
 		}
 		
 		@Override
@@ -174,39 +220,112 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 			this.bootstrapParser(basicParser2, "epoch-3_1463475672657");
 			this.bootstrapParser(basicParser3, "epoch-3_1463477737630");
 			
+			//precision is global in nd4j, so parsers are converted after all of them are bootstrapped
+			basicParser1.applyInferencePrecision();
+			basicParser2.applyInferencePrecision();
+			basicParser3.applyInferencePrecision();
+			
 			LOG.info("Boostrapped the worker parser");
 		}
 	
 		/** Parses a sentence using Neural Network model */
+		@SuppressWarnings("unchecked")
 		@Override
 		public IGraphParserOutput<MR> parse(DI dataItem, Predicate<ParsingOp<MR>> pruningFilter, IDataItemModel<MR> model_,
 				boolean allowWordSkipping, ILexiconImmutable<MR> tempLexicon, Integer beamSize_) {
 		
 			final long start = System.currentTimeMillis();
 			
-			List<ShiftReduceParserOutput<MR>> parserOutputs = new ArrayList<ShiftReduceParserOutput<MR>>();
+			// Work that only depends on the sentence is done once, by the first parser
+			final PreprocessedSentence<DI, MR> sentence;
+			if(this.ensemble.get(0) instanceof NeuralDotProductShiftReduceParser) {
+				sentence = ((NeuralDotProductShiftReduceParser<DI, MR>) this.ensemble.get(0))
+										.preprocessSentence(dataItem, model_, allowWordSkipping, tempLexicon);
+			} else {
+				sentence = null;
+			}
+			
+			final CompletionService<Pair<Integer, ShiftReduceParserOutput<MR>>> decoders = 
+							new ExecutorCompletionService<Pair<Integer, ShiftReduceParserOutput<MR>>>(this.getDecodingPool());
+			final List<Future<Pair<Integer, ShiftReduceParserOutput<MR>>>> futures = 
+							new ArrayList<Future<Pair<Integer, ShiftReduceParserOutput<MR>>>>();
+			int shared = 0;
+			
+			for(int i = 0; i < this.ensemble.size(); i++) {
+				
+				final int parserIndex = i;
+				final AbstractNeuralShiftReduceParser<DI, MR> parser = this.ensemble.get(i);
+				final Callable<Pair<Integer, ShiftReduceParserOutput<MR>>> decoder;
+				
+				if(sentence != null && parser instanceof NeuralDotProductShiftReduceParser 
+						&& ((NeuralDotProductShiftReduceParser<DI, MR>) parser).canShare(sentence)) {
+					shared++;
+					decoder = () -> Pair.of(parserIndex, (ShiftReduceParserOutput<MR>) 
+							((NeuralDotProductShiftReduceParser<DI, MR>) parser).parse(pruningFilter, sentence, beamSize_));
+				} else {
+					decoder = () -> Pair.of(parserIndex, (ShiftReduceParserOutput<MR>) 
+							parser.parse(dataItem, pruningFilter, model_, allowWordSkipping, tempLexicon, beamSize_));
+				}
+				
+				futures.add(decoders.submit(decoder));
+			}
+			
+			LOG.info("Decoding with %s parsers, %s share the preprocessed sentence", this.ensemble.size(), shared);
+			
+			// Outputs of the parsers that finished and their mixing probability, in the order of the ensemble
+			final List<Pair<ShiftReduceParserOutput<MR>, Double>> finished = 
+							new ArrayList<Pair<ShiftReduceParserOutput<MR>, Double>>(Collections.nCopies(this.ensemble.size(), null));
+			final List<ShiftReduceParserOutput<MR>> finishedOrder = new ArrayList<ShiftReduceParserOutput<MR>>();
+			
+			try {
+				for(int i = 0; i < this.ensemble.size(); i++) {
+					
+					final Pair<Integer, ShiftReduceParserOutput<MR>> result = decoders.take().get();
+					finished.set(result.first(), Pair.of(result.second(), this.mixingProbability.get(result.first())));
+					finishedOrder.add(result.second());
+					
+					if(this.earlyExitAgreement > 0 && finishedOrder.size() < this.ensemble.size() 
+							&& finishedOrder.size() >= this.earlyExitAgreement && this.agree(finishedOrder)) {
+						LOG.info("%s parsers agree, skipping the remaining %s parsers", finishedOrder.size(), 
+																	this.ensemble.size() - finishedOrder.size());
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while decoding with the ensemble. Error: " + e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Parser in the ensemble failed. Error: " + e.getCause());
+			} finally {
+				for(Future<Pair<Integer, ShiftReduceParserOutput<MR>>> future: futures) {
+					future.cancel(true);
+				}
+			}
+			
+			List<Pair<ShiftReduceParserOutput<MR>, Double>> parserOutputs = new ArrayList<Pair<ShiftReduceParserOutput<MR>, Double>>();
 			
 			//If it contains unstitched option then we only consider them since
 			//stitched output are noisy
 			boolean containsUnstitched = false;
 			
-			// Parse using parsers in the ensemble
-			for(AbstractNeuralShiftReduceParser<DI, MR> parser: this.ensemble) {
+			for(Pair<ShiftReduceParserOutput<MR>, Double> output: finished) {
 				
-				ShiftReduceParserOutput<MR> output = (ShiftReduceParserOutput<MR>) parser.parse(dataItem, pruningFilter, model_,
-														allowWordSkipping, tempLexicon, beamSize_);
+				if(output == null) { //skipped due to early exit
+					continue;
+				}
 				
 				parserOutputs.add(output);
-				if(!output.isStiched()) {
+				if(!output.first().isStiched()) {
 					containsUnstitched = true;
 				}
 			}
 			
 			if(containsUnstitched) {
 				
-				List<ShiftReduceParserOutput<MR>> unStitchedParserOutputs = new ArrayList<ShiftReduceParserOutput<MR>>();
-				for(ShiftReduceParserOutput<MR> output: parserOutputs) {
-					if(!output.isStiched()) {
+				List<Pair<ShiftReduceParserOutput<MR>, Double>> unStitchedParserOutputs = 
+												new ArrayList<Pair<ShiftReduceParserOutput<MR>, Double>>();
+				for(Pair<ShiftReduceParserOutput<MR>, Double> output: parserOutputs) {
+					if(!output.first().isStiched()) {
 						unStitchedParserOutputs.add(output);
 					}
 				}
@@ -217,18 +336,16 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 				LOG.info("Considering only unstitched options. Total %s, unstitched output %s", numOutput, parserOutputs.size());
 			}
 			
-			Iterator<Double> mixProbabilityIt = this.mixingProbability.iterator();
-			
 			if(!containsUnstitched) {
 				// all derivations are created by stitching
 				
 				List<ShiftReduceDerivation<MR>> newDerivations = new ArrayList<ShiftReduceDerivation<MR>>();
 				
-				for(ShiftReduceParserOutput<MR> output: parserOutputs) {
+				for(Pair<ShiftReduceParserOutput<MR>, Double> output: parserOutputs) {
 					
-					final double modelLogProb = Math.log(mixProbabilityIt.next());
+					final double modelLogProb = Math.log(output.second());
 					
-					List<ShiftReduceDerivation<MR>> derivations = output.getAllDerivations();
+					List<ShiftReduceDerivation<MR>> derivations = output.first().getAllDerivations();
 					for(ShiftReduceDerivation<MR> derivation: derivations) {
 						List<DerivationState<MR>> derivationDStates = derivation.getAllDerivationStates();
 						
@@ -253,11 +370,11 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 				// We are working with unstitched derivations only
 				List<DerivationState<MR>> dstates = new ArrayList<DerivationState<MR>>();
 		
-				for(ShiftReduceParserOutput<MR> output: parserOutputs) {
+				for(Pair<ShiftReduceParserOutput<MR>, Double> output: parserOutputs) {
 					
-					final double modelLogProb = Math.log(mixProbabilityIt.next());
+					final double modelLogProb = Math.log(output.second());
 					
-					List<ShiftReduceDerivation<MR>> derivations = output.getAllDerivations();
+					List<ShiftReduceDerivation<MR>> derivations = output.first().getAllDerivations();
 					for(ShiftReduceDerivation<MR> derivation: derivations) {
 						List<DerivationState<MR>> derivationDStates = derivation.getAllDerivationStates();
 						
@@ -275,6 +392,27 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 			}
 		}
 		
+		/** Returns true if all the outputs have a derivation and agree on the highest scoring logical form */
+		private boolean agree(List<ShiftReduceParserOutput<MR>> outputs) {
+			
+			MR agreed = null;
+			for(ShiftReduceParserOutput<MR> output: outputs) {
+				
+				final List<ShiftReduceDerivation<MR>> best = output.getBestDerivations();
+				if(best.isEmpty()) {
+					return false;
+				}
+				
+				final MR semantics = best.get(0).getSemantics();
+				if(semantics == null || (agreed != null && !agreed.equals(semantics))) {
+					return false;
+				}
+				agreed = semantics;
+			}
+			
+			return true;
+		}
+		
 		@Override
 		public IGraphParserOutput<MR> parserCatchEarlyErrors(DI dataItem,
 				Predicate<ParsingOp<MR>> validAmrParsingFilter, IDataItemModel<MR> model_, boolean allowWordSkipping,
@@ -287,9 +425,22 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 			private List<AbstractNeuralShiftReduceParser<DI, MR>> ensemble = 
 										new ArrayList<AbstractNeuralShiftReduceParser<DI, MR>>();
 			private List<Double> mixingProb = new ArrayList<Double>();
+			private Integer numThreads = null;
+			private int earlyExitAgreement = 0;
 			
 			public EnsembleShiftReduceParser<DI, MR> build() {
-				return new EnsembleShiftReduceParser<DI, MR>(this.ensemble, this.mixingProb);
+				return new EnsembleShiftReduceParser<DI, MR>(this.ensemble, this.mixingProb, 
+						this.numThreads == null ? this.ensemble.size() : this.numThreads, this.earlyExitAgreement);
+			}
+			
+			public Builder<DI, MR> setNumThreads(int numThreads) {
+				this.numThreads = numThreads;
+				return this;
+			}
+			
+			public Builder<DI, MR> setEarlyExitAgreement(int earlyExitAgreement) {
+				this.earlyExitAgreement = earlyExitAgreement;
+				return this;
 			}
 			
 			public Builder<DI, MR> addParser(AbstractNeuralShiftReduceParser<DI, MR> parser) {
@@ -329,6 +480,14 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 				for (final String prob : params.getSplit("probs")) {
 					builder.addProbability(Double.parseDouble(prob));
 				}
+				
+				if(params.contains("threads")) {
+					builder.setNumThreads(params.getAsInteger("threads"));
+				}
+				
+				if(params.contains("earlyExit")) {
+					builder.setEarlyExitAgreement(params.getAsInteger("earlyExit"));
+				}
 								
 				return builder.build();
 			}
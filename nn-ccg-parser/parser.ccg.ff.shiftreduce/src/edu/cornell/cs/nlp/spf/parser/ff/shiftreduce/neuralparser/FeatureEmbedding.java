@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
@@ -45,7 +46,11 @@ import com.google.common.io.Files;
 import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
 import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
 import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.CheckpointWriter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Helper;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.MappedCheckpoint;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.wordembeddings.MappedWordEmbedding;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.SparseFeatureAndStateDataset;
 import edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset.SparseFeatureDataset;
 import edu.cornell.cs.nlp.utils.composites.Pair;
@@ -143,6 +148,14 @@ public class FeatureEmbedding<MR> implements Serializable {
 	
 	public boolean collectStats;
 	
+	/** If true then gradients of the embeddings are accumulated without locking (Hogwild). 
+	 * Embeddings are sparse and collisions between threads are rare. */
+	private volatile boolean hogwild;
+	
+	/** Embeddings in a single file checkpoint that are materialized when a feature is used for the first
+	 * time. Null if the embeddings were not bootstrapped from a checkpoint or are already materialized. */
+	private transient volatile StoredEmbedding storedEmbedding;
+	
 	public FeatureEmbedding(double learningRate, double l2,  
 							Map<String, Integer> tagsAndDimension, File outputDir) {
 		
@@ -150,9 +163,10 @@ public class FeatureEmbedding<MR> implements Serializable {
 		this.l2 = l2;
 		
 		//embeddings of different features
-		this.featureEmbedding = new HashMap<KeyArgs, INDArray>();
-		this.gradFeatureEmbedding = new HashMap<KeyArgs, INDArray>();
-		this.sumSquareGradfeatureEmbedding = new HashMap<KeyArgs, INDArray>();
+		// features can be registered while the parser embeds features on other threads
+		this.featureEmbedding = new ConcurrentHashMap<KeyArgs, INDArray>();
+		this.gradFeatureEmbedding = new ConcurrentHashMap<KeyArgs, INDArray>();
+		this.sumSquareGradfeatureEmbedding = new ConcurrentHashMap<KeyArgs, INDArray>();
 		this.updatedFeatures = Collections.synchronizedSet(new HashSet<KeyArgs>());
 		
 		this.originalFeatureEmbedding = new HashMap<KeyArgs, INDArray>();
@@ -248,12 +262,15 @@ public class FeatureEmbedding<MR> implements Serializable {
 		this.updatedWProjection = new AtomicBoolean(false);
 		
 		this.nonWord2VecInitVectors = new AtomicInteger(0);
+		this.hogwild = false;
+		this.storedEmbedding = null;
 		LOG.info("Feature Embedding. Learning rate %s, l2 %s, Stats %s, Number of tags %s. nIn %s,", 
 					this.learningRate, this.l2, this.collectStats, this.tags.size(), this.nIn);
 		LOG.info("...  tagDim { %s }, use unseen feature embedding %s.", s.toString(), this.useUnseenFeatureEmbedding);
 	}
 	
 	public int numFeatures() {
+		this.materializeStoredEmbedding();
 		return this.featureEmbedding.size();
 	}
  	
@@ -279,38 +296,65 @@ public class FeatureEmbedding<MR> implements Serializable {
 		Integer wordDim = null;
 		
 		try {
-			File file = new File(fileName);
-			List<String> lines = Files.readLines(file, Charsets.UTF_8);
+			int numWords = 0;
 			
-			for(String line: lines) {
+			if(MappedWordEmbedding.isBinary(fileName)) {
+				//binary store, copy every row once per tag without parsing text
+				final MappedWordEmbedding mapped = new MappedWordEmbedding(fileName);
+				wordDim = mapped.dimension();
+				final float[] row = new float[wordDim];
 				
-				final String bytes[] = line.split(":");
-				
-				if(bytes.length != 2) {
-					throw new RuntimeException("Expecting word2vec file in format word:val1,val2...valk\n");
+				for(int r = 0; r < mapped.size(); r++) {
+					
+					mapped.getRow(r, row);
+					final String word = mapped.getWord(r);
+					
+					for(int i = 0; i < wordTags.length; i++) {
+						KeyArgs feature = new KeyArgs(wordTags[i], word);
+						
+						this.featureEmbedding.put(feature, Nd4j.create(row));
+						this.gradFeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
+						this.sumSquareGradfeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
+					}
 				}
 				
-				final String word = bytes[0];
-				final String rem = bytes[1];
+				numWords = mapped.size();
+			} else {
+				File file = new File(fileName);
+				List<String> lines = Files.readLines(file, Charsets.UTF_8);
 				
-				for(int i = 0; i < wordTags.length; i++) {
+				for(String line: lines) {
 					
-					INDArray vec = Helper.toVector(rem);
+					final String bytes[] = line.split(":");
 					
-					if(wordDim == null) {
-						wordDim = vec.size(1);
-					} else {
-						if(wordDim != vec.size(1)) {
-							throw new RuntimeException("Word dimension must remain constant");
-						}
+					if(bytes.length != 2) {
+						throw new RuntimeException("Expecting word2vec file in format word:val1,val2...valk\n");
 					}
 					
-					KeyArgs feature = new KeyArgs(wordTags[i], word);
+					final String word = bytes[0];
+					final String rem = bytes[1];
 					
-					this.featureEmbedding.put(feature, vec);
-					this.gradFeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
-					this.sumSquareGradfeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
+					for(int i = 0; i < wordTags.length; i++) {
+						
+						INDArray vec = Helper.toVector(rem);
+						
+						if(wordDim == null) {
+							wordDim = vec.size(1);
+						} else {
+							if(wordDim != vec.size(1)) {
+								throw new RuntimeException("Word dimension must remain constant");
+							}
+						}
+						
+						KeyArgs feature = new KeyArgs(wordTags[i], word);
+						
+						this.featureEmbedding.put(feature, vec);
+						this.gradFeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
+						this.sumSquareGradfeatureEmbedding.put(feature, Nd4j.zeros(wordDim));
+					}
 				}
+				
+				numWords = lines.size();
 			}
 			
 			this.wordDim = wordDim;
@@ -318,7 +362,7 @@ public class FeatureEmbedding<MR> implements Serializable {
 			this.gradWProjection = Nd4j.zeros(tagDim, wordDim);
 			this.sumSquareGradWProjection = Nd4j.zeros(tagDim, wordDim);
 			
-			LOG.info("Loaded word2vec features %s for %s many tags. Word dimension %s", lines.size(), wordTags.length, wordDim);
+			LOG.info("Loaded word2vec features %s for %s many tags. Word dimension %s", numWords, wordTags.length, wordDim);
 			LOG.info("... word projection matrix %s x %s", this.WProjection.size(0), this.WProjection.size(1));
 			
 		} catch(Exception e) {
@@ -396,6 +440,14 @@ public class FeatureEmbedding<MR> implements Serializable {
 		this.empiricalGrad = empiricalGrad;
 	}
 	
+	public void setHogwild(boolean hogwild) {
+		this.hogwild = hogwild;
+	}
+	
+	public boolean isHogwild() {
+		return this.hogwild;
+	}
+	
 	public void stopAddingFeatures() {
 		this.addFeautres = false;
 	}
@@ -414,6 +466,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 	
 	public void downsampleFeature() {
 		
+		this.materializeStoredEmbedding();
+		
 		int i = 0;
 		final int totalSize = this.featureEmbedding.size();
 		this.originalFeatureEmbedding.putAll(this.featureEmbedding);
@@ -451,6 +505,46 @@ public class FeatureEmbedding<MR> implements Serializable {
 		return arg1;
 	}
 	
+	/** Returns true if the feature has an embedding. Embedding of a feature in the checkpoint is 
+	 * materialized the first time it is asked for. */
+	private boolean hasEmbedding(KeyArgs feature) {
+		
+		if(this.featureEmbedding.containsKey(feature)) {
+			return true;
+		}
+		
+		final StoredEmbedding stored = this.storedEmbedding;
+		if(stored == null) {
+			return false;
+		}
+		
+		final Integer ix = stored.index.get(feature);
+		if(ix == null) {
+			return false;
+		}
+		
+		this.featureEmbedding.putIfAbsent(feature, stored.vectors.get(ix));
+		return true;
+	}
+	
+	/** Materializes all the embeddings of the checkpoint, required before iterating over the embeddings */
+	private void materializeStoredEmbedding() {
+		
+		final StoredEmbedding stored = this.storedEmbedding;
+		if(stored == null) {
+			return;
+		}
+		
+		for(Entry<KeyArgs, Integer> e: stored.index.entrySet()) {
+			if(!this.featureEmbedding.containsKey(e.getKey())) {
+				this.featureEmbedding.putIfAbsent(e.getKey(), stored.vectors.get(e.getValue()));
+			}
+		}
+		
+		this.storedEmbedding = null;
+		LOG.info("Materialized embeddings of %s stored features", stored.index.size());
+	}
+	
 	/** Returns embedding of feature that is known to exist */
 	private INDArray getFeatureEmbedding(KeyArgs feature) {
 		
@@ -473,6 +567,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 			return;
 		}
 		
+		this.materializeStoredEmbedding();
+		
 		for(String wordTag: this.wordTags) {
 			for(Entry<KeyArgs, INDArray> e: this.featureEmbedding.entrySet()) {
 				if(e.getKey().getArg1().equals(wordTag)) {
@@ -484,10 +580,22 @@ public class FeatureEmbedding<MR> implements Serializable {
 		
 		this.optimized = true;
 	}
-	
+
+	/** Converts the embeddings to the current nd4j precision, see {@link Precision}. Embeddings that are
+	 * still in the checkpoint are created in the current precision when they are materialized. Gradients
+	 * are not converted therefore the embeddings can only be used for inference after this call. */
+	public void convertParameters() {
+
+		Precision.convert(this.featureEmbedding);
+		Precision.convert(this.originalFeatureEmbedding);
+		Precision.convert(this.inactiveTagEmbedding);
+		Precision.convert(this.unseenFeatureEmbeddingByTag);
+		this.WProjection = Precision.convert(this.WProjection);
+	}
+
 	private void registerNewFeature(KeyArgs feature) {
 		
-		if(this.featureEmbedding.containsKey(feature)) {
+		if(this.hasEmbedding(feature)) {
 			return;//return this.featureEmbedding.get(feature);
 		}
 		
@@ -557,7 +665,7 @@ public class FeatureEmbedding<MR> implements Serializable {
 			
 			final int tagDim = this.tagDimensions[tagIx];
 			final INDArray featureEmbedding;
-			if(this.featureEmbedding.containsKey(feature.first())) {
+			if(this.hasEmbedding(feature.first())) {
 				featureEmbedding = this.getFeatureEmbedding(feature.first());//this.featureEmbedding.get(feature.first());
 				if(this.collectStats) {
 					this.seenFeatures.add(feature.first());
@@ -783,17 +891,13 @@ public class FeatureEmbedding<MR> implements Serializable {
 							INDArray grad = this.gradFeatureEmbedding.get(feature.first());
 							this.updatedFeatures.add(feature.first());
 							
-							synchronized(grad) {
-								grad.addi(newGrad);
-							}
+							this.addGradient(grad, newGrad);
 						} else {
 							if(this.useUnseenFeatureEmbedding) {
 								INDArray grad = this.gradUnseenFeatureEmbeddingByTag.get(tagIx);
 								this.updatedUnseenFeatureTag.add(tagIx);
 								
-								synchronized(grad) {
-									grad.addi(newGrad);
-								}
+								this.addGradient(grad, newGrad);
 							} else {
 								throw new RuntimeException("Feature should have been registered when during feed forwarding.");
 							}
@@ -813,15 +917,26 @@ public class FeatureEmbedding<MR> implements Serializable {
 							}
 							
 							INDArray grad = this.gradInactiveTagEmbedding.get(i);
-							synchronized(grad) {
-								grad.addi(newGrad);
-							}
+							this.addGradient(grad, newGrad);
 							this.updatedInactiveTag.add(i);
 						}
 					}
 				});
 	}
 	
+	/** Adds to the gradient of an embedding. In Hogwild mode, gradients are added without
+	 * locking and concurrent additions to the same embedding can be lost. */
+	private void addGradient(INDArray grad, INDArray newGrad) {
+		
+		if(this.hogwild) {
+			grad.addi(newGrad);
+		} else {
+			synchronized(grad) {
+				grad.addi(newGrad);
+			}
+		}
+	}
+	
 	/** Update this vector using AdaGrad */
 	private void updateVector(INDArray vec, INDArray grad, INDArray sumSquareGrad) {
 		
@@ -961,6 +1076,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 			label = label + "_";
 		}
 		
+		this.materializeStoredEmbedding();
+		
 		try (
 				OutputStream file = new FileOutputStream(folderName + "/" + label + "feature_embedding.ser");
 				OutputStream buffer = new BufferedOutputStream(file);
@@ -1016,6 +1133,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 			label = label + "_";
 		}
 		
+		this.materializeStoredEmbedding();
+		
 		final List<KeyArgs> keys = new ArrayList<KeyArgs>();
 		
 		try (
@@ -1086,6 +1205,7 @@ public class FeatureEmbedding<MR> implements Serializable {
 			     ObjectInput input = new ObjectInputStream (buffer);
 			) {
 				 Map<KeyArgs, INDArray> featureEmbedding = (Map<KeyArgs, INDArray>) input.readObject();
+				 this.storedEmbedding = null;
 				 this.featureEmbedding.clear();
 //				 this.gradFeatureEmbedding.clear();
 //				 this.sumSquareGradfeatureEmbedding.clear();
@@ -1191,6 +1311,7 @@ public class FeatureEmbedding<MR> implements Serializable {
 										+ keys.size() + " and values: " + values.size());
 		}
 		
+		this.storedEmbedding = null;
 		this.featureEmbedding.clear();
 		
 		Iterator<KeyArgs> it = keys.iterator();
@@ -1243,6 +1364,98 @@ public class FeatureEmbedding<MR> implements Serializable {
 		this.bootstrapEmbeddings(folderName, "");
 	}
 	
+	/** Writes the embeddings as blocks of a single file checkpoint */
+	public void logEmbeddings(CheckpointWriter writer, String label) {
+		
+		if(label.length() != 0) {
+			label = label + "_";
+		}
+		
+		this.materializeStoredEmbedding();
+		
+		final List<String[]> keys = new ArrayList<String[]>();
+		final List<INDArray> values = new ArrayList<INDArray>();
+		for(Entry<KeyArgs, INDArray> e: this.featureEmbedding.entrySet()) {
+			keys.add(toArgs(e.getKey()));
+			values.add(e.getValue());
+		}
+		
+		try {
+			writer.writeKeyedArrays(label + "feature_embedding", keys, values);
+			writer.writeArrays(label + "inactive_tag_embedding", this.inactiveTagEmbedding);
+			writer.writeArrays(label + "unseen_feature_embedding", this.unseenFeatureEmbeddingByTag);
+			
+			if(this.WProjection != null) {
+				writer.writeArray(label + "w_projection", this.WProjection);
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Cannot write the embeddings to the checkpoint. Error: " + e);
+		}
+	}
+	
+	/** Bootstraps the embeddings from a single file checkpoint. Only the feature keys are read, 
+	 * embedding of a feature is read from the mapped checkpoint when the feature is first used. */
+	public void bootstrapEmbeddings(MappedCheckpoint checkpoint, String label) {
+		
+		if(label.length() != 0) {
+			label = label + "_";
+		}
+		
+		final long start = System.currentTimeMillis();
+		
+		final MappedCheckpoint.KeyedArrays vectors = checkpoint.readKeyedArrays(label + "feature_embedding");
+		final Map<KeyArgs, Integer> index = new HashMap<KeyArgs, Integer>(2 * vectors.size());
+		int ix = 0;
+		for(String[] key: vectors.getKeys()) {
+			index.put(toKeyArgs(key), ix++);
+		}
+		
+		this.featureEmbedding.clear();
+		this.storedEmbedding = new StoredEmbedding(vectors, index);
+		LOG.info("Bootstrapped embeddings for %s features. Time taken %s", index.size(), 
+													System.currentTimeMillis() - start);
+		
+		this.inactiveTagEmbedding.clear();
+		this.inactiveTagEmbedding.addAll(checkpoint.readArrays(label + "inactive_tag_embedding"));
+		LOG.info("Bootstrapped embeddings for %s tags", this.inactiveTagEmbedding.size());
+		
+		if(checkpoint.hasBlock(label + "w_projection")) {
+			this.WProjection = checkpoint.readArray(label + "w_projection");
+			this.gradWProjection = Nd4j.zeros(this.WProjection.shape());
+			this.sumSquareGradWProjection = Nd4j.zeros(this.WProjection.shape());
+			LOG.info("Bootstrapped W projection %s - %s", this.WProjection.size(0), this.WProjection.size(1));
+		}
+		
+		if(this.useUnseenFeatureEmbedding) {
+			this.unseenFeatureEmbeddingByTag.clear();
+			this.unseenFeatureEmbeddingByTag.addAll(checkpoint.readArrays(label + "unseen_feature_embedding"));
+			LOG.info("Bootstrapped unseen feature embeddings for %s tags", this.unseenFeatureEmbeddingByTag.size());
+		}
+	}
+	
+	private static String[] toArgs(KeyArgs key) {
+		
+		final String[] args = {key.getArg1(), key.getArg2(), key.getArg3(), key.getArg4(), key.getArg5()};
+		int numArgs = 0;
+		while(numArgs < args.length && args[numArgs] != null) {
+			numArgs++;
+		}
+		
+		return Arrays.copyOf(args, numArgs);
+	}
+	
+	private static KeyArgs toKeyArgs(String[] args) {
+		
+		switch(args.length) {
+			case 1: return new KeyArgs(args[0]);
+			case 2: return new KeyArgs(args[0], args[1]);
+			case 3: return new KeyArgs(args[0], args[1], args[2]);
+			case 4: return new KeyArgs(args[0], args[1], args[2], args[3]);
+			case 5: return new KeyArgs(args[0], args[1], args[2], args[3], args[4]);
+			default: throw new RuntimeException("Feature must have 1 to 5 args. Found " + args.length);
+		}
+	}
+	
 	public void clearSeenFeaturesStats() {
 		
 		if(!this.collectStats) {
@@ -1260,6 +1473,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 	
 	public void store() {
 		
+		this.materializeStoredEmbedding();
+		
 		try {
 			
 			final String allFeaturesFileName = this.outputDir.getAbsolutePath() + "/all_features.txt";
@@ -1337,6 +1552,8 @@ public class FeatureEmbedding<MR> implements Serializable {
 	
 	public void profile() {
 		
+		this.materializeStoredEmbedding();
+		
 		final long start = System.currentTimeMillis();
 		
 		Random rnd = new Random();
@@ -1380,4 +1597,16 @@ public class FeatureEmbedding<MR> implements Serializable {
 //		}
 //				
 //	}
+	
+	/** Vectors of a checkpoint and the index of every feature in it */
+	private static class StoredEmbedding {
+		
+		private final MappedCheckpoint.KeyedArrays vectors;
+		private final Map<KeyArgs, Integer> index;
+		
+		StoredEmbedding(MappedCheckpoint.KeyedArrays vectors, Map<KeyArgs, Integer> index) {
+			this.vectors = vectors;
+			this.index = index;
+		}
+	}
 }
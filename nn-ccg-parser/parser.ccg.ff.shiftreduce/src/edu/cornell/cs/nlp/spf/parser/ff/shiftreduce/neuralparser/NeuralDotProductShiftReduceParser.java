@@ -55,6 +55,7 @@ import edu.cornell.cs.nlp.spf.parser.ccg.normalform.unaryconstraint.UnaryConstra
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset.CKYMultiParseTreeParsingFilter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset.CKYSingleParseTreeParsingFilter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Helper;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.neuralnetworkparser.AbstractNeuralShiftReduceParser;
 import edu.cornell.cs.nlp.spf.parser.ccg.rules.BinaryRuleSet;
 import edu.cornell.cs.nlp.spf.parser.ccg.rules.IBinaryParseRule;
@@ -124,7 +125,7 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 		private final FeatureEmbedding<MR> stateFeatureEmbedding;
 		
 		/** Projective transformation for action embedding */
-		private final INDArray W;
+		private INDArray W;
 		
 		/** Beamsize of the parser */
 		private final Integer									beamSize;
@@ -185,6 +186,9 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 	
 		private boolean disablePacking;
 		
+		/** Precision of the parameters when the parser is used for inference */
+		private final Precision 								inferencePrecision;
+		
 		/** TODO -- separate learning parts from other components */
 		public NeuralDotProductShiftReduceParser(int beamSize,
 				ShiftReduceBinaryParsingRule<MR>[] binaryRules, ILexicalRule<MR> lexicalRule, 
@@ -194,7 +198,8 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 				IFilter<Category<MR>> completeParseFilter,
 				ShiftReduceUnaryParsingRule<MR>[] unaryRules, double learningRate, 
 				double learningRateDecay, double l2, double gamma, int seed,
-				File outputDir, double nullClosurePenalty, boolean disablePacking) {
+				File outputDir, double nullClosurePenalty, boolean disablePacking,
+				Precision inferencePrecision) {
 		
 			LOG.setCustomLevel(LogLevel.INFO);
 			Nd4j.getRandom().setSeed(seed);
@@ -374,6 +379,7 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			/////
 			
 			this.disablePacking = disablePacking;
+			this.inferencePrecision = inferencePrecision;
 			
 			this.time1 = new AtomicLong(0);
 			this.time2 = new AtomicLong(0);
@@ -395,6 +401,7 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 						this.nonLocalActionFeatures.size(), tagsAndDimensionState.size(), this.nonLocalStateFeatures.size());
 			LOG.info(".. outputDir %s, perceptron layer %s, null closure penalty %s, disable packing %s", 
 					outputDir.getAbsolutePath(), this.perceptronLayer, nullClosurePenalty, this.disablePacking);
+			LOG.info(".. inference precision %s", this.inferencePrecision);
 		}
 		
 		public NeuralParsingDotProductStepScorer getMLPScorer() {
@@ -425,6 +432,42 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			return this.actionMixingLayer;
 		}
 		
+		public Precision getInferencePrecision() {
+			return this.inferencePrecision;
+		}
+		
+		/** Switches nd4j to the inference precision and converts all the parameters used for scoring:
+		 * the MLP, the projection W, the feature and semantic embeddings, the mixing layer and the 
+		 * perceptron layer. Parameters are converted once, therefore this is called after the parser has 
+		 * been bootstrapped. nd4j has a single global precision, which means that the parser can't be 
+		 * trained after the switch. Does nothing if the precision is double. */
+		public void applyInferencePrecision() {
+			
+			if(this.inferencePrecision == Precision.DOUBLE && Precision.current() == Precision.DOUBLE) {
+				return;
+			}
+			
+			final long start = System.currentTimeMillis();
+			this.inferencePrecision.use();
+			
+			this.mlpScorer.convertParameters();
+			this.W = Precision.convert(this.W);
+			this.actionFeatureEmbedding.convertParameters();
+			this.stateFeatureEmbedding.convertParameters();
+			this.semanticFeatureEmbedding.getSemanticEmbeddingObject().convertParameters();
+			
+			if(this.actionMixingLayer != null) {
+				this.actionMixingLayer.convertParameters();
+			}
+			
+			if(this.perceptronLayer != null) {
+				this.perceptronLayer.convertParameters();
+			}
+			
+			LOG.info("Converted the parser to %s precision. Time taken %s", this.inferencePrecision,
+																	System.currentTimeMillis() - start);
+		}
+		
 		private void computeNonLocalFeatures(DerivationState<MR> state, IParseStep<MR> parseStep, 
 									IHashVector features, String[] buffer, int bufferIndex, String[] tags) {
 			
@@ -518,12 +561,17 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			return Pair.of(feature, embedding);
 		}
 		
+		/** Creates an n x n table of lists, the entry [start][end] holds the results of the span start..end */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private static <T> List<T>[][] newSpanTable(int n) {
+			return new List[n][n];
+		}
+		
 		private List<LexicalResult<MR>>[][] preprocessLexicalResults(TokenSeq tk, CompositeImmutableLexicon<MR> compositeLexicon) {
 			
 			final int n = tk.size();
 			
-			@SuppressWarnings("unchecked")
-			List<LexicalResult<MR>>[][] allLexicalResults = new List[n][n];
+			final List<LexicalResult<MR>>[][] allLexicalResults = newSpanTable(n);
 			
 			for(int start = 0; start < n; start++) {
 				for(int end = 0; end < start; end ++) {
@@ -549,29 +597,21 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			return allLexicalResults;
 		}
 		
-		private List<LexicalEntryPreProcessResult<MR>>[][] embedAllLexicalResults(TokenSeq tk, 
-								CompositeImmutableLexicon<MR> compositeLexicon,  IDataItemModel<MR> model) {
-			
-			final int n = tk.size();
+		/** Computes features of every lexical result. Embeddings are not computed since they depend on the 
+		 * parameters, see {@link #embedLexicalResults(List[][])}. */
+		private List<LexicalEntryPreProcessResult<MR>>[][] computeLexicalFeatures(int n, 
+								List<LexicalResult<MR>>[][] allLexicalResults, IDataItemModel<MR> model) {
 			
-			@SuppressWarnings("unchecked")
-			List<LexicalEntryPreProcessResult<MR>>[][] allLexicalResults = new List[n][n];
+			final List<LexicalEntryPreProcessResult<MR>>[][] allLexicalFeatures = newSpanTable(n);
 			
 			for(int start = 0; start < n; start++) {
-				for(int end = 0; end < start; end ++) {
-					allLexicalResults[start][end] = null; //Collections.emptyList();
-				}
-				
 				for(int end = start + 1; end <= n; end++) {
 					
-					final List<LexicalEntryPreProcessResult<MR>> lexicalResults = new ArrayList<LexicalEntryPreProcessResult<MR>>();
+					final List<LexicalEntryPreProcessResult<MR>> lexicalFeatures = new ArrayList<LexicalEntryPreProcessResult<MR>>();
 					final int words = end - start;
-					Iterator<LexicalResult<MR>> it = this.lexicalRule.apply(tk.sub(start, end),
-												new SentenceSpan(start, end - 1, n), compositeLexicon);
 					
-					while(it.hasNext()) {
+					for(LexicalResult<MR> lexicalResult: allLexicalResults[start][end - 1]) {
 						
-						LexicalResult<MR> lexicalResult = it.next();
 						LexicalEntry<MR> lexicalEntry = lexicalResult.getEntry();
 						
 						//check this full line below
@@ -581,11 +621,35 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 								lexicalEntry, full, start, end - 1);
 						
 						IHashVector feature = model.computeFeatures(lexicalStep1);
-						INDArray actionEmbedding = this.actionFeatureEmbedding.embedFeatures(feature).first();
-						
-						LexicalEntryPreProcessResult<MR> result = 
-								new LexicalEntryPreProcessResult<MR>(lexicalResult, feature, actionEmbedding);
-						lexicalResults.add(result);
+						lexicalFeatures.add(new LexicalEntryPreProcessResult<MR>(lexicalResult, feature, null));
+					}
+					
+					allLexicalFeatures[start][end - 1] = lexicalFeatures;
+				}
+			}
+			
+			return allLexicalFeatures;
+		}
+		
+		/** Embeds the features of every lexical result using the action feature embedding of this parser */
+		private List<LexicalEntryPreProcessResult<MR>>[][] embedLexicalResults(
+											List<LexicalEntryPreProcessResult<MR>>[][] allLexicalFeatures) {
+			
+			final int n = allLexicalFeatures.length;
+			
+			final List<LexicalEntryPreProcessResult<MR>>[][] allLexicalResults = newSpanTable(n);
+			
+			for(int start = 0; start < n; start++) {
+				for(int end = start + 1; end <= n; end++) {
+					
+					final List<LexicalEntryPreProcessResult<MR>> lexicalFeatures = allLexicalFeatures[start][end - 1];
+					final List<LexicalEntryPreProcessResult<MR>> lexicalResults = 
+								new ArrayList<LexicalEntryPreProcessResult<MR>>(lexicalFeatures.size());
+					
+					for(LexicalEntryPreProcessResult<MR> lexicalFeature: lexicalFeatures) {
+						INDArray actionEmbedding = this.actionFeatureEmbedding.embedFeatures(lexicalFeature.getFeature()).first();
+						lexicalResults.add(new LexicalEntryPreProcessResult<MR>(lexicalFeature.getLexicalResult(), 
+															lexicalFeature.getFeature(), actionEmbedding));
 					}
 					
 					allLexicalResults[start][end - 1] = lexicalResults;
@@ -842,21 +906,28 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 				return this.parseWithPerceptron(dataItem, pruningFilter, model_, allowWordSkipping, tempLexicon, beamSize_);
 			}
 			
-			if(this.nonLocalActionFeatures.size() != 0) {
-				throw new RuntimeException("Cannot work with non local action features with this version");
-			}
-			
-			//skip this sentence due to metric issue
-			/*if(dataItem.getSample().getTokens().toString()
-					.startsWith("The government insists the reserves will support the armed forces and not act as")) {
-				LOG.info("Skipping this sentence due to metric issue");
-				return new ShiftReduceParserOutput<MR>(new ArrayList<DerivationState<MR>>(), 1);
-			}*/
-			
-//			this.disablePacking();
+			return this.parse(pruningFilter, this.preprocessSentence(dataItem, model_, allowWordSkipping, tempLexicon), 
+																											beamSize_);
+		}
+		
+		/** Everything the preprocessing of a sentence depends on. Generators, rules and filters are compared
+		 * by their equals, which is identity for most of them. */
+		private List<Object> preprocessingKey(DI dataItem, IDataItemModel<MR> model_, boolean allowWordSkipping, 
+																		ILexiconImmutable<MR> tempLexicon) {
+			return Arrays.asList(dataItem, model_, allowWordSkipping, tempLexicon, this.testing, this.modelNewFeatures, 
+					this.lexicalRule, this.completeParseFilter, this.sentenceLexiconGenerators, this.sloppyLexicalGenerators);
+		}
+		
+		/** Computes the work of a parse that does not depend on the parameters of the parser: the model, the
+		 * lexicons, the lexical results of every span and, when testing, their features. The result can be 
+		 * given to {@link #parse(Predicate, PreprocessedSentence, Integer)} of any parser for which 
+		 * {@link #canShare(PreprocessedSentence)} is true. */
+		@SuppressWarnings("unchecked")
+		public PreprocessedSentence<DI, MR> preprocessSentence(DI dataItem, IDataItemModel<MR> model_, 
+											boolean allowWordSkipping, ILexiconImmutable<MR> tempLexicon) {
 			
-			LOG.info("Neural Shift Reduce Parser: Testing %s; adding state features %s; adding action features %s.", this.testing,
-					this.stateFeatureEmbedding.isAddingFeatures(), this.actionFeatureEmbedding.isAddingFeatures());
+			final IDataItemModel<MR> inputModel = model_;
+			final List<Object> key = this.preprocessingKey(dataItem, model_, allowWordSkipping, tempLexicon);
 			
 			if(this.modelNewFeatures != null) {
 				model_ = (IDataItemModel<MR>) this.modelNewFeatures.createDataItemModel((SituatedSentence<AMRMeta>) dataItem);
@@ -864,42 +935,14 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			}
 			
 			final IDataItemModel<MR> model = model_;
-			final Integer beamSize = (beamSize_ == null) ? this.beamSize : beamSize_;
-			
-			final Set<DerivationState<MR>> identityState = 
-					Collections.newSetFromMap(new IdentityHashMap<DerivationState<MR>, Boolean>());
-			
-			LOG.info("Beamsize %s. Packing Disabled %s", beamSize, this.disablePacking);
-			
-			final Comparator<PackedState<MR>> dStateCmp  = new Comparator<PackedState<MR>>() {
-				public int compare(PackedState<MR> left, PackedState<MR> right) {
-	        		return Double.compare(left.getBestScore(), right.getBestScore()); 
-	    		}   
-			};
 			
 			LOG.debug("Utterance: %s", dataItem);
 			
 			TokenSeq tk = dataItem.getTokens();
 			int n = tk.size(); //number of tokens
 			final String[] buffer = tk.subArray(0, n);
-			@SuppressWarnings("unchecked")
 			final String[] tags = ((SituatedSentence<AMRMeta>) dataItem).getState().getTags().subArray(0, n);
 			
-			List<DerivationState<MR>> completeParseTrees = new ArrayList<DerivationState<MR>>();
-			
-			List<DirectAccessBoundedPriorityQueue<PackedState<MR>>> beam = new 
-							ArrayList<DirectAccessBoundedPriorityQueue<PackedState<MR>>>();
-			List<DirectAccessBoundedPriorityQueue<PackedState<MR>>> newBeam = new 
-							ArrayList<DirectAccessBoundedPriorityQueue<PackedState<MR>>>();
-			
-			for(int i = 0; i <= n; i++) { //a beam for different number of words consumed 
-				beam.add(new DirectAccessBoundedPriorityQueue<PackedState<MR>>(beamSize, dStateCmp));
-				newBeam.add(new DirectAccessBoundedPriorityQueue<PackedState<MR>>(beamSize, dStateCmp));
-			}
-			
-			PackedState<MR> initState =  new PackedState<MR>(new DerivationState<MR>());
-			beam.get(0).offer(initState);
-			
 			// Create the list of active lexicons
 			final List<ILexiconImmutable<MR>> lexicons = new ArrayList<ILexiconImmutable<MR>>();
 
@@ -934,6 +977,90 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			}
 			
 			final CompositeImmutableLexicon<MR> compositeLexicon = new CompositeImmutableLexicon<MR>(lexicons);
+			
+			final List<LexicalResult<MR>>[][] allLexicalResults = this.preprocessLexicalResults(tk, compositeLexicon);
+			
+			// During training, the pruning filter removes most of the lexical entries therefore features are computed
+			// only for the entries that are used. During testing computing them for all entries upfront is useful.
+			final List<LexicalEntryPreProcessResult<MR>>[][] allLexicalFeatures;
+			if(this.testing) {
+				allLexicalFeatures = this.computeLexicalFeatures(n, allLexicalResults, model);
+			} else {
+				allLexicalFeatures = null;
+			}
+			
+			return new PreprocessedSentence<DI, MR>(dataItem, inputModel, model, allowWordSkipping, tempLexicon, 
+											buffer, tags, allLexicalResults, allLexicalFeatures, key);
+		}
+		
+		/** Returns true if the sentence preprocessed by another parser can be parsed by this parser. This is
+		 * the case when both parsers have the same lexical generators, lexical rule, filter and model. */
+		public boolean canShare(PreprocessedSentence<DI, MR> sentence) {
+			
+			if(this.testing && this.perceptronLayer != null) {
+				return false;
+			}
+			
+			return sentence.getKey().equals(this.preprocessingKey(sentence.getDataItem(), sentence.getInputModel(), 
+													sentence.allowWordSkipping(), sentence.getTempLexicon()));
+		}
+		
+		/** Parses a sentence preprocessed by {@link #preprocessSentence}. If the parser is interrupted then parsing 
+		 * stops after the current cycle and the states completed so far are returned. */
+		public IGraphParserOutput<MR> parse(Predicate<ParsingOp<MR>> pruningFilter, PreprocessedSentence<DI, MR> sentence, 
+																								Integer beamSize_) {
+			
+			if(this.nonLocalActionFeatures.size() != 0) {
+				throw new RuntimeException("Cannot work with non local action features with this version");
+			}
+			
+			//skip this sentence due to metric issue
+			/*if(dataItem.getSample().getTokens().toString()
+					.startsWith("The government insists the reserves will support the armed forces and not act as")) {
+				LOG.info("Skipping this sentence due to metric issue");
+				return new ShiftReduceParserOutput<MR>(new ArrayList<DerivationState<MR>>(), 1);
+			}*/
+			
+//			this.disablePacking();
+			
+			LOG.info("Neural Shift Reduce Parser: Testing %s; adding state features %s; adding action features %s.", this.testing,
+					this.stateFeatureEmbedding.isAddingFeatures(), this.actionFeatureEmbedding.isAddingFeatures());
+			
+			final DI dataItem = sentence.getDataItem();
+			final boolean allowWordSkipping = sentence.allowWordSkipping();
+			final IDataItemModel<MR> model = sentence.getModel();
+			final Integer beamSize = (beamSize_ == null) ? this.beamSize : beamSize_;
+			
+			final Set<DerivationState<MR>> identityState = 
+					Collections.newSetFromMap(new IdentityHashMap<DerivationState<MR>, Boolean>());
+			
+			LOG.info("Beamsize %s. Packing Disabled %s", beamSize, this.disablePacking);
+			
+			final Comparator<PackedState<MR>> dStateCmp  = new Comparator<PackedState<MR>>() {
+				public int compare(PackedState<MR> left, PackedState<MR> right) {
+	        		return Double.compare(left.getBestScore(), right.getBestScore()); 
+	    		}   
+			};
+			
+			int n = sentence.size(); //number of tokens
+			final String[] buffer = sentence.getBuffer();
+			final String[] tags = sentence.getTags();
+			
+			List<DerivationState<MR>> completeParseTrees = new ArrayList<DerivationState<MR>>();
+			
+			List<DirectAccessBoundedPriorityQueue<PackedState<MR>>> beam = new 
+							ArrayList<DirectAccessBoundedPriorityQueue<PackedState<MR>>>();
+			List<DirectAccessBoundedPriorityQueue<PackedState<MR>>> newBeam = new 
+							ArrayList<DirectAccessBoundedPriorityQueue<PackedState<MR>>>();
+			
+			for(int i = 0; i <= n; i++) { //a beam for different number of words consumed 
+				beam.add(new DirectAccessBoundedPriorityQueue<PackedState<MR>>(beamSize, dStateCmp));
+				newBeam.add(new DirectAccessBoundedPriorityQueue<PackedState<MR>>(beamSize, dStateCmp));
+			}
+			
+			PackedState<MR> initState =  new PackedState<MR>(new DerivationState<MR>());
+			beam.get(0).offer(initState);
+			
 			boolean isEmpty = false;
 			int cycle = 0;
 			
@@ -942,9 +1069,12 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			
 			if(this.testing) {
 				allLexicalResults = null;
-				allLexicalResults1 = this.embedAllLexicalResults(tk, compositeLexicon, model);	
+				final List<LexicalEntryPreProcessResult<MR>>[][] allLexicalFeatures = 
+						sentence.getLexicalFeatures() != null ? sentence.getLexicalFeatures() 
+								: this.computeLexicalFeatures(n, sentence.getLexicalResults(), model);
+				allLexicalResults1 = this.embedLexicalResults(allLexicalFeatures);	
 			} else {
-				allLexicalResults = this.preprocessLexicalResults(tk, compositeLexicon);
+				allLexicalResults = sentence.getLexicalResults();
 				allLexicalResults1 = null;
 			}
 			
@@ -952,6 +1082,11 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			
 			while(!isEmpty) {
 				LOG.debug("=========== CYCLE %s =============", ++cycle);
+				
+				if(Thread.currentThread().isInterrupted()) {
+					LOG.info("Parsing interrupted after %s cycles", cycle - 1);
+					break;
+				}
 				Iterator<DirectAccessBoundedPriorityQueue<PackedState<MR>>> iterBeam = beam.iterator();
 				int ibj = 0;
 				
@@ -2997,6 +3132,8 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 			private File											outputDir = null;
 			
 			private boolean 										disablePacking = false;
+			
+			private Precision 										inferencePrecision = Precision.DOUBLE;
 
 			private final Set<ShiftReduceBinaryParsingRule<MR>>     binaryRules	
 												= new HashSet<ShiftReduceBinaryParsingRule<MR>>();
@@ -3067,7 +3204,7 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 								.newInstance(ShiftReduceUnaryParsingRule.class,
 										unaryRules.size())), 
 						learningRate, learningRateDecay, l2, gamma, seed, outputDir,
-						nullClosurePenalty, disablePacking);
+						nullClosurePenalty, disablePacking, inferencePrecision);
 			}
 			
 			public Builder<DI, MR> setSeed(int seed) {
@@ -3095,6 +3232,11 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 				return this;
 			}
 			
+			public Builder<DI, MR> setInferencePrecision(Precision inferencePrecision) {
+				this.inferencePrecision = inferencePrecision;
+				return this;
+			}
+			
 			public Builder<DI, MR> setLearningDecay(double learningRateDecay) {
 				this.learningRateDecay = learningRateDecay;
 				return this;
@@ -3149,6 +3291,11 @@ import edu.uw.cs.lil.amr.data.AMRMeta;
 				if (params.contains("disablePacking")) {
 					builder.setDisablePacking(params.getAsBoolean("disablePacking"));
 				}
+				
+				if (params.contains("inferencePrecision")) {
+					builder.setInferencePrecision(Precision.valueOf(
+										params.get("inferencePrecision").toUpperCase()));
+				}
 
 				for (final String id : params.getSplit("generators")) {
 					builder.addSentenceLexicalGenerator(
@@ -39,7 +39,10 @@ import org.nd4j.linalg.factory.Nd4j;
 
 import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.embeddings.AbstractEmbedding;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.CheckpointWriter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Helper;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.MappedCheckpoint;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 
@@ -121,6 +124,22 @@ public class NeuralParsingDotProductStepScorer implements AbstractEmbedding, Ser
 		return copy;
 	}
 	
+	/** Rebuilds the network in the current nd4j precision, see {@link Precision}. Updaters still refer to
+	 * the old layers therefore the network can only be used for inference after this call. */
+	public void convertParameters() {
+		
+		final INDArray params = Precision.convert(this.net.params());
+		if(params == this.net.params()) {
+			return;
+		}
+		
+		final MultiLayerNetwork converted = new MultiLayerNetwork(this.net.getLayerWiseConfigurations());
+		converted.init();
+		converted.setParams(params);
+		this.net = converted;
+		this.reclone();
+	}
+	
 	public void setEmpiricalGrad(double empiricalGrad) {
 		this.empiricalGrad = empiricalGrad;
 	}
@@ -432,6 +451,23 @@ public class NeuralParsingDotProductStepScorer implements AbstractEmbedding, Ser
 		this.net.setParameters(newParams);
 	}
 	
+	/** Writes the parameters of the network as a block of a single file checkpoint */
+	public void logNetwork(CheckpointWriter writer) {
+		
+		try {
+			writer.writeArray("mlp_param", this.net.params());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not dump the mlp params: "+e);
+		}
+	}
+	
+	/** Bootstraps the network with the parameters in a single file checkpoint */
+	public void bootstrapNetworkParam(MappedCheckpoint checkpoint) {
+		
+		this.net.init();
+		this.net.setParameters(checkpoint.readArray("mlp_param"));
+	}
+	
 	public static void main(String[] args) throws Exception {
 		
 		NeuralParsingDotProductStepScorer actionMixer = new NeuralParsingDotProductStepScorer(356, 300, 0.05, 0.000001, 1234);
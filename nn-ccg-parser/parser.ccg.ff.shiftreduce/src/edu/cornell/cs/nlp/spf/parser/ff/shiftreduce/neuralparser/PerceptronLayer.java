@@ -13,6 +13,9 @@ import java.util.Arrays;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.CheckpointWriter;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.MappedCheckpoint;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 
@@ -23,7 +26,7 @@ public class PerceptronLayer implements Serializable {
 
 	public static final ILogger	LOG = LoggerFactory.create(PerceptronLayer.class);
 	
-	private final INDArray weights;
+	private INDArray weights;
 	private final int dim;
 	private final double l2;
 	private final double learningRate;
@@ -80,6 +83,12 @@ public class PerceptronLayer implements Serializable {
 		return this.weights;
 	}
 	
+	/** Converts the weights to the current nd4j precision, see {@link Precision}. The weights can only
+	 * be used for inference after this call. */
+	public void convertParameters() {
+		this.weights = Precision.convert(this.weights);
+	}
+	
 	/** Perform one update i.e. we  do
 	 * w^{t+1} = w^{t} + goldFeature - argmaxFeature
 	 */
@@ -128,6 +137,26 @@ public class PerceptronLayer implements Serializable {
 		}
 	}
 	
+	public void logPerceptronWeights(CheckpointWriter writer) {
+		
+		try {
+			writer.writeArray("perceptron_weights", this.weights);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not dump the perceptron weight " + e);
+		}
+	}
+	
+	public void bootstrapPerceptronWeights(MappedCheckpoint checkpoint) {
+		
+		if(!checkpoint.hasBlock("perceptron_weights")) {
+			LOG.info("Could not bootstrap perceptron weight");
+			return;
+		}
+		
+		Nd4j.copy(checkpoint.readArray("perceptron_weights"), this.weights);
+		LOG.info("Bootstrapped perceptron weight: %s", this.weights);
+	}
+	
 	public static void main(String[] args) throws Exception {
 		
 		double[] v = new double[3];
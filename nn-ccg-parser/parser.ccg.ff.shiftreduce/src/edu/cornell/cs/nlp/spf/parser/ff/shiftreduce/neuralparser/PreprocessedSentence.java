@@ -0,0 +1,99 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser;
+
+import java.util.List;
+
+import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
+import edu.cornell.cs.nlp.spf.parser.ccg.model.IDataItemModel;
+import edu.cornell.cs.nlp.spf.parser.ccg.rules.LexicalResult;
+
+/** Work of a parse that only depends on the sentence and not on the parameters of the parser: the model,
+ * the lexical results of every span, their features and the buffer and tags of the sentence. Created by
+ * {@link NeuralDotProductShiftReduceParser#preprocessSentence} and can be shared by parsers of an ensemble
+ * that have the same lexical generators, lexical rule and features. Read-only once created.
+ * @author Dipendra Misra
+ */
+public class PreprocessedSentence<DI extends Sentence, MR> {
+
+	private final DI dataItem;
+
+	/** model given to the parser and the model used for parsing, which is different if the parser creates
+	 * its own model */
+	private final IDataItemModel<MR> inputModel;
+	private final IDataItemModel<MR> model;
+	private final boolean allowWordSkipping;
+	private final ILexiconImmutable<MR> tempLexicon;
+
+	private final String[] buffer;
+	private final String[] tags;
+
+	/** lexical results for span [start, end] are at [start][end] */
+	private final List<LexicalResult<MR>>[][] lexicalResults;
+
+	/** lexical results with their features but without embeddings, null when not testing */
+	private final List<LexicalEntryPreProcessResult<MR>>[][] lexicalFeatures;
+
+	/** everything the preprocessing depends on, two parsers can share the sentence if their keys are equal */
+	private final List<Object> key;
+
+	PreprocessedSentence(DI dataItem, IDataItemModel<MR> inputModel, IDataItemModel<MR> model, boolean allowWordSkipping,
+			ILexiconImmutable<MR> tempLexicon, String[] buffer, String[] tags,
+			List<LexicalResult<MR>>[][] lexicalResults, List<LexicalEntryPreProcessResult<MR>>[][] lexicalFeatures,
+			List<Object> key) {
+
+		this.dataItem = dataItem;
+		this.inputModel = inputModel;
+		this.model = model;
+		this.allowWordSkipping = allowWordSkipping;
+		this.tempLexicon = tempLexicon;
+		this.buffer = buffer;
+		this.tags = tags;
+		this.lexicalResults = lexicalResults;
+		this.lexicalFeatures = lexicalFeatures;
+		this.key = key;
+	}
+
+	public DI getDataItem() {
+		return this.dataItem;
+	}
+
+	public IDataItemModel<MR> getModel() {
+		return this.model;
+	}
+
+	IDataItemModel<MR> getInputModel() {
+		return this.inputModel;
+	}
+
+	public boolean allowWordSkipping() {
+		return this.allowWordSkipping;
+	}
+
+	public ILexiconImmutable<MR> getTempLexicon() {
+		return this.tempLexicon;
+	}
+
+	public int size() {
+		return this.buffer.length;
+	}
+
+	public String[] getBuffer() {
+		return this.buffer;
+	}
+
+	public String[] getTags() {
+		return this.tags;
+	}
+
+	public List<LexicalResult<MR>>[][] getLexicalResults() {
+		return this.lexicalResults;
+	}
+
+	public List<LexicalEntryPreProcessResult<MR>>[][] getLexicalFeatures() {
+		return this.lexicalFeatures;
+	}
+
+	List<Object> getKey() {
+		return this.key;
+	}
+}
@@ -119,6 +119,7 @@ public class JointModel<DI extends ISituatedDataItem<?, ?>, MR, ESTEP> extends
 		private final List<IParseFeatureSet<DI, MR>>	featureSets		= new LinkedList<IParseFeatureSet<DI, MR>>();
 		private final List<IJointFeatureSet<DI, ESTEP>>	jointFeatures	= new LinkedList<IJointFeatureSet<DI, ESTEP>>();
 		private ILexicon<MR>							lexicon			= new Lexicon<MR>();
+		private boolean									versionedTheta	= false;
 
 		public Builder<DI, MR, ESTEP> addFeatureSet(
 				IParseFeatureSet<DI, MR> featureSet) {
@@ -134,7 +135,8 @@ public class JointModel<DI extends ISituatedDataItem<?, ?>, MR, ESTEP> extends
 
 		public JointModel<DI, MR, ESTEP> build() {
 			return new JointModel<DI, MR, ESTEP>(featureSets, jointFeatures,
-					lexicon, HashVectorFactory.create());
+					lexicon, versionedTheta ? HashVectorFactory.createVersioned()
+							: HashVectorFactory.create());
 		}
 
 		public Builder<DI, MR, ESTEP> setLexicon(ILexicon<MR> lexicon) {
@@ -142,6 +144,12 @@ public class JointModel<DI extends ISituatedDataItem<?, ?>, MR, ESTEP> extends
 			return this;
 		}
 
+		public Builder<DI, MR, ESTEP> setVersionedTheta(
+				boolean versionedTheta) {
+			this.versionedTheta = versionedTheta;
+			return this;
+		}
+
 	}
 
 	public static class Creator<DI extends ISituatedDataItem<?, ?>, MR, ESTEP>
@@ -191,6 +199,11 @@ public class JointModel<DI extends ISituatedDataItem<?, ?>, MR, ESTEP> extends
 							.get(setId));
 				}
 
+				if (params.contains("versionedTheta")) {
+					builder.setVersionedTheta(
+							params.getAsBoolean("versionedTheta"));
+				}
+
 				final JointModel<DI, MR, ESTEP> model = builder.build();
 
 				return model;
@@ -218,6 +231,8 @@ public class JointModel<DI extends ISituatedDataItem<?, ?>, MR, ESTEP> extends
 							"jointFeatures",
 							"ids",
 							"Joint feature sets to be used in execution (IJointFeatureSet) (e.g., 'jfs1,jfs2,jfs3')")
+					.addParam("versionedTheta", "boolean",
+							"Store theta in a vector with constant time snapshots (default: false)")
 					.build();
 		}
 
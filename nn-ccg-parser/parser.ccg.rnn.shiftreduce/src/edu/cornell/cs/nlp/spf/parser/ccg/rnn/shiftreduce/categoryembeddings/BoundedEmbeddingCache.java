@@ -0,0 +1,408 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.categoryembeddings;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/** Thread-safe bounded cache with frequency and recency aware eviction, following
+ * the W-TinyLFU scheme (Einziger and Friedman, 2015). New entries are added to a small
+ * LRU window. Entries falling out of the window compete for a place in the main segmented
+ * LRU (probation and protected) against the victim of the main segment, and the one with
+ * lower estimated access frequency is evicted. Frequencies are estimated with a count-min
+ * sketch of 4-bit counters that are halved periodically, so old popularity fades away.
+ *
+ * Lookups are done on a concurrent map. Reordering the LRU queues on a hit is skipped if
+ * another thread is holding the policy lock, so hits never block. Entries are validated on
+ * lookup with a caller supplied predicate, which allows invalidating stale entries lazily.
+ * @author Dipendra Misra
+ * */
+public class BoundedEmbeddingCache<K, V> {
+
+	private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2, REMOVED = -1;
+
+	private final ConcurrentHashMap<K, Node<K, V>> data;
+	private final int maxSize;
+
+	/** window gets 1% of the capacity and protected segment gets 80% of the main segment */
+	private final int maxWindow;
+	private final int maxProtected;
+
+	/** LRU queues, head is the least recently used entry */
+	private final Queue<K, V> window, probation, protectedQueue;
+	private final ReentrantLock policyLock;
+
+	private final FrequencySketch sketch;
+
+	/** Statistics */
+	private final AtomicLong hits, misses, evictions, invalidations;
+
+	public BoundedEmbeddingCache(int maxSize) {
+
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive. Found " + maxSize);
+		}
+
+		this.maxSize = maxSize;
+		this.maxWindow = Math.max(1, maxSize/100);
+		this.maxProtected = (int)(0.8 * (maxSize - this.maxWindow));
+		this.data = new ConcurrentHashMap<K, Node<K, V>>();
+
+		this.window = new Queue<K, V>();
+		this.probation = new Queue<K, V>();
+		this.protectedQueue = new Queue<K, V>();
+		this.policyLock = new ReentrantLock();
+
+		this.sketch = new FrequencySketch(maxSize);
+
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.invalidations = new AtomicLong();
+	}
+
+	/** removes all entries. Statistics are not affected. */
+	public void clear() {
+
+		this.policyLock.lock();
+		try {
+			for(Node<K, V> node: this.data.values()) {
+				node.queue = REMOVED;
+			}
+			this.data.clear();
+			this.window.clear();
+			this.probation.clear();
+			this.protectedQueue.clear();
+		} finally {
+			this.policyLock.unlock();
+		}
+	}
+
+	/** returns the cached value of the key, or null if it is not present. If the cached
+	 * value fails the validity test then it is removed and null is returned. */
+	public V get(K key, Predicate<? super V> isValid) {
+
+		this.sketch.increment(key);
+
+		final Node<K, V> node = this.data.get(key);
+		if(node == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+
+		final V value = node.value;
+		if(!isValid.test(value)) {
+			this.invalidations.incrementAndGet();
+			this.misses.incrementAndGet();
+			this.remove(node);
+			return null;
+		}
+
+		this.hits.incrementAndGet();
+
+		if(this.policyLock.tryLock()) {
+			try {
+				this.onAccess(node);
+			} finally {
+				this.policyLock.unlock();
+			}
+		}
+
+		return value;
+	}
+
+	public long getEvictionCount() {
+		return this.evictions.get();
+	}
+
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	public double getHitRate() {
+		final long hits = this.hits.get();
+		return hits/(double)Math.max(hits + this.misses.get(), 1);
+	}
+
+	public long getInvalidationCount() {
+		return this.invalidations.get();
+	}
+
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/** adds the key to the cache, possibly evicting another entry. If the key is already
+	 * present then its value is replaced. */
+	public void put(K key, V value) {
+
+		this.policyLock.lock();
+		try {
+			final Node<K, V> existing = this.data.get(key);
+			if(existing != null) {
+				existing.value = value;
+				this.onAccess(existing);
+				return;
+			}
+
+			final Node<K, V> node = new Node<K, V>(key, value);
+			this.data.put(key, node);
+			node.queue = WINDOW;
+			this.window.addLast(node);
+
+			//entries falling out of the window are admitted to the probation segment
+			while(this.window.size > this.maxWindow) {
+				final Node<K, V> candidate = this.window.removeFirst();
+				candidate.queue = PROBATION;
+				this.probation.addLast(candidate);
+			}
+
+			this.evict();
+		} finally {
+			this.policyLock.unlock();
+		}
+	}
+
+	/** resets hit, miss, eviction and invalidation counts */
+	public void resetStats() {
+		this.hits.set(0);
+		this.misses.set(0);
+		this.evictions.set(0);
+		this.invalidations.set(0);
+	}
+
+	public int size() {
+		return this.data.size();
+	}
+
+	@Override
+	public String toString() {
+		return "size " + this.data.size() + "/" + this.maxSize + ", hits " + this.hits.get() + ", misses "
+				+ this.misses.get() + ", hit rate " + this.getHitRate() + ", evictions " + this.evictions.get()
+				+ ", invalidations " + this.invalidations.get();
+	}
+
+	/** while the cache is over capacity, compare the most recent entry admitted to
+	 * probation (candidate) against the least recently used entry of the main segment
+	 * (victim) and evict the one that is less frequent. Must hold the policy lock. */
+	private void evict() {
+
+		while(this.data.size() > this.maxSize) {
+
+			Node<K, V> victim = this.probation.head;
+			if(victim == null) {
+				victim = this.protectedQueue.head != null ? this.protectedQueue.head : this.window.head;
+			}
+
+			final Node<K, V> candidate = this.probation.tail;
+
+			if(candidate == null || candidate == victim
+					|| this.sketch.frequency(candidate.key) > this.sketch.frequency(victim.key)) {
+				this.evict(victim);
+			} else {
+				this.evict(candidate);
+			}
+		}
+	}
+
+	private void evict(Node<K, V> node) {
+		this.unlink(node);
+		this.data.remove(node.key, node);
+		this.evictions.incrementAndGet();
+	}
+
+	/** move the entry to the most recently used position of its queue, and promote it
+	 * from probation to protected. Must hold the policy lock. */
+	private void onAccess(Node<K, V> node) {
+
+		switch(node.queue) {
+			case WINDOW:
+				this.window.moveToLast(node);
+				break;
+			case PROBATION:
+				this.probation.remove(node);
+				node.queue = PROTECTED;
+				this.protectedQueue.addLast(node);
+
+				//demote the least recently used protected entries
+				while(this.protectedQueue.size > this.maxProtected) {
+					final Node<K, V> demoted = this.protectedQueue.removeFirst();
+					demoted.queue = PROBATION;
+					this.probation.addLast(demoted);
+				}
+				break;
+			case PROTECTED:
+				this.protectedQueue.moveToLast(node);
+				break;
+			default:
+				//already removed
+		}
+	}
+
+	private void remove(Node<K, V> node) {
+
+		this.policyLock.lock();
+		try {
+			if(this.data.remove(node.key, node)) {
+				this.unlink(node);
+			}
+		} finally {
+			this.policyLock.unlock();
+		}
+	}
+
+	private void unlink(Node<K, V> node) {
+
+		switch(node.queue) {
+			case WINDOW:
+				this.window.remove(node);
+				break;
+			case PROBATION:
+				this.probation.remove(node);
+				break;
+			case PROTECTED:
+				this.protectedQueue.remove(node);
+				break;
+			default:
+				//already removed
+		}
+		node.queue = REMOVED;
+	}
+
+	/** Count-min sketch with 4 rows of 4-bit counters. Once the number of increments
+	 * reaches 10 times the cache size, all counters are halved. Updates are not atomic
+	 * which can lose a few increments under contention. This is acceptable since the
+	 * sketch only approximates frequencies. */
+	private static class FrequencySketch {
+
+		private static final int[] SEEDS = {0x97cb3127, 0xb0f14b43, 0x1f7a5b6d, 0x64f4c1e5};
+		private static final int MAX_COUNT = 15;
+
+		private final byte[][] table;
+		private final int mask;
+		private final int sampleSize;
+		private final AtomicLong size;
+
+		FrequencySketch(int maxSize) {
+			int width = 16;
+			while(width < maxSize) {
+				width <<= 1;
+			}
+			this.table = new byte[SEEDS.length][width];
+			this.mask = width - 1;
+			this.sampleSize = 10 * Math.max(maxSize, 16);
+			this.size = new AtomicLong();
+		}
+
+		int frequency(Object key) {
+			final int hash = key.hashCode();
+			int frequency = MAX_COUNT;
+			for(int i = 0; i < SEEDS.length; i++) {
+				frequency = Math.min(frequency, this.table[i][this.index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		void increment(Object key) {
+			final int hash = key.hashCode();
+			for(int i = 0; i < SEEDS.length; i++) {
+				final int index = this.index(hash, i);
+				if(this.table[i][index] < MAX_COUNT) {
+					this.table[i][index]++;
+				}
+			}
+
+			if(this.size.incrementAndGet() >= this.sampleSize) {
+				this.reset();
+			}
+		}
+
+		private int index(int hash, int row) {
+			int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+			h ^= h >>> 16;
+			return h & this.mask;
+		}
+
+		private synchronized void reset() {
+			if(this.size.get() < this.sampleSize) {
+				return; //another thread reset the sketch
+			}
+			for(byte[] row: this.table) {
+				for(int j = 0; j < row.length; j++) {
+					row[j] >>= 1;
+				}
+			}
+			this.size.set(this.sampleSize/2);
+		}
+	}
+
+	private static class Node<K, V> {
+		final K key;
+		volatile V value;
+		int queue;
+		Node<K, V> prev, next;
+
+		Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+			this.queue = REMOVED;
+		}
+	}
+
+	/** Intrusive doubly linked LRU queue. Not thread-safe. */
+	private static class Queue<K, V> {
+		Node<K, V> head, tail;
+		int size;
+
+		void addLast(Node<K, V> node) {
+			node.prev = this.tail;
+			node.next = null;
+			if(this.tail == null) {
+				this.head = node;
+			} else {
+				this.tail.next = node;
+			}
+			this.tail = node;
+			this.size++;
+		}
+
+		void clear() {
+			this.head = null;
+			this.tail = null;
+			this.size = 0;
+		}
+
+		void moveToLast(Node<K, V> node) {
+			if(node != this.tail) {
+				this.remove(node);
+				this.addLast(node);
+			}
+		}
+
+		void remove(Node<K, V> node) {
+			if(node.prev == null) {
+				this.head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if(node.next == null) {
+				this.tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+			this.size--;
+		}
+
+		Node<K, V> removeFirst() {
+			final Node<K, V> node = this.head;
+			this.remove(node);
+			return node;
+		}
+	}
+}
@@ -7,12 +7,15 @@ import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.Random;
@@ -21,9 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.StreamSupport;
 
 import org.json.JSONObject;
@@ -102,7 +103,9 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 	private final HashMap<String, INDArray> adaGradSumSquareBaseConstant;
 	
 	/** Store the parameters that have been used, so that only these parameters are updated in 
-	 * that iteration. Make sure these collection are thread-safe and are cleared after update. */
+	 * that iteration. Make sure these collection are thread-safe and are cleared after update. 
+	 * Trees taken from the cache don't add their parameters, these are added in 
+	 * {@link #collectUpdated()} using their gradients. */
 	private final Set<SimpleSyntax> updatedSimpleSyntax;
 	private final Set<String> updatedAttribute;
 	private final Set<Slash> updatedSlash;
@@ -143,15 +146,20 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 	private boolean useRecursive;
 	
 	/** Cache category embeddings. Computing embeddings of category is costly due to feed forwarding
-	 * through two deep recursive neural network. Therefore, we cache the category embeddings. These
-	 * cached embeddings are invalidated when the model changes (parameters of recursive networks or 
-	 * the leaf vectors of recursive networks). Cache syntax and semantic embedding separately 
-	 * for better generalization */
-	private final ConcurrentHashMap<Syntax, Tree> cacheSyntaxEmbedding;
-	private AtomicInteger cacheSyntacticHit, cacheSyntacticMiss;
-	private final ConcurrentHashMap<LogicalExpression, Tree> cacheSemanticEmbedding;
+	 * through two deep recursive neural network. Therefore, we cache the category embeddings. 
+	 * Cache syntax and semantic embedding separately for better generalization. The caches are 
+	 * bounded and evict the least valuable entries when full. */
+	private final BoundedEmbeddingCache<Syntax, CachedTree> cacheSyntaxEmbedding;
+	private final BoundedEmbeddingCache<LogicalExpression, CachedTree> cacheSemanticEmbedding;
 	private final int maxCacheSize;
-	private AtomicInteger cacheSemanticHit, cacheSemanticMiss;
+	
+	/** Parameter versions for invalidating cached embeddings. The version is incremented on
+	 * every update. Every leaf vector (in its gradient wrapper) and every recursive network 
+	 * remembers the version in which it was last changed, which is only the case if it received 
+	 * a gradient. A cached tree is valid if none of the parameters it depends on changed after 
+	 * the tree was computed. */
+	private volatile long parameterVersion;
+	private volatile long syntaxNetworkVersion, semanticNetworkVersion;
 	
 	//For GradientCheck: Empirical Gradients
 	public double empiricalSyntaxGrad, empiricalSemanticGrad;
@@ -216,13 +224,12 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		//semantics will be initialized from training data
 		
 		this.maxCacheSize = 400000;
-		this.cacheSyntaxEmbedding = new ConcurrentHashMap<Syntax, Tree>();
-		this.cacheSemanticEmbedding = new ConcurrentHashMap<LogicalExpression, Tree>();
+		this.cacheSyntaxEmbedding = new BoundedEmbeddingCache<Syntax, CachedTree>(this.maxCacheSize);
+		this.cacheSemanticEmbedding = new BoundedEmbeddingCache<LogicalExpression, CachedTree>(this.maxCacheSize);
 		
-		this.cacheSyntacticHit = new AtomicInteger();
-		this.cacheSyntacticMiss = new AtomicInteger();
-		this.cacheSemanticHit = new AtomicInteger();
-		this.cacheSemanticMiss = new AtomicInteger();
+		this.parameterVersion = 0;
+		this.syntaxNetworkVersion = 0;
+		this.semanticNetworkVersion = 0;
 		
 		this.updatedSimpleSyntax = Collections.synchronizedSet(new HashSet<SimpleSyntax>());
 		this.updatedAttribute = Collections.synchronizedSet(new HashSet<String>());
@@ -514,45 +521,35 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		
 		LOG.info("Going to embed %s lexical entry categories", categorySpace.size());
 		
-		StreamSupport.stream(Spliterators
-				.spliterator(categorySpace, Spliterator.IMMUTABLE), true).unordered()
-				.forEach(category -> {
-					
-					if(category.getSemantics() == null) {
-						LOG.info("Logical expression was null");
-					}
-					this.getCategoryEmbedding((Category<MR>)category).getEmbedding();
-				});
+		this.embedCategories((Collection<Category<MR>>)(Collection<?>)categorySpace);
 		
 		this.logCachePerformance();
 		LOG.info("Size of cache is %s", this.cacheSemanticEmbedding.size());
 		
-		this.cacheSemanticHit.set(0);
-		this.cacheSemanticMiss.set(0);
-		this.cacheSyntacticHit.set(0);
-		this.cacheSyntacticMiss.set(0);
+		this.cacheSyntaxEmbedding.resetStats();
+		this.cacheSemanticEmbedding.resetStats();
 	}
 	
 	/** returns embedding of a category under the given model. The embedding of a category is
 	 * given by the concatenation of the embedding of syntax and semantics. This is a costly
-	 * operation and therefore a cache is used to optimize. The cache is emptied after every
-	 * update step or after bootstrapping a model. Similarly, the updated parameters must be cleared
+	 * operation and therefore a cache is used to optimize. Cached embeddings that depend on
+	 * parameters changed by an update step are recomputed, and the cache is emptied after 
+	 * bootstrapping a model. Similarly, the updated parameters must be cleared
 	 * after every iteration or after bootstrapping a model. */
 	public CategoryEmbeddingResult getCategoryEmbedding(Category<MR> categ) {
 		
+		//version of the parameters used to compute embeddings in this call
+		final long version = this.parameterVersion;
+		
 		//find embedding of syntax
 		Tree syntacticTree = this.findSyntaxInCache(categ.getSyntax());
 		if(syntacticTree == null) {
 			
-			this.cacheSyntacticMiss.incrementAndGet();
-			
 			syntacticTree = SyntaxsVisitor.embedSyntaxs(categ.getSyntax(), this.syntaxsRecursiveNetwork,
 									this.simpleSyntaxVectors, this.simpleSyntaxVectorsGrad, this.attributeVectors, 
 									this.attributeVectorsGrad, this.slashVectors, this.slashVectorsGrad, this.updatedAttribute, 
 									this.updatedSimpleSyntax, this.updatedSlash, this.useRecursive);
-			this.updateSyntaxCache(categ.getSyntax(), syntacticTree);
-		} else { 
-			this.cacheSyntacticHit.incrementAndGet();
+			this.updateSyntaxCache(categ.getSyntax(), syntacticTree, version);
 		}
 			
 		INDArray syntacticEnc = syntacticTree.getVector();
@@ -568,15 +565,11 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		Tree semanticTree = this.findSemanticInCache(exp);
 		if(semanticTree == null) {
 			
-			this.cacheSemanticMiss.incrementAndGet();
-			
 			semanticTree = SemanticsVisitor.embedSemantics(exp, 
 				this.semanticsRecursiveNetwork, this.baseConstantVectors, this.baseConstantVectorsGrad,
 				this.typeVectors, this.typeVectorsGrad, this.nullLogic, this.nullLogicGrad, this.updatedTypes, 
 				this.updatedBaseConstant, this.updatedNullLogic, this.useRecursive);
-			this.updateSemanticCache(exp, semanticTree);
-		} else {
-			this.cacheSemanticHit.incrementAndGet();
+			this.updateSemanticCache(exp, semanticTree, version);
 		}
 		
 		INDArray semanticEnc = semanticTree.getVector();
@@ -590,6 +583,78 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		return result;
 	}
 	
+	/** computes embedding of many categories together and adds them to the cache. Syntax
+	 * and semantic trees missing in the cache are built first and then the recursive networks
+	 * evaluate all of them level by level, using one matrix multiplication per level.
+	 * Subsequent calls to {@link #getCategoryEmbedding(Category)} for these categories are cache hits. */
+	public void embedCategories(Collection<? extends Category<MR>> categories) {
+
+		final long version = this.parameterVersion;
+
+		final Map<Syntax, Tree> syntaxTrees = new LinkedHashMap<Syntax, Tree>();
+		final Map<LogicalExpression, Tree> semanticTrees = new LinkedHashMap<LogicalExpression, Tree>();
+
+		for(Category<MR> categ: categories) {
+
+			final Syntax syntax = categ.getSyntax();
+			if(!syntaxTrees.containsKey(syntax) && this.findSyntaxInCache(syntax) == null) {
+				syntaxTrees.put(syntax, SyntaxsVisitor.buildSyntaxs(syntax, this.syntaxsRecursiveNetwork,
+									this.simpleSyntaxVectors, this.simpleSyntaxVectorsGrad, this.attributeVectors,
+									this.attributeVectorsGrad, this.slashVectors, this.slashVectorsGrad, this.updatedAttribute,
+									this.updatedSimpleSyntax, this.updatedSlash));
+			}
+
+			final LogicalExpression exp = (LogicalExpression)categ.getSemantics();
+			if(exp != null && !semanticTrees.containsKey(exp) && this.findSemanticInCache(exp) == null) {
+				semanticTrees.put(exp, SemanticsVisitor.buildSemantics(exp,
+						this.semanticsRecursiveNetwork, this.baseConstantVectors, this.baseConstantVectorsGrad,
+						this.typeVectors, this.typeVectorsGrad, this.nullLogic, this.nullLogicGrad, this.updatedTypes,
+						this.updatedBaseConstant, this.updatedNullLogic));
+			}
+		}
+
+		if(this.useRecursive) {
+			this.syntaxsRecursiveNetwork.feedForward(new ArrayList<Tree>(syntaxTrees.values()));
+			this.semanticsRecursiveNetwork.feedForward(new ArrayList<Tree>(semanticTrees.values()));
+		} else {
+			syntaxTrees.values().forEach(AveragingNetwork::averageAndSet);
+			semanticTrees.values().forEach(AveragingNetwork::averageAndSet);
+		}
+
+		for(Entry<Syntax, Tree> e: syntaxTrees.entrySet()) {
+			this.updateSyntaxCache(e.getKey(), e.getValue(), version);
+		}
+
+		for(Entry<LogicalExpression, Tree> e: semanticTrees.entrySet()) {
+			this.updateSemanticCache(e.getKey(), e.getValue(), version);
+		}
+	}
+
+	/** backpropagates the errors of many categories together. The i-th error is the error of
+	 * the category whose trees are the i-th syntactic and semantic tree. Same as calling
+	 * {@link #backprop(Tree, Tree, INDArray)} on every category. */
+	public void backprop(List<Tree> syntacticTrees, List<Tree> semanticsTrees, List<INDArray> errors) {
+
+		final List<INDArray> syntaxErrors = new ArrayList<INDArray>(errors.size());
+		final List<INDArray> semanticsErrors = new ArrayList<INDArray>(errors.size());
+
+		for(INDArray error: errors) {
+			syntaxErrors.add(error.get(NDArrayIndex.interval(0, this.syntaxNOut)));
+			semanticsErrors.add(error.get(NDArrayIndex.interval(this.syntaxNOut,
+															this.syntaxNOut + this.semanticsNOut)));
+		}
+
+		if(this.useRecursive) {
+			this.syntaxsRecursiveNetwork.backProp(syntacticTrees, syntaxErrors);
+			this.semanticsRecursiveNetwork.backProp(semanticsTrees, semanticsErrors);
+		} else {
+			for(int i = 0; i < errors.size(); i++) {
+				AveragingNetwork.backprop(syntacticTrees.get(i), syntaxErrors.get(i));
+				AveragingNetwork.backprop(semanticsTrees.get(i), semanticsErrors.get(i));
+			}
+		}
+	}
+
 	public void backprop(Tree syntacticTree, Tree semanticsTree, INDArray error) {
 		
 		double errorNorm2 = error.normmaxNumber().doubleValue();
@@ -640,26 +705,23 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		throw new RuntimeException("Operation not supported");
 	}
 	
-	private void updateSyntaxCache(Syntax syntax, Tree syntacticTree) {
-		
-		 //use smarter scheme such as LRU here in future
-		if(this.cacheSyntaxEmbedding.size() > this.maxCacheSize)
-			return;
-			
-		this.cacheSyntaxEmbedding.put(syntax, syntacticTree);
+	private void updateSyntaxCache(Syntax syntax, Tree syntacticTree, long version) {
+		this.cacheSyntaxEmbedding.put(syntax, new CachedTree(syntacticTree, version, this.useRecursive));
 	}
 	
-	private void updateSemanticCache(LogicalExpression exp, Tree semanticTree) {
+	private void updateSemanticCache(LogicalExpression exp, Tree semanticTree, long version) {
 		
-		//use smarter scheme such as LRU here in future
-		if(exp == null || this.cacheSemanticEmbedding.size() > this.maxCacheSize)
+		if(exp == null) {
 			return;
+		}
 			
-		this.cacheSemanticEmbedding.put(exp, semanticTree);
+		this.cacheSemanticEmbedding.put(exp, new CachedTree(semanticTree, version, this.useRecursive));
 	}
 	
 	private Tree findSyntaxInCache(Syntax syntax) {		
-		return this.cacheSyntaxEmbedding.get(syntax);
+		final CachedTree cached = this.cacheSyntaxEmbedding.get(syntax, 
+											c -> this.isValid(c, this.syntaxNetworkVersion));
+		return cached == null ? null : cached.tree;
 	}
 	
 	private Tree findSemanticInCache(LogicalExpression exp) {		
@@ -667,39 +729,46 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 			return null;
 		}
 		
-		return this.cacheSemanticEmbedding.get(exp);
+		final CachedTree cached = this.cacheSemanticEmbedding.get(exp, 
+											c -> this.isValid(c, this.semanticNetworkVersion));
+		return cached == null ? null : cached.tree;
 	}
 	
-	public void invalidateCache() {
-		//cache is used by multiple threads so synchronize access to it
-		synchronized(this.cacheSyntaxEmbedding) {
-			this.cacheSyntaxEmbedding.clear();
+	/** a cached tree is valid if the recursive network (if used) and none of its leaf
+	 * vectors changed after it was computed */
+	private boolean isValid(CachedTree cached, long networkVersion) {
+		
+		if(cached.recursive && networkVersion > cached.version) {
+			return false;
 		}
 		
-		synchronized(this.cacheSemanticEmbedding) {
-			this.cacheSemanticEmbedding.clear();
+		for(GradientWrapper leaf: cached.leaves) {
+			if(leaf.getVersion() > cached.version) {
+				return false;
+			}
 		}
+		
+		return true;
+	}
+	
+	/** empties the cache. Not required after update steps since stale embeddings are 
+	 * detected using parameter versions. */
+	public void invalidateCache() {
+		this.cacheSyntaxEmbedding.clear();
+		this.cacheSemanticEmbedding.clear();
 	}
 	
 	public void logCachePerformance() {
-		
-		assert this.cacheSyntacticHit.get()+this.cacheSyntacticMiss.get() == 
-			this.cacheSemanticHit.get() + this.cacheSemanticMiss.get() : "Cache is buggy";
-			
-		LOG.info("Total Calls to cache " + (this.cacheSyntacticHit.get()+this.cacheSyntacticMiss.get()));
-		
-		double syntacticCacheHit = this.cacheSyntacticHit.get()
-				/(double)Math.max(this.cacheSyntacticHit.get() + this.cacheSyntacticMiss.get(), 1);
-		LOG.info("Total Syntactic Cache Miss %s", this.cacheSyntacticMiss.get());
-		LOG.info("Syntactic Cache Hit %s", syntacticCacheHit);
-		
-		double semanticCacheHit = this.cacheSemanticHit.get()
-				/(double)Math.max(this.cacheSemanticHit.get() + this.cacheSemanticMiss.get(), 1);
-		LOG.info("Total Semantic Cache Miss %s", this.cacheSemanticMiss.get());
-		LOG.info("Semantic Cache Hit %s", semanticCacheHit);
-		
-		LOG.info("Size of the syntactic cache "+this.cacheSyntaxEmbedding.size());
-		LOG.info("Size of the semantic cache "+this.cacheSemanticEmbedding.size());
+		LOG.info("Syntactic cache: %s", this.cacheSyntaxEmbedding);
+		LOG.info("Semantic cache: %s", this.cacheSemanticEmbedding);
+	}
+	
+	public BoundedEmbeddingCache<Syntax, CachedTree> getSyntaxCache() {
+		return this.cacheSyntaxEmbedding;
+	}
+	
+	public BoundedEmbeddingCache<LogicalExpression, CachedTree> getSemanticCache() {
+		return this.cacheSemanticEmbedding;
 	}
 	
 	/** performs gradient descent on the category vectors using rawGradient representing
@@ -715,6 +784,9 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 			return vector;
 		}
 		
+		//cached embeddings using this vector are no longer valid
+		rawGradient.setVersion(this.parameterVersion);
+		
 		INDArray sumGradient = rawGradient.getGradient();
 		
 		if(sumGradient.normmaxNumber().doubleValue() == 0) {
@@ -792,8 +864,9 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 	
 	public void updateParameters() {
 		//Use Stream
-		//the embeddings in cache are no longer true therefore invalidate them
-		this.invalidateCache();
+		//cached embeddings which depend on parameters changed in this update are no longer true
+		this.parameterVersion++;
+		this.collectUpdated();
 		
 		LOG.info("Activation:: W-recursive-syntax %s b-recursive-syntax %s", Helper.meanAbs(this.syntaxsRecursiveNetwork.getW()), 
 																			Helper.meanAbs(this.syntaxsRecursiveNetwork.getb()));
@@ -864,7 +937,12 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 				.forEach(p-> this.updateVectors(this.attributeVectors.get(p), this.attributeVectorsGrad.get(p), 
 						 this.adaGradSumSquareAttribute.get(p), this.learningRateStatsAttribute, "Attribute"));
 		
-		this.syntaxsRecursiveNetwork.updateParameters();
+		//the network is only updated if errors were backpropagated through it, otherwise 
+		//cached embeddings computed with it remain valid
+		if(this.syntaxsRecursiveNetwork.hasGradient()) {
+			this.syntaxsRecursiveNetwork.updateParameters();
+			this.syntaxNetworkVersion = this.parameterVersion;
+		}
 		
 		if(this.updatedNullLogic.get()) { 
 			this.updateVectors(this.nullLogic, this.nullLogicGrad, 
@@ -895,7 +973,10 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 				.forEach(p-> this.updateVectors(this.typeVectors.get(p), this.typeVectorsGrad.get(p), 
 						 this.adaGradSumSquareType.get(p), this.learningRateStatsTypes, "Type"));
 		
-		this.semanticsRecursiveNetwork.updateParameters();
+		if(this.semanticsRecursiveNetwork.hasGradient()) {
+			this.semanticsRecursiveNetwork.updateParameters();
+			this.semanticNetworkVersion = this.parameterVersion;
+		}
 		
 //		LOG.info("Category Embedding. Learning Rate Simple Syntax Stats %s", this.learningRateStatsSimpleSyntax);
 //		LOG.info("Category Embedding. Learning Rate Attribute Stats %s", this.learningRateStatsAttribute);
@@ -941,7 +1022,33 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		/////////////
 	}
 	
+	/** adds the parameters of cached trees, which received a gradient but were not added 
+	 * to the updated parameters since the trees were not rebuilt */
+	private void collectUpdated() {
+		
+		addUpdated(this.simpleSyntaxVectorsGrad, this.updatedSimpleSyntax);
+		addUpdated(this.slashVectorsGrad, this.updatedSlash);
+		addUpdated(this.attributeVectorsGrad, this.updatedAttribute);
+		addUpdated(this.baseConstantVectorsGrad, this.updatedBaseConstant);
+		addUpdated(this.typeVectorsGrad, this.updatedTypes);
+		
+		if(this.nullLogicGrad.numTerms() > 0) {
+			this.updatedNullLogic.set(true);
+		}
+	}
+	
+	private static <K> void addUpdated(Map<K, GradientWrapper> gradients, Set<K> updated) {
+		
+		for(Entry<K, GradientWrapper> e: gradients.entrySet()) {
+			if(e.getValue().numTerms() > 0) {
+				updated.add(e.getKey());
+			}
+		}
+	}
+	
 	public void flushGradients() {
+		
+		this.collectUpdated();
 			
 //		StreamSupport.stream(Spliterators
 //				.spliterator(this.simpleSyntaxVectorsGrad.entrySet(), Spliterator.IMMUTABLE), true)
@@ -1229,4 +1336,50 @@ public class CategoryEmbedding<MR> implements AbstractEmbedding {
 		INDArray semanticW = Helper.toMatrix(semanticRecursiveWeightString);
 		this.semanticsRecursiveNetwork.setParam(semanticW, semanticb);
 	}
+	
+	/** Cached tree with the version of the parameters used to compute it, and the 
+	 * leaf vectors (identified by their gradient wrappers) that it depends on */
+	public static class CachedTree {
+		
+		private final Tree tree;
+		private final long version;
+		
+		/** true if the tree was computed using the recursive network */
+		private final boolean recursive;
+		private final GradientWrapper[] leaves;
+		
+		public CachedTree(Tree tree, long version, boolean recursive) {
+			this.tree = tree;
+			this.version = version;
+			this.recursive = recursive && tree.numChildren() > 0;
+			
+			final Set<GradientWrapper> leaves = Collections.newSetFromMap(
+												new IdentityHashMap<GradientWrapper, Boolean>());
+			collectLeaves(tree, leaves);
+			this.leaves = leaves.toArray(new GradientWrapper[leaves.size()]);
+		}
+		
+		private static void collectLeaves(Tree t, Set<GradientWrapper> leaves) {
+			
+			if(t.numChildren() == 0) {
+				if(t.getGradient() != null) {
+					leaves.addAll(Arrays.asList(t.getGradient()));
+				}
+				return;
+			}
+			
+			Iterator<Tree> it = t.getChildren();
+			while(it.hasNext()) {
+				collectLeaves(it.next(), leaves);
+			}
+		}
+		
+		public Tree getTree() {
+			return this.tree;
+		}
+		
+		public long getVersion() {
+			return this.version;
+		}
+	}
 }
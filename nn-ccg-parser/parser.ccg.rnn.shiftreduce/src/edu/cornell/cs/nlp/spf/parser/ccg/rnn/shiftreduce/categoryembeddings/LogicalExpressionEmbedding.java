@@ -14,6 +14,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -39,13 +40,18 @@ import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
 import edu.cornell.cs.nlp.spf.ccg.lexicon.LexicalEntry;
 import edu.cornell.cs.nlp.spf.data.collection.IDataCollection;
 import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentence;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicLanguageServices;
 import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
 import edu.cornell.cs.nlp.spf.mr.language.type.Type;
+import edu.cornell.cs.nlp.spf.mr.language.type.TypeRepository;
 import edu.cornell.cs.nlp.spf.parser.ParsingOp;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset.CompositeDataPoint;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset.CompositeDataPointDecision;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.embeddings.AbstractEmbedding;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.CheckpointWriter;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.LearningRate;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.MappedCheckpoint;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive.AveragingNetwork;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive.GradientWrapper;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive.RecursiveTreeNetwork;
@@ -472,6 +478,17 @@ public class LogicalExpressionEmbedding implements AbstractEmbedding, Serializab
 		}
 	}
 	
+	/** Converts the vectors and the recursive network to the current nd4j precision, see {@link Precision}.
+	 * Cached trees hold vectors of the old precision and are dropped. Only used for inference. */
+	public void convertParameters() {
+		
+		Precision.convert(this.typeVectors);
+		Precision.convert(this.baseConstantVectors);
+		this.nullLogic = Precision.convert(this.nullLogic);
+		this.semanticsRecursiveNetwork.convertParameters();
+		this.invalidateCache();
+	}
+	
 	public void logCachePerformance() {
 		
 		double semanticCacheHit = this.cacheSemanticHit.get()
@@ -729,4 +746,63 @@ public class LogicalExpressionEmbedding implements AbstractEmbedding, Serializab
 		
 		this.semanticsRecursiveNetwork.setParam(semanticW, semanticb);
 	}
+	
+	/** Writes category embeddings and recursive network parameters as blocks of a single file checkpoint */
+	public void logEmbeddingAndRecursiveNetworkParam(CheckpointWriter writer) {
+		
+		try {
+			final List<String[]> typeKeys = new ArrayList<String[]>();
+			final List<INDArray> typeValues = new ArrayList<INDArray>();
+			for(Entry<Type, INDArray> e: this.typeVectors.entrySet()) {
+				typeKeys.add(new String[]{e.getKey().getName()});
+				typeValues.add(e.getValue());
+			}
+			writer.writeKeyedArrays("type_vectors", typeKeys, typeValues);
+			
+			final List<String[]> constantKeys = new ArrayList<String[]>();
+			final List<INDArray> constantValues = new ArrayList<INDArray>();
+			for(Entry<String, INDArray> e: this.baseConstantVectors.entrySet()) {
+				constantKeys.add(new String[]{e.getKey()});
+				constantValues.add(e.getValue());
+			}
+			writer.writeKeyedArrays("base_constant_vectors", constantKeys, constantValues);
+			
+			writer.writeArray("null_logic", this.nullLogic);
+			writer.writeArray("semantic_recursive_W", this.semanticsRecursiveNetwork.getW());
+			writer.writeArray("semantic_recursive_b", this.semanticsRecursiveNetwork.getb());
+		} catch(IOException e) {
+			throw new RuntimeException("Could not write semantic embeddings to the checkpoint. Error: " + e);
+		}
+	}
+	
+	/** Reads category embeddings and recursive network parameters from a single file checkpoint */
+	public void bootstrapCategoryEmbeddingAndRecursiveNetworkParam(MappedCheckpoint checkpoint) {
+		
+		this.invalidateCache();
+		
+		final TypeRepository typeRepository = LogicLanguageServices.getTypeRepository();
+		final MappedCheckpoint.KeyedArrays typeVectors = checkpoint.readKeyedArrays("type_vectors");
+		this.typeVectors.clear();
+		for(int i = 0; i < typeVectors.size(); i++) {
+			final String typeName = typeVectors.getKey(i)[0];
+			final Type type = typeRepository.getTypeCreateIfNeeded(typeName);
+			if(type == null) {
+				throw new RuntimeException("Unknown type in checkpoint " + typeName);
+			}
+			this.typeVectors.put(type, typeVectors.get(i));
+		}
+		LOG.info("Bootstrapped type vectors embeddings for %s features", this.typeVectors.size());
+		
+		final MappedCheckpoint.KeyedArrays baseConstantVectors = checkpoint.readKeyedArrays("base_constant_vectors");
+		this.baseConstantVectors.clear();
+		for(int i = 0; i < baseConstantVectors.size(); i++) {
+			this.baseConstantVectors.put(baseConstantVectors.getKey(i)[0], baseConstantVectors.get(i));
+		}
+		LOG.info("Bootstrapped base constant vectors embeddings for %s features", this.baseConstantVectors.size());
+		
+		this.nullLogic = checkpoint.readArray("null_logic");
+		this.semanticsRecursiveNetwork.setParam(checkpoint.readArray("semantic_recursive_W"), 
+												checkpoint.readArray("semantic_recursive_b"));
+		LOG.info("Bootstrapped null logic and recursive semantic embeddings");
+	}
 }
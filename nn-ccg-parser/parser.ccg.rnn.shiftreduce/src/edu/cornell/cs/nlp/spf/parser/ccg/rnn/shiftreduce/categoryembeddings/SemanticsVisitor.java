@@ -61,6 +61,32 @@ public class SemanticsVisitor implements ILogicalExpressionVisitor {
 									GradientWrapper nullLogicGrad, Set<Type> updatedType, Set<String> updatedBaseConstant, 
 									AtomicBoolean updatedNullLogic, boolean useRecursive) {
 		
+		final Tree t = buildSemantics(exp, rte, baseConstantVectors, baseConstantVectorsGrad, typeVectors, 
+									  typeVectorsGrad, nullLogic, nullLogicGrad, updatedType, updatedBaseConstant, 
+									  updatedNullLogic);
+		
+		if(exp == null) {
+			return t;
+		}
+		
+		if(useRecursive) {
+			rte.feedForward(t);
+		} else {
+			AveragingNetwork.averageAndSet(t);
+		}
+		return t;
+	}
+	
+	/** Creates the tree of the logical expression with leaf vectors set, but does not 
+	 * compute the vectors of internal nodes. Used for embedding many expressions in a batch. */
+	public static Tree buildSemantics(LogicalExpression exp, RecursiveTreeNetwork rte,
+									HashMap<String, INDArray> baseConstantVectors,
+									HashMap<String, GradientWrapper> baseConstantVectorsGrad,
+									HashMap<Type, INDArray> typeVectors, 
+									HashMap<Type, GradientWrapper> typeVectorsGrad, INDArray nullLogic, 
+									GradientWrapper nullLogicGrad, Set<Type> updatedType, Set<String> updatedBaseConstant, 
+									AtomicBoolean updatedNullLogic) {
+		
 		if(exp == null) { //exp can be null such as in SKIP and PUNCT entries
 			Tree t = new Tree("NULL", new LinkedList<Tree>());
 			t.setVector(nullLogic);
@@ -73,11 +99,6 @@ public class SemanticsVisitor implements ILogicalExpressionVisitor {
 				 								   typeVectors, typeVectorsGrad, updatedType, updatedBaseConstant);
 		exp.accept(sv);
 		assert sv.result.size() == 1;
-		if(useRecursive) {
-			sv.rte.feedForward(sv.result.peek());
-		} else {
-			AveragingNetwork.averageAndSet(sv.result.peek());
-		}
 		return sv.result.peek();
 	}
 	
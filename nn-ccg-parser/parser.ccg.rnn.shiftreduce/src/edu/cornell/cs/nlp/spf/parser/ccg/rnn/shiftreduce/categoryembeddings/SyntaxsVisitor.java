@@ -73,6 +73,31 @@ public class SyntaxsVisitor {
 										HashMap<Slash, GradientWrapper> slashVectorsGrad, 
 										Set<String> updatedAttribute, Set<SimpleSyntax> updatedSimpleSyntax,
 										Set<Slash> updatedSlash, boolean useRecursive) {
+		
+		final Tree t = buildSyntaxs(syntax, rte, simpleSyntaxVectors, simpleSyntaxVectorsGrad, attributeVectors, 
+									attributeVectorsGrad, slashVectors, slashVectorsGrad, updatedAttribute, 
+									updatedSimpleSyntax, updatedSlash);
+		
+		if(useRecursive) {
+			rte.feedForward(t);
+		} else {
+			AveragingNetwork.averageAndSet(t);
+		}
+		
+		return t;
+	}
+	
+	/** Creates the tree of the syntax with leaf vectors set, but does not compute the 
+	 * vectors of internal nodes. Used for embedding many syntax in a batch. */
+	public static Tree buildSyntaxs(Syntax syntax, RecursiveTreeNetwork rte,
+										HashMap<SimpleSyntax, INDArray> simpleSyntaxVectors, 
+										HashMap<SimpleSyntax, GradientWrapper> simpleSyntaxVectorsGrad, 
+										HashMap<String, INDArray> attributeVectors,
+										HashMap<String, GradientWrapper> attributeVectorsGrad, 
+										HashMap<Slash, INDArray> slashVectors, 
+										HashMap<Slash, GradientWrapper> slashVectorsGrad, 
+										Set<String> updatedAttribute, Set<SimpleSyntax> updatedSimpleSyntax,
+										Set<Slash> updatedSlash) {
 		SyntaxsVisitor sv = new SyntaxsVisitor(rte, simpleSyntaxVectors, simpleSyntaxVectorsGrad,
 						attributeVectors, attributeVectorsGrad, slashVectors, slashVectorsGrad, updatedAttribute,
 						updatedSimpleSyntax, updatedSlash);
@@ -85,12 +110,6 @@ public class SyntaxsVisitor {
 		
 		assert sv.result.size() == 1;
 		
-		if(useRecursive) {
-			sv.rte.feedForward(sv.result.peek());
-		} else {
-			AveragingNetwork.averageAndSet(sv.result.peek());
-		}
-		
 		return sv.result.peek();
 	}
 	
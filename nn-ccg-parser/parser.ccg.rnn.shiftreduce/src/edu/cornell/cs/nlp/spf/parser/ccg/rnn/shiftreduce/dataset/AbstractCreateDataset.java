@@ -21,6 +21,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import edu.cornell.cs.nlp.spf.ccg.categories.Category;
@@ -345,10 +346,22 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 	}
 	
 	/** Creates data for situated model */
-	@SuppressWarnings("unchecked")
 	public List<Dataset> createDataset(IJointModelImmutable<SituatedSentence<AMRMeta>, 
 											LogicalExpression, LogicalExpression> model) {
 		
+		final List<Dataset> processedDataSet =  new LinkedList<Dataset>();
+		this.createDataset(model, processedDataSet::addAll);
+		this.dataset = processedDataSet;
+		
+		return processedDataSet;
+	}
+	
+	/** Creates data for situated model. Decision points of every sentence are given to the sink as 
+	 * soon as the sentence is parsed, which allows consuming them while parsing continues. */
+	@SuppressWarnings("unchecked")
+	public void createDataset(IJointModelImmutable<SituatedSentence<AMRMeta>, 
+								LogicalExpression, LogicalExpression> model, Consumer<List<Dataset>> sink) {
+		
 		LOG.info("Exact Data Creator Statistics");
 		LOG.info("Size of Raw dataset %s", this.trainingData.size());
 		LOG.info("Data Creator Beam Size: %s ", this.beamSize);
@@ -359,7 +372,7 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 		long totalParsingTime = 0;
 		int parsed = 0;
 					
-		List<Dataset> processedDataSet =  new LinkedList<Dataset>();
+		int datasetSize = 0;
 		
 		//Saved filters
 		final List<Predicate<ParsingOp<LogicalExpression>>> savedFilters;
@@ -509,11 +522,10 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 				List<Dataset> preProcessedDataSetSample =  
 								this.preProcessDataPoints(situatedSentence, (DerivationState<MR>) parseTree);
 				LOG.info("Generated % decision points", preProcessedDataSetSample.size());
-				processedDataSet.addAll(preProcessedDataSetSample);
+				datasetSize = datasetSize + preProcessedDataSetSample.size();
+				sink.accept(preProcessedDataSetSample);
 			}
 		}
-		this.dataset = processedDataSet;
-		
 		// Save the dataset. Since the entire dataset takes lots of space, 
 		// therefore we only store the AMR filters.
 		//TODO move the code below for saving/loading to separate function
@@ -536,12 +548,10 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 		this.isMemoized = true;
 		this.baseNeuralAmrParser.enablePacking();
 		
-		LOG.info("Composite Dataset size %s", processedDataSet.size());
+		LOG.info("Composite Dataset size %s", datasetSize);
 		LOG.info("Num parsed %s / %s", parsed, ex);
 		LOG.info("Total Parsing Time %s", totalParsingTime);
 		LOG.info("Average Parsing Time %s", totalParsingTime/Math.max((double)ex, 1));
-		
-		return processedDataSet;
 	}
 	
 	/** Creates data for situated model */
@@ -721,10 +731,22 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 	}
 	
 	/** Creates data for situated model */
-	@SuppressWarnings("unchecked")
 	public List<Dataset> createDiscontiguousEarlyUpdateDataset(IJointModelImmutable<SituatedSentence<AMRMeta>, 
 													LogicalExpression, LogicalExpression> model) {
 		
+		final List<Dataset> processedDataSet =  new LinkedList<Dataset>();
+		this.createDiscontiguousEarlyUpdateDataset(model, processedDataSet::addAll);
+		this.dataset = processedDataSet;
+		
+		return processedDataSet;
+	}
+	
+	/** Creates early update data for situated model. Decision points are given to the sink as soon as 
+	 * they are created, which allows consuming them while parsing continues. */
+	@SuppressWarnings("unchecked")
+	public void createDiscontiguousEarlyUpdateDataset(IJointModelImmutable<SituatedSentence<AMRMeta>, 
+								LogicalExpression, LogicalExpression> model, Consumer<List<Dataset>> sink) {
+		
 		if(!(this.amrEarlyUpdateFilterFactory instanceof AMRDiscontiguousEarlyUpdateParsingFilterFactory)) {
 			throw new RuntimeException("Cannot create discontiguous early update without a discontiguous filter");
 		}
@@ -742,7 +764,7 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 		long totalParsingTime = 0;
 		int parsed = 0;
 					
-		List<Dataset> processedDataSet =  new LinkedList<Dataset>();
+		int datasetSize = 0;
 		
 		//Saved filters
 		final List<Predicate<ParsingOp<LogicalExpression>>> exactParseFilters;
@@ -854,7 +876,8 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 						List<Dataset> preProcessedDataSetSample =  
 									this.preProcessDataPoints(situatedSentence, partialParseTree);
 						LOG.info("Generated % decision points", preProcessedDataSetSample.size());
-						processedDataSet.addAll(preProcessedDataSetSample);
+						datasetSize = datasetSize + preProcessedDataSetSample.size();
+						sink.accept(preProcessedDataSetSample);
 					}
 					
 					filter.clearCursor();	
@@ -862,8 +885,6 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 			}
 		}
 		
-		this.dataset = processedDataSet;
-		
 		// Save the dataset. Since the entire dataset takes lots of space, 
 		// therefore we only store the AMR filters.
 		if(this.saveCreatedDataset) {		
@@ -884,12 +905,10 @@ public abstract class AbstractCreateDataset<Dataset, SAMPLE extends IDataItem<?>
 		this.isMemoized = true;
 		this.baseNeuralAmrParser.enablePacking();
 		
-		LOG.info("Early Update Dataset size %s", processedDataSet.size());
+		LOG.info("Early Update Dataset size %s", datasetSize);
 		LOG.info("Num parsed %s / %s", parsed, ex);
 		LOG.info("Total Parsing Time %s", totalParsingTime);
 		LOG.info("Average Parsing Time %s", totalParsingTime/Math.max((double)ex, 1));
-		
-		return processedDataSet;
 	}
 	
 	@SuppressWarnings("unused")
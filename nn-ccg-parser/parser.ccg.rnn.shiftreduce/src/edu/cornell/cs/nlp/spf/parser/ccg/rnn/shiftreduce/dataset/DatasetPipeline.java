@@ -0,0 +1,199 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/** Streams decision points from a dataset creator running on a producer thread to a consumer (generally
+ * the learner), so that parsing the training data and training on the created points overlap.
+ *
+ * Back-pressure: at most capacity points are buffered. The producer blocks when the buffer is full,
+ * therefore memory is bounded by the capacity rather than by the size of the dataset.
+ *
+ * Staleness: points of at most maxStaleness sentences are handed over and not yet consumed. The producer
+ * blocks before handing over the points of another sentence, which bounds how many updates the consumer
+ * can make between creating a point and training on it. This bounds the lag only of parameters that the
+ * producer reads directly. Copies of the model used by the producer, such as cloned networks, are as old
+ * as their last refresh.
+ * @author Dipendra Misra
+ */
+public class DatasetPipeline<Dataset> implements Iterator<Dataset>, AutoCloseable {
+
+	public static final ILogger	LOG = LoggerFactory.create(DatasetPipeline.class);
+
+	private final BlockingQueue<Item<Dataset>> queue;
+	private final Semaphore staleness;
+	private final Thread producerThread;
+
+	private volatile Throwable producerError;
+	private volatile long numProduced;
+	private long numConsumed;
+
+	/** next item to be returned, null if it has not been fetched yet */
+	private Item<Dataset> next;
+
+	public DatasetPipeline(Consumer<Consumer<List<Dataset>>> producer, int capacity, int maxStaleness) {
+
+		if(capacity <= 0 || maxStaleness <= 0) {
+			throw new IllegalArgumentException("Pipeline capacity and staleness must be positive. Found "
+												+ capacity + " and " + maxStaleness);
+		}
+
+		this.queue = new ArrayBlockingQueue<Item<Dataset>>(capacity);
+		this.staleness = new Semaphore(maxStaleness);
+		this.numProduced = 0;
+		this.numConsumed = 0;
+		this.next = null;
+
+		this.producerThread = new Thread(() -> {
+			try {
+				producer.accept(this::emit);
+			} catch(Throwable e) {
+				this.producerError = e;
+			} finally {
+				this.putUninterruptibly(Item.<Dataset>end());
+			}
+		}, "dataset-pipeline");
+		this.producerThread.setDaemon(true);
+
+		LOG.info("Dataset Pipeline: capacity %s, maxStaleness %s", capacity, maxStaleness);
+	}
+
+	public void start() {
+		this.producerThread.start();
+	}
+
+	/** hands over the points of a sentence. Called on the producer thread. */
+	private void emit(List<Dataset> points) {
+
+		if(points.isEmpty()) {
+			return;
+		}
+
+		try {
+			this.staleness.acquire();
+
+			final Iterator<Dataset> it = points.iterator();
+			while(it.hasNext()) {
+				final Dataset point = it.next();
+				this.queue.put(new Item<Dataset>(point, !it.hasNext()));
+				this.numProduced++;
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Dataset pipeline was closed while creating the dataset");
+		}
+	}
+
+	private void putUninterruptibly(Item<Dataset> item) {
+
+		boolean interrupted = false;
+		while(true) {
+			try {
+				this.queue.put(item);
+				break;
+			} catch(InterruptedException e) {
+				//the consumer may have closed the pipeline, make space for the end marker
+				interrupted = true;
+				this.queue.clear();
+			}
+		}
+
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if(this.next == null) {
+			try {
+				this.next = this.queue.take();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the dataset pipeline");
+			}
+		}
+
+		if(this.next.isEnd()) {
+			//keep the end marker so that further calls also return false
+			if(this.producerError != null) {
+				throw new RuntimeException("Dataset creation failed", this.producerError);
+			}
+			return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public Dataset next() {
+
+		if(!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		final Item<Dataset> item = this.next;
+		this.next = null;
+		this.numConsumed++;
+
+		if(item.lastOfSentence) {
+			this.staleness.release();
+		}
+
+		return item.point;
+	}
+
+	/** stops the producer if it is still running and waits for it to finish */
+	@Override
+	public void close() {
+
+		if(this.producerThread.isAlive()) {
+			this.producerThread.interrupt();
+			this.queue.clear();
+
+			try {
+				this.producerThread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		LOG.info("Dataset Pipeline closed. Produced %s, consumed %s", this.numProduced, this.numConsumed);
+	}
+
+	public long getNumProduced() {
+		return this.numProduced;
+	}
+
+	public long getNumConsumed() {
+		return this.numConsumed;
+	}
+
+	private static class Item<Dataset> {
+
+		private final Dataset point;
+		private final boolean lastOfSentence;
+
+		Item(Dataset point, boolean lastOfSentence) {
+			this.point = point;
+			this.lastOfSentence = lastOfSentence;
+		}
+
+		static <Dataset> Item<Dataset> end() {
+			return new Item<Dataset>(null, false);
+		}
+
+		boolean isEnd() {
+			return this.point == null;
+		}
+	}
+}
@@ -8,15 +8,11 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Spliterator;
-import java.util.Spliterators;
-import java.util.Map.Entry;
-import java.util.stream.StreamSupport;
 
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
@@ -199,8 +195,9 @@ public class EmbedActionHistory<MR> implements AbstractEmbedding, AbstractRecurr
 		return this.getAllTopLayerEmbedding(parsingSteps);	
 	}
 
-	/** gets the embedding of list of current histories given a rnn state */
-	@SuppressWarnings("unchecked")
+	/** gets the embedding of many histories, each given with the persistent embedding of the
+	 * history on which the parsing operation is added. All the histories are advanced with a single 
+	 * time step of the recurrent network. */
 	public List<RecurrentTimeStepOutput> getAllEmbedding(
 										List<Pair<PersistentEmbeddings, ParsingOp<MR>>> parsingOpMap) {
 		
@@ -210,57 +207,15 @@ public class EmbedActionHistory<MR> implements AbstractEmbedding, AbstractRecurr
 			return new LinkedList<RecurrentTimeStepOutput>();
 		}
 		
-		INDArray input = Nd4j.zeros(new int[]{batchSize, this.nIn, 1});
-		
-		final int numLayers = this.net.getnLayers();
-		Map<String, INDArray>[] rnnStates = null; 
+		INDArray input = Nd4j.zeros(batchSize, this.nIn);
+		List<Map<String, INDArray>[]> rnnStates = new ArrayList<Map<String, INDArray>[]>(batchSize);
 		int ex = 0;
 		
 		for(Pair<PersistentEmbeddings, ParsingOp<MR>> e: parsingOpMap) {
 	
-			ParsingOp<MR> parsingOp = e.second();
-			ParsingOpEmbeddingResult result = parsingOpEmbed.getEmbedding(parsingOp); 
-			//this.parsingOpEmbeddingResult.add(result);
-			INDArray stepEmbed_ = result.getEmbedding();
-			
-			for(int i=0; i< this.nIn; i++) {
-				input.putScalar(new int[]{ex, i, 0}, stepEmbed_.getDouble(i));
-			}
-	
-			Map<String, INDArray>[] rnnState = e.first().getRNNState();
-			
-			if(rnnState != null) { //if null then by default the rnn state is all 0s
-				
-				if(rnnStates == null) {
-					rnnStates = new HashMap[numLayers];
-					for(int l=0; l<numLayers; l++) {
-						rnnStates[l] = new HashMap<String, INDArray>();
-					}
-				}
-				
-				for(int l=0; l<numLayers; l++) {
-					Map<String, INDArray> layerState = rnnState[l];
-					
-					for(Entry<String, INDArray> entry: layerState.entrySet()) {
-						String key = entry.getKey();
-						INDArray ar = entry.getValue();
-						INDArray state = rnnStates[l].get(key);
-						
-						int size = ar.size(1);
-						
-						if(state == null) {
-							state = Nd4j.zeros(new int[]{batchSize, size});
-							rnnStates[l].put(key, state);
-						}
-						
-						//modify state using ar
-						for(int j=0; j<size; j++) {
-							state.putScalar(new int[]{ex, j}, ar.getDouble(j));
-						}
-					}
-				}
-			}
-			ex++;
+			ParsingOpEmbeddingResult result = this.parsingOpEmbed.getEmbedding(e.second()); 
+			input.putRow(ex++, result.getEmbedding());
+			rnnStates.add(e.first().getRNNState());
 		}
 		
 		return this.parsingOpSeqEmbed.getAllEmbedding(input, rnnStates);
@@ -377,9 +332,7 @@ public class EmbedActionHistory<MR> implements AbstractEmbedding, AbstractRecurr
 			this.term++;
 		}
 		
-		StreamSupport.stream(Spliterators
-						.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true)
-						.forEach(p->this.parsingOpEmbed.backProp(p.second(), p.first()));
+		this.parsingOpEmbed.backProp(backpropParsingOp);
 		
 		LOG.debug(" Embed Action History ------- ]]");
 		this.parsingOpEmbeddingResult.clear();
@@ -440,9 +393,7 @@ public class EmbedActionHistory<MR> implements AbstractEmbedding, AbstractRecurr
 			this.term++;
 		}
 		
-		StreamSupport.stream(Spliterators
-						.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true)
-						.forEach(p->this.parsingOpEmbed.backProp(p.second(), p.first()));
+		this.parsingOpEmbed.backProp(backpropParsingOp);
 		
 		LOG.debug(" Embed Action History ------- ]]");
 		this.parsingOpEmbeddingResult.clear();
@@ -8,7 +8,7 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -17,7 +17,6 @@ import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.Stack;
-import java.util.Map.Entry;
 import java.util.stream.StreamSupport;
 
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
@@ -204,8 +203,9 @@ public class EmbedParserState<MR> implements AbstractEmbedding, AbstractRecurren
 		this.parserStateSeqEmbed.printTimeStamps();
 	}
 	
-	/** returns embedding of a set current states with the same rnn state activations */
-	@SuppressWarnings("unchecked")
+	/** returns embedding of many derivation states, each given with the persistent embedding 
+	 * of the sequence on which its rightmost category is added. All the states are advanced
+	 * with a single time step of the recurrent network. */
 	public List<RecurrentTimeStepOutput> getAllEmbedding(
 										List<Pair<PersistentEmbeddings, DerivationState<MR>>> stateMap) {
 	
@@ -215,10 +215,8 @@ public class EmbedParserState<MR> implements AbstractEmbedding, AbstractRecurren
 			return new LinkedList<RecurrentTimeStepOutput>();
 		}
 		
-		INDArray input = Nd4j.zeros(new int[]{batchSize, this.nIn, 1});
-		
-		final int numLayers = this.net.getnLayers();
-		Map<String, INDArray>[] rnnStates = null;
+		INDArray input = Nd4j.zeros(batchSize, this.nIn);
+		List<Map<String, INDArray>[]> rnnStates = new ArrayList<Map<String, INDArray>[]>(batchSize);
 		int ex = 0;
 		
 		for(Pair<PersistentEmbeddings, DerivationState<MR>> e: stateMap) {
@@ -237,47 +235,8 @@ public class EmbedParserState<MR> implements AbstractEmbedding, AbstractRecurren
 			}
 			
 			CategoryEmbeddingResult categoryResult = embedCategory.getCategoryEmbedding(rightmost);
-			//this.categoryResults.push(categoryResult);
-	
-			INDArray categoryEmbedding = categoryResult.getEmbedding();
-			for(int i = 0; i < this.nIn; i++)
-				input.putScalar(new int[]{ex, i, 0}, categoryEmbedding.getDouble(i)); //check this line
-			
-			Map<String, INDArray>[] rnnState = e.first().getRNNState();
-			
-			if(rnnState != null) { //if rnn state is null then by default rnn state is all 0s
-				
-				if(rnnStates == null) {
-					rnnStates = new HashMap[numLayers];
-					for(int l=0; l<numLayers; l++) {
-						rnnStates[l] = new HashMap<String, INDArray>();
-					}
-				}
-				
-				for(int l=0; l<numLayers; l++) {
-					Map<String, INDArray> layerState = rnnState[l];
-					
-					for(Entry<String, INDArray> entry: layerState.entrySet()) {
-						String key = entry.getKey();
-						INDArray ar = entry.getValue();
-						INDArray state = rnnStates[l].get(key);
-						
-						int size = ar.size(1);
-						
-						if(state == null) {
-							state = Nd4j.zeros(new int[]{batchSize, size});
-							rnnStates[l].put(key, state);
-						}
-						
-						//modify state using ar
-						for(int j=0; j<size; j++) {
-							state.putScalar(new int[]{ex, j}, ar.getDouble(j));
-						}
-					}
-				}
-			}
-			
-			ex++;
+			input.putRow(ex++, categoryResult.getEmbedding());
+			rnnStates.add(e.first().getRNNState());
 		}
 		
 		return this.parserStateSeqEmbed.getAllEmbedding(input, rnnStates);
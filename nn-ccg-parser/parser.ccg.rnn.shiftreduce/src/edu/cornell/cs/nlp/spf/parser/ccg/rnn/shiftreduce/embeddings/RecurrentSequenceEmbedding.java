@@ -1,5 +1,6 @@
 package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.embeddings;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -101,7 +102,7 @@ public class RecurrentSequenceEmbedding implements AbstractEmbedding {
 		}
 		
 		//this.getEmbedding(input, null);
-		this.getAllEmbedding(input, null);
+		this.getAllEmbedding(input, (Map<String, INDArray>[]) null);
 	}
 	
 	public void testRecurrent() {
@@ -252,21 +253,7 @@ public class RecurrentSequenceEmbedding implements AbstractEmbedding {
 		Map<String, INDArray>[] newRNNState = new HashMap[numLayers];
 
 		this.count.incrementAndGet();
-		int myNetworkId = -1;
-		//find a free network
-		boolean found = false;
-		while(!found) {
-			synchronized(this.free) {
-				for(int i=0; i<this.numThreads; i++) {
-					if(this.free[i]) {
-						found = true;
-						myNetworkId = i;
-						this.free[i] = false;
-						break;
-					}
-				}
-			}
-		}
+		final int myNetworkId = this.acquireNetwork();
 		
 		MultiLayerNetwork mynet = this.netClones[myNetworkId];
 		
@@ -330,13 +317,119 @@ public class RecurrentSequenceEmbedding implements AbstractEmbedding {
 			outputs.add(output);
 		}
 		
-		synchronized(this.free) {
-			this.free[myNetworkId] = true;
+		this.releaseNetwork(myNetworkId);
+		
+		return outputs;
+	}
+	
+	/** advances many sequences by one time step with a single call to the recurrent network. 
+	 * The i-th row of the input (of shape batchSize x nIn) is the next element of the i-th sequence and
+	 * the i-th rnn state is the state after reading the sequence, null for an empty sequence. States
+	 * are gathered into one minibatch and the new state of every example is a row of the batch
+	 * activations, so that states are not copied per example. */
+	public List<RecurrentTimeStepOutput> getAllEmbedding(INDArray input, 
+														List<Map<String, INDArray>[]> rnnStates) {
+		
+		final int numExamples = input.size(0);
+		final int numLayers = this.net.getnLayers();
+		this.exampleSize.addAndGet(numExamples);
+		this.count.incrementAndGet();
+		
+		if(rnnStates.size() != numExamples) {
+			throw new IllegalArgumentException("Number of rnn states and examples must be the same");
+		}
+		
+		long start1 = System.currentTimeMillis();
+		
+		//gather the previous states, if all are null then by default the rnn state is all 0s
+		Map<String, INDArray>[] batchRNNState = null;
+		int ex = 0;
+		
+		for(Map<String, INDArray>[] rnnState: rnnStates) {
+			
+			if(rnnState != null) {
+				
+				if(batchRNNState == null) {
+					batchRNNState = newRNNState(numLayers);
+				}
+				
+				for(int l = 0; l < numLayers; l++) {
+					for(Entry<String, INDArray> e: rnnState[l].entrySet()) {
+						INDArray state = batchRNNState[l].get(e.getKey());
+						if(state == null) {
+							state = Nd4j.zeros(numExamples, e.getValue().size(1));
+							batchRNNState[l].put(e.getKey(), state);
+						}
+						state.putRow(ex, e.getValue());
+					}
+				}
+			}
+			ex++;
+		}
+		
+		final int myNetworkId = this.acquireNetwork();
+		MultiLayerNetwork mynet = this.netClones[myNetworkId];
+		
+		mynet.rnnClearPreviousState();
+		if(batchRNNState != null) {
+			for(int l = 0; l < numLayers; l++) {
+				mynet.rnnSetPreviousState(l, batchRNNState[l]);
+			}
+		}
+		
+		long start2 = System.currentTimeMillis(); 
+		//do feedforwarding
+		final INDArray result = mynet.rnnTimeStep(input);
+		long start3 = System.currentTimeMillis();
+		
+		/* get the new activations. These are stored in row-major order since rows of column-major 
+		 * activations cannot be used as rnn state of a network. */
+		Map<String, INDArray>[] newRNNState = newRNNState(numLayers);
+		for(int l = 0; l < numLayers; l++) {
+			for(Entry<String, INDArray> e: mynet.rnnGetPreviousState(l).entrySet()) {
+				INDArray rowMajor = Nd4j.create(e.getValue().shape(), 'c');
+				rowMajor.assign(e.getValue());
+				newRNNState[l].put(e.getKey(), rowMajor);
+			}
+		}
+		
+		this.releaseNetwork(myNetworkId);
+		long start4 = System.currentTimeMillis();
+		
+		this.pre.addAndGet(start2 - start1);
+		this.mid.addAndGet(start3 - start2);
+		this.post.addAndGet(start4 - start3);
+		
+		//scatter the outputs and states
+		List<RecurrentTimeStepOutput> outputs = new ArrayList<RecurrentTimeStepOutput>(numExamples);
+		
+		for(ex = 0; ex < numExamples; ex++) {
+			
+			Map<String, INDArray>[] exampleRNNState = newRNNState(numLayers);
+			for(int l = 0; l < numLayers; l++) {
+				for(Entry<String, INDArray> e: newRNNState[l].entrySet()) {
+					exampleRNNState[l].put(e.getKey(), e.getValue().getRow(ex));
+				}
+			}
+			
+			outputs.add(new RecurrentTimeStepOutput(result.getRow(ex), exampleRNNState));
 		}
 		
 		return outputs;
 	}
 	
+	/** creates an rnn state with an empty map of activations for every layer */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Map<String, INDArray>[] newRNNState(int numLayers) {
+		
+		final Map<String, INDArray>[] rnnState = new Map[numLayers];
+		for(int l = 0; l < numLayers; l++) {
+			rnnState[l] = new HashMap<String, INDArray>();
+		}
+		
+		return rnnState;
+	}
+	
 	/** makes prediction on a time-series data using the recurrent-network given input and recurrent
 	 * input and returns all the intermediate embeddings including the final embedding */
 	public RecurrentTimeStepOutput getEmbedding(INDArray input, final Map<String, INDArray>[] rnnState) {
@@ -351,21 +444,7 @@ public class RecurrentSequenceEmbedding implements AbstractEmbedding {
 		Map<String, INDArray>[] newRNNState = new HashMap[numLayers];
 
 		this.count.incrementAndGet();
-		int myNetworkId = -1;
-		//find a free network
-		boolean found = false;
-		while(!found) {
-			synchronized(this.free) {
-				for(int i=0; i<this.numThreads; i++) {
-					if(this.free[i]) {
-						found = true;
-						myNetworkId = i;
-						this.free[i] = false;
-						break;
-					}
-				}
-			}
-		}
+		final int myNetworkId = this.acquireNetwork();
 		
 		MultiLayerNetwork mynet = this.netClones[myNetworkId];
 		
@@ -399,14 +478,33 @@ public class RecurrentSequenceEmbedding implements AbstractEmbedding {
 		for(int i = 0; i < this.nOut; i++)
 			embedding.putScalar(i, result.getDouble(new int[]{0, i, 0}));
 		
-		synchronized(this.free) {
-			this.free[myNetworkId] = true;
-		}
+		this.releaseNetwork(myNetworkId);
 		
 		RecurrentTimeStepOutput output = new RecurrentTimeStepOutput(embedding, newRNNState);
 		return output;
 	}
 	
+	/** returns id of a free clone of the network, waiting till one is available */
+	private int acquireNetwork() {
+		
+		while(true) {
+			synchronized(this.free) {
+				for(int i=0; i<this.numThreads; i++) {
+					if(this.free[i]) {
+						this.free[i] = false;
+						return i;
+					}
+				}
+			}
+		}
+	}
+	
+	private void releaseNetwork(int networkId) {
+		synchronized(this.free) {
+			this.free[networkId] = true;
+		}
+	}
+	
 	/** makes prediction on a time-series data using the recurrent-network and passes the 
 	 * embedding in the top layer. It returns output of size one more than the input time-series
 	 * with one extra representing no-sequence. Thus if time series is {a,b,c} then output array
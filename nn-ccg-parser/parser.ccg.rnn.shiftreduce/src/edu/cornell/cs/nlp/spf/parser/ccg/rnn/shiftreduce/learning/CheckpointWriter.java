@@ -0,0 +1,272 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/** Writes the parameters of a model to a single versioned file, which is read back with {@link MappedCheckpoint}.
+ * Every component of the model writes its parameters as named blocks. The file has the layout:
+ *
+ * <pre>
+ * header : int magic, int version
+ * blocks : parameter blocks one after another
+ * table  : int number of blocks, then for every block its name, long offset, long length and long crc32
+ * footer : long offset of the table, int version, int magic
+ * </pre>
+ *
+ * There are three kinds of blocks:
+ *
+ * <pre>
+ * array        : int rank, int[rank] shape, double[] values in c order
+ * arrays       : int n, followed by n arrays
+ * keyed arrays : int s, s strings (the string table), int n, then for every entry int number of args,
+ *                the ids of the args in the string table and int length of the vector. Followed by
+ *                the values of all the vectors (double) one after another.
+ * </pre>
+ *
+ * Strings are written as int length followed by utf-8 bytes. Values of keyed arrays are contiguous so that
+ * the vectors can be materialized lazily from the mapped file.
+ * @author Dipendra Misra
+ */
+public class CheckpointWriter implements Closeable {
+
+	public static final ILogger	LOG = LoggerFactory.create(CheckpointWriter.class);
+
+	/** "NCKP" */
+	static final int MAGIC = 0x4E434B50;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 2 * Integer.BYTES;
+	static final int FOOTER_BYTES = Long.BYTES + 2 * Integer.BYTES;
+
+	/** a block is mapped as a single buffer and therefore can't exceed 2GB */
+	static final long MAX_BLOCK_BYTES = Integer.MAX_VALUE;
+
+	private final String fileName;
+	private final BlockOutputStream blockOut;
+	private final DataOutputStream out;
+
+	private final List<String> names;
+	private final List<long[]> offsetLengthCrc;
+	private final Set<String> written;
+
+	/** name of the block being written, null if none */
+	private String currentBlock;
+	private long currentBlockStart;
+
+	private boolean closed;
+
+	public CheckpointWriter(String fileName) throws IOException {
+		this.fileName = fileName;
+		this.blockOut = new BlockOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+		this.out = new DataOutputStream(this.blockOut);
+
+		this.names = new ArrayList<String>();
+		this.offsetLengthCrc = new ArrayList<long[]>();
+		this.written = new HashSet<String>();
+		this.currentBlock = null;
+		this.closed = false;
+
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+	}
+
+	public synchronized void writeArray(String name, INDArray array) throws IOException {
+		this.beginBlock(name);
+		this.writeArrayContent(array);
+		this.endBlock();
+	}
+
+	public synchronized void writeArrays(String name, List<INDArray> arrays) throws IOException {
+		this.beginBlock(name);
+		this.out.writeInt(arrays.size());
+		for(INDArray array: arrays) {
+			this.writeArrayContent(array);
+		}
+		this.endBlock();
+	}
+
+	/** Writes vectors with their keys. Every key is a list of at least one non-null string. */
+	public synchronized void writeKeyedArrays(String name, List<String[]> keys, List<INDArray> vectors)
+																						throws IOException {
+
+		if(keys.size() != vectors.size()) {
+			throw new IllegalArgumentException("Different number of keys and vectors. Found keys: "
+												+ keys.size() + " and vectors: " + vectors.size());
+		}
+
+		this.beginBlock(name);
+
+		//string table
+		final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+		final List<String> strings = new ArrayList<String>();
+		for(String[] key: keys) {
+			for(String arg: key) {
+				if(!stringIds.containsKey(arg)) {
+					stringIds.put(arg, strings.size());
+					strings.add(arg);
+				}
+			}
+		}
+
+		this.out.writeInt(strings.size());
+		for(String s: strings) {
+			this.writeString(s);
+		}
+
+		//entries
+		this.out.writeInt(keys.size());
+		final Iterator<INDArray> vectorIt = vectors.iterator();
+		for(String[] key: keys) {
+			this.out.writeInt(key.length);
+			for(String arg: key) {
+				this.out.writeInt(stringIds.get(arg));
+			}
+			this.out.writeInt(vectorIt.next().length());
+		}
+
+		//values
+		for(INDArray vector: vectors) {
+			this.writeDoubles(vector.dup('c').data().asDouble());
+		}
+
+		this.endBlock();
+	}
+
+	private void beginBlock(String name) throws IOException {
+
+		if(this.closed) {
+			throw new IllegalStateException("Checkpoint writer is closed");
+		}
+
+		if(!this.written.add(name)) {
+			throw new IllegalArgumentException("Block " + name + " is written twice");
+		}
+
+		this.blockOut.crc.reset();
+		this.currentBlock = name;
+		this.currentBlockStart = this.blockOut.count;
+	}
+
+	private void endBlock() throws IOException {
+
+		final long length = this.blockOut.count - this.currentBlockStart;
+		if(length > MAX_BLOCK_BYTES) {
+			throw new IOException("Block " + this.currentBlock + " of " + length + " bytes exceeds the maximum size");
+		}
+
+		this.names.add(this.currentBlock);
+		this.offsetLengthCrc.add(new long[]{this.currentBlockStart, length, this.blockOut.crc.getValue()});
+		this.currentBlock = null;
+	}
+
+	private void writeArrayContent(INDArray array) throws IOException {
+
+		final int[] shape = array.shape();
+		this.out.writeInt(shape.length);
+		for(int dim: shape) {
+			this.out.writeInt(dim);
+		}
+
+		//dup makes the buffer contiguous, in c order and without offset
+		this.writeDoubles(array.dup('c').data().asDouble());
+	}
+
+	/** writes through a byte buffer rather than double by double, which is much faster for large blocks */
+	private void writeDoubles(double[] values) throws IOException {
+
+		final int chunk = 1 << 13;
+		final ByteBuffer buffer = ByteBuffer.allocate(chunk * Double.BYTES);
+
+		for(int start = 0; start < values.length; start += chunk) {
+			final int len = Math.min(chunk, values.length - start);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(values, start, len);
+			this.out.write(buffer.array(), 0, len * Double.BYTES);
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		this.out.writeInt(bytes.length);
+		this.out.write(bytes);
+	}
+
+	/** writes the table of blocks and the footer and closes the file */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+
+		try {
+			final long tableOffset = this.blockOut.count;
+			this.out.writeInt(this.names.size());
+
+			final Iterator<long[]> it = this.offsetLengthCrc.iterator();
+			for(String name: this.names) {
+				final long[] block = it.next();
+				this.writeString(name);
+				this.out.writeLong(block[0]);
+				this.out.writeLong(block[1]);
+				this.out.writeLong(block[2]);
+			}
+
+			this.out.writeLong(tableOffset);
+			this.out.writeInt(VERSION);
+			this.out.writeInt(MAGIC);
+		} finally {
+			this.out.close();
+		}
+
+		LOG.info("Wrote checkpoint %s with %s blocks and %s bytes", this.fileName, this.names.size(),
+																	this.blockOut.count);
+	}
+
+	/** counts the bytes written and computes the checksum of the current block */
+	private static class BlockOutputStream extends FilterOutputStream {
+
+		private final CRC32 crc;
+		private long count;
+
+		BlockOutputStream(OutputStream out) {
+			super(out);
+			this.crc = new CRC32();
+			this.count = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.crc.update(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.crc.update(b, off, len);
+			this.count = this.count + len;
+		}
+	}
+}
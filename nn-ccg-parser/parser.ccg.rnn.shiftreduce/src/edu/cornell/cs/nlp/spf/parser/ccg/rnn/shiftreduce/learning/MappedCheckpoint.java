@@ -0,0 +1,231 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/** Memory-mapped checkpoint written by {@link CheckpointWriter}. Blocks are mapped when the checkpoint
+ * is opened and are only read when asked for. Vectors of keyed arrays are materialized one at a time,
+ * therefore a model can be used without reading all its embeddings. All reads use absolute positions
+ * or duplicates of the mapped buffers, so a checkpoint can be shared across threads.
+ *
+ * Checksums are verified per block, when a block is first accessed. Verifying a block reads all of it,
+ * so with verification the first access of a keyed arrays block reads all its vectors from disk, even
+ * though they are still materialized lazily. Blocks that are never accessed are never read.
+ * @author Dipendra Misra
+ */
+public class MappedCheckpoint {
+
+	public static final ILogger	LOG = LoggerFactory.create(MappedCheckpoint.class);
+
+	private final String fileName;
+	private final Map<String, ByteBuffer> blocks;
+
+	/** checksums of the blocks that have not been verified yet, empty if verification is disabled */
+	private final Map<String, Long> unverified;
+
+	/** maps the checkpoint. If verify is true then the checksum of a block is checked when it is first
+	 * accessed, see {@link #getBlock(String)}. */
+	public MappedCheckpoint(String fileName, boolean verify) throws IOException {
+
+		this.fileName = fileName;
+		final long start = System.currentTimeMillis();
+
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+
+			final long size = channel.size();
+			if(size < CheckpointWriter.HEADER_BYTES + CheckpointWriter.FOOTER_BYTES) {
+				throw new IOException("Not a checkpoint file, too small: " + fileName);
+			}
+
+			final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, CheckpointWriter.HEADER_BYTES);
+			final ByteBuffer footer = channel.map(MapMode.READ_ONLY, size - CheckpointWriter.FOOTER_BYTES,
+													CheckpointWriter.FOOTER_BYTES);
+
+			if(header.getInt(0) != CheckpointWriter.MAGIC || footer.getInt(Long.BYTES + Integer.BYTES)
+																		!= CheckpointWriter.MAGIC) {
+				throw new IOException("Not a checkpoint file or incomplete checkpoint: " + fileName);
+			}
+
+			if(header.getInt(Integer.BYTES) != CheckpointWriter.VERSION) {
+				throw new IOException("Unsupported checkpoint version " + header.getInt(Integer.BYTES));
+			}
+
+			final long tableOffset = footer.getLong(0);
+			final ByteBuffer table = channel.map(MapMode.READ_ONLY, tableOffset,
+													size - CheckpointWriter.FOOTER_BYTES - tableOffset);
+
+			final int numBlocks = table.getInt();
+			this.blocks = new HashMap<String, ByteBuffer>();
+			this.unverified = new ConcurrentHashMap<String, Long>();
+
+			for(int i = 0; i < numBlocks; i++) {
+				final String name = readString(table);
+				final long offset = table.getLong();
+				final long length = table.getLong();
+				final long crc = table.getLong();
+
+				this.blocks.put(name, channel.map(MapMode.READ_ONLY, offset, length));
+
+				if(verify) {
+					this.unverified.put(name, crc);
+				}
+			}
+		}
+
+		LOG.info("Mapped checkpoint %s with %s blocks, verify %s. Time taken %s", fileName, this.blocks.size(),
+									verify, System.currentTimeMillis() - start);
+	}
+
+	public boolean hasBlock(String name) {
+		return this.blocks.containsKey(name);
+	}
+
+	/** returns a duplicate of the mapped block. Verifies the checksum of the block on first access. */
+	private ByteBuffer getBlock(String name) {
+
+		final ByteBuffer block = this.blocks.get(name);
+		if(block == null) {
+			throw new IllegalArgumentException("Checkpoint " + this.fileName + " has no block " + name);
+		}
+
+		final Long crc = this.unverified.get(name);
+		if(crc != null) {
+			//verifying the same block twice in a race is harmless
+			final CRC32 check = new CRC32();
+			check.update(block.duplicate());
+			if(check.getValue() != crc) {
+				throw new UncheckedIOException(new IOException("Checksum of block " + name
+									+ " does not match. Checkpoint " + this.fileName + " is corrupted"));
+			}
+			this.unverified.remove(name);
+		}
+
+		return block.duplicate();
+	}
+
+	public INDArray readArray(String name) {
+		return readArray(this.getBlock(name));
+	}
+
+	public List<INDArray> readArrays(String name) {
+
+		final ByteBuffer block = this.getBlock(name);
+		final int n = block.getInt();
+
+		final List<INDArray> arrays = new ArrayList<INDArray>(n);
+		for(int i = 0; i < n; i++) {
+			arrays.add(readArray(block));
+		}
+
+		return arrays;
+	}
+
+	/** Reads the keys of the block. Vectors are not read until asked for. */
+	public KeyedArrays readKeyedArrays(String name) {
+		return new KeyedArrays(this.getBlock(name));
+	}
+
+	private static INDArray readArray(ByteBuffer buffer) {
+
+		final int rank = buffer.getInt();
+		final int[] shape = new int[rank];
+		int length = 1;
+		for(int i = 0; i < rank; i++) {
+			shape[i] = buffer.getInt();
+			length = length * shape[i];
+		}
+
+		final double[] values = new double[length];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + length * Double.BYTES);
+
+		return Nd4j.create(values, shape, 'c');
+	}
+
+	private static String readString(ByteBuffer buffer) {
+
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** Keys and row vectors of a keyed arrays block. Vectors are read from the mapped file on every call
+	 * of {@link #get(int)}, callers are expected to cache them. */
+	public static class KeyedArrays {
+
+		private final List<String[]> keys;
+
+		/** vector i has values [offsets[i], offsets[i + 1]) */
+		private final int[] offsets;
+		private final DoubleBuffer values;
+
+		KeyedArrays(ByteBuffer block) {
+
+			final int numStrings = block.getInt();
+			final String[] strings = new String[numStrings];
+			for(int i = 0; i < numStrings; i++) {
+				strings[i] = readString(block);
+			}
+
+			final int n = block.getInt();
+			final List<String[]> keys = new ArrayList<String[]>(n);
+			this.offsets = new int[n + 1];
+
+			for(int i = 0; i < n; i++) {
+				final String[] key = new String[block.getInt()];
+				for(int j = 0; j < key.length; j++) {
+					key[j] = strings[block.getInt()];
+				}
+				keys.add(key);
+				this.offsets[i + 1] = this.offsets[i] + block.getInt();
+			}
+
+			this.keys = Collections.unmodifiableList(keys);
+			this.values = block.slice().asDoubleBuffer();
+		}
+
+		public int size() {
+			return this.keys.size();
+		}
+
+		public List<String[]> getKeys() {
+			return this.keys;
+		}
+
+		public String[] getKey(int i) {
+			return this.keys.get(i);
+		}
+
+		/** reads the i'th vector as a row vector */
+		public INDArray get(int i) {
+
+			final int offset = this.offsets[i];
+			final double[] vector = new double[this.offsets[i + 1] - offset];
+			for(int j = 0; j < vector.length; j++) {
+				vector[j] = this.values.get(offset + j);
+			}
+
+			return Nd4j.create(vector, new int[]{1, vector.length}, 'c');
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning;
+
+import java.util.List;
+import java.util.Map;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/** Floating point precision of nd4j arrays. nd4j has a single global data type and arrays of different
+ * data types can't be combined in an operation. Therefore the precision is switched once for the process
+ * using {@link #use()}, after which every stored parameter is converted using {@link #convert(INDArray)}.
+ * Arrays created after the switch, such as activations, have the new precision.
+ * @author Dipendra Misra
+ */
+public enum Precision {
+
+	DOUBLE(DataBuffer.Type.DOUBLE),
+	FLOAT(DataBuffer.Type.FLOAT);
+
+	public static final ILogger	LOG = LoggerFactory.create(Precision.class);
+
+	private final DataBuffer.Type type;
+
+	private Precision(DataBuffer.Type type) {
+		this.type = type;
+	}
+
+	/** precision of the arrays that are created now */
+	public static Precision current() {
+		return Nd4j.dataType() == DataBuffer.Type.FLOAT ? FLOAT : DOUBLE;
+	}
+
+	/** sets the precision of all arrays created from now on */
+	public synchronized void use() {
+
+		if(current() == this) {
+			return;
+		}
+
+		Nd4j.dtype = this.type;
+		Nd4j.factory().setDType(this.type);
+		LOG.info("Switched nd4j precision to %s", this);
+	}
+
+	/** Copies the array into an array of the current precision. Arrays that already have the current
+	 * precision are returned as is. Only vectors and matrices are supported. */
+	public static INDArray convert(INDArray array) {
+
+		if(array == null || array.data().dataType() == Nd4j.dataType()) {
+			return array;
+		}
+
+		if(array.rank() > 2) {
+			throw new IllegalArgumentException("Only vectors and matrices can be converted. Found rank " + array.rank());
+		}
+
+		final int rows = array.rows();
+		final int columns = array.columns();
+		final double[] values;
+
+		if(array.ordering() == 'c' && array.offset() == 0 && array.data().length() == rows * columns) {
+			//contiguous array, read the buffer directly
+			values = array.data().asDouble();
+		} else {
+			values = new double[rows * columns];
+			for(int i = 0; i < rows; i++) {
+				for(int j = 0; j < columns; j++) {
+					values[i * columns + j] = array.getDouble(i, j);
+				}
+			}
+		}
+
+		return Nd4j.create(values, new int[]{rows, columns}, 'c');
+	}
+
+	/** converts all the arrays in the list, in place */
+	public static void convert(List<INDArray> arrays) {
+		arrays.replaceAll(Precision::convert);
+	}
+
+	/** converts all the arrays in the map, in place */
+	public static <K> void convert(Map<K, INDArray> arrays) {
+		arrays.replaceAll((key, array) -> convert(array));
+	}
+}
@@ -588,9 +588,7 @@ public class RNNShiftReduceLearner<SAMPLE extends IDataItem<?>, DI extends ILabe
 					backpropParsingOp.add(Pair.of(parseOpResult, error));
 				}
 				
-				StreamSupport.stream(Spliterators
-						.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true).unordered()
-						.forEach(p->embedParsingOp.backProp(p.second(), p.first()));
+				embedParsingOp.backProp(backpropParsingOp);
 				
 				//backprop through the recurrent networks and their leaves
 				final int dimAction = embedActionHistory.getDimension();
@@ -1204,9 +1202,7 @@ public class RNNShiftReduceLearner<SAMPLE extends IDataItem<?>, DI extends ILabe
 						}
 						///////////////////////////////
 						
-						StreamSupport.stream(Spliterators
-								.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true).unordered()
-								.forEach(p->embedParsingOp.backProp(p.second(), p.first()));
+						embedParsingOp.backProp(backpropParsingOp);
 						
 						//update the errors for recurrent network
 						if(!Double.isFinite(decisionGradX.sumNumber().doubleValue())) {
@@ -1741,9 +1737,7 @@ public class RNNShiftReduceLearner<SAMPLE extends IDataItem<?>, DI extends ILabe
 						///////////////////////////////
 						
 						//if(iter_ > 2) { //for first 2 epochs we only train via RNNs
-						StreamSupport.stream(Spliterators
-								.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true).unordered()
-								.forEach(p->embedParsingOp.backProp(p.second(), p.first()));
+						embedParsingOp.backProp(backpropParsingOp);
 						//}
 						
 						//update the errors for recurrent network
@@ -2498,9 +2492,7 @@ public class RNNShiftReduceLearner<SAMPLE extends IDataItem<?>, DI extends ILabe
 						}
 						///////////////////////
 						
-						StreamSupport.stream(Spliterators
-								.spliterator(backpropParsingOp, Spliterator.IMMUTABLE), true).unordered()
-								.forEach(p->embedParsingOp.backProp(p.second(), p.first()));
+						embedParsingOp.backProp(backpropParsingOp);
 						
 						//update the errors for recurrent network
 						if(!Double.isFinite(decisionGradX.sumNumber().doubleValue())) {
@@ -4,11 +4,14 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.Spliterator;
@@ -415,54 +418,62 @@ public class NeuralNetworkShiftReduceParser<DI extends Sentence, MR> implements
 	
 	/** encodes the derivation state, history of actions and word buffer*/
 	public INDArray encodeState(DerivationState<MR> dstate, INDArray[] sentenceEmbedding, int n) {
+		return this.encodeStates(Collections.singletonList(dstate), sentenceEmbedding, n).get(0);
+	}
+	
+	/** encodes many derivation states together. The recurrent networks embedding the history of 
+	 * actions and the derivation states are advanced for all the states with a single time step, 
+	 * starting from the persistent embeddings of their parents. */
+	public List<INDArray> encodeStates(List<DerivationState<MR>> dstates, INDArray[] sentenceEmbedding, int n) {
+		
+		final int numStates = dstates.size();
+		if(numStates == 0) {
+			return new ArrayList<INDArray>();
+		}
 		
-		final INDArray a1, a2, a3;
-    	
-	    DerivationState<MR> parent = dstate.getParent();
-	    
-	    if(parent == null) { //Handle the degenerate case where the parent is null
-	    	//there is no category embedding or action embedding. We take them as 0.
-	    	
-	    	a1 = Nd4j.zeros(this.embedActionHistory.getDimension());
-		    
-		    PersistentEmbeddings newParsingOpEmbedding = new PersistentEmbeddings(null, null); 
-			dstate.setParsingOpPersistentEmbedding(newParsingOpEmbedding);
-			
-			a2 = Nd4j.zeros(this.embedParserState.getDimension());
+		final INDArray[] a1 = new INDArray[numStates], a2 = new INDArray[numStates];
+		
+		/* states whose history of actions and derivation state is embedded in a batch, along with
+		 * the persistent embedding of the sequence they extend */
+		final List<Integer> actionIx = new ArrayList<Integer>();
+		final List<Pair<PersistentEmbeddings, ParsingOp<MR>>> actionBatch = 
+								new ArrayList<Pair<PersistentEmbeddings, ParsingOp<MR>>>();
+		final List<Integer> stateIx = new ArrayList<Integer>();
+		final List<Pair<PersistentEmbeddings, DerivationState<MR>>> stateBatch = 
+								new ArrayList<Pair<PersistentEmbeddings, DerivationState<MR>>>();
+		
+		for(int i = 0; i < numStates; i++) {
 			
-			PersistentEmbeddings newStatePersistentEmbedding = new PersistentEmbeddings(null, null); 
-			dstate.setStatePersistentEmbedding(newStatePersistentEmbedding);			
-	    } else { 
+			final DerivationState<MR> dstate = dstates.get(i);
+		    final DerivationState<MR> parent = dstate.getParent();
+		    
+		    if(parent == null) { //Handle the degenerate case where the parent is null
+		    	//there is no category embedding or action embedding. We take them as 0.
+		    	
+		    	a1[i] = Nd4j.zeros(this.embedActionHistory.getDimension());
+			    
+			    PersistentEmbeddings newParsingOpEmbedding = new PersistentEmbeddings(null, null); 
+				dstate.setParsingOpPersistentEmbedding(newParsingOpEmbedding);
+				
+				a2[i] = Nd4j.zeros(this.embedParserState.getDimension());
+				
+				PersistentEmbeddings newStatePersistentEmbedding = new PersistentEmbeddings(null, null); 
+				dstate.setStatePersistentEmbedding(newStatePersistentEmbedding);
+				continue;
+		    }
 		    
 	    	IWeightedShiftReduceStep<MR> dstateStep = dstate.returnStep();
-			/*SentenceSpan parsingSpan = new SentenceSpan(dstateStep.getStart(), dstateStep.getEnd(), n);
-	    	ParsingOp<MR> parsingOp = new ParsingOp<MR>(dstateStep.getRoot(),
-	    	 								parsingSpan, dstateStep.getRuleName());*/
 	    	ParsingOp<MR> parsingOp = dstate.returnParsingOp();
 	    	
 		    /* Embedding the history of parsing operations.
 		     * For the parsing operations the previous rnn state is that of its parent since 
 		     * actions are added on top the parent's action list. */
-		    PersistentEmbeddings parsingOpPersistentEmbedding = parent
-													.getParsingOpPersistentEmbedding();
-		    
-		    RecurrentTimeStepOutput recurrentStepOutputParsingOp = this.embedActionHistory
-			    						.getEmbedding(parsingOp, parsingOpPersistentEmbedding.getRNNState());
-			    
-			a1 = recurrentStepOutputParsingOp.getEmbedding();
-		    
-		    PersistentEmbeddings newParsingOpEmbedding = new PersistentEmbeddings(
-		    					recurrentStepOutputParsingOp.getRNNState(), parsingOpPersistentEmbedding); 
-			dstate.setParsingOpPersistentEmbedding(newParsingOpEmbedding);
+		    actionIx.add(i);
+		    actionBatch.add(Pair.of(parent.getParsingOpPersistentEmbedding(), parsingOp));
 		    
 			/* Embedding the derivation state. 
 		     * For the derivation state the persistent embedding to work are trickier. For shift and unary
 		     * reduce its given by the previous parent. For binary reduce its given by its grandparent. */
-			
-			final DerivationState<MR> rnnPrevStateParent;
-			final PersistentEmbeddings statePersistentEmbedding;
-			final RecurrentTimeStepOutput recurrentStepOutputDState;
-			
 			if(dstateStep instanceof WeightedShiftReduceParseStep<?>) { // check for reduce step 
 				
 				DerivationStateHorizontalIterator<MR> hit = dstate.horizontalIterator();
@@ -478,58 +489,73 @@ public class NeuralNetworkShiftReduceParser<DI extends Sentence, MR> implements
 				/* Why a special case is needed. */
 				if(nextLeft == null && dstate.getRightCategory() != null) { //special case 
 					
-					rnnPrevStateParent = null;
 					Pair<RecurrentTimeStepOutput, PersistentEmbeddings> pairedResult = this.embedParserState
     						.getEmbedding(dstate.getLeftCategory(), dstate.getRightCategory()); 
 					
-					statePersistentEmbedding = pairedResult.second();
-					recurrentStepOutputDState = pairedResult.first();
-					
-					a2 = recurrentStepOutputDState.getEmbedding();
+					a2[i] = pairedResult.first().getEmbedding();
+					dstate.setStatePersistentEmbedding(new PersistentEmbeddings(
+							pairedResult.first().getRNNState(), pairedResult.second()));
 					
+				} else if(nextLeft == null) {
+					stateIx.add(i);
+					stateBatch.add(Pair.of(new PersistentEmbeddings(null, null), dstate));
 				} else {
-					rnnPrevStateParent = nextLeft;
-					
-					if(rnnPrevStateParent == null) {
-						statePersistentEmbedding = new PersistentEmbeddings(null, null);
-						
-					} else {
-						statePersistentEmbedding = rnnPrevStateParent.getStatePersistentEmbedding();
-					}
-					
-					recurrentStepOutputDState = this.embedParserState
-    						.getEmbedding(dstate, statePersistentEmbedding.getRNNState());
-					a2 = recurrentStepOutputDState.getEmbedding();
+					stateIx.add(i);
+					stateBatch.add(Pair.of(nextLeft.getStatePersistentEmbedding(), dstate));
 				}
 				
 			} else { //lexical step
-				
-				rnnPrevStateParent = parent;
-				statePersistentEmbedding = rnnPrevStateParent.getStatePersistentEmbedding();
-				recurrentStepOutputDState = this.embedParserState
-										.getEmbedding(dstate, statePersistentEmbedding.getRNNState());
-				a2 = recurrentStepOutputDState.getEmbedding();
+				stateIx.add(i);
+				stateBatch.add(Pair.of(parent.getStatePersistentEmbedding(), dstate));
 			}
-		    
-		    PersistentEmbeddings newStatePersistentEmbedding = new PersistentEmbeddings(
-		    		recurrentStepOutputDState.getRNNState(), statePersistentEmbedding); 
-		    dstate.setStatePersistentEmbedding(newStatePersistentEmbedding);
-	    }
+		}
 		
-	    /* Embedding the word buffer. Simply look up the table of word embeddings */
-		a3 = sentenceEmbedding[dstate.wordsConsumed];//this.embedWordBuffer.getEmbedding(tk.sub(dstate.wordsConsumed, n).toList());
-	
-		/* perform affine transformation on a1,a2,a3 to give weights to these encodings. 
-		 * Return g(A[a1; a2; a3] + b)*/
+		List<RecurrentTimeStepOutput> actionOutputs = this.embedActionHistory.getAllEmbedding(actionBatch);
+		Iterator<RecurrentTimeStepOutput> actionIt = actionOutputs.iterator();
+		for(int j = 0; j < actionIx.size(); j++) {
+			final RecurrentTimeStepOutput output = actionIt.next();
+			final int i = actionIx.get(j);
+			a1[i] = output.getEmbedding();
+			dstates.get(i).setParsingOpPersistentEmbedding(new PersistentEmbeddings(
+									output.getRNNState(), actionBatch.get(j).first()));
+		}
+		
+		List<RecurrentTimeStepOutput> stateOutputs = this.embedParserState.getAllEmbedding(stateBatch);
+		Iterator<RecurrentTimeStepOutput> stateIt = stateOutputs.iterator();
+		for(int j = 0; j < stateIx.size(); j++) {
+			final RecurrentTimeStepOutput output = stateIt.next();
+			final int i = stateIx.get(j);
+			a2[i] = output.getEmbedding();
+			dstates.get(i).setStatePersistentEmbedding(new PersistentEmbeddings(
+									output.getRNNState(), stateBatch.get(j).first()));
+		}
 		
-		INDArray concat = Nd4j.concat(1, Nd4j.concat(1, a1, a2), a3).transpose();
-		INDArray currentPreOutput = this.A.mmul(concat).add(this.b).transpose();
+		/* Embedding the word buffer. Simply look up the table of word embeddings.
+		 * Perform affine transformation on a1,a2,a3 to give weights to these encodings. 
+		 * Return g(A[a1; a2; a3] + b) for every state, as rows of one matrix */
+		INDArray concat = null;
+		for(int i = 0; i < numStates; i++) {
+			
+			final INDArray a3 = sentenceEmbedding[dstates.get(i).wordsConsumed];
+			final INDArray row = Nd4j.concat(1, Nd4j.concat(1, a1[i], a2[i]), a3);
+			
+			if(concat == null) {
+				concat = Nd4j.zeros(numStates, row.size(1));
+			}
+			concat.putRow(i, row);
+		}
+		
+		INDArray currentPreOutput = concat.mmul(this.A.transpose()).addiRowVector(this.b.transpose());
 		
 		INDArray current = Nd4j.getExecutioner()
-				   			   .execAndReturn(new /*RectifedLinear*/Tanh(currentPreOutput.dup()));
+				   			   .execAndReturn(new /*RectifedLinear*/Tanh(currentPreOutput));
 		
-		return current;
-		//return concat;
+		List<INDArray> encodings = new ArrayList<INDArray>(numStates);
+		for(int i = 0; i < numStates; i++) {
+			encodings.add(current.getRow(i));
+		}
+		
+		return encodings;
 	}
 	
 	@Override
@@ -695,8 +721,21 @@ public class NeuralNetworkShiftReduceParser<DI extends Sentence, MR> implements
 		}
 		
 		//Bootstrap sentence embeddings
-		INDArray[] sentenceEmbedding = this.embedWordBuffer.getAllSuffixEmbeddings(tk.toList(), tags);	
-		
+		INDArray[] sentenceEmbedding = this.embedWordBuffer.getAllSuffixEmbeddings(tk.toList(), tags);
+
+		//Bootstrap embeddings of all categories that can be shifted, in one batch
+		Set<Category<MR>> shiftCategories = new HashSet<Category<MR>>();
+		for(int i = 0; i < n; i++) {
+			for(int j = i + 1; j <= n; j++) {
+				Iterator<LexicalResult<MR>> lexicalResults = this.lexicalRule.apply(tk.sub(i, j),
+														new SentenceSpan(i, j - 1, n), compositeLexicon);
+				while(lexicalResults.hasNext()) {
+					shiftCategories.add(lexicalResults.next().getResultCategory());
+				}
+			}
+		}
+		this.embedCategory.embedCategories(shiftCategories);
+
 		while(!isEmpty) {
 			LOG.debug("=========== CYCLE %s =============", ++cycle);
 			Iterator<DirectAccessBoundedPriorityQueue<PackedState<MR>>> iterBeam = beam.iterator();
@@ -711,6 +750,18 @@ public class NeuralNetworkShiftReduceParser<DI extends Sentence, MR> implements
 				final int size = pstates.size();
 				final int numBatches = (int) Math.ceil(size/(double)numCores);
 				
+				// Compute encoding of the best state of every packed state in this beam, in one batch
+				List<DerivationState<MR>> allDStates = new ArrayList<DerivationState<MR>>(size);
+				for(PackedState<MR> pstate: allPStates) {
+					allDStates.add(pstate.getBestState());
+				}
+				
+				List<INDArray> allEncodings = this.encodeStates(allDStates, sentenceEmbedding, n);
+				Map<DerivationState<MR>, INDArray> encodings = new IdentityHashMap<DerivationState<MR>, INDArray>();
+				for(int j = 0; j < allDStates.size(); j++) {
+					encodings.put(allDStates.get(j), allEncodings.get(j));
+				}
+				
 				for(int i = 0; i < numBatches; i++) {
 					
 				int startIndex = numCores*i;
@@ -737,7 +788,7 @@ public class NeuralNetworkShiftReduceParser<DI extends Sentence, MR> implements
 					List<ParsingOp<MR>> possibleActions = new LinkedList<ParsingOp<MR>>();
 					
 					// Compute encoding of the given state
-					INDArray current = this.encodeState(dstate, sentenceEmbedding, n);
+					INDArray current = encodings.get(dstate);
 					LOG.debug("Current %s", current);
 					assert current != null;
 					
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.stream.IntStream;
 import java.util.stream.StreamSupport;
 import java.util.Set;
@@ -66,6 +67,7 @@ import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive.Tree;
 import edu.cornell.cs.nlp.spf.parser.ccg.rules.RuleName;
 import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.stacks.LexicalParsingOp;
 import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.steps.ShiftReduceLexicalStep;
+import edu.cornell.cs.nlp.utils.composites.Pair;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 
@@ -866,6 +868,13 @@ public class ParsingOpEmbedding<MR> implements AbstractEmbedding {
 	}
 	
 	public void backPropSharedSpace(INDArray errorY, ParsingOpEmbeddingResult parseOpResult) {
+		this.backPropSharedSpace(errorY, parseOpResult, null);
+	}
+	
+	/** if categoryErrors is not null then the error of the category is added to it 
+	 * instead of being backpropagated through the category embedding */
+	private void backPropSharedSpace(INDArray errorY, ParsingOpEmbeddingResult parseOpResult, 
+										Queue<Pair<CategoryEmbeddingResult, INDArray>> categoryErrors) {
 		
 		if(this.doSquashing) {
 			throw new RuntimeException("Do Squashing should be closed");
@@ -897,7 +906,11 @@ public class ParsingOpEmbedding<MR> implements AbstractEmbedding {
 			final Tree semanticsTree = categResult.getSemanticTree();
 			
 			INDArray errorCategory = error.get(NDArrayIndex.interval(0, this.categEmbedding.getDimension()));
-			this.categEmbedding.backprop(syntacticTree, semanticsTree, errorCategory);
+			if(categoryErrors == null) {
+				this.categEmbedding.backprop(syntacticTree, semanticsTree, errorCategory);
+			} else {
+				categoryErrors.add(Pair.of(categResult, errorCategory));
+			}
 		}
 		
 		//update lexical embedding
@@ -974,10 +987,42 @@ public class ParsingOpEmbedding<MR> implements AbstractEmbedding {
 		}
 	}
 	
+	/** backpropagates the errors of many parsing operations together. Errors of the 
+	 * categories are collected and backpropagated through the category embedding in one
+	 * batch, which evaluates the recursive networks level by level. */
+	public void backProp(List<Pair<ParsingOpEmbeddingResult, INDArray>> parsingOpErrors) {
+		
+		final Queue<Pair<CategoryEmbeddingResult, INDArray>> categoryErrors = 
+								new ConcurrentLinkedQueue<Pair<CategoryEmbeddingResult, INDArray>>();
+		
+		StreamSupport.stream(Spliterators
+				.spliterator(parsingOpErrors, Spliterator.IMMUTABLE), true).unordered()
+				.forEach(p -> this.backProp(p.second(), p.first(), categoryErrors));
+		
+		final List<Tree> syntacticTrees = new ArrayList<Tree>(categoryErrors.size());
+		final List<Tree> semanticsTrees = new ArrayList<Tree>(categoryErrors.size());
+		final List<INDArray> errors = new ArrayList<INDArray>(categoryErrors.size());
+		
+		for(Pair<CategoryEmbeddingResult, INDArray> p: categoryErrors) {
+			syntacticTrees.add(p.first().getSyntacticTree());
+			semanticsTrees.add(p.first().getSemanticTree());
+			errors.add(p.second());
+		}
+		
+		this.categEmbedding.backprop(syntacticTrees, semanticsTrees, errors);
+	}
+	
 	public void backProp(INDArray error, ParsingOpEmbeddingResult parseOpResult) {
+		this.backProp(error, parseOpResult, null);
+	}
+	
+	/** if categoryErrors is not null then the error of the category is added to it 
+	 * instead of being backpropagated through the category embedding */
+	private void backProp(INDArray error, ParsingOpEmbeddingResult parseOpResult, 
+							Queue<Pair<CategoryEmbeddingResult, INDArray>> categoryErrors) {
 		
 		if(this.useSharedSpace) {
-			this.backPropSharedSpace(error, parseOpResult);
+			this.backPropSharedSpace(error, parseOpResult, categoryErrors);
 			return;
 		}
 		
@@ -1022,7 +1067,11 @@ public class ParsingOpEmbedding<MR> implements AbstractEmbedding {
 			
 			INDArray errorCategory = error.get(NDArrayIndex.interval(this.actionDim,
 												this.actionDim + this.categEmbedding.getDimension()));
-			this.categEmbedding.backprop(syntacticTree, semanticsTree, errorCategory);
+			if(categoryErrors == null) {
+				this.categEmbedding.backprop(syntacticTree, semanticsTree, errorCategory);
+			} else {
+				categoryErrors.add(Pair.of(categResult, errorCategory));
+			}
 		}
 		
 		//update lexical embedding
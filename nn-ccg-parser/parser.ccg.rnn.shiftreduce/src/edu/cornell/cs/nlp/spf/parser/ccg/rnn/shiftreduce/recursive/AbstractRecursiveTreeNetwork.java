@@ -1,5 +1,7 @@
 package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive;
 
+import java.util.List;
+
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 public interface AbstractRecursiveTreeNetwork {
@@ -7,9 +9,17 @@ public interface AbstractRecursiveTreeNetwork {
 	/** perform forward pas through the tree t */
 	public INDArray feedForward(Tree t);
 	
+	/** perform forward pass through many trees together. Nodes of all the trees are 
+	 *  grouped by height and every level is computed in one batch. */
+	public void feedForward(List<Tree> trees);
+	
 	/** perform backpropagation through the tree t. Assumes that a forward
 	 *  pass over the tree has been made and vectors are initialized correctly
 	 *  by the values in the forward pass */
 	public void backProp(Tree t, INDArray loss);
+	
+	/** perform backpropagation through many trees together, level by level. 
+	 *  The i-th loss is the loss for the root of the i-th tree. */
+	public void backProp(List<Tree> trees, List<INDArray> losses);
 
 }
@@ -13,6 +13,10 @@ public class GradientWrapper implements Serializable {
 	private int freq;
 	private final int dim;
 	
+	/** version of the parameters in which the vector of this gradient was last updated, 
+	 * used to detect stale cached embeddings that depend on the vector */
+	private transient volatile long version;
+	
 	public GradientWrapper(int dim) {
 		this.sumGradient = Nd4j.zeros(dim);
 		this.freq = 0;
@@ -40,4 +44,12 @@ public class GradientWrapper implements Serializable {
 	public  int getDimension() {
 		return this.dim;
 	}
+	
+	public long getVersion() {
+		return this.version;
+	}
+	
+	public void setVersion(long version) {
+		this.version = version;
+	}
 }
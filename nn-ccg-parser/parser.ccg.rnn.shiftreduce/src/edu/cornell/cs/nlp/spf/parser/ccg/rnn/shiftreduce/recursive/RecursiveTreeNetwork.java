@@ -1,6 +1,10 @@
 package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.stream.IntStream;
 
@@ -13,6 +17,7 @@ import org.nd4j.linalg.factory.Nd4j;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.embeddings.AbstractEmbedding;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Helper;
 import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.LearningRate;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
 import edu.cornell.cs.nlp.utils.log.ILogger;
 import edu.cornell.cs.nlp.utils.log.LogLevel;
 import edu.cornell.cs.nlp.utils.log.LoggerFactory;
@@ -23,7 +28,7 @@ public class RecursiveTreeNetwork implements AbstractRecursiveTreeNetwork, Abstr
 
 	public static final ILogger LOG = LoggerFactory.create(RecursiveTreeNetwork.class);
 	
-	private final INDArray W, b;
+	private INDArray W, b;
 	private final int n;
 	private final INDArray gradW, gradb;
 	private final double regularizer;
@@ -87,6 +92,13 @@ public class RecursiveTreeNetwork implements AbstractRecursiveTreeNetwork, Abstr
 		LOG.setCustomLevel(LogLevel.INFO);
 	}
 	
+	/** Converts W and b to the current nd4j precision, see {@link Precision}. Gradients are not
+	 * converted therefore the network can only be used for inference after this call. */
+	public void convertParameters() {
+		this.W = Precision.convert(this.W);
+		this.b = Precision.convert(this.b);
+	}
+	
 	@Override
 	public INDArray feedForward(Tree t) {
 		
@@ -257,6 +269,198 @@ public class RecursiveTreeNetwork implements AbstractRecursiveTreeNetwork, Abstr
 		
 	}
 	
+	/** Forward pass through many trees. Internal nodes of all the trees are grouped by
+	 * height, and every level is computed with one matrix multiplication [left right] W^T + b
+	 * followed by an in-place non-linearity. Subtrees shared between trees are computed once.
+	 * The vector and preOutput of every node are rows of the level matrices. */
+	@Override
+	public void feedForward(List<Tree> trees) {
+
+		final Map<Tree, Integer> heights = new IdentityHashMap<Tree, Integer>();
+		final List<List<Tree>> levels = new ArrayList<List<Tree>>();
+
+		for(Tree t: trees) {
+			this.addToLevels(t, heights, levels);
+		}
+
+		for(int h = 1; h < levels.size(); h++) {
+
+			final List<Tree> level = levels.get(h);
+			final INDArray x = this.stackChildren(level);
+
+			final INDArray preOutput = x.mmul(this.W.transpose()).addiRowVector(this.b.transpose());
+			final INDArray nonLinear = Nd4j.getExecutioner().execAndReturn(new Tanh(preOutput.dup()));
+
+			for(int i = 0; i < level.size(); i++) {
+				final Tree t = level.get(i);
+				t.setPreOutput(preOutput.getRow(i));
+				t.setVector(nonLinear.getRow(i));
+			}
+		}
+	}
+
+	/** Backpropagation through many trees, level by level from the highest level. Every
+	 * occurrence of a node receives its own error, so the result is the same as calling
+	 * {@link #backProp(Tree, INDArray)} on every tree. Assumes a forward pass has been made. */
+	@Override
+	public void backProp(List<Tree> trees, List<INDArray> errors) {
+
+		if(trees.size() != errors.size()) {
+			throw new IllegalArgumentException("Number of trees and errors must be the same");
+		}
+
+		final Map<Tree, Integer> heights = new IdentityHashMap<Tree, Integer>();
+		final List<List<Tree>> nodes = new ArrayList<List<Tree>>();
+		final List<List<INDArray>> nodeErrors = new ArrayList<List<INDArray>>();
+
+		for(int i = 0; i < trees.size(); i++) {
+			this.addOccurrence(trees.get(i), errors.get(i), heights, nodes, nodeErrors);
+		}
+
+		final double threshold = 5.0;
+
+		for(int h = nodes.size() - 1; h > 0; h--) {
+
+			final List<Tree> level = nodes.get(h);
+			if(level.isEmpty()) {
+				continue;
+			}
+
+			final int m = level.size();
+			final INDArray error = Nd4j.create(m, this.n);
+			final INDArray nonLinearDerivative = Nd4j.create(m, this.n);
+			for(int i = 0; i < m; i++) {
+				error.putRow(i, nodeErrors.get(h).get(i));
+				nonLinearDerivative.putRow(i, level.get(i).getPreOutput());
+			}
+			Nd4j.getExecutioner().execAndReturn(new TanhDerivative(nonLinearDerivative));
+
+			//del loss / del preOutput for every node, m x n
+			final INDArray delta = error.muli(nonLinearDerivative);
+			final INDArray x = this.stackChildren(level);
+
+			synchronized(this.gradW) {
+				this.gradW.addi(delta.transpose().mmul(x));
+			}
+
+			synchronized(this.gradb) {
+				this.gradb.addi(delta.sum(0).transpose());
+			}
+
+			//del loss / del x for every node, m x 2n
+			final INDArray childrenLoss = delta.mmul(this.W);
+			final INDArray leftLoss = childrenLoss.getColumns(this.firstHalf);
+			final INDArray rightLoss = childrenLoss.getColumns(this.secondHalf);
+
+			for(int i = 0; i < m; i++) {
+				final Tree t = level.get(i);
+				this.addOccurrence(t.getChild(0), clip(leftLoss.getRow(i).dup(), threshold),
+									heights, nodes, nodeErrors);
+				this.addOccurrence(t.getChild(1), clip(rightLoss.getRow(i).dup(), threshold),
+									heights, nodes, nodeErrors);
+			}
+		}
+
+		//fine tune leaf vector embeddings
+		if(!nodes.isEmpty()) {
+			for(int i = 0; i < nodes.get(0).size(); i++) {
+				nodes.get(0).get(i).addGradient(nodeErrors.get(0).get(i));
+			}
+		}
+	}
+
+	/** Gradient clipping to prevent gradient explosion */
+	private static INDArray clip(INDArray loss, double threshold) {
+
+		final double norm = loss.norm2Number().doubleValue();
+		if(norm > threshold) {
+			loss.divi(norm).muli(threshold);
+		}
+		return loss;
+	}
+
+	/** adds an occurrence of the node with the given error to its level. Same as
+	 * {@link #backProp(Tree, INDArray)}, nodes with zero error are skipped. */
+	private void addOccurrence(Tree t, INDArray error, Map<Tree, Integer> heights,
+			List<List<Tree>> nodes, List<List<INDArray>> nodeErrors) {
+
+		if(error.normmaxNumber().doubleValue() == 0) {
+			return;
+		}
+
+		final int h = this.height(t, heights);
+		while(nodes.size() <= h) {
+			nodes.add(new ArrayList<Tree>());
+			nodeErrors.add(new ArrayList<INDArray>());
+		}
+		nodes.get(h).add(t);
+		nodeErrors.get(h).add(error);
+	}
+
+	/** adds the internal nodes of the tree to their level, once per node */
+	private void addToLevels(Tree t, Map<Tree, Integer> heights, List<List<Tree>> levels) {
+
+		if(heights.containsKey(t)) {
+			return;
+		}
+
+		if(t.numChildren() == 0) {
+			assert t.getVector() != null : "Label of t is " + t.getLabel();
+			int[] shape = t.getVector().shape();
+			if(shape[0] !=1 || shape[1] != this.getDimension())
+				throw new RuntimeException("Feed forward null. Label " + t.getLabel() +
+											". Shape is " + shape[0] + " and " + shape[1]);
+			heights.put(t, 0);
+			return;
+		}
+
+		if(t.numChildren() != 2) {
+			throw new IllegalStateException("Binarize the tree");
+		}
+
+		this.addToLevels(t.getChild(0), heights, levels);
+		this.addToLevels(t.getChild(1), heights, levels);
+
+		final int h = 1 + Math.max(heights.get(t.getChild(0)), heights.get(t.getChild(1)));
+		heights.put(t, h);
+
+		while(levels.size() <= h) {
+			levels.add(new ArrayList<Tree>());
+		}
+		levels.get(h).add(t);
+	}
+
+	private int height(Tree t, Map<Tree, Integer> heights) {
+
+		final Integer cached = heights.get(t);
+		if(cached != null) {
+			return cached;
+		}
+
+		int h = 0;
+		if(t.numChildren() > 0) {
+			h = 1 + Math.max(this.height(t.getChild(0), heights), this.height(t.getChild(1), heights));
+		}
+		heights.put(t, h);
+		return h;
+	}
+
+	/** matrix whose i-th row is the concatenation of the vectors of the children of the
+	 * i-th node */
+	private INDArray stackChildren(List<Tree> level) {
+
+		final int m = level.size();
+		final INDArray left = Nd4j.create(m, this.n);
+		final INDArray right = Nd4j.create(m, this.n);
+
+		for(int i = 0; i < m; i++) {
+			left.putRow(i, level.get(i).getChild(0).getVector());
+			right.putRow(i, level.get(i).getChild(1).getVector());
+		}
+
+		return Nd4j.concat(1, left, right);
+	}
+
 	/** update parameters */
 	public void updateParameters() {
 		
@@ -313,6 +517,13 @@ public class RecursiveTreeNetwork implements AbstractRecursiveTreeNetwork, Abstr
 	}
 	
 
+	/** true if the gradient of any parameter is non-zero, i.e. errors were backpropagated 
+	 * through an internal node since the gradients were last flushed */
+	public boolean hasGradient() {
+		return this.gradW.normmaxNumber().doubleValue() != 0 
+				|| this.gradb.normmaxNumber().doubleValue() != 0;
+	}
+	
 	public INDArray getGradW() {
 		return this.gradW;
 	}
@@ -70,6 +70,11 @@ public class Tree implements Serializable {
 		this.vector = vector;
 	}
 	
+	/** Gradients of the leaf parameters, null for internal nodes */
+	public GradientWrapper[] getGradient() {
+		return this.gradient;
+	}
+
 	public void setGradient(GradientWrapper gradient) {
 		this.gradient = new GradientWrapper[1];
 		this.gradient[0] = gradient;
@@ -17,10 +17,23 @@ public class Glove implements WordEmbedding {
 	private final Hashtable<String, HashMap<Integer,Double>> hashWordEmbeddings;
 	private final int dim;
 	
+	/** binary store, used instead of the hash table if the file was converted with
+	 * {@link MappedWordEmbedding#convert(String, String)} */
+	private final MappedWordEmbedding mapped;
+	
 	/** reads word embeddings from a file of format  word: val1,val2,val3,.....valn\n ...
+	 * or memory-maps a binary file created by {@link MappedWordEmbedding}
 	 * @throws IOException */
 	public Glove(String fileName) throws IOException {
 		
+		if(MappedWordEmbedding.isBinary(fileName)) {
+			this.mapped = new MappedWordEmbedding(fileName);
+			this.dim = this.mapped.dimension();
+			this.hashWordEmbeddings = null;
+			return;
+		}
+		
+		this.mapped = null;
 		this.hashWordEmbeddings = new Hashtable<String, HashMap<Integer,Double>>();
 		List<String> lines = Files.readAllLines(Paths.get(fileName),Charset.defaultCharset());
 		
@@ -64,6 +77,10 @@ public class Glove implements WordEmbedding {
 	}
 	
 	public boolean find(String word) {
+		if(this.mapped != null) {
+			return this.mapped.find(word);
+		}
+		
 		HashMap<Integer, Double> result = this.hashWordEmbeddings.get(word);
 		
 		if(result == null)
@@ -72,6 +89,10 @@ public class Glove implements WordEmbedding {
 	}
 	
 	public HashMap<Integer, Double> getWordEmbedding(String word) {
+		if(this.mapped != null) {
+			return this.mapped.getWordEmbedding(word);
+		}
+		
 		HashMap<Integer, Double> embedding = this.hashWordEmbeddings.get(word);
 		
 		if(embedding ==  null) {
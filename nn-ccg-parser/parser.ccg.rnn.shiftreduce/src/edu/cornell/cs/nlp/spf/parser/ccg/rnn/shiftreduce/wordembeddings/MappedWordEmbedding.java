@@ -0,0 +1,370 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.wordembeddings;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Word embeddings stored in a compact binary file and memory-mapped, so loading
+ * is constant time and the vectors live outside the java heap. The file is created
+ * once from a text file using {@link #convert(String, String)} and has the layout:
+ *
+ * <pre>
+ * header    : magic, version, vocabulary size n, dimension d, hash capacity c, pool size p
+ * offsets   : int[n + 1], offset of every word in the pool (word i is [offsets[i], offsets[i+1]))
+ * index     : int[c], open addressing hash table with linear probing, row + 1 (0 if empty)
+ * pool      : p bytes of utf-8 encoded words, padded to a multiple of 4
+ * matrix    : float[n x d], row major
+ * </pre>
+ *
+ * Rows are returned either as read-only views over the mapped file or copied into
+ * caller buffers. All reads use absolute positions, so a single instance can be
+ * shared across threads. */
+public class MappedWordEmbedding implements WordEmbedding {
+
+	/** "WEMB" */
+	private static final int MAGIC = 0x57454D42;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+	/** a single mapping can't exceed 2GB, so the matrix is mapped in chunks of whole rows */
+	private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+	private final int size;
+	private final int dim;
+	private final int capacity;
+
+	/** header, offsets, index and pool */
+	private final ByteBuffer vocabulary;
+	private final int indexStart;
+	private final int poolStart;
+
+	/** matrix chunks and the number of rows in every chunk (except possibly the last) */
+	private final FloatBuffer[] matrix;
+	private final int rowsPerChunk;
+
+	/** maps the binary file created by {@link #convert(String, String)} */
+	public MappedWordEmbedding(String fileName) throws IOException {
+
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+
+			final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if(header.getInt(0) != MAGIC) {
+				throw new IOException("Not a binary word embedding file: " + fileName);
+			}
+			if(header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported word embedding file version " + header.getInt(4));
+			}
+
+			this.size = header.getInt(8);
+			this.dim = header.getInt(12);
+			this.capacity = header.getInt(16);
+			final int poolBytes = header.getInt(20);
+
+			this.indexStart = HEADER_BYTES + (this.size + 1) * Integer.BYTES;
+			this.poolStart = this.indexStart + this.capacity * Integer.BYTES;
+			final long matrixStart = this.poolStart + (long) pad(poolBytes);
+
+			this.vocabulary = channel.map(MapMode.READ_ONLY, 0, this.poolStart + poolBytes);
+
+			final long rowBytes = (long) this.dim * Float.BYTES;
+			this.rowsPerChunk = (int) Math.max(1, Math.min(this.size, MAX_CHUNK_BYTES / Math.max(1, rowBytes)));
+			final int numChunks = this.size == 0 ? 0 : (this.size + this.rowsPerChunk - 1)/this.rowsPerChunk;
+
+			if(channel.size() != matrixStart + this.size * rowBytes) {
+				throw new IOException("Truncated word embedding file: " + fileName);
+			}
+
+			this.matrix = new FloatBuffer[numChunks];
+			for(int i = 0; i < numChunks; i++) {
+				final int rows = Math.min(this.rowsPerChunk, this.size - i * this.rowsPerChunk);
+				this.matrix[i] = channel.map(MapMode.READ_ONLY,
+						matrixStart + i * (long) this.rowsPerChunk * rowBytes, rows * rowBytes).asFloatBuffer();
+			}
+		}
+	}
+
+	/** converts a text file of word embeddings to the binary format. Every line is either
+	 * word:val1,val2,...,valn (the format used by {@link Word2Vec}) or word val1 val2 ... valn
+	 * (the format distributed with glove). If a word appears more than once, the first
+	 * occurrence is kept. */
+	public static void convert(String textFile, String binaryFile) throws IOException {
+
+		final List<String> words = new ArrayList<String>();
+		final Set<String> seen = new HashSet<String>();
+		int dim = -1;
+
+		// stream the vectors to a temporary file, since the vocabulary size is unknown
+		final File values = File.createTempFile("embedding", ".bin");
+		values.deleteOnExit();
+
+		try(BufferedReader reader = Files.newBufferedReader(new File(textFile).toPath(), StandardCharsets.UTF_8);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(values)))) {
+
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null) {
+				lineNumber++;
+				if(line.trim().isEmpty()) {
+					continue;
+				}
+
+				final String word;
+				final String[] args;
+				final int wordIndex = line.lastIndexOf(':');
+				if(wordIndex > 0 && line.indexOf(',', wordIndex) > 0) {
+					word = line.substring(0, wordIndex);
+					args = line.substring(wordIndex + 1).trim().split(",");
+				} else {
+					final String[] tokens = line.trim().split("\\s+");
+					word = tokens[0];
+					args = Arrays.copyOfRange(tokens, 1, tokens.length);
+				}
+
+				if(dim == -1) {
+					dim = args.length;
+				} else if(dim != args.length) {
+					throw new IOException("Expected " + dim + " values in line " + lineNumber + ", found " + args.length);
+				}
+
+				if(!seen.add(word)) {
+					continue;
+				}
+
+				words.add(word);
+				for(String arg: args) {
+					out.writeFloat(Float.parseFloat(arg.trim()));
+				}
+			}
+		}
+
+		try {
+			write(words, Math.max(dim, 0), values, binaryFile);
+		} finally {
+			values.delete();
+		}
+	}
+
+	/** returns true if the file starts with the magic number of the binary format */
+	public static boolean isBinary(String fileName) {
+
+		final File file = new File(fileName);
+		if(!file.isFile() || file.length() < HEADER_BYTES) {
+			return false;
+		}
+
+		try(DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		} catch(IOException e) {
+			return false;
+		}
+	}
+
+	/** usage: MappedWordEmbedding text-file binary-file */
+	public static void main(String[] args) throws IOException {
+
+		if(args.length != 2) {
+			System.err.println("Usage: MappedWordEmbedding <text embeddings> <binary output>");
+			System.exit(1);
+		}
+
+		final long start = System.currentTimeMillis();
+		convert(args[0], args[1]);
+		final MappedWordEmbedding embedding = new MappedWordEmbedding(args[1]);
+		System.out.println("Converted " + embedding.size() + " words of dimension " + embedding.dimension()
+							+ " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private static int hash(byte[] word) {
+		int h = 1;
+		for(byte b: word) {
+			h = 31 * h + b;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int pad(int bytes) {
+		return (bytes + 3) & ~3;
+	}
+
+	private static void write(List<String> words, int dim, File values, String binaryFile) throws IOException {
+
+		final int size = words.size();
+
+		// the hash table is kept at most half full
+		int capacity = 2;
+		while(capacity < 2 * size) {
+			capacity <<= 1;
+		}
+
+		final int[] offsets = new int[size + 1];
+		final int[] index = new int[capacity];
+		final byte[][] encoded = new byte[size][];
+		for(int i = 0; i < size; i++) {
+			encoded[i] = words.get(i).getBytes(StandardCharsets.UTF_8);
+			if((long) offsets[i] + encoded[i].length > Integer.MAX_VALUE) {
+				throw new IOException("Vocabulary too large for the binary format");
+			}
+			offsets[i + 1] = offsets[i] + encoded[i].length;
+
+			int slot = hash(encoded[i]) & (capacity - 1);
+			while(index[slot] != 0) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			index[slot] = i + 1;
+		}
+		final int poolBytes = offsets[size];
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeInt(dim);
+			out.writeInt(capacity);
+			out.writeInt(poolBytes);
+
+			for(int offset: offsets) {
+				out.writeInt(offset);
+			}
+			for(int row: index) {
+				out.writeInt(row);
+			}
+			for(byte[] word: encoded) {
+				out.write(word);
+			}
+			for(int i = poolBytes; i < pad(poolBytes); i++) {
+				out.write(0);
+			}
+
+			Files.copy(values.toPath(), out);
+		}
+	}
+
+	@Override
+	public int dimension() {
+		return this.dim;
+	}
+
+	@Override
+	public boolean find(String word) {
+		return word.equals(UNK) || this.indexOf(word) >= 0;
+	}
+
+	/** copies the vector of the given row into dest, which is allocated if null */
+	public float[] getRow(int row, float[] dest) {
+
+		if(dest == null) {
+			dest = new float[this.dim];
+		}
+
+		final FloatBuffer view = this.getRowView(row);
+		view.get(dest, 0, this.dim);
+		return dest;
+	}
+
+	/** read-only view of the vector of the given row, without copying it */
+	public FloatBuffer getRowView(int row) {
+
+		if(row < 0 || row >= this.size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this.size);
+		}
+
+		final FloatBuffer chunk = this.matrix[row/this.rowsPerChunk].duplicate();
+		final int start = (row % this.rowsPerChunk) * this.dim;
+		chunk.limit(start + this.dim).position(start);
+		return chunk.slice().asReadOnlyBuffer();
+	}
+
+	/** word of the given row */
+	public String getWord(int row) {
+
+		final int start = this.vocabulary.getInt(HEADER_BYTES + row * Integer.BYTES);
+		final int end = this.vocabulary.getInt(HEADER_BYTES + (row + 1) * Integer.BYTES);
+		final byte[] bytes = new byte[end - start];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = this.vocabulary.get(this.poolStart + start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** fetch word-embedding as a dense map. Unknown words (and UNK) map to an empty
+	 * vector, same as {@link Word2Vec}. Prefer {@link #getRow(int, float[])} which
+	 * doesn't box the values. */
+	@Override
+	public HashMap<Integer, Double> getWordEmbedding(String word) {
+
+		final int row = this.indexOf(word);
+		final HashMap<Integer, Double> embedding = new HashMap<Integer, Double>();
+		if(row < 0) {
+			return embedding;
+		}
+
+		final FloatBuffer view = this.getRowView(row);
+		for(int i = 0; i < this.dim; i++) {
+			embedding.put(i, (double) view.get(i));
+		}
+		return embedding;
+	}
+
+	/** row of the given word, or -1 if the word is not in the vocabulary */
+	public int indexOf(String word) {
+
+		if(this.size == 0) {
+			return -1;
+		}
+
+		final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+		int slot = hash(bytes) & (this.capacity - 1);
+
+		while(true) {
+			final int row = this.vocabulary.getInt(this.indexStart + slot * Integer.BYTES) - 1;
+			if(row < 0) {
+				return -1;
+			}
+			if(this.matches(row, bytes)) {
+				return row;
+			}
+			slot = (slot + 1) & (this.capacity - 1);
+		}
+	}
+
+	/** number of words in the vocabulary */
+	public int size() {
+		return this.size;
+	}
+
+	private boolean matches(int row, byte[] word) {
+
+		final int start = this.vocabulary.getInt(HEADER_BYTES + row * Integer.BYTES);
+		final int end = this.vocabulary.getInt(HEADER_BYTES + (row + 1) * Integer.BYTES);
+		if(end - start != word.length) {
+			return false;
+		}
+
+		for(int i = 0; i < word.length; i++) {
+			if(this.vocabulary.get(this.poolStart + start + i) != word[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -36,6 +36,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import edu.cornell.cs.nlp.spf.base.hashvector.CompiledHashVector;
 import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
 import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
 import edu.cornell.cs.nlp.spf.base.hashvector.IHashVectorImmutable;
@@ -73,8 +74,19 @@ public class Model<DI extends IDataItem<?>, MR>
 
 	private static final long									serialVersionUID	= -1858505634505111170L;
 
+	/**
+	 * Compiled copy of {@link #theta} used for scoring while the model is
+	 * frozen. Not serialized, re-compiled when a frozen model is read.
+	 */
+	private transient volatile CompiledHashVector				compiledTheta		= null;
+
 	private final List<IParseFeatureSet<DI, MR>>				featureSets;
 
+	/**
+	 * The model is frozen for inference, see {@link #freeze()}.
+	 */
+	private volatile boolean									frozen				= false;
+
 	private final List<IIndependentLexicalFeatureSet<DI, MR>>	independentLexicalFeatureSets;
 
 	private final Set<KeyArgs>									invalidFeatures;
@@ -177,6 +189,7 @@ public class Model<DI extends IDataItem<?>, MR>
 			}
 		}
 		if (!addedEntries.isEmpty()) {
+			recompileTheta();
 			for (final IModelListener<MR> listener : listeners) {
 				listener.lexicalEntriesAdded(addedEntries);
 			}
@@ -209,6 +222,7 @@ public class Model<DI extends IDataItem<?>, MR>
 			}
 		}
 		if (!addedEntries.isEmpty()) {
+			recompileTheta();
 			for (final IModelListener<MR> listener : listeners) {
 				listener.lexicalEntriesAdded(addedEntries);
 			}
@@ -241,6 +255,26 @@ public class Model<DI extends IDataItem<?>, MR>
 		return new DataItemModel<DI, MR>(this, dataItem);
 	}
 
+	/**
+	 * Freeze the model for inference. Compiles theta into a
+	 * {@link CompiledHashVector} that is used by {@link #score} and by all
+	 * data item models created by this model. Adding lexical entries
+	 * re-compiles theta, but any other update of theta is ignored until
+	 * {@link #unfreeze()} is called, so the model must not be updated while
+	 * frozen. The frozen state is serialized, so test workers that receive a
+	 * frozen model use the compiled theta as well.
+	 */
+	public synchronized void freeze() {
+		if (!frozen) {
+			final long start = System.currentTimeMillis();
+			compiledTheta = CompiledHashVector.compile(theta);
+			frozen = true;
+			LOG.info("Froze model, compiled %d features (%.4fsec)",
+					compiledTheta.size(),
+					(System.currentTimeMillis() - start) / 1000.0);
+		}
+	}
+
 	@Override
 	public ILexicon<MR> getLexicon() {
 		return lexicon;
@@ -255,6 +289,10 @@ public class Model<DI extends IDataItem<?>, MR>
 		return theta;
 	}
 
+	public boolean isFrozen() {
+		return frozen;
+	}
+
 	@Override
 	public boolean isValidWeightVector(IHashVectorImmutable vector) {
 		for (final Pair<KeyArgs, Double> entry : vector) {
@@ -273,7 +311,9 @@ public class Model<DI extends IDataItem<?>, MR>
 
 	@Override
 	public double score(IHashVectorImmutable features) {
-		return theta.dotProduct(features);
+		final CompiledHashVector compiled = compiledTheta;
+		return compiled == null ? theta.dotProduct(features)
+				: compiled.dotProduct(features);
 	}
 
 	@Override
@@ -300,6 +340,14 @@ public class Model<DI extends IDataItem<?>, MR>
 		return ret.toString();
 	}
 
+	/**
+	 * Stop using the compiled theta. Required before updating theta.
+	 */
+	public synchronized void unfreeze() {
+		frozen = false;
+		compiledTheta = null;
+	}
+
 	public void unregisterListener(IModelListener<MR> listener) {
 		synchronized (listeners) {
 			listeners.remove(listener);
@@ -329,11 +377,22 @@ public class Model<DI extends IDataItem<?>, MR>
 		ois.defaultReadObject();
 		// Create an empty set for listeners to register.
 		this.listeners = new HashSet<>();
+		// The compiled theta is not serialized.
+		if (frozen) {
+			this.compiledTheta = CompiledHashVector.compile(theta);
+		}
+	}
+
+	private synchronized void recompileTheta() {
+		if (frozen) {
+			compiledTheta = CompiledHashVector.compile(theta);
+		}
 	}
 
 	public static class Builder<DI extends IDataItem<?>, MR> {
 		private final List<IParseFeatureSet<DI, MR>>	featureSets	= new LinkedList<IParseFeatureSet<DI, MR>>();
 		private ILexicon<MR>							lexicon		= new Lexicon<MR>();
+		private boolean									versionedTheta	= false;
 
 		public Builder<DI, MR> addFeatureSet(
 				IParseFeatureSet<DI, MR> featureSet) {
@@ -343,13 +402,23 @@ public class Model<DI extends IDataItem<?>, MR>
 
 		public Model<DI, MR> build() {
 			return new Model<DI, MR>(featureSets, lexicon,
-					HashVectorFactory.create());
+					versionedTheta ? HashVectorFactory.createVersioned()
+							: HashVectorFactory.create());
 		}
 
 		public Builder<DI, MR> setLexicon(ILexicon<MR> lexicon) {
 			this.lexicon = lexicon;
 			return this;
 		}
+
+		/**
+		 * Store theta in a vector with constant time snapshots (see
+		 * {@link HashVectorFactory#snapshot(IHashVectorImmutable)}).
+		 */
+		public Builder<DI, MR> setVersionedTheta(boolean versionedTheta) {
+			this.versionedTheta = versionedTheta;
+			return this;
+		}
 	}
 
 	public static class Creator<DI extends IDataItem<?>, MR>
@@ -387,6 +456,11 @@ public class Model<DI extends IDataItem<?>, MR>
 							(IParseFeatureSet<DI, MR>) repo.get(setId));
 				}
 
+				if (params.contains("versionedTheta")) {
+					builder.setVersionedTheta(
+							params.getAsBoolean("versionedTheta"));
+				}
+
 				final Model<DI, MR> model = builder.build();
 
 				return model;
@@ -408,6 +482,8 @@ public class Model<DI extends IDataItem<?>, MR>
 							"Lexical feature sets to use (e.g., 'lfs1,lfs2,lfs3')")
 					.addParam("parseFeatures", "[id]",
 							"Parse feature sets to use (e.g., 'pfs1,pfs2,pfs3')")
+					.addParam("versionedTheta", "boolean",
+							"Store theta in a vector with constant time snapshots (default: false)")
 					.build();
 		}
 
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.base.hashvector;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+
+/**
+ * Immutable, compiled copy of a sparse vector for fast scoring. Each feature
+ * of the compiled vector is given an integer slot, in the iteration order of
+ * the source vector, and its weight is stored in a primitive array. Keys are
+ * mapped to slots with an open addressing table over the cached
+ * {@link KeyArgs} hash codes, so looking up a feature takes constant time
+ * instead of the string comparisons of {@link TreeHashVector}. Feature vectors
+ * are scored using {@link #dotProduct(IHashVectorImmutable)}.
+ * <p>
+ * The compiled vector doesn't follow changes to the source vector.
+ *
+ * @author Yoav Artzi
+ */
+public final class CompiledHashVector {
+
+	/** Slot of features that are not in the compiled vector. */
+	public static final int	NO_SLOT	= -1;
+
+	private final KeyArgs[]	keys;
+
+	private final int		mask;
+
+	/** Open addressing table, maps hash positions to slots. */
+	private final int[]		table;
+
+	private final double[]	weights;
+
+	private CompiledHashVector(IHashVectorImmutable vector) {
+		final int size = vector.size();
+		this.keys = new KeyArgs[size];
+		this.weights = new double[size];
+
+		// Keep the load factor under 0.5.
+		int capacity = 2;
+		while (capacity < 2 * size) {
+			capacity <<= 1;
+		}
+		this.mask = capacity - 1;
+		this.table = new int[capacity];
+		for (int i = 0; i < capacity; ++i) {
+			table[i] = NO_SLOT;
+		}
+
+		int slot = 0;
+		for (final Pair<KeyArgs, Double> entry : vector) {
+			keys[slot] = entry.first();
+			weights[slot] = entry.second();
+			int position = position(entry.first());
+			while (table[position] != NO_SLOT) {
+				position = position + 1 & mask;
+			}
+			table[position] = slot++;
+		}
+	}
+
+	public static CompiledHashVector compile(IHashVectorImmutable vector) {
+		return new CompiledHashVector(vector);
+	}
+
+	/**
+	 * Vector dot-product with the given feature vector. Features that are not
+	 * in the compiled vector are ignored, same as
+	 * {@link IHashVectorImmutable#dotProduct(IHashVectorImmutable)}.
+	 */
+	public double dotProduct(IHashVectorImmutable features) {
+		double sum = 0.0;
+		for (final Pair<KeyArgs, Double> entry : features) {
+			final int slot = slot(entry.first());
+			if (slot != NO_SLOT) {
+				sum += weights[slot] * entry.second();
+			}
+		}
+		return sum;
+	}
+
+	public KeyArgs getKey(int slot) {
+		return keys[slot];
+	}
+
+	public double getWeight(int slot) {
+		return weights[slot];
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * The slot of the given key, or {@link #NO_SLOT} if the key is not in the
+	 * compiled vector.
+	 */
+	public int slot(KeyArgs key) {
+		int position = position(key);
+		int slot;
+		while ((slot = table[position]) != NO_SLOT) {
+			if (keys[slot].equals(key)) {
+				return slot;
+			}
+			position = position + 1 & mask;
+		}
+		return NO_SLOT;
+	}
+
+	@Override
+	public String toString() {
+		return CompiledHashVector.class.getSimpleName() + " [size=" + size()
+				+ "]";
+	}
+
+	private int position(KeyArgs key) {
+		final int hash = key.hashCode();
+		return (hash ^ hash >>> 16) & mask;
+	}
+
+}
@@ -94,6 +94,23 @@ public class HashVectorFactory {
 		return new TroveHashVector(vector);
 	}
 
+	/**
+	 * Sparse vector with constant time snapshots, see
+	 * {@link #snapshot(IHashVectorImmutable)}. Intended for parameter vectors
+	 * that are snapshotted often, such as a model's theta.
+	 */
+	public static IHashVector createVersioned() {
+		return new VersionedHashVector();
+	}
+
+	public static IHashVector createVersioned(IHashVectorImmutable vector) {
+		if (vector instanceof VersionedHashVector) {
+			return ((VersionedHashVector) vector).share();
+		} else {
+			return new VersionedHashVector(vector);
+		}
+	}
+
 	public static IHashVectorImmutable empty() {
 		switch (DEFAULT) {
 			case FAST_TREE:
@@ -123,6 +140,20 @@ public class HashVectorFactory {
 		}
 	}
 
+	/**
+	 * Immutable copy of the current values of the given vector, which is not
+	 * affected by later updates of the vector. Constant time for vectors
+	 * created with {@link #createVersioned()}, which share their structure
+	 * with the snapshot. Other vectors are copied.
+	 */
+	public static IHashVectorImmutable snapshot(IHashVectorImmutable vector) {
+		if (vector instanceof VersionedHashVector) {
+			return ((VersionedHashVector) vector).snapshot();
+		} else {
+			return create(vector);
+		}
+	}
+
 	public static enum Type {
 		// Only general-purpose hash vectors are enumerated here. For example,
 		// vectors with special initialization are not, since they are
@@ -0,0 +1,627 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.base.hashvector;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+
+/**
+ * Sparse vector that supports constant time snapshots. The vector is split to
+ * a fixed number of segments by the hash code of the keys, each segment is a
+ * {@link TreeMap}. A snapshot shares all segments with the vector it was taken
+ * from, and a segment is copied only when either of the vectors updates it
+ * (copy-on-write). Therefore, taking a snapshot of a large parameter vector
+ * doesn't require copying it, and updating the vector after a snapshot only
+ * copies the segments that are updated.
+ * <p>
+ * Every update increases the version of the vector. Snapshots taken while
+ * the vector is not updated are the same object, so they are read-only:
+ * updating a snapshot throws an {@link UnsupportedOperationException}.
+ * Snapshots may be taken concurrently with reads and other snapshots, but not
+ * with updates. The order of iteration is predictable: by segment and then by
+ * key.
+ *
+ * @author Yoav Artzi
+ */
+class VersionedHashVector implements IHashVector {
+
+	private static final int					NUM_SEGMENTS		= 512;
+
+	private static final long					serialVersionUID	= 3532095018301574062L;
+
+	/**
+	 * The last snapshot taken from this vector and its version. Reused if the
+	 * vector wasn't updated since.
+	 */
+	private transient VersionedHashVector		lastSnapshot		= null;
+
+	private transient long						lastSnapshotVersion	= -1;
+
+	/**
+	 * Snapshots are read-only, since they are returned to all callers that
+	 * take a snapshot of the same version.
+	 */
+	private final boolean						readOnly;
+
+	private final TreeMap<KeyArgs, Double>[]	segments;
+
+	/**
+	 * Segments that may be shared with a snapshot and must be copied before
+	 * being updated.
+	 */
+	private final boolean[]						shared;
+
+	private long								version				= 0;
+
+	VersionedHashVector() {
+		this.segments = newSegments();
+		this.shared = new boolean[NUM_SEGMENTS];
+		this.readOnly = false;
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			segments[i] = new TreeMap<KeyArgs, Double>();
+		}
+	}
+
+	VersionedHashVector(IHashVectorImmutable other) {
+		this();
+		for (final Pair<KeyArgs, Double> o : other) {
+			segments[segmentIndex(o.first())].put(o.first(), o.second());
+		}
+	}
+
+	private VersionedHashVector(TreeMap<KeyArgs, Double>[] segments,
+			long version, boolean readOnly) {
+		this.segments = segments;
+		this.shared = new boolean[NUM_SEGMENTS];
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			shared[i] = true;
+		}
+		this.version = version;
+		this.readOnly = readOnly;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static TreeMap<KeyArgs, Double>[] newSegments() {
+		return new TreeMap[NUM_SEGMENTS];
+	}
+
+	private static int segmentIndex(KeyArgs key) {
+		final int hash = key.hashCode();
+		return (hash ^ hash >>> 16) & NUM_SEGMENTS - 1;
+	}
+
+	@Override
+	public void add(final double num) {
+		applyFunction(value -> value + num);
+	}
+
+	@Override
+	public void add(KeyArgs key, double value) {
+		final TreeMap<KeyArgs, Double> segment = writableSegment(key);
+		final Double current = segment.get(key);
+		segment.put(key, value + (current == null ? ZERO_VALUE : current));
+	}
+
+	@Override
+	public void add(String arg1, double value) {
+		add(new KeyArgs(arg1), value);
+	}
+
+	@Override
+	public void add(String arg1, String arg2, double value) {
+		add(new KeyArgs(arg1, arg2), value);
+	}
+
+	@Override
+	public void add(String arg1, String arg2, String arg3, double value) {
+		add(new KeyArgs(arg1, arg2, arg3), value);
+	}
+
+	@Override
+	public void add(String arg1, String arg2, String arg3, String arg4,
+			double value) {
+		add(new KeyArgs(arg1, arg2, arg3, arg4), value);
+	}
+
+	@Override
+	public void add(String arg1, String arg2, String arg3, String arg4,
+			String arg5, double value) {
+		add(new KeyArgs(arg1, arg2, arg3, arg4, arg5), value);
+	}
+
+	@Override
+	public VersionedHashVector addTimes(final double times,
+			IHashVectorImmutable other) {
+		// Start from a shared copy, so only the updated segments are copied.
+		final VersionedHashVector ret = share();
+		other.iterate((key, value) -> ret.add(key, value * times));
+		return ret;
+	}
+
+	@Override
+	public void addTimesInto(final double times, IHashVector other) {
+		iterate((key, value) -> other.add(key, times * value));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void applyFunction(ValueFunction function) {
+		checkWritable();
+		++version;
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			if (!segments[i].isEmpty()) {
+				for (final Entry<KeyArgs, Double> entry : writableSegment(i)
+						.entrySet()) {
+					entry.setValue(function.apply(entry.getValue()));
+				}
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clear() {
+		checkWritable();
+		++version;
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			segments[i] = new TreeMap<KeyArgs, Double>();
+			shared[i] = false;
+		}
+	}
+
+	@Override
+	public boolean contains(KeyArgs key) {
+		return segments[segmentIndex(key)].containsKey(key);
+	}
+
+	@Override
+	public boolean contains(String arg1) {
+		return contains(new KeyArgs(arg1));
+	}
+
+	@Override
+	public boolean contains(String arg1, String arg2) {
+		return contains(new KeyArgs(arg1, arg2));
+	}
+
+	@Override
+	public boolean contains(String arg1, String arg2, String arg3) {
+		return contains(new KeyArgs(arg1, arg2, arg3));
+	}
+
+	@Override
+	public boolean contains(String arg1, String arg2, String arg3, String arg4) {
+		return contains(new KeyArgs(arg1, arg2, arg3, arg4));
+	}
+
+	@Override
+	public boolean contains(String arg1, String arg2, String arg3, String arg4,
+			String arg5) {
+		return contains(new KeyArgs(arg1, arg2, arg3, arg4, arg5));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void divideBy(final double d) {
+		applyFunction(value -> value / d);
+	}
+
+	@Override
+	public double dotProduct(IHashVectorImmutable other) {
+		if (size() <= other.size()) {
+			double sum = 0.0;
+			for (final TreeMap<KeyArgs, Double> segment : segments) {
+				for (final Entry<KeyArgs, Double> entry : segment.entrySet()) {
+					if (other.contains(entry.getKey())) {
+						sum += entry.getValue() * other.get(entry.getKey());
+					}
+				}
+			}
+			return sum;
+		} else {
+			double sum = 0.0;
+			for (final Pair<KeyArgs, Double> entry : other) {
+				final Double value = segments[segmentIndex(entry.first())]
+						.get(entry.first());
+				if (value != null) {
+					sum += value * entry.second();
+				}
+			}
+			return sum;
+		}
+	}
+
+	@Override
+	public void dropNoise() {
+		removeIf(value -> Math.abs(value) < NOISE);
+	}
+
+	@Override
+	public void dropZeros() {
+		removeIf(value -> Math.abs(value) == ZERO_VALUE);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		final VersionedHashVector other = (VersionedHashVector) obj;
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			if (segments[i] != other.segments[i]
+					&& !segments[i].equals(other.segments[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public double get(KeyArgs key) {
+		return get(key, ZERO_VALUE);
+	}
+
+	@Override
+	public double get(KeyArgs key, double defaultReturn) {
+		final Double value = segments[segmentIndex(key)].get(key);
+		return value == null ? defaultReturn : value;
+	}
+
+	@Override
+	public double get(String arg1) {
+		return get(new KeyArgs(arg1), ZERO_VALUE);
+	}
+
+	@Override
+	public double get(String arg1, double defaultReturn) {
+		return get(new KeyArgs(arg1), defaultReturn);
+	}
+
+	@Override
+	public double get(String arg1, String arg2) {
+		return get(new KeyArgs(arg1, arg2), ZERO_VALUE);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, double defaultReturn) {
+		return get(new KeyArgs(arg1, arg2), defaultReturn);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3) {
+		return get(new KeyArgs(arg1, arg2, arg3), ZERO_VALUE);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3,
+			double defaultReturn) {
+		return get(new KeyArgs(arg1, arg2, arg3), defaultReturn);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3, String arg4) {
+		return get(new KeyArgs(arg1, arg2, arg3, arg4), ZERO_VALUE);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3, String arg4,
+			double defaultReturn) {
+		return get(new KeyArgs(arg1, arg2, arg3, arg4), defaultReturn);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3, String arg4,
+			String arg5) {
+		return get(new KeyArgs(arg1, arg2, arg3, arg4, arg5), ZERO_VALUE);
+	}
+
+	@Override
+	public double get(String arg1, String arg2, String arg3, String arg4,
+			String arg5, double defaultReturn) {
+		return get(new KeyArgs(arg1, arg2, arg3, arg4, arg5), defaultReturn);
+	}
+
+	@Override
+	public IHashVector getAll(KeyArgs partialKey) {
+		return getAll(key -> partialKey.contains(key));
+	}
+
+	@Override
+	public IHashVector getAll(final String arg1) {
+		return getAll(key -> arg1.equals(key.arg1));
+	}
+
+	@Override
+	public IHashVector getAll(final String arg1, final String arg2) {
+		return getAll(key -> arg1.equals(key.arg1) && arg2.equals(key.arg2));
+	}
+
+	@Override
+	public IHashVector getAll(final String arg1, final String arg2,
+			final String arg3) {
+		return getAll(key -> arg1.equals(key.arg1) && arg2.equals(key.arg2)
+				&& arg3.equals(key.arg3));
+	}
+
+	@Override
+	public IHashVector getAll(final String arg1, final String arg2,
+			final String arg3, final String arg4) {
+		return getAll(key -> arg1.equals(key.arg1) && arg2.equals(key.arg2)
+				&& arg3.equals(key.arg3) && arg4.equals(key.arg4));
+	}
+
+	@Override
+	public IHashVector getAll(final String arg1, final String arg2,
+			final String arg3, final String arg4, final String arg5) {
+		return getAll(key -> arg1.equals(key.arg1) && arg2.equals(key.arg2)
+				&& arg3.equals(key.arg3) && arg4.equals(key.arg4)
+				&& arg5.equals(key.arg5));
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			result += segment.hashCode();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isBad() {
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			for (final Double value : segment.values()) {
+				if (Double.isNaN(value) || Double.isInfinite(value)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isInit() {
+		return false;
+	}
+
+	@Override
+	public void iterate(EntryFunction function) {
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			for (final Entry<KeyArgs, Double> entry : segment.entrySet()) {
+				function.apply(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public Iterator<Pair<KeyArgs, Double>> iterator() {
+		return new Iterator<Pair<KeyArgs, Double>>() {
+			private Iterator<Entry<KeyArgs, Double>>	innerIterator	= segments[0]
+																			.entrySet()
+																			.iterator();
+			private int									segment			= 0;
+
+			@Override
+			public boolean hasNext() {
+				while (!innerIterator.hasNext()
+						&& segment < NUM_SEGMENTS - 1) {
+					innerIterator = segments[++segment].entrySet().iterator();
+				}
+				return innerIterator.hasNext();
+			}
+
+			@Override
+			public Pair<KeyArgs, Double> next() {
+				if (hasNext()) {
+					final Entry<KeyArgs, Double> next = innerIterator.next();
+					return Pair.of(next.getKey(), next.getValue());
+				} else {
+					throw new NoSuchElementException();
+				}
+			}
+		};
+	}
+
+	@Override
+	public double l1Norm() {
+		double sum = 0.0;
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			for (final double value : segment.values()) {
+				sum += Math.abs(value);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public void multiplyBy(final double value) {
+		applyFunction(v -> v * value);
+	}
+
+	@Override
+	public IHashVector pairWiseProduct(IHashVectorImmutable other) {
+		final TreeHashVector ret = new TreeHashVector();
+		iterate((key, value) -> {
+			if (other.contains(key)) {
+				ret.values.put(key, value * other.get(key));
+			}
+		});
+		return ret;
+	}
+
+	@Override
+	public String printValues(IHashVectorImmutable other) {
+		return new TreeHashVector(this).printValues(other);
+	}
+
+	@Override
+	public void set(KeyArgs key, double value) {
+		writableSegment(key).put(key, value);
+	}
+
+	@Override
+	public void set(String arg1, double value) {
+		set(new KeyArgs(arg1), value);
+	}
+
+	@Override
+	public void set(String arg1, String arg2, double value) {
+		set(new KeyArgs(arg1, arg2), value);
+	}
+
+	@Override
+	public void set(String arg1, String arg2, String arg3, double value) {
+		set(new KeyArgs(arg1, arg2, arg3), value);
+	}
+
+	@Override
+	public void set(String arg1, String arg2, String arg3, String arg4,
+			double value) {
+		set(new KeyArgs(arg1, arg2, arg3, arg4), value);
+	}
+
+	@Override
+	public void set(String arg1, String arg2, String arg3, String arg4,
+			String arg5, double value) {
+		set(new KeyArgs(arg1, arg2, arg3, arg4, arg5), value);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Immutable view of the current values of the vector. Constant time: the
+	 * snapshot shares all segments with this vector, later updates of this
+	 * vector copy the segments they modify. The snapshot is read-only, since
+	 * it's shared by all callers until this vector is updated.
+	 */
+	public synchronized IHashVectorImmutable snapshot() {
+		if (lastSnapshot == null || lastSnapshotVersion != version) {
+			lastSnapshot = share(true);
+			lastSnapshotVersion = version;
+		}
+		return lastSnapshot;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder ret = new StringBuilder();
+		ret.append("{");
+		final Iterator<Pair<KeyArgs, Double>> iterator = iterator();
+		while (iterator.hasNext()) {
+			final Pair<KeyArgs, Double> next = iterator.next();
+			ret.append(next.first());
+			ret.append("=");
+			ret.append(String.format("%.3f", next.second()));
+			if (iterator.hasNext()) {
+				ret.append(", ");
+			}
+		}
+		ret.append("}");
+		return ret.toString();
+	}
+
+	@Override
+	public boolean valuesInRange(final double min, final double max) {
+		for (final TreeMap<KeyArgs, Double> segment : segments) {
+			for (final double value : segment.values()) {
+				if (value < min || value > max) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A copy of this vector that shares all of its segments. Constant time.
+	 */
+	VersionedHashVector share() {
+		return share(false);
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException(
+					"Snapshots are read-only, copy the snapshot to update it");
+		}
+	}
+
+	private TreeHashVector getAll(Predicate<KeyArgs> filter) {
+		final TreeHashVector result = new TreeHashVector();
+		iterate((key, value) -> {
+			if (filter.test(key)) {
+				result.values.put(key, value);
+			}
+		});
+		return result;
+	}
+
+	private void removeIf(Predicate<Double> filter) {
+		checkWritable();
+		++version;
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			if (!segments[i].isEmpty()) {
+				writableSegment(i).values().removeIf(filter);
+			}
+		}
+	}
+
+	private synchronized VersionedHashVector share(boolean readOnlyCopy) {
+		for (int i = 0; i < NUM_SEGMENTS; ++i) {
+			shared[i] = true;
+		}
+		return new VersionedHashVector(segments.clone(), version,
+				readOnlyCopy);
+	}
+
+	private TreeMap<KeyArgs, Double> writableSegment(int index) {
+		if (shared[index]) {
+			segments[index] = new TreeMap<KeyArgs, Double>(segments[index]);
+			shared[index] = false;
+		}
+		return segments[index];
+	}
+
+	private TreeMap<KeyArgs, Double> writableSegment(KeyArgs key) {
+		checkWritable();
+		++version;
+		return writableSegment(segmentIndex(key));
+	}
+
+}
@@ -16,6 +16,8 @@
  *******************************************************************************/
 package edu.cornell.cs.nlp.spf.test.exec.distributed;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -51,7 +53,9 @@ import edu.cornell.cs.nlp.utils.log.LoggerFactory;
 
 /**
  * Distributed generic execution tester for {@link IExec}. Uses TinyDist for
- * distributing inference.
+ * distributing inference. Optionally, completed jobs are appended to a
+ * {@link TestJobJournal}, so a restarted run only distributes the data items
+ * that were not completed with the same model.
  *
  * @author Yoav Artzi
  * @see IExec
@@ -68,15 +72,36 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 												.create(DistributedExecTester.class
 														.getName());
 
+	/**
+	 * Fingerprint of the tested model. Used to key journaled results. If
+	 * <code>null</code>, sub-classes are expected to compute a fingerprint from
+	 * the executor (see {@link #modelFingerprint(IExec)}).
+	 */
+	private final String			fingerprint;
+
+	/**
+	 * Journal file of completed test jobs. If <code>null</code>, results are
+	 * kept in memory only.
+	 */
+	private final File				journalFile;
+
 	private final ReliableManager	manager;
 
 	private final IFilter<SAMPLE>	skipExecutionFilter;
 
 	protected DistributedExecTester(IFilter<SAMPLE> skipParsingFilter,
 			ReliableManager manager) {
+		this(skipParsingFilter, manager, null, null);
+	}
+
+	protected DistributedExecTester(IFilter<SAMPLE> skipParsingFilter,
+			ReliableManager manager, File journalFile, String fingerprint) {
 		this.skipExecutionFilter = skipParsingFilter;
 		this.manager = manager;
-		LOG.info("Init %s", DistributedExecTester.class);
+		this.journalFile = journalFile;
+		this.fingerprint = fingerprint;
+		LOG.info("Init %s :: journal=%s, fingerprint=%s",
+				DistributedExecTester.class, journalFile, fingerprint);
 	}
 
 	@Override
@@ -110,26 +135,58 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 				.getTokens().size(), o1.getSample().getSample().getTokens()
 				.size()));
 
-		// Distribute inference.
+		// Open the journal of completed jobs, if one is specified.
+		TestJobJournal<RESULT> journal = null;
+		if (journalFile != null) {
+			try {
+				journal = TestJobJournal.open(journalFile,
+						modelFingerprint(exec));
+			} catch (final IOException e) {
+				LOG.error("Failed to open test journal %s: %s", journalFile,
+						e);
+			}
+		}
+
+		// Distribute inference. Skip data items that already have a journaled
+		// result.
+		final List<String> ids = new ArrayList<String>(sortedData.size());
 		final List<JobFuture<TestJobResult<RESULT>>> futures = new ArrayList<JobFuture<TestJobResult<RESULT>>>(
 				sortedData.size());
+		int resumed = 0;
 		for (final DI dataItem : sortedData) {
-			futures.add(manager.execute(createTestJob(dataItem)));
+			final String id = dataItemId(dataItem);
+			ids.add(id);
+			if (journal != null && journal.isCompleted(id)) {
+				futures.add(null);
+				++resumed;
+			} else {
+				futures.add(manager.execute(createTestJob(dataItem)));
+			}
+		}
+		if (journal != null) {
+			LOG.info("Resuming %d/%d data items from journal", resumed,
+					sortedData.size());
 		}
 
-		// Wait for all jobs to finish.
+		// Wait for all jobs to finish. Journal results as they arrive.
 		boolean working = true;
 		final long distStartTime = System.currentTimeMillis();
 		while (working) {
 			working = false;
 			int completed = 0;
 			JobFuture<TestJobResult<RESULT>> remainingFuture = null;
-			for (final JobFuture<TestJobResult<RESULT>> future : futures) {
-				if (!future.isDone()) {
+			for (int i = 0; i < futures.size(); ++i) {
+				final JobFuture<TestJobResult<RESULT>> future = futures.get(i);
+				if (future == null) {
+					++completed;
+				} else if (!future.isDone()) {
 					remainingFuture = future;
 					working = true;
 				} else {
 					++completed;
+					if (journal != null && !journal.isCompleted(ids.get(i))) {
+						journalResult(journal, ids.get(i), future);
+					}
 				}
 			}
 			LOG.info("Completed %d/%d (%.3fsec)", completed, futures.size(),
@@ -152,6 +209,7 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 		final Iterator<DI> dataIterator = sortedData.iterator();
 		final Iterator<JobFuture<TestJobResult<RESULT>>> futureIterator = futures
 				.iterator();
+		final Iterator<String> idIterator = ids.iterator();
 		int itemCounter = 0;
 		long computeTime = 0;
 		while (dataIterator.hasNext()) {
@@ -159,10 +217,18 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 			final DI dataItem = dataIterator.next();
 			final JobFuture<TestJobResult<RESULT>> future = futureIterator
 					.next();
+			final String id = idIterator.next();
 
 			LOG.info("%d : ==================", itemCounter);
 			LOG.info("%s", dataItem);
 
+			if (future == null) {
+				// Journaled result from a previous run.
+				LOG.info("Result from journal (id=%s)", id);
+				test(dataItem, journal.get(id), stats);
+				continue;
+			}
+
 			try {
 				LOG.info(future.getLog());
 			} catch (final InterruptedException e) {
@@ -184,6 +250,14 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 			computeTime += result.processingTime;
 		}
 
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (final IOException e) {
+				LOG.error("Failed to close test journal: %s", e);
+			}
+		}
+
 		// Log speedup.
 		final long realTotalTime = System.currentTimeMillis() - startTime;
 		LOG.info("Distribution speedup:");
@@ -192,6 +266,17 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 						/ (double) realTotalTime);
 	}
 
+	private void journalResult(TestJobJournal<RESULT> journal, String id,
+			JobFuture<TestJobResult<RESULT>> future) {
+		try {
+			journal.append(id, future.get());
+		} catch (final InterruptedException | ExecutionException e) {
+			// Failed job, nothing to journal.
+		} catch (final IOException e) {
+			LOG.error("Failed to journal result for %s: %s", id, e);
+		}
+	}
+
 	private void processSingleBestParse(DI dataItem,
 			ResultWrapper<RESULT> result, boolean sloppy,
 			ITestingStatistics<SAMPLE, RESULT, DI> stats) {
@@ -268,6 +353,34 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 		return new TestJob<SAMPLE, RESULT, DI>(dataItem);
 	}
 
+	/**
+	 * The model fingerprint given at construction time, or <code>null</code>.
+	 */
+	protected String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * ID used to key the data item in the journal. Defaults to the sentence
+	 * string.
+	 */
+	protected String dataItemId(DI dataItem) {
+		return dataItem.getSample().getSample().getString();
+	}
+
+	/**
+	 * Fingerprint of the model used by the executor, used to key the journal.
+	 * Defaults to the fingerprint given at construction time.
+	 */
+	protected String modelFingerprint(IExec<SAMPLE, RESULT> exec) {
+		if (fingerprint == null) {
+			LOG.warn(
+					"No model fingerprint given, journaled results may be from a different model");
+			return "none";
+		}
+		return fingerprint;
+	}
+
 	public static class Creator<SAMPLE extends IDataItem<Sentence>, RESULT, DI extends ILabeledDataItem<SAMPLE, RESULT>>
 			implements
 			IResourceObjectCreator<DistributedExecTester<SAMPLE, RESULT, DI>> {
@@ -291,7 +404,10 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 				filter = FilterUtils.stubTrue();
 			}
 			return new DistributedExecTester<SAMPLE, RESULT, DI>(filter,
-					(ReliableManager) repo.get(params.get("manager")));
+					(ReliableManager) repo.get(params.get("manager")),
+					params.contains("journal") ? params.getAsFile("journal")
+							: null,
+					params.get("fingerprint", null));
 		}
 
 		@Override
@@ -308,7 +424,12 @@ public class DistributedExecTester<SAMPLE extends IDataItem<Sentence>, RESULT, D
 							"id",
 							"IFilter used to decide what data items to skip when doing sloppy inference (e.g., skipping words)")
 					.addParam("manager", ReliableManager.class,
-							"TintDist reliable manager").build();
+							"TintDist reliable manager")
+					.addParam("journal", File.class,
+							"Journal file of completed test jobs, used to resume interrupted runs (default: none)")
+					.addParam("fingerprint", String.class,
+							"Model fingerprint used to key journaled results (default: none)")
+					.build();
 		}
 
 	}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.test.exec.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.cornell.cs.nlp.spf.test.exec.distributed.DistributedExecTester.TestJobResult;
+import edu.cornell.cs.nlp.utils.log.ILogger;
+import edu.cornell.cs.nlp.utils.log.LoggerFactory;
+
+/**
+ * Append-only on-disk journal of completed {@link TestJobResult}s. Each record
+ * is keyed by the data item ID and a model fingerprint, so a restarted test
+ * run can skip all items that were already processed with the same model.
+ * Records written with a different fingerprint are ignored. A partially written
+ * or corrupted record (e.g., the process was killed mid-write) ends the journal,
+ * and the file is truncated before it when the journal is opened.
+ * <p>
+ * Record format: fingerprint (UTF), data item ID (UTF), payload length (int),
+ * GZIP compressed Java serialization of the {@link TestJobResult}.
+ *
+ * @author Yoav Artzi
+ * @param <RESULT>
+ *            Inference result.
+ */
+class TestJobJournal<RESULT> implements Closeable {
+	public static final ILogger							LOG	= LoggerFactory
+																	.create(TestJobJournal.class);
+
+	private final Map<String, TestJobResult<RESULT>>	completed;
+	private final File									file;
+	private final String								fingerprint;
+	private final FileOutputStream						fileStream;
+	private final DataOutputStream						output;
+
+	private TestJobJournal(File file, String fingerprint,
+			Map<String, TestJobResult<RESULT>> completed) throws IOException {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.completed = completed;
+		this.fileStream = new FileOutputStream(file, true);
+		this.output = new DataOutputStream(fileStream);
+	}
+
+	/**
+	 * Open a journal file, reading all records that match the given model
+	 * fingerprint. Creates the file if it doesn't exist.
+	 */
+	public static <RESULT> TestJobJournal<RESULT> open(File file,
+			String fingerprint) throws IOException {
+		final Map<String, TestJobResult<RESULT>> completed = new HashMap<>();
+		long validLength = 0;
+		int skipped = 0;
+		if (file.exists()) {
+			final long fileLength = file.length();
+			try (final DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)))) {
+				while (validLength < fileLength) {
+					final String recordFingerprint;
+					final String id;
+					final byte[] payload;
+					try {
+						recordFingerprint = input.readUTF();
+						id = input.readUTF();
+						final int length = input.readInt();
+						if (length < 0 || length > fileLength - validLength
+								- recordLength(recordFingerprint, id, 0)) {
+							throw new EOFException(
+									"Invalid payload length: " + length);
+						}
+						payload = new byte[length];
+						input.readFully(payload);
+					} catch (final IOException e) {
+						// A record cut short or with a corrupted header (e.g.,
+						// invalid UTF or length) ends the valid part of the
+						// journal.
+						break;
+					}
+
+					if (fingerprint.equals(recordFingerprint)) {
+						try {
+							completed.put(id, TestJobJournal.decode(payload));
+						} catch (final ClassNotFoundException
+								| IOException e) {
+							LOG.warn(
+									"Failed to decode journal record for %s, will re-process: %s",
+									id, e);
+							completed.remove(id);
+						}
+					} else {
+						++skipped;
+					}
+					validLength += recordLength(recordFingerprint, id,
+							payload.length);
+				}
+			}
+
+			// Drop any partial or corrupted record left behind by an
+			// interrupted write.
+			if (validLength != fileLength) {
+				LOG.warn("Truncating partial record from journal: %s", file);
+				try (final RandomAccessFile raf = new RandomAccessFile(file,
+						"rw")) {
+					raf.setLength(validLength);
+				}
+			}
+		}
+
+		LOG.info(
+				"Opened test journal %s :: fingerprint=%s, completed=%d, skipped=%d",
+				file, fingerprint, completed.size(), skipped);
+
+		return new TestJobJournal<>(file, fingerprint, completed);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <RESULT> TestJobResult<RESULT> decode(byte[] payload)
+			throws IOException, ClassNotFoundException {
+		try (final ObjectInputStream input = new ObjectInputStream(
+				new GZIPInputStream(new ByteArrayInputStream(payload)))) {
+			return (TestJobResult<RESULT>) input.readObject();
+		}
+	}
+
+	private static long recordLength(String fingerprint, String id,
+			int payloadLength) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeUTF(fingerprint);
+			out.writeUTF(id);
+		}
+		return bytes.size() + Integer.BYTES + payloadLength;
+	}
+
+	/**
+	 * Append a completed job result and sync it to disk.
+	 */
+	public synchronized void append(String id, TestJobResult<RESULT> result)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream objectOutput = new ObjectOutputStream(
+				new GZIPOutputStream(bytes))) {
+			objectOutput.writeObject(result);
+		}
+		final byte[] payload = bytes.toByteArray();
+		output.writeUTF(fingerprint);
+		output.writeUTF(id);
+		output.writeInt(payload.length);
+		output.write(payload);
+		output.flush();
+		fileStream.getFD().sync();
+		completed.put(id, result);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		output.close();
+	}
+
+	public synchronized TestJobResult<RESULT> get(String id) {
+		return completed.get(id);
+	}
+
+	public synchronized boolean isCompleted(String id) {
+		return completed.containsKey(id);
+	}
+
+	public synchronized int size() {
+		return completed.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[%s, fingerprint=%s]",
+				TestJobJournal.class.getSimpleName(), file, fingerprint);
+	}
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.base.hashvector;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+
+public class CompiledHashVectorTest {
+
+	@Test
+	public void test() {
+		final TreeHashVector theta = new TreeHashVector();
+		theta.set("p1", 1.0);
+		theta.set("p1", "p2", 2.0);
+		theta.set("p1", "p2", "p3", "p4", -3.0);
+
+		final CompiledHashVector compiled = CompiledHashVector.compile(theta);
+		Assert.assertEquals(3, compiled.size());
+		for (final Pair<KeyArgs, Double> entry : theta) {
+			final int slot = compiled.slot(entry.first());
+			Assert.assertNotEquals(CompiledHashVector.NO_SLOT, slot);
+			Assert.assertEquals(entry.first(), compiled.getKey(slot));
+			Assert.assertEquals(entry.second(), compiled.getWeight(slot), 0.0);
+		}
+		Assert.assertEquals(CompiledHashVector.NO_SLOT,
+				compiled.slot(new KeyArgs("p2")));
+
+		final TreeHashVector features = new TreeHashVector();
+		features.set("p1", 2.0);
+		features.set("p1", "p2", "p3", "p4", 1.0);
+		features.set("p5", 10.0);
+		Assert.assertEquals(theta.dotProduct(features),
+				compiled.dotProduct(features), 0.0);
+	}
+
+	@Test
+	public void test2() {
+		final Random random = new Random(1);
+		final TreeHashVector theta = new TreeHashVector();
+		final TreeHashVector features = new TreeHashVector();
+		for (int i = 0; i < 10000; ++i) {
+			theta.set(String.valueOf(random.nextInt(5000)),
+					String.valueOf(random.nextInt(10)), random.nextDouble());
+			features.set(String.valueOf(random.nextInt(5000)),
+					String.valueOf(random.nextInt(10)), random.nextDouble());
+		}
+
+		final CompiledHashVector compiled = CompiledHashVector.compile(theta);
+		Assert.assertEquals(theta.size(), compiled.size());
+		Assert.assertEquals(theta.dotProduct(features),
+				compiled.dotProduct(features), 1e-9);
+	}
+
+	@Test
+	public void testEmpty() {
+		final CompiledHashVector compiled = CompiledHashVector
+				.compile(new TreeHashVector());
+		Assert.assertEquals(0, compiled.size());
+		final TreeHashVector features = new TreeHashVector();
+		features.set("p1", 1.0);
+		Assert.assertEquals(0.0, compiled.dotProduct(features), 0.0);
+	}
+
+}
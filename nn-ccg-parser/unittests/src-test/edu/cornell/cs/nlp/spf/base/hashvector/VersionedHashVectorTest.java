@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.base.hashvector;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.utils.composites.Pair;
+
+public class VersionedHashVectorTest {
+
+	@Test
+	public void test() {
+		final VersionedHashVector vector = new VersionedHashVector();
+
+		vector.set("p1", 1.0);
+		vector.set("p1", "p2", "p3", "p4", 2.0);
+
+		Assert.assertEquals(1.0, vector.get("p1"), 0.0);
+		Assert.assertEquals(2.0, vector.get("p1", "p2", "p3", "p4"), 0.0);
+		Assert.assertEquals(2, vector.size());
+
+		vector.add("p2", 3.0);
+		vector.add("p2", 3.0);
+		Assert.assertEquals(6.0, vector.get("p2"), 0.0);
+
+		final IHashVector p1 = vector.getAll("p1");
+		Assert.assertEquals(1.0, p1.get("p1"), 0.0);
+		Assert.assertEquals(2.0, p1.get("p1", "p2", "p3", "p4"), 0.0);
+		Assert.assertEquals(2, p1.size());
+
+		vector.set("p3", -2.5);
+		Assert.assertEquals(2.5 + 6.0 + 1.0 + 2.0, vector.l1Norm(), 0.0);
+		final IHashVector pairwise = vector.pairWiseProduct(vector);
+		for (final Pair<KeyArgs, Double> entry : pairwise) {
+			Assert.assertEquals(entry.second(),
+					Math.pow(vector.get(entry.first()), 2), 0.0);
+		}
+	}
+
+	@Test
+	public void testSnapshot() {
+		final VersionedHashVector vector = new VersionedHashVector();
+		final Random random = new Random(1);
+		for (int i = 0; i < 1000; ++i) {
+			vector.set(String.valueOf(i), random.nextDouble());
+		}
+		final TreeHashVector copy = new TreeHashVector(vector);
+
+		final IHashVectorImmutable snapshot = vector.snapshot();
+		Assert.assertSame(snapshot, vector.snapshot());
+
+		// Update the vector, the snapshot should not change.
+		vector.add("0", 1.0);
+		vector.set("new", 1.0);
+		vector.multiplyBy(2.0);
+		vector.dropZeros();
+		Assert.assertNotSame(snapshot, vector.snapshot());
+
+		Assert.assertEquals(copy.size(), snapshot.size());
+		for (final Pair<KeyArgs, Double> entry : copy) {
+			Assert.assertEquals(entry.second(), snapshot.get(entry.first()),
+					0.0);
+			Assert.assertEquals(
+					(entry.second() + (entry.first().getArg1().equals("0")
+							? 1.0 : 0.0)) * 2.0,
+					vector.get(entry.first()), 0.0);
+		}
+		Assert.assertFalse(snapshot.contains("new"));
+		Assert.assertTrue(vector.contains("new"));
+
+		// Updating a copy doesn't change the original.
+		final IHashVector other = HashVectorFactory.createVersioned(vector);
+		other.clear();
+		Assert.assertEquals(0, other.size());
+		Assert.assertEquals(1001, vector.size());
+	}
+
+	@Test
+	public void testReadOnlySnapshot() {
+		final VersionedHashVector vector = new VersionedHashVector();
+		vector.set("p1", 1.0);
+
+		final IHashVectorImmutable snapshot = vector.snapshot();
+		try {
+			((IHashVector) snapshot).set("p1", 2.0);
+			Assert.fail("Expected the snapshot to be read-only");
+		} catch (final UnsupportedOperationException e) {
+			// Expected.
+		}
+		try {
+			((IHashVector) snapshot).multiplyBy(2.0);
+			Assert.fail("Expected the snapshot to be read-only");
+		} catch (final UnsupportedOperationException e) {
+			// Expected.
+		}
+		Assert.assertEquals(1.0, vector.snapshot().get("p1"), 0.0);
+
+		// A copy of the snapshot can be updated.
+		final IHashVector copy = HashVectorFactory.createVersioned(snapshot);
+		copy.set("p1", 3.0);
+		Assert.assertEquals(3.0, copy.get("p1"), 0.0);
+		Assert.assertEquals(1.0, snapshot.get("p1"), 0.0);
+		Assert.assertEquals(1.0, vector.get("p1"), 0.0);
+	}
+
+	@Test
+	public void testDotProduct() {
+		final Random random = new Random(1);
+		final VersionedHashVector vector = new VersionedHashVector();
+		final TreeHashVector tree = new TreeHashVector();
+		final TreeHashVector features = new TreeHashVector();
+		for (int i = 0; i < 1000; ++i) {
+			final String key = String.valueOf(random.nextInt(500));
+			final double value = random.nextDouble();
+			vector.set(key, value);
+			tree.set(key, value);
+			features.set(String.valueOf(random.nextInt(500)),
+					random.nextDouble());
+		}
+		Assert.assertEquals(tree.size(), vector.size());
+		Assert.assertEquals(tree.dotProduct(features),
+				vector.dotProduct(features), 1e-9);
+		Assert.assertEquals(tree.dotProduct(features),
+				features.dotProduct(vector), 1e-9);
+	}
+
+}
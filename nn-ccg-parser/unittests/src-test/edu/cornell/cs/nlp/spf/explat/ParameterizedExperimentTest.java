@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.explat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.cs.nlp.spf.explat.ParameterizedExperiment.Parameters;
+import edu.cornell.cs.nlp.spf.explat.resources.IResourceObjectCreator;
+import edu.cornell.cs.nlp.spf.explat.resources.ResourceCreatorRepository;
+import edu.cornell.cs.nlp.spf.explat.resources.usage.ResourceUsage;
+
+public class ParameterizedExperimentTest {
+
+	@Rule
+	public final TemporaryFolder	folder	= new TemporaryFolder();
+
+	/**
+	 * IDs of created resources, in order of creation.
+	 */
+	private final List<String>		created	= Collections
+			.synchronizedList(new ArrayList<String>());
+
+	@Test
+	public void testLaterResource() throws IOException {
+		final ParameterizedExperiment experiment = this.experiment("",
+				"type=node id=a uses=b", "type=node id=b");
+		try {
+			experiment.readResrouces();
+			Assert.fail("Expected the resource to be unavailable");
+		} catch (final IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testLazy() throws IOException {
+		final ParameterizedExperiment experiment = this.experiment("",
+				"type=node id=a", "type=node id=x uses=a lazy=true",
+				"type=node id=y uses=a");
+		experiment.readResrouces();
+		Assert.assertEquals(Arrays.asList("a", "y"), created);
+		Assert.assertTrue(experiment.hasResource("x"));
+		Assert.assertFalse(experiment.hasResource("z"));
+
+		// Created on first request, then re-used.
+		final Node x = experiment.get("x");
+		Assert.assertEquals(Arrays.asList("a", "y", "x"), created);
+		Assert.assertSame(experiment.get("a"), x.used.get(0));
+		Assert.assertSame(x, experiment.get("x"));
+		Assert.assertEquals(3, created.size());
+	}
+
+	@Test
+	public void testParallel() throws IOException {
+		final ParameterizedExperiment experiment = this.experiment(
+				"resourceThreads=3", "type=node id=a delay=200",
+				"type=node id=b uses=a", "type=node id=c",
+				"type=node id=d uses=b,c");
+		experiment.readResrouces();
+		Assert.assertEquals(4, created.size());
+
+		// Resources are created after the resources they use, other resources
+		// don't wait.
+		Assert.assertTrue(created.indexOf("a") < created.indexOf("b"));
+		Assert.assertTrue(created.indexOf("b") < created.indexOf("d"));
+		Assert.assertTrue(created.indexOf("c") < created.indexOf("d"));
+		Assert.assertTrue(created.indexOf("c") < created.indexOf("a"));
+
+		final Node d = experiment.get("d");
+		Assert.assertSame(experiment.get("b"), d.used.get(0));
+		Assert.assertSame(experiment.get("c"), d.used.get(1));
+		Assert.assertSame(experiment.get("a"),
+				((Node) experiment.get("b")).used.get(0));
+	}
+
+	@Test
+	public void testSequentialByDefault() throws IOException {
+		final ParameterizedExperiment experiment = this.experiment("",
+				"type=node id=a delay=50", "type=node id=b uses=a",
+				"type=node id=c", "type=node id=d uses=b,c");
+		experiment.readResrouces();
+		Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), created);
+		for (final String id : created) {
+			Assert.assertSame(Thread.currentThread(),
+					((Node) experiment.get(id)).thread);
+		}
+	}
+
+	/**
+	 * Creates an experiment from a global parameters line and resource lines.
+	 */
+	private ParameterizedExperiment experiment(String globalParams,
+			String... resources) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		if (!globalParams.isEmpty()) {
+			lines.add(globalParams);
+		}
+		lines.add("");
+		lines.addAll(Arrays.asList(resources));
+		final File file = folder.newFile();
+		Files.write(file.toPath(), lines);
+
+		final ResourceCreatorRepository repo = new ResourceCreatorRepository();
+		repo.registerResourceCreator(new NodeCreator());
+		return new ParameterizedExperiment(file,
+				Collections.<String, String> emptyMap(), repo,
+				folder.getRoot()) {
+		};
+	}
+
+	private static class Node {
+		private final Thread		thread	= Thread.currentThread();
+		private final List<Object>	used;
+
+		public Node(List<Object> used) {
+			this.used = used;
+		}
+	}
+
+	/**
+	 * Creates a {@link Node} from the resources listed in "uses", after waiting
+	 * "delay" milliseconds.
+	 */
+	private class NodeCreator implements IResourceObjectCreator<Node> {
+
+		@Override
+		public Node create(Parameters params, IResourceRepository repo) {
+			final List<Object> used = new ArrayList<Object>();
+			if (params.contains("uses")) {
+				for (final String id : params.getSplit("uses")) {
+					used.add(repo.get(id));
+				}
+			}
+			try {
+				Thread.sleep(params.getAsLong("delay", 0));
+			} catch (final InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			created.add(params.get("id"));
+			return new Node(used);
+		}
+
+		@Override
+		public String type() {
+			return "node";
+		}
+
+		@Override
+		public ResourceUsage usage() {
+			return new ResourceUsage.Builder(type(), Node.class).build();
+		}
+	}
+
+}
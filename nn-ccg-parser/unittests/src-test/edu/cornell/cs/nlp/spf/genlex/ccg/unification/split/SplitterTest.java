@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.genlex.ccg.unification.split;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.genlex.ccg.unification.split.SplittingServices.SplittingPair;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+public class SplitterTest {
+
+	private final Category<LogicalExpression>	first;
+	private final Category<LogicalExpression>	second;
+
+	public SplitterTest() {
+		TestServices.init();
+		this.first = TestServices.getCategoryServices().read(
+				"N : (lambda $0:e (and:<t*,t> (p:<e,t> $0) (boo:<e,<e,t>> $0 koo:e)))");
+		this.second = TestServices.getCategoryServices().read(
+				"N\\NP : (lambda $0:e (lambda $1:e (and:<t*,t> (boo:<e,<e,t>> $1 $0) (p:<e,t> $1))))");
+	}
+
+	@Test
+	public void testCached() {
+		final Splitter splitter = new Splitter(
+				TestServices.getCategoryServices());
+		final Set<SplittingPair> expected = uncached(first);
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, splitter.getSplits(first));
+		// Second call is served from the memo.
+		Assert.assertEquals(expected, splitter.getSplits(first));
+		Assert.assertEquals(uncached(second), splitter.getSplits(second));
+		Assert.assertEquals(expected, splitter.getSplits(first));
+	}
+
+	@Test
+	public void testCapacity() {
+		// The memo is cleared on almost every call, results must not change.
+		final Splitter splitter = new Splitter(
+				TestServices.getCategoryServices(), 1);
+		final Set<SplittingPair> expectedFirst = uncached(first);
+		final Set<SplittingPair> expectedSecond = uncached(second);
+		for (int i = 0; i < 3; ++i) {
+			Assert.assertEquals(expectedFirst, splitter.getSplits(first));
+			Assert.assertEquals(expectedSecond, splitter.getSplits(second));
+		}
+	}
+
+	private static Set<SplittingPair> uncached(
+			Category<LogicalExpression> category) {
+		final Set<SplittingPair> splits = new HashSet<SplittingPair>();
+		splits.addAll(MakeApplicationSplits.of(category,
+				TestServices.getCategoryServices()));
+		splits.addAll(MakeCompositionSplits.of(category,
+				TestServices.getCategoryServices()));
+		return splits;
+	}
+
+}
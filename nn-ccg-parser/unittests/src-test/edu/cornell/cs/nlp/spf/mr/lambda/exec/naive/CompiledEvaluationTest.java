@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.mr.lambda.exec.naive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
+import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentence;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicLanguageServices;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalConstant;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.mr.lambda.Variable;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.ArgMax;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.ArgMin;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Equals;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Exists;
+import edu.cornell.cs.nlp.spf.mr.lambda.exec.naive.evaluators.Not;
+import edu.cornell.cs.nlp.spf.mr.language.type.Type;
+
+public class CompiledEvaluationTest {
+
+	private final LogicalExpression	austin;
+	private final LogicalExpression	dallas;
+	private final LogicalExpression	houston;
+	private final LogicalExpression	ohio;
+	private final LogicalExpression	texas;
+	private final LogicalExpression	utah;
+
+	public CompiledEvaluationTest() {
+		TestServices.init();
+		this.austin = LogicalExpression.read("austin_tx:c");
+		this.dallas = LogicalExpression.read("dallas_tx:c");
+		this.houston = LogicalExpression.read("houston_tx:c");
+		this.ohio = LogicalExpression.read("ohio:s");
+		this.texas = LogicalExpression.read("texas:s");
+		this.utah = LogicalExpression.read("utah:s");
+	}
+
+	@Test
+	public void testArgExtremum() {
+		Assert.assertEquals(houston, this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (city:<c,t> $0)) (lambda $1:c (population:<lo,i> $1)))"));
+		Assert.assertEquals(austin, this.assertSameDenotation(
+				"(argmin:<<e,t>,<<e,i>,e>> (lambda $0:c (city:<c,t> $0)) (lambda $1:c (population:<lo,i> $1)))"));
+
+		// Members without a value are ignored.
+		Assert.assertEquals(dallas, this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (loc:<lo,<lo,t>> $0 texas:s)) (lambda $1:c (elevation:<lo,i> $1)))"));
+
+		// Ties are broken the same way.
+		Assert.assertNotNull(this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (city:<c,t> $0)) (lambda $1:c (area:<lo,i> $1)))"));
+		Assert.assertNotNull(this.assertSameDenotation(
+				"(argmin:<<e,t>,<<e,i>,e>> (lambda $0:lo (state:<s,t> $0)) (lambda $1:lo (area:<lo,i> $1)))"));
+	}
+
+	@Test
+	public void testArgExtremumNoOrder() {
+		// A single entry has no order.
+		Assert.assertNull(this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (capital:<c,t> $0)) (lambda $1:c (population:<lo,i> $1)))"));
+
+		// Empty set.
+		Assert.assertNull(this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (loc:<lo,<lo,t>> $0 ohio:s)) (lambda $1:c (population:<lo,i> $1)))"));
+
+		// The ordering function has a value that is not a number, even though
+		// only for an entry that is not in the set.
+		Assert.assertNull(this.assertSameDenotation(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (city:<c,t> $0)) (lambda $1:lo (size:<lo,i> $1)))"));
+		Assert.assertNull(this.assertSameDenotation(
+				"(argmin:<<e,t>,<<e,i>,e>> (lambda $0:c (city:<c,t> $0)) (lambda $1:lo (size:<lo,i> $1)))"));
+	}
+
+	@Test
+	public void testDenotationValidator() {
+		final DenotationValidator<SingleSentence> validator = new DenotationValidator<SingleSentence>(
+				new GeoServices());
+		final SingleSentence dataItem = new SingleSentence(
+				new Sentence("cities in texas"), LogicalExpression.read(
+						"(lambda $0:c (and:<t*,t> (city:<c,t> $0) (loc:<lo,<lo,t>> $0 texas:s)))"));
+
+		// Different logical forms with the same denotation.
+		Assert.assertTrue(validator.isValid(dataItem,
+				LogicalExpression.read("(lambda $0:c (city:<c,t> $0))")));
+		Assert.assertFalse(validator.isValid(dataItem, LogicalExpression
+				.read("(lambda $0:c (capital:<c,t> $0))")));
+		Assert.assertFalse(validator.isValid(dataItem,
+				LogicalExpression.read("texas:s")));
+
+		// Failing to evaluate is never valid.
+		Assert.assertFalse(validator.isValid(dataItem, LogicalExpression.read(
+				"(argmax:<<e,t>,<<e,i>,e>> (lambda $0:c (capital:<c,t> $0)) (lambda $1:c (population:<lo,i> $1)))")));
+	}
+
+	@Test
+	public void testLambda() {
+		this.assertSameDenotation("(lambda $0:c (city:<c,t> $0))");
+		this.assertSameDenotation("(lambda $0:lo (population:<lo,i> $0))");
+		this.assertSameDenotation(
+				"(lambda $0:s (lambda $1:s (next_to:<lo,<lo,t>> $0 $1)))");
+		Assert.assertEquals(this.set(texas), this.assertSameDenotation(
+				"(lambda $0:s (exists:<<e,t>,t> (lambda $1:c (and:<t*,t> (city:<c,t> $1) (loc:<lo,<lo,t>> $1 $0)))))"));
+		this.assertSameDenotation(
+				"(lambda $0:s (=:<i,<i,t>> (population:<lo,i> (capital:<s,c> $0)) (population:<lo,i> austin_tx:c)))");
+	}
+
+	@Test
+	public void testLiterals() {
+		Assert.assertEquals(Boolean.TRUE, this.assertSameDenotation(
+				"(exists:<<e,t>,t> (lambda $0:s (next_to:<lo,<lo,t>> $0 texas:s)))"));
+		Assert.assertEquals(Boolean.FALSE, this.assertSameDenotation(
+				"(exists:<<e,t>,t> (lambda $0:s (next_to:<lo,<lo,t>> $0 utah:s)))"));
+		Assert.assertEquals(Boolean.TRUE, this.assertSameDenotation(
+				"(=:<i,<i,t>> (population:<lo,i> (capital:<s,c> texas:s)) (population:<lo,i> austin_tx:c))"));
+		Assert.assertEquals(Boolean.TRUE, this.assertSameDenotation(
+				"(not:<t,t> (capital:<c,t> dallas_tx:c))"));
+		Assert.assertEquals(Boolean.FALSE, this.assertSameDenotation(
+				"(or:<t*,t> (capital:<c,t> dallas_tx:c) (next_to:<lo,<lo,t>> utah:s texas:s))"));
+
+		// Failures propagate.
+		Assert.assertNull(this.assertSameDenotation(
+				"(=:<i,<i,t>> (population:<lo,i> (capital:<s,c> utah:s)) (population:<lo,i> austin_tx:c))"));
+		Assert.assertNull(this.assertSameDenotation(
+				"(and:<t*,t> (capital:<c,t> austin_tx:c) (=:<i,<i,t>> (population:<lo,i> ohio:s) 1:i))"));
+	}
+
+	/**
+	 * Evaluates the expression with both {@link Evaluation} and
+	 * {@link CompiledEvaluation} (twice, to re-use the compiled expression)
+	 * and returns the denotation.
+	 */
+	private Object assertSameDenotation(String string) {
+		final LogicalExpression exp = LogicalExpression.read(string);
+		final Object expected = Evaluation.of(exp, new GeoServices());
+		final CompiledEvaluation evaluation = new CompiledEvaluation(
+				new GeoServices());
+		Assert.assertEquals(string, expected, evaluation.evaluate(exp));
+		Assert.assertEquals(string, expected, evaluation.evaluate(exp));
+		return expected;
+	}
+
+	private LambdaResult set(LogicalExpression... entities) {
+		final LambdaResult result = new LambdaResult(1);
+		for (final LogicalExpression entity : entities) {
+			result.addTuple(new Tuple(new Object[] { entity }, Boolean.TRUE));
+		}
+		return result;
+	}
+
+	/**
+	 * Services for a small world: entities denote themselves, variables range
+	 * over the entities of their type and predicates are defined by fixed
+	 * facts and functions.
+	 */
+	private class GeoServices extends AbstractEvaluationServices<Object> {
+
+		private final List<LogicalExpression>					entities	= Arrays
+				.asList(austin, dallas, houston, ohio, texas, utah);
+
+		private final Map<LogicalExpression, ILiteralEvaluator>	evaluators	= new HashMap<LogicalExpression, ILiteralEvaluator>();
+
+		private final Set<List<Object>>							facts		= new HashSet<List<Object>>();
+
+		private final Map<List<Object>, Object>					functions	= new HashMap<List<Object>, Object>();
+
+		private final Object									state		= new Object();
+
+		public GeoServices() {
+			this.evaluators.put(LogicalConstant
+					.read("argmax:<<e,t>,<<e,i>,e>>"), new ArgMax());
+			this.evaluators.put(LogicalConstant
+					.read("argmin:<<e,t>,<<e,i>,e>>"), new ArgMin());
+			this.evaluators.put(LogicalConstant.read("exists:<<e,t>,t>"),
+					new Exists());
+			this.evaluators.put(LogicalConstant.read("=:<i,<i,t>>"),
+					new Equals());
+			this.evaluators.put(LogicLanguageServices.getNegationPredicate(),
+					new Not());
+
+			this.fact("city:<c,t>", austin);
+			this.fact("city:<c,t>", dallas);
+			this.fact("city:<c,t>", houston);
+			this.fact("capital:<c,t>", austin);
+			this.fact("state:<s,t>", ohio);
+			this.fact("state:<s,t>", texas);
+			this.fact("state:<s,t>", utah);
+			this.fact("loc:<lo,<lo,t>>", austin, texas);
+			this.fact("loc:<lo,<lo,t>>", dallas, texas);
+			this.fact("loc:<lo,<lo,t>>", houston, texas);
+			this.fact("next_to:<lo,<lo,t>>", ohio, texas);
+			this.fact("next_to:<lo,<lo,t>>", texas, ohio);
+
+			this.function("capital:<s,c>", austin, texas);
+			this.function("population:<lo,i>", 1.0, austin);
+			this.function("population:<lo,i>", 2.0, dallas);
+			this.function("population:<lo,i>", 3.0, houston);
+			this.function("population:<lo,i>", 5.0, texas);
+			this.function("elevation:<lo,i>", 4.0, austin);
+			this.function("elevation:<lo,i>", 6.0, dallas);
+			this.function("area:<lo,i>", 7.0, austin);
+			this.function("area:<lo,i>", 7.0, dallas);
+			this.function("area:<lo,i>", 7.0, houston);
+			this.function("area:<lo,i>", 1.0, ohio);
+			this.function("area:<lo,i>", 1.0, texas);
+			this.function("area:<lo,i>", 1.0, utah);
+			this.function("size:<lo,i>", 1.0, austin);
+			this.function("size:<lo,i>", 2.0, dallas);
+			this.function("size:<lo,i>", "large", texas);
+		}
+
+		@Override
+		public Object evaluateConstant(LogicalConstant logicalConstant) {
+			if (entities.contains(logicalConstant)) {
+				return logicalConstant;
+			}
+			return super.evaluateConstant(logicalConstant);
+		}
+
+		@Override
+		public Object evaluateLiteral(LogicalExpression predicate,
+				Object[] args) {
+			final ILiteralEvaluator evaluator = evaluators.get(predicate);
+			if (evaluator != null) {
+				return evaluator.evaluate(args);
+			}
+			final List<Object> key = new ArrayList<Object>();
+			key.add(predicate);
+			key.addAll(Arrays.asList(args));
+			Type range = predicate.getType();
+			while (range.isComplex()) {
+				range = range.getRange();
+			}
+			if (LogicLanguageServices.getTypeRepository().getTruthValueType()
+					.equals(range)) {
+				return facts.contains(key);
+			}
+			return functions.get(key);
+		}
+
+		@Override
+		public List<?> getAllDenotations(Variable variable) {
+			final List<LogicalExpression> denotations = new ArrayList<LogicalExpression>();
+			for (final LogicalExpression entity : entities) {
+				if (entity.getType().isExtending(variable.getType())) {
+					denotations.add(entity);
+				}
+			}
+			return denotations;
+		}
+
+		@Override
+		public ILiteralEvaluator getEvaluator(LogicalExpression predicate) {
+			return evaluators.get(predicate);
+		}
+
+		@Override
+		public boolean isDenotable(Variable variable) {
+			return true;
+		}
+
+		@Override
+		protected Object currentState() {
+			return state;
+		}
+
+		private void fact(String predicate, Object... args) {
+			final List<Object> fact = new ArrayList<Object>();
+			fact.add(LogicalConstant.read(predicate));
+			fact.addAll(Arrays.asList(args));
+			facts.add(fact);
+		}
+
+		private void function(String predicate, Object value,
+				Object... args) {
+			final List<Object> key = new ArrayList<Object>();
+			key.add(LogicalConstant.read(predicate));
+			key.addAll(Arrays.asList(args));
+			functions.put(key, value);
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.mr.lambda.exec.tabular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.mr.lambda.Literal;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicLanguageServices;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalConstant;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.mr.lambda.Variable;
+
+public class ExecutionTest {
+
+	private final LogicalExpression	austin;
+	private final LogicalExpression	dallas;
+	private final LogicalExpression	texas;
+
+	public ExecutionTest() {
+		TestServices.init();
+		this.austin = LogicalExpression.read("austin_tx:c");
+		this.dallas = LogicalExpression.read("dallas_tx:c");
+		this.texas = LogicalExpression.read("texas:s");
+	}
+
+	@Test
+	public void testConjunction() {
+		final InMemoryServices services = new InMemoryServices();
+		final List<Object> denotations = Execution.of(
+				LogicalExpression.read(
+						"(lambda $0:c (and:<t*,t> (capital:<c,t> $0) (loc:<lo,<lo,t>> $0 texas:s)))"),
+				services);
+		Assert.assertEquals(1, denotations.size());
+		Assert.assertEquals(this.tuples(Arrays.asList(this.austin)),
+				denotations.get(0));
+
+		// The second conjunct is only executed for the rows the first one
+		// selected.
+		Assert.assertEquals(Integer.valueOf(2),
+				services.executed.get("capital"));
+		Assert.assertEquals(Integer.valueOf(1), services.executed.get("loc"));
+	}
+
+	@Test
+	public void testEmptyConjunction() {
+		final InMemoryServices services = new InMemoryServices();
+		final List<Object> denotations = Execution.of(
+				LogicalExpression.read(
+						"(lambda $0:c (and:<t*,t> (capital:<c,t> $0) (loc:<lo,<lo,t>> $0 ohio:s)))"),
+				services);
+		Assert.assertEquals(this.tuples(), denotations.get(0));
+	}
+
+	@Test
+	public void testMultipleVariables() {
+		final List<Object> denotations = Execution.of(
+				LogicalExpression.read(
+						"(lambda $0:c (lambda $1:s (loc:<lo,<lo,t>> $0 $1)))"),
+				new InMemoryServices());
+		Assert.assertEquals(
+				this.tuples(Arrays.asList(this.austin, this.texas),
+						Arrays.asList(this.dallas, this.texas)),
+				denotations.get(0));
+	}
+
+	@Test
+	public void testSingleVariable() {
+		final List<Object> denotations = Execution.of(
+				LogicalExpression.read("(lambda $0:c (city:<c,t> $0))"),
+				new InMemoryServices());
+		Assert.assertEquals(this.tuples(Arrays.asList(this.austin),
+				Arrays.asList(this.dallas)), denotations.get(0));
+	}
+
+	@SafeVarargs
+	private final Set<List<Object>> tuples(List<? extends Object>... tuples) {
+		final Set<List<Object>> set = new HashSet<List<Object>>();
+		for (final List<? extends Object> tuple : tuples) {
+			set.add(new ArrayList<Object>(tuple));
+		}
+		return set;
+	}
+
+	/**
+	 * Services for a small world: entities denote themselves, variables range
+	 * over the entities of their type and literals are true for a fixed set of
+	 * facts.
+	 */
+	private class InMemoryServices implements IExecutionServices {
+
+		private final List<LogicalExpression>	entities	= Arrays.asList(
+				austin, dallas, texas, LogicalExpression.read("ohio:s"));
+
+		/**
+		 * Number of rows each predicate was executed for.
+		 */
+		private final Map<String, Integer>		executed	= new HashMap<String, Integer>();
+
+		private final Set<List<Object>>			facts		= new HashSet<List<Object>>();
+
+		public InMemoryServices() {
+			this.fact("city", austin);
+			this.fact("city", dallas);
+			this.fact("capital", austin);
+			this.fact("loc", austin, texas);
+			this.fact("loc", dallas, texas);
+		}
+
+		@Override
+		public void augmentTableWithConstant(LogicalConstant constant,
+				Table table) {
+			table.augment(constant, (Object) constant);
+		}
+
+		@Override
+		public void augmentTableWithLiteral(Literal literal, Table table) {
+			final LogicalExpression predicate = literal.getPredicate();
+			final String name = ((LogicalConstant) predicate).getBaseName();
+			for (final Map<LogicalExpression, Object> row : table) {
+				final Boolean value;
+				if (LogicLanguageServices.getConjunctionPredicate()
+						.equals(predicate)) {
+					boolean all = true;
+					for (int i = 0; i < literal.numArgs(); ++i) {
+						all &= Boolean.TRUE.equals(row.get(literal.getArg(i)));
+					}
+					value = all;
+				} else {
+					final List<Object> fact = new ArrayList<Object>();
+					fact.add(name);
+					for (int i = 0; i < literal.numArgs(); ++i) {
+						fact.add(row.get(literal.getArg(i)));
+					}
+					value = facts.contains(fact);
+				}
+				row.put(literal, value);
+				final Integer count = executed.get(name);
+				executed.put(name, count == null ? 1 : count + 1);
+			}
+		}
+
+		@Override
+		public void augmentTableWithVariable(Variable variable, Table table) {
+			final List<LogicalExpression> values = new ArrayList<LogicalExpression>();
+			for (final LogicalExpression entity : entities) {
+				if (entity.getType().isExtending(variable.getType())) {
+					values.add(entity);
+				}
+			}
+			table.augment(variable, values);
+		}
+
+		@Override
+		public void removingVariable(Variable var,
+				Map<LogicalExpression, Object> row) {
+			// Nothing depends on the variables.
+		}
+
+		private void fact(String predicate, Object... args) {
+			final List<Object> fact = new ArrayList<Object>();
+			fact.add(predicate);
+			fact.addAll(Arrays.asList(args));
+			facts.add(fact);
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.mr.lambda.exec.tabular;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+public class TableTest {
+
+	private final LogicalExpression	a;
+	private final LogicalExpression	b;
+	private final LogicalExpression	c;
+
+	public TableTest() {
+		TestServices.init();
+		this.a = LogicalExpression.read("texas:s");
+		this.b = LogicalExpression.read("ohio:s");
+		this.c = LogicalExpression.read("utah:s");
+	}
+
+	private static Set<Map<LogicalExpression, Object>> rows(Table table) {
+		final Set<Map<LogicalExpression, Object>> rows = new HashSet<Map<LogicalExpression, Object>>();
+		for (final Map<LogicalExpression, Object> row : table) {
+			rows.add(new HashMap<LogicalExpression, Object>(row));
+		}
+		return rows;
+	}
+
+	@Test
+	public void testAugmentRow() {
+		final Table table = new Table();
+		table.augment(a, Arrays.asList(1, 2));
+
+		// The first value is set in the row, the others are added as new rows.
+		final Map<LogicalExpression, Object> first = table.iterator().next();
+		table.augmentRow(first, b, Arrays.asList("x", "y"));
+		Assert.assertEquals(3, table.numRows());
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(Arrays.asList(
+						this.row(a, 1, b, "x"), this.row(a, 1, b, "y"),
+						this.row(a, 2))),
+				rows(table));
+		Assert.assertNull(table.get(2, c));
+
+		// Rows of other tables are rejected.
+		final Table other = new Table();
+		other.augment(a, Arrays.asList(1));
+		try {
+			table.augmentRow(other.iterator().next(), c,
+					Collections.singletonList("z"));
+			Assert.fail("Expected the row to be rejected");
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testCrossProduct() {
+		final Table table = new Table();
+		table.augment(a, Arrays.asList(1, 2));
+		table.augment(b, Arrays.asList("x", "y", "z"));
+		Assert.assertEquals(6, table.numRows());
+		Assert.assertEquals(Arrays.asList(a, b), table.getHeaders());
+		for (final int i : Arrays.asList(1, 2)) {
+			for (final String s : Arrays.asList("x", "y", "z")) {
+				Assert.assertTrue(rows(table).contains(this.row(a, i, b, s)));
+			}
+		}
+
+		// A single value is set for all rows.
+		table.augment(c, (Object) "v");
+		Assert.assertEquals(6, table.numRows());
+		for (final Map<LogicalExpression, Object> row : table) {
+			Assert.assertEquals("v", row.get(c));
+		}
+
+		// Re-augmenting an existing header replaces its values, and the rows
+		// that become identical are merged.
+		table.augment(b, Arrays.asList("w", "w"));
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(
+						Arrays.asList(this.row(a, 1, b, "w", c, "v"),
+								this.row(a, 2, b, "w", c, "v"))),
+				rows(table));
+	}
+
+	@Test
+	public void testJoinNoSharedHeaders() {
+		final Table table = new Table();
+		table.augment(a, Arrays.asList(1, 2));
+		final Table other = new Table();
+		other.augment(b, Arrays.asList("x", "y"));
+
+		table.augment(other);
+		Assert.assertEquals(4, table.numRows());
+		Assert.assertTrue(rows(table).contains(this.row(a, 2, b, "y")));
+
+		// The other table is not modified.
+		Assert.assertEquals(2, other.numRows());
+		Assert.assertEquals(Arrays.asList(b), other.getHeaders());
+	}
+
+	@Test
+	public void testJoinSharedHeaders() {
+		final Table table = new Table();
+		table.addRow(this.row(a, 1, b, "x"));
+		table.addRow(this.row(a, 2, b, "y"));
+		table.addRow(this.row(a, 3, b, "z"));
+
+		final Table other = new Table();
+		other.addRow(this.row(a, 1, c, "p"));
+		other.addRow(this.row(a, 1, c, "q"));
+		other.addRow(this.row(a, 2, c, "r"));
+		other.addRow(this.row(a, 4, c, "s"));
+
+		// Rows are joined on the shared header, rows without a match are
+		// dropped.
+		table.augment(other);
+		Assert.assertEquals(
+				new HashSet<LogicalExpression>(Arrays.asList(a, b, c)),
+				new HashSet<LogicalExpression>(table.getHeaders()));
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(Arrays.asList(
+						this.row(a, 1, b, "x", c, "p"),
+						this.row(a, 1, b, "x", c, "q"),
+						this.row(a, 2, b, "y", c, "r"))),
+				rows(table));
+
+		// Joining into an empty table copies the other table.
+		final Table empty = new Table();
+		empty.augment(other);
+		Assert.assertEquals(rows(other), rows(empty));
+	}
+
+	@Test
+	public void testRemoveDuplicates() {
+		final Table table = new Table();
+		table.addRow(this.row(a, 1, b, "x"));
+		table.addRow(this.row(a, 1, b, "x"));
+		Assert.assertEquals(1, table.numRows());
+
+		// Removing a column doesn't merge the rows that become identical
+		// until rows are added.
+		table.addRow(this.row(a, 2, b, "x"));
+		table.removeColumn(a);
+		Assert.assertEquals(2, table.numRows());
+		table.addRow(this.row(b, "y"));
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(
+						Arrays.asList(this.row(b, "x"), this.row(b, "y"))),
+				rows(table));
+
+		// Same for rows modified in place.
+		final Iterator<Map<LogicalExpression, Object>> iterator = table
+				.iterator();
+		iterator.next().put(b, "z");
+		iterator.next().put(b, "z");
+		Assert.assertEquals(2, table.numRows());
+		table.addRow(this.row(b, "z"));
+		Assert.assertEquals(1, table.numRows());
+	}
+
+	@Test
+	public void testSelect() {
+		final Table table = new Table();
+		table.augment(a, Arrays.asList(1, 2, 3, 4));
+		int i = 0;
+		for (final Map<LogicalExpression, Object> row : table) {
+			if (i < 3) {
+				// The last row has no value.
+				row.put(b, i % 2 == 0 ? Boolean.TRUE : Boolean.FALSE);
+			}
+			++i;
+		}
+
+		final Table removed = table.select(b);
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(
+						Arrays.asList(this.row(a, 1, b, true),
+								this.row(a, 3, b, true))),
+				rows(table));
+		Assert.assertEquals(table.getHeaders(), removed.getHeaders());
+		Assert.assertEquals(
+				new HashSet<Map<LogicalExpression, Object>>(
+						Arrays.asList(this.row(a, 2, b, false),
+								this.row(a, 4))),
+				rows(removed));
+
+		// Selecting on a missing header removes all rows.
+		Assert.assertEquals(2, table.select(c).numRows());
+		Assert.assertEquals(0, table.numRows());
+	}
+
+	private Map<LogicalExpression, Object> row(Object... entries) {
+		final Map<LogicalExpression, Object> row = new HashMap<LogicalExpression, Object>();
+		for (int i = 0; i < entries.length; i += 2) {
+			row.put((LogicalExpression) entries[i], entries[i + 1]);
+		}
+		return row;
+	}
+
+}
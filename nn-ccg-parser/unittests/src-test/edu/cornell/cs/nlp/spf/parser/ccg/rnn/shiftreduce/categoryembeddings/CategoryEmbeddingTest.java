@@ -0,0 +1,97 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.categoryembeddings;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive.Tree;
+
+public class CategoryEmbeddingTest {
+
+	@Test
+	public void testUnrelatedLeafUpdate() {
+		final CategoryEmbedding<LogicalExpression> embedding =
+					new CategoryEmbedding<LogicalExpression>(0.1, 0.0, 0.0001, 1234);
+
+		// S/NP depends on S, NP, the forward slash and the recursive network, N[pl] is a
+		// single leaf that depends on N and the plural attribute
+		final Category<LogicalExpression> complex = Category.create(Syntax.read("S/NP"));
+		final Category<LogicalExpression> leaf = Category.create(Syntax.read("N[pl]"));
+
+		final Tree complexTree = embedding.getCategoryEmbedding(complex).getSyntacticTree();
+		final CategoryEmbeddingResult leafResult = embedding.getCategoryEmbedding(leaf);
+		final Tree leafTree = leafResult.getSyntacticTree();
+		Assert.assertSame(complexTree, embedding.getCategoryEmbedding(complex).getSyntacticTree());
+
+		// update only the leaf vectors of N[pl]
+		embedding.backprop(leafTree, leafResult.getSemanticTree(), this.error(embedding));
+		embedding.updateParameters();
+		embedding.flushGradients();
+
+		Assert.assertSame(complexTree, embedding.getCategoryEmbedding(complex).getSyntacticTree());
+		Assert.assertNotSame(leafTree, embedding.getCategoryEmbedding(leaf).getSyntacticTree());
+		Assert.assertEquals(1, embedding.getSyntaxCache().getInvalidationCount());
+	}
+
+	@Test
+	public void testRecursiveNetworkUpdate() {
+		final CategoryEmbedding<LogicalExpression> embedding =
+					new CategoryEmbedding<LogicalExpression>(0.1, 0.0, 0.0001, 1234);
+
+		final Category<LogicalExpression> complex = Category.create(Syntax.read("S/NP"));
+		final Category<LogicalExpression> otherComplex = Category.create(Syntax.read("S\\N"));
+		final Category<LogicalExpression> leaf = Category.create(Syntax.read("N[pl]"));
+
+		final CategoryEmbeddingResult complexResult = embedding.getCategoryEmbedding(complex);
+		final Tree otherComplexTree = embedding.getCategoryEmbedding(otherComplex).getSyntacticTree();
+		final Tree leafTree = embedding.getCategoryEmbedding(leaf).getSyntacticTree();
+
+		// the error of S/NP reaches the recursive network, which is shared by all complex
+		// syntax, but not the vectors of N[pl]
+		embedding.backprop(complexResult.getSyntacticTree(), complexResult.getSemanticTree(),
+						this.error(embedding));
+		embedding.updateParameters();
+		embedding.flushGradients();
+
+		Assert.assertNotSame(complexResult.getSyntacticTree(),
+							embedding.getCategoryEmbedding(complex).getSyntacticTree());
+		Assert.assertNotSame(otherComplexTree, embedding.getCategoryEmbedding(otherComplex).getSyntacticTree());
+		Assert.assertSame(leafTree, embedding.getCategoryEmbedding(leaf).getSyntacticTree());
+	}
+
+	@Test
+	public void testCachedTreeGradients() {
+		final CategoryEmbedding<LogicalExpression> embedding =
+					new CategoryEmbedding<LogicalExpression>(0.1, 0.0, 0.0001, 1234);
+
+		final Category<LogicalExpression> leaf = Category.create(Syntax.read("N[pl]"));
+		final Category<LogicalExpression> other = Category.create(Syntax.read("NP"));
+		embedding.getCategoryEmbedding(leaf);
+
+		// an update that doesn't touch N[pl] keeps its tree cached
+		final CategoryEmbeddingResult otherResult = embedding.getCategoryEmbedding(other);
+		embedding.backprop(otherResult.getSyntacticTree(), otherResult.getSemanticTree(),
+						this.error(embedding));
+		embedding.updateParameters();
+		embedding.flushGradients();
+
+		// the cached tree isn't rebuilt, but its vectors are still updated by its gradient
+		final CategoryEmbeddingResult cached = embedding.getCategoryEmbedding(leaf);
+		final INDArray before = cached.getSyntacticTree().getVector().dup();
+		embedding.backprop(cached.getSyntacticTree(), cached.getSemanticTree(), this.error(embedding));
+		embedding.updateParameters();
+		embedding.flushGradients();
+
+		final Tree rebuilt = embedding.getCategoryEmbedding(leaf).getSyntacticTree();
+		Assert.assertNotSame(cached.getSyntacticTree(), rebuilt);
+		Assert.assertNotEquals(before, rebuilt.getVector());
+	}
+
+	private INDArray error(CategoryEmbedding<LogicalExpression> embedding) {
+		return Nd4j.ones(1, embedding.getDimension()).muli(0.1);
+	}
+}
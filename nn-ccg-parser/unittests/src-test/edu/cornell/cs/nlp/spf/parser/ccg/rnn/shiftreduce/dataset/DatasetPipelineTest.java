@@ -0,0 +1,134 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatasetPipelineTest {
+
+	@Test
+	public void testOrder() {
+
+		final DatasetPipeline<Integer> pipeline = new DatasetPipeline<Integer>(sink -> {
+			sink.accept(Arrays.asList(1, 2, 3));
+			sink.accept(Collections.<Integer>emptyList());
+			sink.accept(Arrays.asList(4));
+			sink.accept(Arrays.asList(5, 6));
+		}, 2, 1);
+
+		final List<Integer> consumed = new ArrayList<Integer>();
+		pipeline.start();
+		try {
+			while(pipeline.hasNext()) {
+				consumed.add(pipeline.next());
+			}
+			Assert.assertFalse(pipeline.hasNext());
+		} finally {
+			pipeline.close();
+		}
+
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), consumed);
+		Assert.assertEquals(6, pipeline.getNumProduced());
+		Assert.assertEquals(6, pipeline.getNumConsumed());
+	}
+
+	@Test
+	public void testCapacity() throws InterruptedException {
+
+		final DatasetPipeline<Integer> pipeline = new DatasetPipeline<Integer>(sink -> {
+			sink.accept(Arrays.asList(1, 2, 3, 4, 5));
+		}, 2, 10);
+
+		pipeline.start();
+		try {
+			// the producer blocks once the buffer is full
+			this.waitFor(() -> pipeline.getNumProduced() == 2);
+			Thread.sleep(100);
+			Assert.assertEquals(2, pipeline.getNumProduced());
+
+			Assert.assertEquals(Integer.valueOf(1), pipeline.next());
+			this.waitFor(() -> pipeline.getNumProduced() == 3);
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	@Test
+	public void testStaleness() throws InterruptedException {
+
+		final DatasetPipeline<Integer> pipeline = new DatasetPipeline<Integer>(sink -> {
+			for(int i = 0; i < 5; i++) {
+				sink.accept(Arrays.asList(2 * i, 2 * i + 1));
+			}
+		}, 100, 2);
+
+		pipeline.start();
+		try {
+			// points of at most two sentences are handed over before the consumer reads them
+			this.waitFor(() -> pipeline.getNumProduced() == 4);
+			Thread.sleep(100);
+			Assert.assertEquals(4, pipeline.getNumProduced());
+
+			// reading the first point of a sentence does not release it
+			Assert.assertEquals(Integer.valueOf(0), pipeline.next());
+			Thread.sleep(100);
+			Assert.assertEquals(4, pipeline.getNumProduced());
+
+			Assert.assertEquals(Integer.valueOf(1), pipeline.next());
+			this.waitFor(() -> pipeline.getNumProduced() == 6);
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	@Test
+	public void testProducerError() {
+
+		final DatasetPipeline<Integer> pipeline = new DatasetPipeline<Integer>(sink -> {
+			sink.accept(Arrays.asList(1));
+			throw new IllegalStateException("parsing failed");
+		}, 2, 2);
+
+		pipeline.start();
+		try {
+			Assert.assertEquals(Integer.valueOf(1), pipeline.next());
+			pipeline.hasNext();
+			Assert.fail("Expected the error of the producer");
+		} catch(RuntimeException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		} finally {
+			pipeline.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testClose() {
+
+		final DatasetPipeline<Integer> pipeline = new DatasetPipeline<Integer>(sink -> {
+			while(true) {
+				sink.accept(Arrays.asList(1, 2));
+			}
+		}, 4, 2);
+
+		pipeline.start();
+		Assert.assertEquals(Integer.valueOf(1), pipeline.next());
+
+		// closing stops a producer that is blocked on the full pipeline
+		pipeline.close();
+		Assert.assertEquals(1, pipeline.getNumConsumed());
+	}
+
+	private void waitFor(BooleanSupplier condition) throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		while(!condition.getAsBoolean()) {
+			Assert.assertTrue("Timed out waiting for the pipeline", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class MappedCheckpointTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+
+		final INDArray matrix = Nd4j.create(new double[] {1.0, -2.5, 3.25, 4.0, 0.0, 1e-8}, new int[] {2, 3});
+		final List<INDArray> arrays = Arrays.asList(Nd4j.create(new double[] {0.5, 0.25}, new int[] {1, 2}),
+				matrix.transpose());
+		final List<String[]> keys = Arrays.asList(new String[] {"STATE", "w1"}, new String[] {"STATE", "w2", "NP"},
+				new String[] {"caf\u00e9"});
+		final List<INDArray> vectors = Arrays.asList(Nd4j.create(new double[] {1.0, 2.0, 3.0}, new int[] {1, 3}),
+				Nd4j.create(new double[] {-1.0}, new int[] {1, 1}), matrix.getRow(1));
+
+		final File file = this.folder.newFile("model.ckpt");
+		try(CheckpointWriter writer = new CheckpointWriter(file.getPath())) {
+			writer.writeArray("W", matrix);
+			writer.writeArrays("layers", arrays);
+			writer.writeKeyedArrays("embeddings", keys, vectors);
+		}
+
+		final MappedCheckpoint checkpoint = new MappedCheckpoint(file.getPath(), true);
+		Assert.assertTrue(checkpoint.hasBlock("W"));
+		Assert.assertFalse(checkpoint.hasBlock("b"));
+
+		Assert.assertEquals(matrix, checkpoint.readArray("W"));
+
+		final List<INDArray> readArrays = checkpoint.readArrays("layers");
+		Assert.assertEquals(2, readArrays.size());
+		Assert.assertEquals(arrays.get(0), readArrays.get(0));
+		Assert.assertEquals(matrix.transpose(), readArrays.get(1));
+
+		final MappedCheckpoint.KeyedArrays keyedArrays = checkpoint.readKeyedArrays("embeddings");
+		Assert.assertEquals(3, keyedArrays.size());
+		for(int i = 0; i < keys.size(); i++) {
+			Assert.assertArrayEquals(keys.get(i), keyedArrays.getKey(i));
+			Assert.assertEquals(vectors.get(i), keyedArrays.get(i));
+		}
+
+		// blocks can be read again
+		Assert.assertEquals(matrix, checkpoint.readArray("W"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateBlock() throws IOException {
+		try(CheckpointWriter writer = new CheckpointWriter(this.folder.newFile("model.ckpt").getPath())) {
+			writer.writeArray("W", Nd4j.zeros(2, 2));
+			writer.writeArray("W", Nd4j.zeros(2, 2));
+		}
+	}
+
+	@Test
+	public void testCorruptedBlock() throws IOException {
+
+		final INDArray matrix = Nd4j.create(new double[] {1.0, 2.0, 3.0, 4.0}, new int[] {2, 2});
+		final File file = this.folder.newFile("model.ckpt");
+		try(CheckpointWriter writer = new CheckpointWriter(file.getPath())) {
+			writer.writeArray("W", matrix);
+			writer.writeArray("b", matrix);
+		}
+
+		// flip a bit of the last value of W: header, rank and shape, then 4 doubles
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[CheckpointWriter.HEADER_BYTES + 3 * Integer.BYTES + 3 * Double.BYTES + 1] ^= 1;
+		Files.write(file.toPath(), bytes);
+
+		// blocks are verified on first access, other blocks can still be read
+		final MappedCheckpoint checkpoint = new MappedCheckpoint(file.getPath(), true);
+		Assert.assertEquals(matrix, checkpoint.readArray("b"));
+		try {
+			checkpoint.readArray("W");
+			Assert.fail("Expected a checksum error");
+		} catch(UncheckedIOException e) {
+			Assert.assertTrue(e.getMessage().contains("Checksum of block W"));
+		}
+
+		// without verification the corrupted values are read
+		final INDArray corrupted = new MappedCheckpoint(file.getPath(), false).readArray("W");
+		Assert.assertNotEquals(matrix, corrupted);
+		Assert.assertEquals(matrix.getDouble(0), corrupted.getDouble(0), 0.0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+
+		final File file = this.folder.newFile("model.ckpt");
+		try(CheckpointWriter writer = new CheckpointWriter(file.getPath())) {
+			writer.writeArray("W", Nd4j.ones(3, 3));
+		}
+
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+		new MappedCheckpoint(file.getPath(), true);
+	}
+}
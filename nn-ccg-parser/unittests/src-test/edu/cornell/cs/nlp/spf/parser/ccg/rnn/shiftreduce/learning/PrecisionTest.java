@@ -0,0 +1,108 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class PrecisionTest {
+
+	private Precision precision;
+
+	@Before
+	public void setUp() {
+		this.precision = Precision.current();
+	}
+
+	@After
+	public void tearDown() {
+		// the precision is global, restore it for other tests
+		this.precision.use();
+	}
+
+	@Test
+	public void testRoundTrip() {
+
+		Precision.DOUBLE.use();
+		Assert.assertEquals(Precision.DOUBLE, Precision.current());
+		final INDArray matrix = Nd4j.create(new double[]{0.1, -2.5, 1e-3, 3.0, 7.25, -0.3}, new int[]{2, 3});
+		final INDArray vector = Nd4j.create(new double[]{1.0/3.0, 2.0/3.0, -4.0});
+		// a non-contiguous view is read element by element
+		final INDArray column = matrix.getColumn(1);
+
+		Precision.FLOAT.use();
+		Assert.assertEquals(Precision.FLOAT, Precision.current());
+		final INDArray floatMatrix = Precision.convert(matrix);
+		final INDArray floatVector = Precision.convert(vector);
+		final INDArray floatColumn = Precision.convert(column);
+		Assert.assertEquals(DataBuffer.Type.FLOAT, floatMatrix.data().dataType());
+		Assert.assertEquals(DataBuffer.Type.FLOAT, floatColumn.data().dataType());
+		this.assertValues(matrix, floatMatrix, 1e-6);
+		this.assertValues(vector, floatVector, 1e-6);
+		this.assertValues(column, floatColumn, 1e-6);
+
+		// arrays in the current precision are not copied
+		Assert.assertSame(floatMatrix, Precision.convert(floatMatrix));
+		Assert.assertNull(Precision.convert((INDArray) null));
+
+		// converting back to double is exact
+		Precision.DOUBLE.use();
+		final INDArray doubleMatrix = Precision.convert(floatMatrix);
+		Assert.assertEquals(DataBuffer.Type.DOUBLE, doubleMatrix.data().dataType());
+		this.assertValues(floatMatrix, doubleMatrix, 0.0);
+		this.assertValues(floatVector, Precision.convert(floatVector), 0.0);
+		this.assertValues(matrix, doubleMatrix, 1e-6);
+	}
+
+	@Test
+	public void testCollections() {
+
+		Precision.DOUBLE.use();
+		final INDArray first = Nd4j.create(new double[]{1.5, -2.0});
+		final INDArray second = Nd4j.create(new double[]{0.1, 0.2, 0.3});
+		final List<INDArray> list = new ArrayList<INDArray>(Arrays.asList(first, second));
+		final Map<String, INDArray> map = new HashMap<String, INDArray>();
+		map.put("first", first);
+		map.put("second", second);
+
+		Precision.FLOAT.use();
+		Precision.convert(list);
+		Precision.convert(map);
+
+		Assert.assertEquals(2, list.size());
+		Assert.assertEquals(DataBuffer.Type.FLOAT, list.get(0).data().dataType());
+		this.assertValues(first, list.get(0), 1e-6);
+		this.assertValues(second, list.get(1), 1e-6);
+		Assert.assertEquals(DataBuffer.Type.FLOAT, map.get("second").data().dataType());
+		this.assertValues(first, map.get("first"), 1e-6);
+		this.assertValues(second, map.get("second"), 1e-6);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRank() {
+		Precision.DOUBLE.use();
+		final INDArray tensor = Nd4j.create(new int[]{2, 2, 2});
+		Precision.FLOAT.use();
+		Precision.convert(tensor);
+	}
+
+	private void assertValues(INDArray expected, INDArray actual, double delta) {
+
+		Assert.assertEquals(expected.rows(), actual.rows());
+		Assert.assertEquals(expected.columns(), actual.columns());
+		for(int i = 0; i < expected.rows(); i++) {
+			for(int j = 0; j < expected.columns(); j++) {
+				Assert.assertEquals(expected.getDouble(i, j), actual.getDouble(i, j), delta);
+			}
+		}
+	}
+}
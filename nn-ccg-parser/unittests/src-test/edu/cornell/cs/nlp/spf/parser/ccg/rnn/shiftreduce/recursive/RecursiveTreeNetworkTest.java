@@ -0,0 +1,151 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.recursive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.LearningRate;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
+
+public class RecursiveTreeNetworkTest {
+
+	private static final int DIM = 4;
+
+	/** gradients are sums over many nodes, which the batched backprop adds up in a different order,
+	 * so they may differ in the last bits */
+	private static final double SUM_DELTA = 1e-14;
+
+	private Precision precision;
+
+	@Before
+	public void setUp() {
+		// the precision is global, compare in double and restore it for other tests
+		this.precision = Precision.current();
+		Precision.DOUBLE.use();
+	}
+
+	@After
+	public void tearDown() {
+		this.precision.use();
+	}
+
+	@Test
+	public void testBatchMatchesSingleTree() {
+
+		final RecursiveTreeNetwork network = new RecursiveTreeNetwork(DIM, new LearningRate(0.1, 0.0), 0.0,
+																		new Random(1), 1234);
+		final List<INDArray> errors = new ArrayList<INDArray>();
+		for(int i = 0; i < 5; i++) {
+			errors.add(Nd4j.rand(new int[]{1, DIM}, 100 + i).subi(0.5));
+		}
+
+		// one tree at a time
+		final Forest single = new Forest();
+		for(Tree t: single.trees) {
+			network.feedForward(t);
+		}
+		for(int i = 0; i < single.trees.size(); i++) {
+			network.backProp(single.trees.get(i), errors.get(i));
+		}
+		final INDArray gradW = network.getGradW().dup();
+		final INDArray gradb = network.getGradb().dup();
+		Assert.assertTrue(network.hasGradient());
+
+		// all trees at once, on a separate copy of the same trees
+		network.flushGradients();
+		final Forest batch = new Forest();
+		network.feedForward(batch.trees);
+		network.backProp(batch.trees, errors);
+
+		for(int i = 0; i < single.trees.size(); i++) {
+			this.assertSameNodes(single.trees.get(i), batch.trees.get(i));
+		}
+		this.assertEquals(gradW, network.getGradW(), SUM_DELTA);
+		this.assertEquals(gradb, network.getGradb(), SUM_DELTA);
+
+		for(String label: single.leaves.keySet()) {
+			final GradientWrapper expected = single.leaves.get(label).getGradient()[0];
+			final GradientWrapper actual = batch.leaves.get(label).getGradient()[0];
+			Assert.assertEquals(label, expected.numTerms(), actual.numTerms());
+			this.assertEquals(expected.getGradient(), actual.getGradient(), SUM_DELTA);
+		}
+		// a gets an error from each of its 4 occurrences, e from the third tree and from itself
+		Assert.assertEquals(4, single.leaves.get("a").getGradient()[0].numTerms());
+		Assert.assertEquals(2, single.leaves.get("e").getGradient()[0].numTerms());
+	}
+
+	@Test
+	public void testSharedSubtreeComputedOnce() {
+
+		final RecursiveTreeNetwork network = new RecursiveTreeNetwork(DIM, new LearningRate(0.1, 0.0), 0.0,
+																		new Random(1), 1234);
+		final Forest forest = new Forest();
+		network.feedForward(forest.trees);
+
+		// both trees see the same vector object of the shared subtree
+		final Tree shared = forest.trees.get(0).getChild(0);
+		Assert.assertSame(shared, forest.trees.get(1).getChild(1));
+		Assert.assertNotNull(shared.getVector());
+		Assert.assertSame(shared.getVector(), forest.trees.get(1).getChild(1).getVector());
+	}
+
+	private void assertEquals(INDArray expected, INDArray actual, double delta) {
+		Assert.assertArrayEquals(expected.shape(), actual.shape());
+		for(int i = 0; i < expected.length(); i++) {
+			Assert.assertEquals(expected.getDouble(i), actual.getDouble(i), delta);
+		}
+	}
+
+	private void assertSameNodes(Tree expected, Tree actual) {
+
+		Assert.assertEquals(expected.numChildren(), actual.numChildren());
+		this.assertEquals(expected.getVector(), actual.getVector(), 0.0);
+		if(expected.numChildren() > 0) {
+			this.assertEquals(expected.getPreOutput(), actual.getPreOutput(), 0.0);
+			for(int i = 0; i < expected.numChildren(); i++) {
+				this.assertSameNodes(expected.getChild(i), actual.getChild(i));
+			}
+		}
+	}
+
+	/** trees of different heights over the leaves a-e, the subtree (a b) is shared by the first two trees */
+	private static class Forest {
+
+		private final Map<String, Tree> leaves = new HashMap<String, Tree>();
+		private final List<Tree> trees;
+
+		Forest() {
+			int seed = 0;
+			for(String label: Arrays.asList("a", "b", "c", "d", "e")) {
+				final Tree leaf = new Tree(label, Collections.<Tree>emptyList());
+				leaf.setVector(Nd4j.rand(new int[]{1, DIM}, seed++).subi(0.5));
+				leaf.setGradient(new GradientWrapper(DIM));
+				this.leaves.put(label, leaf);
+			}
+
+			final Tree shared = this.node(this.leaves.get("a"), this.leaves.get("b"));
+			this.trees = Arrays.asList(
+					this.node(shared, this.leaves.get("c")),
+					this.node(this.leaves.get("d"), shared),
+					this.node(this.node(this.leaves.get("a"), this.leaves.get("c")),
+							  this.node(this.node(this.leaves.get("d"), this.leaves.get("a")), this.leaves.get("e"))),
+					this.node(this.leaves.get("b"), this.leaves.get("c")),
+					this.leaves.get("e"));
+		}
+
+		private Tree node(Tree left, Tree right) {
+			return new Tree(left.getLabel() + right.getLabel(), Arrays.asList(left, right));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.wordembeddings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedWordEmbeddingTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File text = this.write("word2vec.txt", Arrays.asList(
+				"the:0.5,-1.25,3.0",
+				"dog:1.0,2.0,3.0",
+				"caf\u00e9:-0.125,0.0,7.5",
+				"a:b:4.0,5.0,6.0",
+				"dog:9.0,9.0,9.0"));
+		final File binary = new File(this.folder.getRoot(), "word2vec.bin");
+		MappedWordEmbedding.convert(text.getPath(), binary.getPath());
+
+		Assert.assertTrue(MappedWordEmbedding.isBinary(binary.getPath()));
+		Assert.assertFalse(MappedWordEmbedding.isBinary(text.getPath()));
+
+		final MappedWordEmbedding mapped = new MappedWordEmbedding(binary.getPath());
+		Assert.assertEquals(3, mapped.dimension());
+		Assert.assertEquals(4, mapped.size());
+
+		// every word maps back to its own row, duplicates keep the first vector
+		final String[] words = {"the", "dog", "caf\u00e9", "a:b"};
+		final float[][] vectors = {{0.5f, -1.25f, 3.0f}, {1.0f, 2.0f, 3.0f},
+				{-0.125f, 0.0f, 7.5f}, {4.0f, 5.0f, 6.0f}};
+		for(int i = 0; i < words.length; i++) {
+			final int row = mapped.indexOf(words[i]);
+			Assert.assertTrue(row >= 0);
+			Assert.assertEquals(words[i], mapped.getWord(row));
+			Assert.assertTrue(mapped.find(words[i]));
+			Assert.assertArrayEquals(vectors[i], mapped.getRow(row, null), 0.0f);
+
+			final FloatBuffer view = mapped.getRowView(row);
+			Assert.assertEquals(3, view.remaining());
+			Assert.assertTrue(view.isReadOnly());
+			for(int j = 0; j < 3; j++) {
+				Assert.assertEquals(vectors[i][j], view.get(j), 0.0f);
+			}
+		}
+
+		// unknown words
+		Assert.assertEquals(-1, mapped.indexOf("cat"));
+		Assert.assertFalse(mapped.find("cat"));
+		Assert.assertTrue(mapped.find(WordEmbedding.UNK));
+		Assert.assertTrue(mapped.getWordEmbedding("cat").isEmpty());
+	}
+
+	@Test
+	public void testWord2Vec() throws IOException {
+		final File text = this.write("ascii.txt", Arrays.asList(
+				"the:0.5,-1.25,3.0",
+				"a:b:4.0,5.0,6.0"));
+		final File binary = new File(this.folder.getRoot(), "ascii.bin");
+		MappedWordEmbedding.convert(text.getPath(), binary.getPath());
+
+		// the map returned for existing callers matches the text loader
+		final Word2Vec fromText = new Word2Vec(text.getPath());
+		final Word2Vec fromBinary = new Word2Vec(binary.getPath());
+		Assert.assertEquals(fromText.dimension(), fromBinary.dimension());
+		for(String word: Arrays.asList("the", "a:b", WordEmbedding.UNK, "cat")) {
+			Assert.assertEquals(fromText.find(word), fromBinary.find(word));
+			final HashMap<Integer, Double> expected = fromText.getWordEmbedding(word);
+			final HashMap<Integer, Double> actual = fromBinary.getWordEmbedding(word);
+			Assert.assertEquals(expected.keySet(), actual.keySet());
+			for(Integer i: expected.keySet()) {
+				Assert.assertEquals(expected.get(i), actual.get(i), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testGloveFormat() throws IOException {
+		final File text = this.write("glove.txt", Arrays.asList(
+				"the 0.1 0.2",
+				"",
+				", -0.3 0.4"));
+		final File binary = new File(this.folder.getRoot(), "glove.bin");
+		MappedWordEmbedding.convert(text.getPath(), binary.getPath());
+
+		final MappedWordEmbedding mapped = new MappedWordEmbedding(binary.getPath());
+		Assert.assertEquals(2, mapped.dimension());
+		Assert.assertEquals(2, mapped.size());
+		Assert.assertArrayEquals(new float[] {0.1f, 0.2f},
+				mapped.getRow(mapped.indexOf("the"), new float[2]), 0.0f);
+		Assert.assertArrayEquals(new float[] {-0.3f, 0.4f},
+				mapped.getRow(mapped.indexOf(","), null), 0.0f);
+	}
+
+	@Test
+	public void testLargeVocabulary() throws IOException {
+		final int size = 5000;
+		final List<String> lines = new ArrayList<String>(size);
+		for(int i = 0; i < size; i++) {
+			lines.add("w" + i + ":" + i + "," + (-i) + ",0.5");
+		}
+		final File text = this.write("large.txt", lines);
+		final File binary = new File(this.folder.getRoot(), "large.bin");
+		MappedWordEmbedding.convert(text.getPath(), binary.getPath());
+
+		final MappedWordEmbedding mapped = new MappedWordEmbedding(binary.getPath());
+		Assert.assertEquals(size, mapped.size());
+		final float[] row = new float[3];
+		for(int i = 0; i < size; i++) {
+			final int index = mapped.indexOf("w" + i);
+			Assert.assertEquals("w" + i, mapped.getWord(index));
+			mapped.getRow(index, row);
+			Assert.assertEquals(i, row[0], 0.0f);
+			Assert.assertEquals(-i, row[1], 0.0f);
+		}
+		Assert.assertEquals(-1, mapped.indexOf("w" + size));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		final File text = this.write("truncated.txt", Arrays.asList("the:1.0,2.0"));
+		final File binary = new File(this.folder.getRoot(), "truncated.bin");
+		MappedWordEmbedding.convert(text.getPath(), binary.getPath());
+
+		final byte[] bytes = Files.readAllBytes(binary.toPath());
+		Files.write(binary.toPath(), Arrays.copyOf(bytes, bytes.length - 2));
+		new MappedWordEmbedding(binary.getPath());
+	}
+
+	private File write(String name, List<String> lines) throws IOException {
+		final File file = new File(this.folder.getRoot(), name);
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+		return file;
+	}
+}
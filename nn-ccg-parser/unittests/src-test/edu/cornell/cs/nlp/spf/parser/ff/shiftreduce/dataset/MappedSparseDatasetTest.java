@@ -0,0 +1,162 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
+import edu.cornell.cs.nlp.spf.base.hashvector.IHashVector;
+import edu.cornell.cs.nlp.spf.base.hashvector.KeyArgs;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+
+public class MappedSparseDatasetTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	public MappedSparseDatasetTest() {
+		TestServices.init();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+
+		final LogicalExpression texas = LogicalExpression.read("(state:<s,t> texas:s)");
+		final LogicalExpression lambda = LogicalExpression.read("(lambda $0:s (state:<s,t> $0))");
+
+		final List<SparseFeatureAndStateDataset<LogicalExpression>> points =
+				new ArrayList<SparseFeatureAndStateDataset<LogicalExpression>>();
+
+		// shares features and the sentence with the next point, semantics set with nulls
+		final SparseFeatureAndStateDataset<LogicalExpression> first = this.point("show me texas", 1,
+				this.vector(new KeyArgs("STATE", "w1"), 1.0, new KeyArgs("STATE", "w2", "NP"), -0.5),
+				this.vector(new KeyArgs("SHIFT", "NP"), 1.0),
+				this.vector(new KeyArgs("REDUCE", "a", "b", "c", "d"), 2.25, new KeyArgs("STATE", "w1"), 0.125));
+		first.setSemantics(texas, null, null);
+		points.add(first);
+
+		final SparseFeatureAndStateDataset<LogicalExpression> second = this.point("show me texas", 0,
+				this.vector(new KeyArgs("STATE", "w1"), 3.0),
+				this.vector(new KeyArgs("A", "B", "C", "D", "E"), -1.0));
+		second.setSemantics(lambda, texas, lambda);
+		points.add(second);
+
+		// empty state feature, an action without features and no semantics
+		points.add(this.point("texas", 2, this.vector(),
+				this.vector(new KeyArgs("SHIFT", "NP"), 0.5), this.vector(), this.vector(new KeyArgs("UNARY"), 1.0)));
+
+		final File file = new File(this.folder.getRoot(), "dataset.bin");
+		try(SparseDatasetWriter<LogicalExpression> writer = new SparseDatasetWriter<LogicalExpression>(file.getPath())) {
+			writer.accept(points.subList(0, 2));
+			writer.write(points.get(2));
+			Assert.assertEquals(3, writer.size());
+		}
+
+		final MappedSparseDataset<LogicalExpression> mapped =
+								new MappedSparseDataset<LogicalExpression>(file.getPath());
+		Assert.assertEquals(3, mapped.size());
+		Assert.assertEquals(6, mapped.numFeatures());
+
+		for(int i = 0; i < points.size(); i++) {
+			this.assertEquals(points.get(i), mapped.getStateDataset(i));
+		}
+
+		// views decode points on access, in the given order
+		final List<SparseFeatureAndStateDataset<LogicalExpression>> all = mapped.asStateDatasetList();
+		Assert.assertEquals(3, all.size());
+		this.assertEquals(points.get(1), all.get(1));
+
+		final List<SparseFeatureAndStateDataset<LogicalExpression>> permuted =
+													mapped.asStateDatasetList(new int[] {2, 0});
+		Assert.assertEquals(2, permuted.size());
+		this.assertEquals(points.get(2), permuted.get(0));
+		this.assertEquals(points.get(0), permuted.get(1));
+
+		// the cursor reads the same values without decoding the point
+		final MappedSparseDataset<LogicalExpression>.Cursor cursor = mapped.cursor().seek(0);
+		Assert.assertTrue(cursor.hasState());
+		Assert.assertTrue(cursor.isSemanticsSet());
+		Assert.assertEquals(1, cursor.groundTruthIndex());
+		Assert.assertEquals("show me texas", mapped.getSentence(cursor.sentenceId()));
+		Assert.assertEquals(texas, mapped.getSemantics(cursor.lastSemanticsId()));
+		Assert.assertEquals(-1, cursor.sndLastSemanticsId());
+		Assert.assertEquals(2, cursor.numActions());
+		Assert.assertEquals(2, cursor.numEntries(2));
+		Assert.assertEquals(new KeyArgs("REDUCE", "a", "b", "c", "d"), mapped.getFeature(cursor.featureId(2, 0)));
+		Assert.assertEquals(2.25f, cursor.featureValue(2, 0), 0.0f);
+
+		Assert.assertEquals(0, cursor.seek(2).numEntries(0));
+		Assert.assertEquals(0, cursor.numEntries(2));
+		Assert.assertFalse(cursor.isSemanticsSet());
+	}
+
+	@Test
+	public void testActionOnlyPoints() throws IOException {
+
+		final SparseFeatureDataset<LogicalExpression> pt = new SparseFeatureDataset<LogicalExpression>(
+				Arrays.asList(this.vector(new KeyArgs("SHIFT", "N"), 1.5), this.vector(new KeyArgs("SHIFT", "NP"), -1.0)),
+				1, "texas", null);
+
+		final File file = new File(this.folder.getRoot(), "actions.bin");
+		try(SparseDatasetWriter<LogicalExpression> writer = new SparseDatasetWriter<LogicalExpression>(file.getPath())) {
+			writer.write(pt);
+		}
+
+		final MappedSparseDataset<LogicalExpression> mapped =
+								new MappedSparseDataset<LogicalExpression>(file.getPath());
+		Assert.assertFalse(mapped.cursor().seek(0).hasState());
+
+		final SparseFeatureDataset<LogicalExpression> read = mapped.getDataset(0);
+		Assert.assertEquals(pt.getGroundTruthIndex(), read.getGroundTruthIndex());
+		Assert.assertEquals(pt.getSentence(), read.getSentence());
+		Assert.assertEquals(pt.getPossibleActionFeatures(), read.getPossibleActionFeatures());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotDataset() throws IOException {
+		final File file = new File(this.folder.getRoot(), "other.bin");
+		Files.write(file.toPath(), new byte[64]);
+		new MappedSparseDataset<LogicalExpression>(file.getPath());
+	}
+
+	private void assertEquals(SparseFeatureAndStateDataset<LogicalExpression> expected,
+							  SparseFeatureAndStateDataset<LogicalExpression> actual) {
+
+		Assert.assertEquals(expected.getGroundTruthIndex(), actual.getGroundTruthIndex());
+		Assert.assertEquals(expected.getSentence(), actual.getSentence());
+		Assert.assertEquals(expected.getStateFeature(), actual.getStateFeature());
+		Assert.assertEquals(expected.getPossibleActionFeatures(), actual.getPossibleActionFeatures());
+		Assert.assertEquals(expected.isSemanticsSet(), actual.isSemanticsSet());
+		Assert.assertEquals(expected.getLastSemantics(), actual.getLastSemantics());
+		Assert.assertEquals(expected.getSndLastSemantics(), actual.getSndLastSemantics());
+		Assert.assertEquals(expected.getThirdLastSemantics(), actual.getThirdLastSemantics());
+
+		// possible actions are not stored
+		Assert.assertNull(actual.getPossibleActions());
+	}
+
+	private SparseFeatureAndStateDataset<LogicalExpression> point(String sentence, int gTruthIx,
+			IHashVector stateFeature, IHashVector... actionFeatures) {
+		return new SparseFeatureAndStateDataset<LogicalExpression>(stateFeature, Arrays.asList(actionFeatures),
+				gTruthIx, sentence, Collections.emptyList());
+	}
+
+	/** creates a vector from alternating keys and values, values must be exact as floats */
+	private IHashVector vector(Object... entries) {
+		final IHashVector vector = HashVectorFactory.create();
+		for(int i = 0; i < entries.length; i += 2) {
+			vector.set((KeyArgs) entries[i], (Double) entries[i + 1]);
+		}
+		return vector;
+	}
+}
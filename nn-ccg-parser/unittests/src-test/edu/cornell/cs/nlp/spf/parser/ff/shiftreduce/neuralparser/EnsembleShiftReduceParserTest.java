@@ -0,0 +1,141 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.ccg.categories.Category;
+import edu.cornell.cs.nlp.spf.ccg.categories.syntax.Syntax;
+import edu.cornell.cs.nlp.spf.ccg.lexicon.ILexiconImmutable;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.parser.ParsingOp;
+import edu.cornell.cs.nlp.spf.parser.ccg.model.IDataItemModel;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.neuralnetworkparser.AbstractNeuralShiftReduceParser;
+import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.ShiftReduceDerivation;
+import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.ShiftReduceParserOutput;
+import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.stacks.DerivationState;
+import edu.cornell.cs.nlp.spf.parser.graph.IGraphParserOutput;
+
+public class EnsembleShiftReduceParserTest {
+
+	private final LogicalExpression texas;
+	private final LogicalExpression state;
+
+	public EnsembleShiftReduceParserTest() {
+		TestServices.init();
+		this.texas = LogicalExpression.read("texas:s");
+		this.state = LogicalExpression.read("(lambda $0:s (state:<s,t> $0))");
+	}
+
+	@Test
+	public void testParallelMatchesSequential() {
+
+		// the first parser is the slowest, so parsers finish in a different order when decoding concurrently
+		final List<String> sequential = this.decode(this.ensemble(1, 0, new AtomicInteger()));
+		final List<String> parallel = this.decode(this.ensemble(3, 0, new AtomicInteger()));
+
+		Assert.assertEquals(3, sequential.size());
+		Assert.assertEquals(sequential, parallel);
+	}
+
+	@Test
+	public void testEarlyExit() {
+
+		// the two fast parsers agree on texas, the slow one is interrupted and its output is not used
+		final AtomicInteger finished = new AtomicInteger();
+		final List<String> parallel = this.decode(this.ensemble(3, 2, finished));
+
+		Assert.assertEquals(2, parallel.size());
+		for(String derivation: parallel) {
+			Assert.assertTrue(derivation, derivation.startsWith("texas:s"));
+		}
+		Assert.assertEquals(2, finished.get());
+	}
+
+	/** semantics and score of every derivation of the output, in order */
+	private List<String> decode(EnsembleShiftReduceParser<Sentence, LogicalExpression> ensemble) {
+
+		final IGraphParserOutput<LogicalExpression> output = ensemble.parse(new Sentence("show me texas"), null);
+		final List<String> derivations = new ArrayList<String>();
+		for(ShiftReduceDerivation<LogicalExpression> derivation:
+							((ShiftReduceParserOutput<LogicalExpression>) output).getAllDerivations()) {
+			derivations.add(derivation.getSemantics() + " " + derivation.getScore());
+		}
+		return derivations;
+	}
+
+	private EnsembleShiftReduceParser<Sentence, LogicalExpression> ensemble(int numThreads, int earlyExit,
+																			AtomicInteger finished) {
+		return new EnsembleShiftReduceParser.Builder<Sentence, LogicalExpression>()
+				.addParser(new FixedParser(this.state, -2.0, 500, finished)).addProbability(0.5)
+				.addParser(new FixedParser(this.texas, -1.0, 50, finished)).addProbability(0.25)
+				.addParser(new FixedParser(this.texas, -3.0, 0, finished)).addProbability(0.25)
+				.setNumThreads(numThreads)
+				.setEarlyExitAgreement(earlyExit)
+				.build();
+	}
+
+	/** returns a single stitched derivation after waiting for the given time */
+	private static class FixedParser implements AbstractNeuralShiftReduceParser<Sentence, LogicalExpression> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final LogicalExpression semantics;
+		private final double score;
+		private final long delay;
+		private final AtomicInteger finished;
+
+		FixedParser(LogicalExpression semantics, double score, long delay, AtomicInteger finished) {
+			this.semantics = semantics;
+			this.score = score;
+			this.delay = delay;
+			this.finished = finished;
+		}
+
+		@Override
+		public IGraphParserOutput<LogicalExpression> parse(Sentence dataItem,
+				Predicate<ParsingOp<LogicalExpression>> pruningFilter, IDataItemModel<LogicalExpression> model,
+				boolean allowWordSkipping, ILexiconImmutable<LogicalExpression> tempLexicon, Integer beamSize) {
+
+			try {
+				Thread.sleep(this.delay);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+
+			// the ensemble adds the mixing probability to the score, so every call creates a new state
+			final DerivationState<LogicalExpression> dstate = new DerivationState<LogicalExpression>();
+			dstate.score = this.score;
+			this.finished.incrementAndGet();
+
+			return new ShiftReduceParserOutput<LogicalExpression>(new ShiftReduceDerivation<LogicalExpression>(
+					dstate, Category.create(Syntax.NP, this.semantics)), this.delay);
+		}
+
+		@Override
+		public void setDatasetCreatorFilter(Predicate<ParsingOp<LogicalExpression>> datasetCreatorFilter) {
+		}
+
+		@Override
+		public IGraphParserOutput<LogicalExpression> parserCatchEarlyErrors(Sentence dataItem,
+				Predicate<ParsingOp<LogicalExpression>> validAmrParsingFilter, IDataItemModel<LogicalExpression> model_,
+				boolean allowWordSkipping, ILexiconImmutable<LogicalExpression> tempLexicon, Integer beamSize_) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void enablePacking() {
+		}
+
+		@Override
+		public void disablePacking() {
+		}
+	}
+}
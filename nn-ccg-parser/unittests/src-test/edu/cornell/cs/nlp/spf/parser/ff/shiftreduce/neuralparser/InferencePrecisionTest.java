@@ -0,0 +1,141 @@
+package edu.cornell.cs.nlp.spf.parser.ff.shiftreduce.neuralparser;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import edu.cornell.cs.nlp.spf.TestServices;
+import edu.cornell.cs.nlp.spf.base.hashvector.HashVectorFactory;
+import edu.cornell.cs.nlp.spf.data.sentence.Sentence;
+import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentence;
+import edu.cornell.cs.nlp.spf.data.singlesentence.SingleSentenceCollection;
+import edu.cornell.cs.nlp.spf.mr.lambda.LogicalExpression;
+import edu.cornell.cs.nlp.spf.parser.ISentenceLexiconGenerator;
+import edu.cornell.cs.nlp.spf.parser.ccg.rnn.shiftreduce.learning.Precision;
+import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.ShiftReduceBinaryParsingRule;
+import edu.cornell.cs.nlp.spf.parser.ccg.shiftreduce.ShiftReduceUnaryParsingRule;
+
+public class InferencePrecisionTest {
+
+	/** tolerance of float scores, relative to the magnitude of the double score */
+	private static final double TOLERANCE = 1e-4;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	public InferencePrecisionTest() {
+		TestServices.init();
+	}
+
+	private Precision precision;
+
+	@Before
+	public void setUp() {
+		this.precision = Precision.current();
+	}
+
+	@After
+	public void tearDown() {
+		// the precision is global, restore it for other tests
+		this.precision.use();
+	}
+
+	@Test
+	public void testMLP() {
+
+		Precision.DOUBLE.use();
+		final NeuralParsingDotProductStepScorer mlp = new NeuralParsingDotProductStepScorer(20, 10, 0.01, 0.0, 1234);
+		final INDArray input = Nd4j.rand(new int[]{3, 20}, 1234);
+		final INDArray expected = mlp.getEmbedding(input);
+
+		Precision.FLOAT.use();
+		mlp.convertParameters();
+		final INDArray actual = mlp.getEmbeddingParallel(Precision.convert(input));
+
+		Assert.assertEquals(DataBuffer.Type.FLOAT, actual.data().dataType());
+		this.assertClose(expected, actual);
+	}
+
+	@Test
+	public void testParser() {
+
+		Precision.DOUBLE.use();
+		final NeuralDotProductShiftReduceParser<Sentence, LogicalExpression> parser = this.parser();
+		final LogicalExpression texas = LogicalExpression.read("texas:s");
+		parser.getSemanticFeatureEmbedding().getSemanticEmbeddingObject().induceCategoricalVectors(
+				new SingleSentenceCollection(Collections.singletonList(new SingleSentence(new Sentence("texas"), texas))));
+		final int nInAction = parser.getAffineW().columns();
+		final INDArray actions = Nd4j.rand(new int[]{5, nInAction}, 1234);
+		final INDArray expected = this.score(parser, texas, actions);
+
+		parser.applyInferencePrecision();
+		Assert.assertEquals(Precision.FLOAT, Precision.current());
+		Assert.assertEquals(DataBuffer.Type.FLOAT, parser.getAffineW().data().dataType());
+
+		final INDArray actual = this.score(parser, texas, Precision.convert(actions));
+		Assert.assertEquals(DataBuffer.Type.FLOAT, actual.data().dataType());
+		this.assertClose(expected, actual);
+	}
+
+	@Test
+	public void testDoubleIsNoop() {
+
+		Precision.DOUBLE.use();
+		final NeuralDotProductShiftReduceParser<Sentence, LogicalExpression> parser = this.parser(Precision.DOUBLE);
+		final INDArray W = parser.getAffineW();
+
+		parser.applyInferencePrecision();
+		Assert.assertEquals(Precision.DOUBLE, Precision.current());
+		Assert.assertSame(W, parser.getAffineW());
+	}
+
+	private void assertClose(INDArray expected, INDArray actual) {
+
+		Assert.assertEquals(expected.rows(), actual.rows());
+		Assert.assertEquals(expected.columns(), actual.columns());
+		for(int i = 0; i < expected.rows(); i++) {
+			for(int j = 0; j < expected.columns(); j++) {
+				final double value = expected.getDouble(i, j);
+				Assert.assertEquals(value, actual.getDouble(i, j), TOLERANCE * Math.max(1.0, Math.abs(value)));
+			}
+		}
+	}
+
+	private NeuralDotProductShiftReduceParser<Sentence, LogicalExpression> parser() {
+		return this.parser(Precision.FLOAT);
+	}
+
+	@SuppressWarnings("unchecked")
+	private NeuralDotProductShiftReduceParser<Sentence, LogicalExpression> parser(Precision precision) {
+		return new NeuralDotProductShiftReduceParser<Sentence, LogicalExpression>(10,
+				new ShiftReduceBinaryParsingRule[0], null,
+				Collections.<ISentenceLexiconGenerator<Sentence, LogicalExpression>>emptyList(),
+				Collections.<ISentenceLexiconGenerator<Sentence, LogicalExpression>>emptyList(),
+				null, null, new ShiftReduceUnaryParsingRule[0], 0.01, 0.0, 0.0, 1.0, 1234,
+				this.folder.getRoot(), 0.0, false, precision);
+	}
+
+	/** scores the actions the same way the parser does: the state embedding is the embedding of the state
+	 * features, with all tags inactive, and the embedding of the last semantics. The score of an action is
+	 * Phi1(a) W MLP(Phi2(c)). */
+	private INDArray score(NeuralDotProductShiftReduceParser<Sentence, LogicalExpression> parser,
+						   LogicalExpression semantics, INDArray actions) {
+
+		final INDArray stateFeatures = parser.getStateFeatureEmbedding()
+								.embedFeatures(HashVectorFactory.create()).first();
+		final INDArray semanticEmbedding = parser.getSemanticFeatureEmbedding()
+								.getSemanticEmbedding(semantics, null, null).getEmbedding();
+		final INDArray state = Nd4j.concat(1, stateFeatures, semanticEmbedding);
+		final INDArray stateEmbedding = parser.getMLPScorer().getEmbeddingParallel(state).mmul(parser.getAffineW());
+
+		return actions.mmul(stateEmbedding.transpose());
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2011 - 2015 Yoav Artzi, All rights reserved.
+ * <p>
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *******************************************************************************/
+package edu.cornell.cs.nlp.spf.test.exec.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.cs.nlp.spf.test.exec.distributed.DistributedExecTester.ResultWrapper;
+import edu.cornell.cs.nlp.spf.test.exec.distributed.DistributedExecTester.TestJobResult;
+
+public class TestJobJournalTest {
+
+	private static final String		FINGERPRINT	= "model";
+
+	@Rule
+	public final TemporaryFolder	folder		= new TemporaryFolder();
+
+	private static TestJobResult<String> result(long processingTime) {
+		return new TestJobResult<String>(
+				Collections.<ResultWrapper<String>> emptyList(), false,
+				processingTime, 1.0);
+	}
+
+	@Test
+	public void testCorruptedRecord() throws IOException {
+		for (final int corruption : new int[] { -1, Integer.MAX_VALUE, 0 }) {
+			final File file = folder.newFile();
+			final long validLength = this.write(file, "a", "b");
+
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				if (corruption == 0) {
+					// Invalid UTF in the fingerprint of the last record.
+					raf.seek(validLength + 2);
+					raf.write(0xff);
+				} else {
+					// Invalid payload length of the last record.
+					raf.seek(validLength + 2 + FINGERPRINT.length() + 2
+							+ "b".length());
+					raf.writeInt(corruption);
+				}
+			}
+
+			try (TestJobJournal<String> journal = TestJobJournal.open(file,
+					FINGERPRINT)) {
+				Assert.assertEquals(1, journal.size());
+				Assert.assertTrue(journal.isCompleted("a"));
+			}
+			Assert.assertEquals(validLength, file.length());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File file = new File(folder.getRoot(), "journal.bin");
+		this.write(file, "a", "b");
+
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			Assert.assertEquals(2, journal.size());
+			Assert.assertEquals(0L, journal.get("a").getProcessingTime());
+			Assert.assertEquals(1L, journal.get("b").getProcessingTime());
+			Assert.assertNull(journal.get("c"));
+
+			// Appending to a re-opened journal.
+			journal.append("c", result(2));
+		}
+
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			Assert.assertEquals(3, journal.size());
+			Assert.assertEquals(2L, journal.get("c").getProcessingTime());
+		}
+
+		// Records of other models are ignored, but kept.
+		final long length = file.length();
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				"other")) {
+			Assert.assertEquals(0, journal.size());
+		}
+		Assert.assertEquals(length, file.length());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		final File file = folder.newFile();
+		final long validLength = this.write(file, "a", "b");
+
+		// Cut the last record in its payload.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			Assert.assertEquals(1, journal.size());
+			Assert.assertEquals(validLength, file.length());
+			journal.append("b", result(3));
+		}
+
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			Assert.assertEquals(2, journal.size());
+			Assert.assertEquals(3L, journal.get("b").getProcessingTime());
+		}
+
+		// Cut inside the header of the first record.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(3);
+		}
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			Assert.assertEquals(0, journal.size());
+		}
+		Assert.assertEquals(0, file.length());
+	}
+
+	/**
+	 * Writes a record for each ID, with the index as processing time. Returns
+	 * the length of the file before the last record.
+	 */
+	private long write(File file, String... ids) throws IOException {
+		long length = 0;
+		try (TestJobJournal<String> journal = TestJobJournal.open(file,
+				FINGERPRINT)) {
+			for (int i = 0; i < ids.length; ++i) {
+				length = file.length();
+				journal.append(ids[i], result(i));
+			}
+		}
+		return length;
+	}
+
+}